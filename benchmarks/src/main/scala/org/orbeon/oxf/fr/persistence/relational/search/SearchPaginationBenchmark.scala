@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr.persistence.relational.search
+
+import java.sql.{Connection, DriverManager, Timestamp}
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.fr.persistence.relational.Statement._
+import org.orbeon.oxf.fr.persistence.relational.Version.Specific
+import org.orbeon.oxf.fr.persistence.relational.search.adt._
+import org.orbeon.oxf.fr.persistence.relational.search.part.{commonPart, draftsPart}
+import org.orbeon.oxf.fr.persistence.relational.{Provider, Statement}
+import org.orbeon.oxf.util.IOUtils._
+
+// Compare reading a page of search results by numbering rows vs. with a keyset condition, and the cost of counting
+// results, which the count cache avoids for each page, on an embedded database in PostgreSQL mode
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+class SearchPaginationBenchmark {
+
+  @Param(Array("1000000", "3000000"))
+  var documents: Int = _
+
+  // Page read, with 1 being the first page
+  @Param(Array("1", "100", "10000"))
+  var pageNumber: Int = _
+
+  val PageSize = 10
+
+  var connection : Connection          = _
+  var request    : Request             = _
+  var innerParts : List[StatementPart] = _
+  var pageCursor : Option[PageCursor]  = _
+
+  object Search extends SearchLogic
+
+  @Setup
+  def setup(): Unit = {
+
+    connection = DriverManager.getConnection(s"jdbc:h2:mem:search-$documents;MODE=PostgreSQL;DB_CLOSE_DELAY=-1")
+
+    SearchPaginationBenchmark.createTables(connection, documents)
+
+    request = Request(
+      provider       = Provider.PostgreSQL,
+      app            = "acme",
+      form           = "order",
+      version        = Specific(1),
+      username       = None,
+      group          = None,
+      pageSize       = PageSize,
+      pageNumber     = pageNumber,
+      pageCursor     = None,
+      columns        = Nil,
+      drafts         = Drafts.ExcludeDrafts,
+      freeTextSearch = None
+    )
+
+    innerParts = List(commonPart(request, connection, 1), draftsPart(request))
+
+    // Cursor for the last document of the previous page
+    pageCursor =
+      if (pageNumber == 1)
+        None
+      else {
+        val sql =
+          s"""  SELECT last_modified_time, data_id
+             |    FROM orbeon_i_current
+             |ORDER BY last_modified_time DESC, data_id DESC
+             |   LIMIT 1 OFFSET ${(pageNumber - 1) * PageSize - 1}
+             |""".stripMargin
+        useAndClose(connection.prepareStatement(sql)) { ps ⇒
+          useAndClose(ps.executeQuery()) { rs ⇒
+            rs.next()
+            Some(PageCursor(rs.getTimestamp(1), rs.getInt(2)))
+          }
+        }
+      }
+
+    // Both ways of reading the page must return the same documents
+    assert(offsetPage().sorted == keysetPage().sorted, "pages read by numbering rows and with a keyset condition differ")
+  }
+
+  @TearDown
+  def tearDown(): Unit = {
+    useAndClose(connection.createStatement())(_.execute("DROP ALL OBJECTS"))
+    connection.close()
+  }
+
+  private def readPage(pageCursor: Option[PageCursor]): List[Int] = {
+    val (sql, parts) = Search.documentsQuery(Provider.PostgreSQL, connection, innerParts, PageSize, pageNumber, pageCursor)
+    Statement.executeQuery(connection, sql, parts) { rs ⇒
+      Iterator.continually(rs.next()).takeWhile(identity).map(_ ⇒ rs.getInt("data_id")).toList.distinct
+    }
+  }
+
+  @Benchmark def offsetPage(): List[Int] =
+    readPage(pageCursor = None)
+
+  @Benchmark def keysetPage(): List[Int] =
+    readPage(pageCursor = pageCursor)
+
+  @Benchmark def count(): Int =
+    Search.countDocuments(connection, innerParts)
+}
+
+object SearchPaginationBenchmark {
+
+  // Tables and indexes used by the search, as in `postgresql-2019_2.sql`, without foreign keys
+  private val DDL = List(
+    """CREATE TABLE orbeon_i_current (
+      |    data_id             INT          NOT NULL,
+      |    created             TIMESTAMP    NOT NULL,
+      |    last_modified_time  TIMESTAMP    NOT NULL,
+      |    last_modified_by    VARCHAR(255)         ,
+      |    username            VARCHAR(255)         ,
+      |    groupname           VARCHAR(255)         ,
+      |    organization_id     INT                  ,
+      |    app                 VARCHAR(255) NOT NULL,
+      |    form                VARCHAR(255) NOT NULL,
+      |    form_version        INT          NOT NULL,
+      |    document_id         VARCHAR(255) NOT NULL,
+      |    draft               CHARACTER(1) NOT NULL
+      |)""".stripMargin,
+    """CREATE TABLE orbeon_i_control_text (
+      |    data_id             INT          NOT NULL,
+      |    pos                 INT          NOT NULL,
+      |    control             VARCHAR(255) NOT NULL,
+      |    val                 TEXT         NOT NULL
+      |)""".stripMargin,
+    "CREATE UNIQUE INDEX orbeon_i_current_i1      ON orbeon_i_current      (data_id, draft)",
+    "CREATE        INDEX orbeon_i_current_i2      ON orbeon_i_current      (app, form, draft)",
+    "CREATE        INDEX orbeon_i_current_i3      ON orbeon_i_current      (app, form, form_version, last_modified_time, data_id)",
+    "CREATE        INDEX orbeon_i_control_text_i1 ON orbeon_i_control_text (data_id)"
+  )
+
+  private val BatchSize = 10000
+
+  // Documents with one indexed value each, several documents sharing the same last modified time
+  def createTables(connection: Connection, documents: Int): Unit = {
+
+    useAndClose(connection.createStatement()) { statement ⇒
+      DDL foreach (sql ⇒ statement.execute(sql))
+    }
+
+    val insertCurrent =
+      """INSERT INTO orbeon_i_current
+        |       (data_id, created, last_modified_time, last_modified_by, app, form, form_version, document_id, draft)
+        |VALUES (?, ?, ?, 'john', 'acme', 'order', 1, ?, 'N')
+      """.stripMargin
+
+    val insertControlText =
+      "INSERT INTO orbeon_i_control_text (data_id, pos, control, val) VALUES (?, 1, 'section-1/name', ?)"
+
+    val start = System.currentTimeMillis - documents * 1000L
+
+    useAndClose(connection.prepareStatement(insertCurrent)) { currentPs ⇒
+      useAndClose(connection.prepareStatement(insertControlText)) { controlTextPs ⇒
+        for (dataId ← 1 to documents) {
+
+          val time = new Timestamp(start + dataId / 3 * 3000L)
+
+          currentPs.setInt      (1, dataId)
+          currentPs.setTimestamp(2, time)
+          currentPs.setTimestamp(3, time)
+          currentPs.setString   (4, "document-" + dataId)
+          currentPs.addBatch()
+
+          controlTextPs.setInt   (1, dataId)
+          controlTextPs.setString(2, "name-" + dataId)
+          controlTextPs.addBatch()
+
+          if (dataId % BatchSize == 0 || dataId == documents) {
+            currentPs.executeBatch()
+            controlTextPs.executeBatch()
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.sql
+
+import java.sql.{Connection, DriverManager, PreparedStatement}
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.util.IOUtils._
+
+// Compare the ways the SQL processor executes updates for each iteration of `sql:for-each` or of the `select`
+// attribute of `sql:update`, on an embedded database:
+//
+// - `perRow`: a statement prepared, executed and closed for each row, which is what happens without `batch-size`
+// - `batched`: a statement reused for all the rows, with parameters sets added to batches of `batchSize` rows
+//
+// See `SQLFetchBenchmark` for reading rows.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+class SQLBatchBenchmark {
+
+  import SQLBatchBenchmark._
+
+  @Param(Array("10000"))
+  var rows: Int = _
+
+  @Param(Array("1", "100", "1000"))
+  var batchSize: Int = _
+
+  var connection: Connection = _
+
+  @Setup
+  def setup(): Unit = {
+    connection = DriverManager.getConnection("jdbc:h2:mem:sql-batch;DB_CLOSE_DELAY=-1")
+    useAndClose(connection.createStatement())(_.execute(CreateTable))
+  }
+
+  @Setup(Level.Invocation)
+  def clear(): Unit =
+    useAndClose(connection.createStatement())(_.execute("DELETE FROM orbeon_batch"))
+
+  @TearDown
+  def tearDown(): Unit = {
+    useAndClose(connection.createStatement())(_.execute("DROP ALL OBJECTS"))
+    connection.close()
+  }
+
+  @Benchmark def perRow(): Int = {
+    var updated = 0
+    for (id ← 1 to rows)
+      useAndClose(connection.prepareStatement(Insert)) { ps ⇒
+        setParameters(ps, id)
+        updated += ps.executeUpdate()
+      }
+    updated
+  }
+
+  @Benchmark def batched(): Int =
+    insertBatched(connection, rows, batchSize)
+}
+
+object SQLBatchBenchmark {
+
+  val CreateTable = "CREATE TABLE orbeon_batch (id INT NOT NULL, name VARCHAR(255) NOT NULL, amount DECIMAL(10, 2))"
+  val Insert      = "INSERT INTO orbeon_batch (id, name, amount) VALUES (?, ?, ?)"
+
+  def setParameters(ps: PreparedStatement, id: Int): Unit = {
+    ps.setInt       (1, id)
+    ps.setString    (2, "name-" + id)
+    ps.setBigDecimal(3, new java.math.BigDecimal(id % 1000))
+  }
+
+  def insertBatched(connection: Connection, rows: Int, batchSize: Int): Int =
+    useAndClose(connection.prepareStatement(Insert)) { ps ⇒
+      var updated = 0
+      for (id ← 1 to rows) {
+        setParameters(ps, id)
+        ps.addBatch()
+        if (id % batchSize == 0 || id == rows)
+          updated += ps.executeBatch().sum
+      }
+      updated
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.sql
+
+import java.sql.{Connection, DriverManager}
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.util.IOUtils._
+
+// Compare fetch sizes used by the SQL processor to read the rows of `sql:query` and `sql:call`, on an embedded database,
+// where 0 is the driver's default. The rows are inserted once, before running the benchmark.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+class SQLFetchBenchmark {
+
+  import SQLBatchBenchmark._
+
+  @Param(Array("10000"))
+  var rows: Int = _
+
+  @Param(Array("0", "1000"))
+  var fetchSize: Int = _
+
+  var connection: Connection = _
+
+  @Setup
+  def setup(): Unit = {
+    connection = DriverManager.getConnection("jdbc:h2:mem:sql-fetch;DB_CLOSE_DELAY=-1")
+    useAndClose(connection.createStatement())(_.execute(CreateTable))
+    insertBatched(connection, rows, 1000)
+  }
+
+  @TearDown
+  def tearDown(): Unit = {
+    useAndClose(connection.createStatement())(_.execute("DROP ALL OBJECTS"))
+    connection.close()
+  }
+
+  @Benchmark def read(): Int =
+    useAndClose(connection.prepareStatement("SELECT id, name, amount FROM orbeon_batch")) { ps ⇒
+      if (fetchSize != 0)
+        ps.setFetchSize(fetchSize)
+      useAndClose(ps.executeQuery()) { rs ⇒
+        var count = 0
+        while (rs.next()) {
+          rs.getString(2)
+          count += 1
+        }
+        count
+      }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Paths}
+import java.util.Arrays
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.oxf.xforms.state.InstanceStateBenchmark
+import org.orbeon.oxf.xml.TransformerUtils
+
+// Compare the speed of the registered codecs, on Form Runner-like instances or on given files, for example serialized
+// state. The compressed sizes are reported by the `compressedBytes` counter. Run on files with e.g.:
+//
+//     benchmarks/jmh:run -i 10 -wi 5 -f 1 -p input=dynamic-state-1.bin,dynamic-state-2.bin .*Compression.*
+//
+// Example of results with gzip for XML inputs, before other codecs were added:
+//
+// Input     | Output  | ms per compression
+// ----------+---------+-------------------
+// 1,485,020 | 130,366 |                 15
+//   955,373 | 117,509 |                 12
+//   511,776 |  49,751 |                  6
+//   178,796 |  17,321 |                  2
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+class CompressionBenchmark {
+
+  @Param(Array("gzip", "lz", "dictionary"))
+  var codecName: String = _
+
+  // Number of repeated sections of a Form Runner-like instance, or path of a file
+  @Param(Array("10", "100", "1000"))
+  var input: String = _
+
+  var codec      : CompressionCodec = _
+  var bytes      : Array[Byte]      = _
+  var compressed : Array[Byte]      = _
+
+  @Setup
+  def setup(): Unit = {
+
+    codec =
+      Compressor.findCodec(codecName) getOrElse (throw new IllegalArgumentException(s"unknown codec `$codecName`"))
+
+    bytes =
+      if (input forall Character.isDigit)
+        TransformerUtils.dom4jToString(InstanceStateBenchmark.formRunnerLikeInstance(input.toInt), false)
+          .getBytes(StandardCharsets.UTF_8)
+      else
+        Files.readAllBytes(Paths.get(input))
+
+    compressed = Compressor.compressBytes(bytes, codec)
+
+    if (! Arrays.equals(Compressor.uncompressBytes(compressed), bytes))
+      throw new IllegalStateException(s"codec `$codecName` doesn't return the original bytes")
+  }
+
+  @Benchmark def compress(sizes: CompressionSizes): Array[Byte] = {
+    val result = Compressor.compressBytes(bytes, codec)
+    sizes.compressedBytes = result.length
+    result
+  }
+
+  @Benchmark def uncompress(): Array[Byte] =
+    Compressor.uncompressBytes(compressed)
+}
+
+// Secondary result with the size of the last compressed output, reported alongside the timings
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+class CompressionSizes {
+
+  var compressedBytes: Long = _
+
+  @Setup(Level.Iteration)
+  def reset(): Unit =
+    compressedBytes = 0
+}
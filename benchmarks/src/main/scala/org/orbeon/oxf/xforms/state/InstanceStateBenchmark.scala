@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.util.concurrent.TimeUnit
+
+import org.openjdk.jmh.annotations._
+import org.orbeon.dom
+import org.orbeon.dom.Document
+import org.orbeon.oxf.xforms.state.XFormsProtocols._
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.oxf.xml.{BinaryXML, TransformerUtils}
+import sbinary.Operations._
+
+// Compare storing instances in the dynamic state as XML text vs. as binary XML
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+class InstanceStateBenchmark {
+
+  // Number of repeated sections, each with a few grids of controls
+  @Param(Array("10", "100", "1000"))
+  var sections: Int = _
+
+  var document    : Document    = _
+  var xmlText     : String      = _
+  var binaryXML   : Array[Byte] = _
+  var xmlState    : Array[Byte] = _
+  var binaryState : Array[Byte] = _
+
+  @Setup
+  def setup(): Unit = {
+    document    = InstanceStateBenchmark.formRunnerLikeInstance(sections)
+    xmlText     = TransformerUtils.dom4jToString(document, false)
+    binaryXML   = BinaryXML.encode(TransformerUtils.writeDom4j(document, _))
+    xmlState    = toByteArray[InstanceContent](XMLInstanceContent(xmlText))
+    binaryState = toByteArray[InstanceContent](BinaryInstanceContent(binaryXML))
+
+    println(s"\nsections: $sections, XML text state: ${xmlState.length} bytes, binary state: ${binaryState.length} bytes")
+  }
+
+  @Benchmark def writeXMLText(): Array[Byte] =
+    toByteArray[InstanceContent](XMLInstanceContent(TransformerUtils.dom4jToString(document, false)))
+
+  @Benchmark def writeBinary(): Array[Byte] =
+    toByteArray[InstanceContent](BinaryInstanceContent(BinaryXML.encode(TransformerUtils.writeDom4j(document, _))))
+
+  @Benchmark def readXMLText(): Document =
+    fromByteArray[InstanceContent](xmlState) match {
+      case XMLInstanceContent(xml) ⇒ Dom4jUtils.readDom4j(xml)
+      case _                       ⇒ throw new IllegalStateException
+    }
+
+  @Benchmark def readBinary(): Document =
+    fromByteArray[InstanceContent](binaryState) match {
+      case BinaryInstanceContent(bytes) ⇒ BinaryXML.decodeToDom4j(bytes)
+      case _                            ⇒ throw new IllegalStateException
+    }
+}
+
+object InstanceStateBenchmark {
+
+  // Shape similar to a Form Runner data instance: sections containing grids containing controls, with some repeats
+  def formRunnerLikeInstance(sections: Int): Document = {
+
+    val document = dom.Document()
+    val form     = document.addElement("form")
+
+    for (s ← 1 to sections) {
+      val section = form.addElement(s"section-$s")
+      for (g ← 1 to 3) {
+        val grid = section.addElement(s"grid-$s-$g")
+        for (c ← 1 to 10)
+          grid.addElement(s"control-$c").addText(s"Value for control $c in section $s, grid $g")
+      }
+      val repeat = section.addElement(s"repeat-$s")
+      for (i ← 1 to 5) {
+        val iteration = repeat.addElement(s"repeat-$s-iteration")
+        iteration.addElement("first-name").addText("Wile E.")
+        iteration.addElement("last-name").addText("Coyote")
+        iteration.addElement("amount").addText((i * 1000).toString)
+      }
+    }
+
+    document
+  }
+}
@@ -44,7 +44,7 @@ private[persistence] object Connect {
             val statement = connection.createStatement
             // Create tables
             val sql = provider match {
-              case MySQL      ⇒ "mysql-2019_1.sql"
+              case MySQL      ⇒ "mysql-2019_2.sql"
               case PostgreSQL ⇒ "postgresql-2017_2.sql"
             }
             val createDDL = SQL.read(sql)
@@ -96,6 +96,18 @@ private[persistence] object Connect {
     }
   }
 
+  // Open another connection to the database created by `withNewDatabase`, which the caller must close
+  def openConnection(provider: Provider): Connection = {
+    val datasourceDescriptor = DatasourceDescriptor(provider)
+    val connection = DriverManager.getConnection(
+      datasourceDescriptor.url,
+      datasourceDescriptor.username,
+      datasourceDescriptor.password
+    )
+    runStatements(connection, List(datasourceDescriptor.switchDB))
+    connection
+  }
+
   // TODO: No callers?
   def rmContainer(image: String): Unit = {
     val db2ContainerId = s"docker ps -q --filter ancestor=$image".!!
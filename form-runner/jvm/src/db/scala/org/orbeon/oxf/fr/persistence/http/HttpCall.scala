@@ -125,7 +125,8 @@ private[persistence] object HttpCall {
     stage           : Option[Stage],
     body            : Option[Body],
     credentials     : Option[Credentials],
-    timeout         : Option[Int] = None)(
+    timeout         : Option[Int]               = None,
+    range           : Option[String]            = None)(
     implicit logger : IndentedLogger
   ): ClosableHttpResponse = {
 
@@ -143,7 +144,8 @@ private[persistence] object HttpCall {
         case ForDocument(documentId) ⇒ Some(OrbeonForDocumentId         → List(documentId))
       }
       val stageHeader   = stage.map(_.name).map(StageHeader.HeaderName → List(_))
-      val headers = (timeoutHeader.toList ++ versionHeader.toList ++ stageHeader.toList).toMap
+      val rangeHeader   = range.map(Headers.Range → List(_))
+      val headers = (timeoutHeader.toList ++ versionHeader.toList ++ stageHeader.toList ++ rangeHeader.toList).toMap
 
       Connection.buildConnectionHeadersCapitalizedIfNeeded(
         scheme           = UriScheme.Http,
@@ -200,23 +202,29 @@ private[persistence] object HttpCall {
   def del(url: String, version: Version, credentials: Option[Credentials] = None)(implicit logger: IndentedLogger): Int =
     useAndClose(request(url, DELETE, version, None, None, credentials))(_.httpResponse.statusCode)
 
-  def get(url: String, version: Version, credentials: Option[Credentials] = None)(implicit logger: IndentedLogger): (Int, Map[String, Seq[String]], Try[Array[Byte]]) =
-    useAndClose(request(url, GET, version, None, None, credentials)) { chr ⇒
+  def get(url: String, version: Version, credentials: Option[Credentials] = None, range: Option[String] = None)(implicit logger: IndentedLogger): (Int, Map[String, Seq[String]], Try[Array[Byte]]) =
+    useAndClose(request(url, GET, version, None, None, credentials, range = range)) { chr ⇒
 
       val httpResponse = chr.httpResponse
       val statusCode   = httpResponse.statusCode
       val headers      = httpResponse.headers
 
-      val body =
-        useAndClose(httpResponse.content.inputStream) { inputStream ⇒
-          Try {
-            val outputStream = new ByteArrayOutputStream
-            NetUtils.copyStream(inputStream, outputStream)
-            outputStream.toByteArray
-          }
-        }
+      (statusCode, headers, readBody(httpResponse))
+    }
+
+  // For responses which can't be compared to an expected body, like search results with modification times
+  def postAndReadBody(url: String, version: Version, body: Body, credentials: Option[Credentials] = None)(implicit logger: IndentedLogger): (Int, Try[Array[Byte]]) =
+    useAndClose(request(url, POST, version, None, Some(body), credentials)) { chr ⇒
+      (chr.httpResponse.statusCode, readBody(chr.httpResponse))
+    }
 
-      (statusCode, headers, body)
+  private def readBody(httpResponse: HttpResponse): Try[Array[Byte]] =
+    useAndClose(httpResponse.content.inputStream) { inputStream ⇒
+      Try {
+        val outputStream = new ByteArrayOutputStream
+        NetUtils.copyStream(inputStream, outputStream)
+        outputStream.toByteArray
+      }
     }
 
   def lock(url: String, lockInfo: LockInfo, timeout: Int)(implicit logger: IndentedLogger): Int =
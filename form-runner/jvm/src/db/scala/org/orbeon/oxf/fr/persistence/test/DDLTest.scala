@@ -92,12 +92,14 @@ class DDLTest extends ResourceManagerTestBase with AssertionsForJUnit with Loggi
         assertSameTable(provider, "4_5"    , "4_6")
         assertSameTable(provider, "4_6"    , "2016_2")
         assertSameTable(provider, "2016_2" , "2016_3")
+        assertSameTable(provider, "2019_1" , "2019_2")
       case provider @ PostgreSQL ⇒
         assertSameTable(provider, "4_8"    , "2016_2")
         assertSameTable(provider, "2016_2" , "2016_3")
         assertSameTable(provider, "2016_3" , "2017_2")
         assertSameTable(provider, "2017_2" , "2018_2")
         assertSameTable(provider, "2018_2" , "2019_1")
+        assertSameTable(provider, "2018_2" , "2019_2")
     }
   }
 }
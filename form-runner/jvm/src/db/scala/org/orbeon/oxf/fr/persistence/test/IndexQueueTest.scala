@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr.persistence.test
+
+import java.sql.{Connection, Timestamp}
+
+import org.junit.Test
+import org.orbeon.oxf.fr.persistence.db._
+import org.orbeon.oxf.fr.persistence.relational.index.Index.WhatToReindex
+import org.orbeon.oxf.fr.persistence.relational.index.Index.WhatToReindex._
+import org.orbeon.oxf.fr.persistence.relational.index.IndexQueue
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.CollectionUtils._
+import org.orbeon.oxf.util.IOUtils._
+import org.orbeon.oxf.util.{IndentedLogger, LoggerFactory}
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.mutable
+
+class IndexQueueTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  private implicit val Logger = new IndentedLogger(LoggerFactory.createLogger(classOf[IndexQueueTest]), true)
+
+  private case class QueueEntry(id: Int, formVersion: Int, documentIdOpt: Option[String], attempts: Int, claimedByOpt: Option[String])
+
+  private def withQueue(message: String)(block: Connection ⇒ Unit): Unit =
+    Connect.withOrbeonTables(message) { (connection, _) ⇒
+      connection.setAutoCommit(false)
+      block(connection)
+    }
+
+  private def enqueue(connection: Connection, formVersion: Int, documentIdOpt: Option[String]): Unit = {
+    IndexQueue.enqueue(connection, "acme", "order", formVersion, documentIdOpt)
+    connection.commit()
+  }
+
+  private def queueEntries(connection: Connection): List[QueueEntry] =
+    useAndClose(connection.createStatement.executeQuery("SELECT * FROM orbeon_i_queue ORDER BY id")) { rs ⇒
+      Iterator.iterateWhile(
+        rs.next(),
+        QueueEntry(
+          rs.getInt("id"),
+          rs.getInt("form_version"),
+          Option(rs.getString("document_id")),
+          rs.getInt("attempts"),
+          Option(rs.getString("claimed_by"))
+        )
+      ).toList
+    }
+
+  // Claim the entries for a document as another worker would have, `age` ms ago
+  private def claimByOtherWorker(connection: Connection, documentId: String, age: Long): Unit =
+    useAndClose(connection.prepareStatement("UPDATE orbeon_i_queue SET claimed_by = 'other', claimed_time = ? WHERE document_id = ?")) { ps ⇒
+      ps.setTimestamp(1, new Timestamp(System.currentTimeMillis - age))
+      ps.setString   (2, documentId)
+      ps.executeUpdate()
+    }
+
+  // Process the queue, recording what is reindexed
+  private def processQueue(connection: Connection)(reindex: WhatToReindex ⇒ Unit = _ ⇒ ()): List[WhatToReindex] = {
+    val reindexed = mutable.ListBuffer[WhatToReindex]()
+    IndexQueue.processQueue(
+      Connect.ProvidersTestedAutomatically.head,
+      connection,
+      (whatToReindex, _) ⇒ {
+        reindex(whatToReindex)
+        reindexed += whatToReindex
+      }
+    )
+    reindexed.toList
+  }
+
+  @Test def coalesceEntries(): Unit =
+    withQueue("coalescing entries") { connection ⇒
+
+      enqueue(connection, 1, Some("doc-1"))
+      enqueue(connection, 1, Some("doc-2"))
+      enqueue(connection, 1, Some("doc-1"))
+      enqueue(connection, 2, Some("doc-3"))
+      enqueue(connection, 2, None)
+      enqueue(connection, 2, Some("doc-4"))
+      enqueue(connection, 1, Some("doc-2"))
+
+      // Each document is reindexed once, in the order of its first entry, and the documents of a form version which is
+      // reindexed aren't reindexed on their own
+      assert(
+        processQueue(connection)() === List(
+          DataForDocumentId("doc-1"),
+          DataForDocumentId("doc-2"),
+          DataForForm("acme", "order", 2)
+        )
+      )
+      assert(queueEntries(connection).isEmpty)
+    }
+
+  @Test def claimEntries(): Unit =
+    withQueue("claiming entries") { connection ⇒
+
+      enqueue(connection, 1, Some("doc-1"))
+      enqueue(connection, 1, Some("doc-2"))
+      enqueue(connection, 1, Some("doc-3"))
+
+      // Entries stay in the queue while reindexing, so they are not lost if the server stops, and entries claimed by
+      // another worker meanwhile are skipped
+      val reindexed =
+        processQueue(connection) {
+          case DataForDocumentId("doc-1") ⇒
+            val entries = queueEntries(connection)
+            assert(entries.flatMap(_.documentIdOpt) === List("doc-1", "doc-2", "doc-3"))
+            assert(entries.head.claimedByOpt.isDefined)
+            claimByOtherWorker(connection, "doc-2", 0)
+          case _ ⇒
+        }
+
+      assert(reindexed === List(DataForDocumentId("doc-1"), DataForDocumentId("doc-3")))
+      assert(queueEntries(connection).map(e ⇒ e.documentIdOpt → e.claimedByOpt) === List(Some("doc-2") → Some("other")))
+    }
+
+  @Test def reclaimStaleClaims(): Unit =
+    withQueue("reclaiming stale claims") { connection ⇒
+
+      enqueue(connection, 1, Some("doc-1"))
+      enqueue(connection, 1, Some("doc-2"))
+
+      // A claim older than the claim timeout was left by a server which stopped while reindexing
+      claimByOtherWorker(connection, "doc-1", 3600 * 1000)
+      claimByOtherWorker(connection, "doc-2", 0)
+      connection.commit()
+
+      assert(processQueue(connection)() === List(DataForDocumentId("doc-1")))
+      assert(queueEntries(connection).flatMap(_.documentIdOpt) === List("doc-2"))
+    }
+
+  @Test def enqueueAgainOnFailure(): Unit =
+    withQueue("enqueuing again on failure") { connection ⇒
+
+      enqueue(connection, 1, Some("doc-1"))
+      enqueue(connection, 1, Some("doc-2"))
+      enqueue(connection, 1, Some("doc-2"))
+      enqueue(connection, 1, Some("doc-3"))
+
+      val idsBefore = queueEntries(connection).map(_.id)
+
+      // Processing stops at the failure, and the failed entry is added back once at the end of the queue
+      intercept[IllegalStateException] {
+        processQueue(connection) {
+          case DataForDocumentId("doc-2") ⇒ throw new IllegalStateException
+          case _                          ⇒
+        }
+      }
+
+      val entriesAfter = queueEntries(connection)
+      assert(entriesAfter.flatMap(_.documentIdOpt) === List("doc-3", "doc-2"))
+      assert(entriesAfter.last.id > idsBefore.max)
+
+      // The failed entry is added back unclaimed, and with its number of attempts
+      assert(entriesAfter.map(e ⇒ e.attempts → e.claimedByOpt) === List(0 → None, 1 → None))
+
+      // The next time the queue is processed, the remaining entries are reindexed in order
+      assert(processQueue(connection)() === List(DataForDocumentId("doc-3"), DataForDocumentId("doc-2")))
+      assert(queueEntries(connection).isEmpty)
+    }
+
+  @Test def dropAfterMaxAttempts(): Unit =
+    withQueue("dropping entries failing repeatedly") { connection ⇒
+
+      enqueue(connection, 1, Some("doc-1"))
+
+      // The entry is dropped after failing `index.queue.max-attempts` times (5 by default)
+      for (attempt ← 1 to 5) {
+        intercept[IllegalStateException] {
+          processQueue(connection)(_ ⇒ throw new IllegalStateException)
+        }
+        assert(queueEntries(connection).map(_.attempts) === (if (attempt < 5) List(attempt) else Nil))
+      }
+    }
+}
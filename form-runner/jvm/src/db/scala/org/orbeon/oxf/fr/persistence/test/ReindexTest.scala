@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr.persistence.test
+
+import java.sql.{Connection, Timestamp}
+
+import org.junit.Test
+import org.orbeon.oxf.fr.persistence.db._
+import org.orbeon.oxf.fr.persistence.relational.Provider
+import org.orbeon.oxf.fr.persistence.relational.index.Index
+import org.orbeon.oxf.fr.persistence.relational.index.Index.IndexedControl
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.CollectionUtils._
+import org.orbeon.oxf.util.IOUtils._
+import org.orbeon.oxf.util.{IndentedLogger, LoggerFactory}
+import org.scalatest.junit.AssertionsForJUnit
+
+class ReindexTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  private implicit val Logger = new IndentedLogger(LoggerFactory.createLogger(classOf[ReindexTest]), true)
+
+  private val Forms         = List("order", "invoice", "contact", "survey")
+  private val DocumentCount = 7
+
+  private def indexedControl(xpath: String) =
+    IndexedControl(
+      name      = xpath.split('/').last,
+      inSearch  = true,
+      inSummary = true,
+      xpath     = xpath,
+      xsType    = "xs:string",
+      control   = "input",
+      htmlLabel = false,
+      resources = Nil
+    )
+
+  private val IndexedControls = List(indexedControl("section/name"), indexedControl("section/tags/tag"))
+
+  // Documents of several forms, with older versions, drafts, and deleted documents, which are not indexed
+  private def insertData(connection: Connection): Unit = {
+
+    val insertSql =
+      """INSERT INTO orbeon_form_data
+        |           (created, last_modified_time, last_modified_by, username, groupname,
+        |            app, form, form_version, document_id, draft, deleted, xml)
+        |    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+      """.stripMargin
+
+    useAndClose(connection.prepareStatement(insertSql)) { ps ⇒
+
+      def insert(form: String, documentId: String, time: Long, draft: Boolean, deleted: Boolean, name: String): Unit = {
+        val xml =
+          <form>
+            <section>
+              <name>{name}</name>
+              <tags>{(1 to (name.length % 3)) map (i ⇒ <tag>{s"$name-$i"}</tag>)}</tags>
+            </section>
+          </form>
+        val position = Iterator.from(1)
+        ps.setTimestamp(position.next(), new Timestamp(0L))
+        ps.setTimestamp(position.next(), new Timestamp(time))
+        ps.setString   (position.next(), "alice")
+        ps.setString   (position.next(), "alice")
+        ps.setString   (position.next(), "admins")
+        ps.setString   (position.next(), "acme")
+        ps.setString   (position.next(), form)
+        ps.setInt      (position.next(), 1)
+        ps.setString   (position.next(), documentId)
+        ps.setString   (position.next(), if (draft) "Y" else "N")
+        ps.setString   (position.next(), if (deleted) "Y" else "N")
+        ps.setString   (position.next(), xml.toString)
+        ps.executeUpdate()
+      }
+
+      for {
+        form  ← Forms
+        index ← 1 to DocumentCount
+      } locally {
+        val documentId = s"$form-$index"
+        insert(form, documentId, 1000L, draft = false, deleted = false, s"old $documentId")
+        insert(form, documentId, 2000L, draft = false, deleted = index == 3, s"$form document $index")
+        if (index % 2 == 0)
+          insert(form, documentId, 3000L, draft = true, deleted = false, s"draft $index")
+      }
+    }
+    connection.commit()
+  }
+
+  private def rows(connection: Connection, sql: String): List[List[String]] =
+    useAndClose(connection.createStatement.executeQuery(sql)) { rs ⇒
+      val columnCount = rs.getMetaData.getColumnCount
+      Iterator.iterateWhile(
+        rs.next(),
+        (1 to columnCount).toList map (i ⇒ rs.getString(i))
+      ).toList
+    }
+
+  private def indexRows(connection: Connection): (List[List[String]], List[List[String]]) = (
+    rows(
+      connection,
+      """SELECT data_id, created, last_modified_time, last_modified_by, username, groupname, organization_id,
+        |       app, form, form_version, document_id, draft
+        |  FROM orbeon_i_current
+        | ORDER BY data_id, draft""".stripMargin
+    ),
+    rows(
+      connection,
+      "SELECT data_id, pos, control, val FROM orbeon_i_control_text ORDER BY data_id, control, pos"
+    )
+  )
+
+  private def reindex(provider: Provider, connection: Connection, newConnection: Option[() ⇒ Connection]): Unit = {
+    Index.reindex(provider, connection, Index.WhatToReindex.AllData, newConnection, (_, _) ⇒ IndexedControls)
+    connection.commit()
+  }
+
+  @Test def parallelReindexMatchesSequentialReindex(): Unit =
+    Connect.withOrbeonTables("reindexing in parallel") { (connection, provider) ⇒
+
+      connection.setAutoCommit(false)
+      insertData(connection)
+
+      // Without `newConnection`, all the documents are reindexed with the given connection
+      reindex(provider, connection, None)
+      val sequentialIndex = indexRows(connection)
+
+      // With `newConnection`, forms are distributed between workers, each with its own connection
+      def newConnection(): Connection = {
+        val workerConnection = Connect.openConnection(provider)
+        workerConnection.setAutoCommit(false)
+        workerConnection
+      }
+      reindex(provider, connection, Some(newConnection _))
+      val parallelIndex = indexRows(connection)
+
+      // The latest version of each document and of each draft is indexed, except for deleted documents
+      val (sequentialCurrent, sequentialValues) = sequentialIndex
+      assert(sequentialCurrent.size === Forms.size * (DocumentCount - 1 + DocumentCount / 2))
+      assert(sequentialValues.nonEmpty)
+
+      assert(parallelIndex === sequentialIndex)
+    }
+}
@@ -305,6 +305,48 @@ class RestApiTest extends ResourceManagerTestBase with AssertionsForJUnit with X
     }
   }
 
+  // Read ranges of an attachment larger than the 1 MB chunks it is read in with PostgreSQL
+  @Test def attachmentRangesTest(): Unit = {
+    Connect.withOrbeonTables("attachment ranges") { (connection, provider) ⇒
+      val size  = 3 * 1024 * 1024 + 17
+      val bytes = new Array[Byte](size) |!> Random.nextBytes
+      val url   = HttpCall.crudURLPrefix(provider) + "data/123/large-file"
+      HttpAssert.put(url, Specific(1), HttpCall.Binary(bytes), 201)
+
+      def getRange(range: Option[String]) = {
+        val (code, headers, body) = HttpCall.get(url, Unspecified, range = range)
+        (code, headers.get("content-range") flatMap (_.headOption), body)
+      }
+
+      // Range over several chunks, not aligned on chunk boundaries
+      val (start, end) = (1000000L, 2500000L)
+      assert(getRange(Some(s"bytes=$start-$end")) match {
+        case (206, Some(contentRange), body) ⇒
+          contentRange == s"bytes $start-$end/$size" && body.get.sameElements(bytes.slice(start.toInt, end.toInt + 1))
+        case _ ⇒ false
+      })
+
+      // Suffix range
+      assert(getRange(Some("bytes=-10")) match {
+        case (206, Some(contentRange), body) ⇒
+          contentRange == s"bytes ${size - 10}-${size - 1}/$size" && body.get.sameElements(bytes.takeRight(10))
+        case _ ⇒ false
+      })
+
+      // Range starting after the end of the attachment
+      assert(getRange(Some(s"bytes=$size-")) match {
+        case (416, Some(contentRange), _) ⇒ contentRange == s"bytes */$size"
+        case _                            ⇒ false
+      })
+
+      // Whole attachment
+      assert(getRange(None) match {
+        case (200, None, body) ⇒ body.get.sameElements(bytes)
+        case _                 ⇒ false
+      })
+    }
+  }
+
   // Try uploading files of 1 KB, 1 MB
   @Test def largeXMLDocumentsTest(): Unit = {
     Connect.withOrbeonTables("large XML documents") { (connection, provider) ⇒
@@ -13,16 +13,26 @@
  */
 package org.orbeon.oxf.fr.persistence.test
 
+import java.io.ByteArrayInputStream
+import java.sql.Timestamp
+
 import org.orbeon.oxf.fr.persistence.db.Connect
-import org.orbeon.oxf.fr.persistence.http.HttpCall
+import org.orbeon.oxf.fr.persistence.http.{HttpAssert, HttpCall}
 import org.orbeon.oxf.fr.persistence.http.HttpCall._
+import org.orbeon.oxf.fr.persistence.relational.Provider
 import org.orbeon.oxf.fr.persistence.relational.Version.{Specific, Unspecified}
+import org.orbeon.oxf.fr.persistence.relational.search.adt.PageCursor
 import org.orbeon.oxf.http.HttpMethod.{POST, PUT}
 import org.orbeon.oxf.test.{DocumentTestBase, ResourceManagerSupport, XFormsSupport, XMLSupport}
+import org.orbeon.oxf.util.IOUtils._
 import org.orbeon.oxf.util.{IndentedLogger, LoggerFactory}
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
 import org.scalatest.{BeforeAndAfterAll, FunSpecLike}
 import org.orbeon.oxf.xml.Dom4j.elemToDocument
 
+import scala.collection.JavaConverters._
+import scala.xml.Elem
+
 class SearchTest
     extends DocumentTestBase
      with XFormsSupport
@@ -31,6 +41,39 @@ class SearchTest
 
   private implicit val Logger = new IndentedLogger(LoggerFactory.createLogger(classOf[SearchTest]), true)
 
+  private def searchRequest(pageSize: Int, pageNumber: Int = 1, pageCursor: Option[String] = None): Elem =
+    <search>
+        <query/>
+        <drafts>include</drafts>
+        <page-size>{pageSize}</page-size>
+        <page-number>{pageNumber}</page-number>
+        {pageCursor.toList map (cursor ⇒ <page-cursor>{cursor}</page-cursor>)}
+        <lang>en</lang>
+    </search>
+
+  // Names of the documents of a page of results, with the total and the cursor for the next page
+  private def search(provider: Provider, request: Elem): (List[String], Int, Option[String]) = {
+
+    val (code, body) = HttpCall.postAndReadBody(HttpCall.searchURLPrefix(provider), Specific(1), HttpCall.XML(request))
+    assert(code === 200)
+
+    val documentsElem = Dom4jUtils.readDom4j(new ByteArrayInputStream(body.get)).getRootElement
+    (
+      documentsElem.elements("document").asScala.toList map (_.attributeValue("name")),
+      documentsElem.attributeValue("search-total").toInt,
+      documentsElem.attributeValueOpt("next-page-cursor")
+    )
+  }
+
+  // Documents named after their number, saved in that order
+  private def createDocuments(provider: Provider, numbers: Range): Unit = {
+    HttpAssert.put(HttpCall.crudURLPrefix(provider) + "form/form.xhtml", Unspecified, HttpCall.XML(<form/>), 201)
+    for (number ← numbers) {
+      val data = <form><my-field>{number}</my-field></form>
+      HttpAssert.put(HttpCall.crudURLPrefix(provider) + s"data/$number/data.xml", Specific(1), HttpCall.XML(data), 201)
+    }
+  }
+
   describe("Search API") {
 
     it("returns an empty result when there are no documents") {
@@ -74,5 +117,82 @@ class SearchTest
         }
       }
     }
+
+    it("reads pages with the page cursor, in order of last modified time, then of data id") {
+      withTestExternalContext { _ ⇒
+        Connect.withOrbeonTables("keyset paging") { (connection, provider) ⇒
+
+          createDocuments(provider, 1 to 5)
+
+          // With the same last modified time for all the documents, the order only depends on the data id
+          useAndClose(connection.createStatement)(
+            _.executeUpdate("UPDATE orbeon_i_current SET last_modified_time = TIMESTAMP '2019-01-01 00:00:00'")
+          )
+
+          val (page1, total1, cursor1) = search(provider, searchRequest(pageSize = 2))
+          assert(page1  === List("5", "4"))
+          assert(total1 === 5)
+          assert(cursor1.isDefined)
+
+          val (page2, _, cursor2) = search(provider, searchRequest(pageSize = 2, pageNumber = 2, pageCursor = cursor1))
+          assert(page2 === List("3", "2"))
+          assert(cursor2.isDefined)
+
+          // A page which isn't full is the last one
+          val (page3, _, cursor3) = search(provider, searchRequest(pageSize = 2, pageNumber = 3, pageCursor = cursor2))
+          assert(page3   === List("1"))
+          assert(cursor3 === None)
+
+          // Pages read by number are the same
+          assert(search(provider, searchRequest(pageSize = 2, pageNumber = 2))._1 === page2)
+          assert(search(provider, searchRequest(pageSize = 2, pageNumber = 3))._1 === page3)
+        }
+      }
+    }
+
+    it("encodes and decodes page cursors") {
+
+      val lastModifiedTime = new Timestamp(1546300800123L)
+      lastModifiedTime.setNanos(123456789)
+      val cursor = PageCursor(lastModifiedTime, 42)
+
+      assert(PageCursor.decode(cursor.encode) === Some(cursor))
+
+      for (invalid ← List("", "42", "1546300800123_123456789", "1546300800123_123456789_x", "1_2_3_4"))
+        assert(PageCursor.decode(invalid) === None)
+    }
+
+    it("rejects invalid page cursors") {
+      withTestExternalContext { _ ⇒
+        Connect.withOrbeonTables("invalid page cursor") { (_, provider) ⇒
+
+          val request = searchRequest(pageSize = 2, pageNumber = 2, pageCursor = Some("invalid"))
+          val (code, _) = HttpCall.postAndReadBody(HttpCall.searchURLPrefix(provider), Specific(1), HttpCall.XML(request))
+          assert(code === 400)
+        }
+      }
+    }
+
+    it("caches the search total until the index is updated") {
+      withTestExternalContext { _ ⇒
+        Connect.withOrbeonTables("search count cache") { (connection, provider) ⇒
+
+          createDocuments(provider, 1 to 5)
+          assert(search(provider, searchRequest(pageSize = 10))._2 === 5)
+
+          // Changes to the index made directly in the database aren't seen by the cached total
+          useAndClose(connection.createStatement)(
+            _.executeUpdate("DELETE FROM orbeon_i_current WHERE document_id = '1'")
+          )
+          val (documents, cachedTotal, _) = search(provider, searchRequest(pageSize = 10))
+          assert(documents.size === 4)
+          assert(cachedTotal    === 5)
+
+          // Updating the index invalidates the cached total
+          createDocuments(provider, 6 to 6)
+          assert(search(provider, searchRequest(pageSize = 10)) === (List("6", "5", "4", "3", "2"), 5, None))
+        }
+      }
+    }
   }
 }
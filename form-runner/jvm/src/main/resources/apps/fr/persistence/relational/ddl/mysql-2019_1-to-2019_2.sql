@@ -0,0 +1,15 @@
+CREATE TABLE orbeon_i_queue (
+    id                  INT                    PRIMARY KEY AUTO_INCREMENT                       NOT NULL,
+    queued_time         TIMESTAMP(6)                                                            NOT NULL,
+    app                 VARCHAR(255)           CHARACTER SET utf8mb4 COLLATE utf8mb4_bin        NOT NULL,
+    form                VARCHAR(255)           CHARACTER SET utf8mb4 COLLATE utf8mb4_bin        NOT NULL,
+    form_version        INT                                                                     NOT NULL,
+    document_id         VARCHAR(255)           CHARACTER SET utf8mb4 COLLATE utf8mb4_bin                ,
+    attempts            INT                                                                     NOT NULL,
+    claimed_by          VARCHAR(255)           CHARACTER SET utf8mb4 COLLATE utf8mb4_bin                ,
+    claimed_time        TIMESTAMP(6)                                                            NULL
+)   ENGINE = InnoDB;
+
+CREATE        INDEX orbeon_i_queue_i1             ON orbeon_i_queue                (app, form, form_version);
+CREATE        INDEX orbeon_i_queue_i2             ON orbeon_i_queue                (document_id);
+CREATE        INDEX orbeon_i_current_i3           ON orbeon_i_current              (app, form, form_version, last_modified_time, data_id);
@@ -0,0 +1,19 @@
+CREATE TABLE orbeon_i_queue (
+    id SERIAL           PRIMARY KEY NOT NULL,
+    queued_time         TIMESTAMP    NOT NULL,
+    app                 VARCHAR(255) NOT NULL,
+    form                VARCHAR(255) NOT NULL,
+    form_version        INT          NOT NULL,
+    document_id         VARCHAR(255),
+    attempts            INT          NOT NULL,
+    claimed_by          VARCHAR(255),
+    claimed_time        TIMESTAMP
+);
+
+CREATE        INDEX orbeon_i_queue_i1             ON orbeon_i_queue                (app, form, form_version);
+CREATE        INDEX orbeon_i_queue_i2             ON orbeon_i_queue                (document_id);
+CREATE        INDEX orbeon_i_current_i3           ON orbeon_i_current              (app, form, form_version, last_modified_time, data_id);
+
+-- Store attachments uncompressed, so that reading them in chunks doesn't require decompressing them each time
+ALTER TABLE orbeon_form_definition_attach ALTER COLUMN file_content SET STORAGE EXTERNAL;
+ALTER TABLE orbeon_form_data_attach       ALTER COLUMN file_content SET STORAGE EXTERNAL;
@@ -241,6 +241,9 @@ trait FormRunnerPersistence {
   def providerPropertyAsBoolean(provider: String, property: String, default: Boolean): Boolean =
     properties.getBoolean(PersistencePropertyPrefix :: provider :: property :: Nil mkString ".", default)
 
+  def providerPropertyAsInt(provider: String, property: String, default: Int): Int =
+    properties.getInteger(PersistencePropertyPrefix :: provider :: property :: Nil mkString ".", default)
+
   //@XPathFunction
   def isAutosaveSupported(app: String, form: String): Boolean =
     providerPropertyAsBoolean(findProvider(app, form, FormOrData.Data).get, "autosave", default = false)
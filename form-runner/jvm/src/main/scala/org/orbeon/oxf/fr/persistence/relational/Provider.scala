@@ -65,8 +65,8 @@ object Provider extends Enum[Provider] {
   def readXmlColumn(provider: Provider, resultSet: ResultSet): DocumentInfo = {
     provider match {
       case PostgreSQL ⇒
-        val xmlString = resultSet.getString("xml")
-        TransformerUtils.stringToTinyTree(XPath.GlobalConfiguration, xmlString, false, false)
+        val source = new StreamSource(resultSet.getCharacterStream("xml"))
+        TransformerUtils.readTinyTree(XPath.GlobalConfiguration, source, false)
       case _ ⇒
         val dataClob = resultSet.getClob("xml")
         val source = new StreamSource(dataClob.getCharacterStream)
@@ -164,12 +164,12 @@ object Provider extends Enum[Provider] {
         RowNumSQL(
           table   = Some("(select @rownum := 0) r"),
           col     = "@rownum := @rownum + 1 row_num",
-          orderBy = s"ORDER BY $tableAlias.last_modified_time DESC"
+          orderBy = s"ORDER BY $tableAlias.last_modified_time DESC, $tableAlias.data_id DESC"
         )
       case _ ⇒
         RowNumSQL(
           table   = None,
-          col     = s"row_number() over (order by $tableAlias.last_modified_time desc) row_num",
+          col     = s"row_number() over (order by $tableAlias.last_modified_time desc, $tableAlias.data_id desc) row_num",
           orderBy = ""
         )
     }
@@ -69,7 +69,14 @@ object RelationalUtils extends Logging {
     valid.option(readInt)
   }
 
-  private def getDataSourceNameFromHeaders =
+  // Return a function creating connections to the datasource of the current request
+  // Connections are not committed or closed automatically.
+  def newConnectionFromHeaders: () ⇒ Connection = {
+    val dataSource = getDataSource(getDataSourceNameFromHeaders)
+    () ⇒ getConnection(dataSource)
+  }
+
+  def getDataSourceNameFromHeaders: String =
     NetUtils.getExternalContext.getRequest.getFirstHeader("orbeon-datasource") getOrElse
       (throw new OXFException("Missing `orbeon-datasource` header"))
 
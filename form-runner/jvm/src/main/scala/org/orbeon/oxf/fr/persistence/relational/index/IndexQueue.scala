@@ -0,0 +1,426 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr.persistence.relational.index
+
+import java.sql.{Connection, PreparedStatement, Timestamp}
+import java.util.concurrent._
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger}
+
+import org.orbeon.oxf.externalcontext.WebAppListener
+import org.orbeon.oxf.fr.FormRunner
+import org.orbeon.oxf.fr.persistence.relational.{Provider, RelationalUtils}
+import org.orbeon.oxf.util.CoreUtils._
+import org.orbeon.oxf.util.IOUtils._
+import org.orbeon.oxf.util.{NetUtils, SecureUtils}
+
+import scala.collection.mutable
+import scala.util.control.NonFatal
+
+// Queue of index updates, processed in the background
+//
+// When `oxf.fr.persistence.[provider].index.async` is enabled, CRUD requests add an entry to the `orbeon_i_queue` table
+// in the transaction saving the data or form definition, instead of updating the index before responding. Entries are
+// processed by background workers, started for each datasource by the first request using it, and polling the queue
+// every `oxf.fr.persistence.[provider].index.queue.poll-interval` ms. As the queue is a table, entries left when the
+// server stops are processed after it restarts, and servers sharing a database can all process the queue.
+//
+// Entries are coalesced when processed: all the entries seen for a document lead to reindexing that document once, and
+// reindexing the data for a form definition version also covers the entries for documents of that version.
+//
+// Entries are claimed by a worker before reindexing, and deleted in the transaction updating the index, so that entries
+// aren't lost if the server stops while reindexing. Claims older than `index.queue.claim-timeout` ms are considered to
+// be left by a server which stopped, and entries are claimed again. Entries for which reindexing fails are added back at
+// the end of the queue, until they have failed `index.queue.max-attempts` times, after which they are logged and
+// dropped.
+//
+// Workers are stopped when the web app is destroyed.
+object IndexQueue {
+
+  import Index.WhatToReindex._
+
+  private case class Entry(
+    id            : Int,
+    app           : String,
+    form          : String,
+    formVersion   : Int,
+    documentIdOpt : Option[String],
+    attempts      : Int
+  ) {
+    def whatToReindex: Index.WhatToReindex =
+      documentIdOpt match {
+        case Some(documentId) ⇒ DataForDocumentId(documentId)
+        case None             ⇒ DataForForm(app, form, formVersion)
+      }
+  }
+
+  // Number of entries read from the queue at a time
+  private val MaxEntries = 100
+
+  private val DefaultPollInterval = 10000
+  private val DefaultClaimTimeout = 600000
+  private val DefaultMaxAttempts  = 5
+
+  // Time given to workers to finish processing the queue when stopping
+  private val StopTimeout = 10000L
+
+  def isAsync(provider: Provider): Boolean =
+    FormRunner.providerPropertyAsBoolean(provider.entryName, "index.async", default = false)
+
+  // Called before the transaction saving the data or form definition is committed
+  def enqueue(
+    connection    : Connection,
+    app           : String,
+    form          : String,
+    formVersion   : Int,
+    documentIdOpt : Option[String],
+    attempts      : Int = 0
+  ): Unit = {
+    val insertSql =
+      """INSERT INTO orbeon_i_queue
+        |           (queued_time,
+        |            app,
+        |            form,
+        |            form_version,
+        |            document_id,
+        |            attempts)
+        |    VALUES (CURRENT_TIMESTAMP, ?, ?, ?, ?, ?)
+      """.stripMargin
+    useAndClose(connection.prepareStatement(insertSql)) { ps ⇒
+      ps.setString(1, app)
+      ps.setString(2, form)
+      ps.setInt   (3, formVersion)
+      documentIdOpt match {
+        case Some(documentId) ⇒ ps.setString(4, documentId)
+        case None             ⇒ ps.setNull  (4, java.sql.Types.VARCHAR)
+      }
+      ps.setInt   (5, attempts)
+      ps.executeUpdate()
+    }
+  }
+
+  // Called after the transaction is committed, to start workers if needed, and have them process the queue now
+  def entriesAdded(provider: Provider, dataSourceName: String): Unit =
+    workers.computeIfAbsent((provider, dataSourceName), _ ⇒ startWorkers(provider, dataSourceName)).wakeUp()
+
+  // Process the queue until it is empty, calling `reindex` for each group of coalesced entries
+  private[persistence] def processQueue(
+    provider   : Provider,
+    connection : Connection,
+    reindex    : (Index.WhatToReindex, (String, String) ⇒ Seq[Index.IndexedControl]) ⇒ Unit
+  ): Unit = {
+
+    val claimTimeout =
+      FormRunner.providerPropertyAsInt(provider.entryName, "index.queue.claim-timeout", DefaultClaimTimeout)
+
+    val maxAttempts =
+      FormRunner.providerPropertyAsInt(provider.entryName, "index.queue.max-attempts", DefaultMaxAttempts) max 1
+
+    def staleBefore = new Timestamp(System.currentTimeMillis - claimTimeout)
+
+    Iterator.continually(readEntries(connection, staleBefore)).takeWhile(_.nonEmpty) foreach
+      (processEntries(provider, connection, _, staleBefore, maxAttempts, reindex))
+  }
+
+  private val workers = new ConcurrentHashMap[(Provider, String), Workers]
+
+  private def startWorkers(provider: Provider, dataSourceName: String): Workers = {
+
+    val newWorkers = new Workers(provider, dataSourceName)
+
+    NetUtils.getExternalContext.getWebAppContext.addListener(new WebAppListener {
+      def webAppDestroyed(): Unit = {
+        workers.remove((provider, dataSourceName), newWorkers)
+        newWorkers.stop()
+      }
+    })
+
+    newWorkers
+  }
+
+  private class Workers(provider: Provider, dataSourceName: String) {
+
+    private val count =
+      FormRunner.providerPropertyAsInt(provider.entryName, "index.queue.workers", 1) max 1
+
+    private val pollInterval =
+      FormRunner.providerPropertyAsInt(provider.entryName, "index.queue.poll-interval", DefaultPollInterval) max 100
+
+    private val executor = {
+
+      val threadNumber = new AtomicInteger(0)
+
+      Executors.newScheduledThreadPool(count, new ThreadFactory {
+        def newThread(runnable: Runnable): Thread = {
+          val thread = new Thread(runnable, s"orbeon-index-queue-$dataSourceName-${threadNumber.incrementAndGet()}")
+          thread.setDaemon(true)
+          thread
+        }
+      })
+    }
+
+    private val wakeUpPending = new AtomicBoolean(false)
+
+    private val processQueueTask = new Runnable {
+      def run(): Unit = processQueue()
+    }
+
+    for (_ ← 1 to count)
+      executor.scheduleWithFixedDelay(processQueueTask, 0, pollInterval, TimeUnit.MILLISECONDS)
+
+    // Don't submit more than one task if many entries are added while the queue is being processed
+    def wakeUp(): Unit =
+      if (wakeUpPending.compareAndSet(false, true))
+        try
+          executor.execute(processQueueTask)
+        catch {
+          case _: RejectedExecutionException ⇒ // stopped, and entries will be processed after the next start
+        }
+
+    // Entries being processed are processed to the end, and the others are left in the queue. If workers are interrupted,
+    // the entries they claimed are added back to the queue, or claimed again once their claim is stale.
+    def stop(): Unit = {
+      executor.shutdown()
+      if (! executor.awaitTermination(StopTimeout, TimeUnit.MILLISECONDS))
+        executor.shutdownNow()
+    }
+
+    private def processQueue(): Unit = {
+      wakeUpPending.set(false)
+      try
+        RelationalUtils.withConnection(dataSourceName) { connection ⇒
+          IndexQueue.processQueue(
+            provider,
+            connection,
+            (whatToReindex, indexedControls) ⇒
+              Index.reindex(provider, connection, whatToReindex, indexedControls = indexedControls)
+          )
+        }
+      catch {
+        case NonFatal(t) ⇒
+          RelationalUtils.Logger.logError("", s"Error processing the index queue for datasource `$dataSourceName`", t)
+      }
+    }
+  }
+
+  // Entries which are not claimed, or whose claim is stale
+  private def readEntries(connection: Connection, staleBefore: Timestamp): List[Entry] = {
+    val selectSql =
+      s"""  SELECT id, app, form, form_version, document_id, attempts
+         |    FROM orbeon_i_queue
+         |   WHERE claimed_by IS NULL
+         |      OR claimed_time < ?
+         |ORDER BY id
+         |   LIMIT $MaxEntries
+         |""".stripMargin
+    useAndClose(connection.prepareStatement(selectSql)) { ps ⇒
+      ps.setTimestamp(1, staleBefore)
+      useAndClose(ps.executeQuery()) { rs ⇒
+        Iterator.continually(rs.next()).takeWhile(identity).map { _ ⇒
+          Entry(
+            id            = rs.getInt("id"),
+            app           = rs.getString("app"),
+            form          = rs.getString("form"),
+            formVersion   = rs.getInt("form_version"),
+            documentIdOpt = Option(rs.getString("document_id")),
+            attempts      = rs.getInt("attempts")
+          )
+        }.toList
+      }
+    }
+  }
+
+  // Each group of coalesced entries is claimed in a separate transaction, so that other workers skip it, and deleted in
+  // the transaction updating the index. Entries added while reindexing are not claimed, and cause another reindexing.
+  // If reindexing fails, the entry is added back at the end of the queue, and processing stops until the next poll.
+  private def processEntries(
+    provider    : Provider,
+    connection  : Connection,
+    entries     : List[Entry],
+    staleBefore : ⇒ Timestamp,
+    maxAttempts : Int,
+    reindex     : (Index.WhatToReindex, (String, String) ⇒ Seq[Index.IndexedControl]) ⇒ Unit
+  ): Unit = {
+
+    val indexedControlsByForm = mutable.Map[(String, String), Seq[Index.IndexedControl]]()
+
+    def indexedControls(app: String, form: String): Seq[Index.IndexedControl] =
+      indexedControlsByForm.getOrElseUpdate((app, form), readIndexedControls(provider, connection, app, form))
+
+    val formVersions =
+      entries.filter(_.documentIdOpt.isEmpty).map(e ⇒ (e.app, e.form, e.formVersion)).toSet
+
+    // Entries for documents of a form version which is reindexed are claimed along with the form version
+    val toReindex =
+      entries filterNot (e ⇒ e.documentIdOpt.isDefined && formVersions((e.app, e.form, e.formVersion))) groupBy
+        (_.whatToReindex)
+
+    for ((whatToReindex, coalesced) ← toReindex.toList.sortBy(_._2.map(_.id).min)) {
+
+      val entry   = coalesced.head
+      val claimed = Claimed(entry, (coalesced ::: entries.filter(covers(entry, _))).map(_.id).max, SecureUtils.randomHexId)
+
+      if (claim(connection, claimed, staleBefore)) {
+        try {
+          reindex(whatToReindex, indexedControls)
+          deleteClaimed(connection, claimed)
+          connection.commit()
+        } catch {
+          case NonFatal(t) ⇒
+            connection.rollback()
+            release(connection, claimed, maxAttempts)
+            connection.commit()
+            throw t
+        }
+      }
+    }
+  }
+
+  // Whether reindexing for `entry` covers `other`
+  private def covers(entry: Entry, other: Entry): Boolean =
+    entry.documentIdOpt.isEmpty &&
+      entry.app         == other.app  &&
+      entry.form        == other.form &&
+      entry.formVersion == other.formVersion
+
+  // Entries for the same document, or form version, as `entry`, up to `maxId`, claimed with the `owner` token
+  private case class Claimed(entry: Entry, maxId: Int, owner: String) {
+
+    def whereClause: String =
+      entry.documentIdOpt match {
+        case Some(_) ⇒ s"document_id = ? AND id <= $maxId"
+        case None    ⇒ s"app = ? AND form = ? AND form_version = ? AND id <= $maxId"
+      }
+
+    // Set the parameters of `whereClause` starting at `position`
+    def setParameters(ps: PreparedStatement, position: Int): Unit =
+      entry.documentIdOpt match {
+        case Some(documentId) ⇒
+          ps.setString(position, documentId)
+        case None ⇒
+          ps.setString(position,     entry.app)
+          ps.setString(position + 1, entry.form)
+          ps.setInt   (position + 2, entry.formVersion)
+      }
+  }
+
+  // Returns `false` if entries were already claimed by another worker
+  private def claim(connection: Connection, claimed: Claimed, staleBefore: Timestamp): Boolean = {
+
+    val updateSql =
+      s"""UPDATE orbeon_i_queue
+         |   SET claimed_by   = ?,
+         |       claimed_time = ?
+         | WHERE ${claimed.whereClause}
+         |   AND (claimed_by IS NULL OR claimed_time < ?)
+         |""".stripMargin
+
+    val updated =
+      useAndClose(connection.prepareStatement(updateSql)) { ps ⇒
+        ps.setString   (1, claimed.owner)
+        ps.setTimestamp(2, new Timestamp(System.currentTimeMillis))
+        claimed.setParameters(ps, 3)
+        ps.setTimestamp(claimed.entry.documentIdOpt.fold(6)(_ ⇒ 4), staleBefore)
+        ps.executeUpdate()
+      }
+    connection.commit()
+    updated > 0
+  }
+
+  // Returns the highest number of attempts of the deleted entries
+  private def deleteClaimed(connection: Connection, claimed: Claimed): Int = {
+
+    val claimedWhere = s"${claimed.whereClause} AND claimed_by = ?"
+    val position     = claimed.entry.documentIdOpt.fold(4)(_ ⇒ 2)
+
+    val attempts =
+      useAndClose(connection.prepareStatement(s"SELECT max(attempts) FROM orbeon_i_queue WHERE $claimedWhere")) { ps ⇒
+        claimed.setParameters(ps, 1)
+        ps.setString(position, claimed.owner)
+        useAndClose(ps.executeQuery()) { rs ⇒
+          rs.next()
+          rs.getInt(1)
+        }
+      }
+
+    useAndClose(connection.prepareStatement(s"DELETE FROM orbeon_i_queue WHERE $claimedWhere")) { ps ⇒
+      claimed.setParameters(ps, 1)
+      ps.setString(position, claimed.owner)
+      ps.executeUpdate()
+    }
+
+    attempts
+  }
+
+  // Replace the claimed entries by a single entry at the end of the queue, unless they failed too many times
+  private def release(connection: Connection, claimed: Claimed, maxAttempts: Int): Unit = {
+    val attempts = deleteClaimed(connection, claimed) + 1
+    val entry    = claimed.entry
+    if (attempts < maxAttempts)
+      enqueue(connection, entry.app, entry.form, entry.formVersion, entry.documentIdOpt, attempts)
+    else
+      RelationalUtils.Logger.logError(
+        "",
+        s"Dropping index queue entry for ${entry.whatToReindex} after $attempts failed attempts, " +
+          "the index must be updated by reindexing"
+      )
+  }
+
+  // Read the form definition from the database, as the persistence API requires the current request, which background
+  // workers don't have; like `FormRunner.readPublishedForm()`, this reads the latest version of the form definition
+  private def readIndexedControls(
+    provider   : Provider,
+    connection : Connection,
+    app        : String,
+    form       : String
+  ): Seq[Index.IndexedControl] = {
+
+    val formDefinitionSql =
+      s"""  SELECT ${Provider.xmlCol(provider, "d")}
+         |    FROM orbeon_form_definition d,
+         |         (
+         |             SELECT form_version,
+         |                    max(last_modified_time) last_modified_time
+         |               FROM orbeon_form_definition
+         |              WHERE app  = ?
+         |                AND form = ?
+         |           GROUP BY form_version
+         |         ) l
+         |   WHERE d.app                = ?
+         |     AND d.form               = ?
+         |     AND d.form_version       = l.form_version
+         |     AND d.last_modified_time = l.last_modified_time
+         |     AND d.deleted            = 'N'
+         |ORDER BY d.form_version DESC
+         |""".stripMargin
+
+    val formDefinitionOpt =
+      useAndClose(connection.prepareStatement(formDefinitionSql)) { ps ⇒
+        ps.setString(1, app)
+        ps.setString(2, form)
+        ps.setString(3, app)
+        ps.setString(4, form)
+        useAndClose(ps.executeQuery()) { rs ⇒
+          rs.next() option Provider.readXmlColumn(provider, rs)
+        }
+      }
+
+    formDefinitionOpt match {
+      case None ⇒
+        RelationalUtils.Logger.logError("", s"Can't index documents for $app/$form as form definition can't be found")
+        Seq.empty
+      case Some(formDefinition) ⇒
+        Index.findIndexedControls(formDefinition, app, form)
+    }
+  }
+}
@@ -13,11 +13,14 @@
  */
 package org.orbeon.oxf.fr.persistence.relational.index
 
-import java.sql.{Connection, PreparedStatement}
+import java.sql.{Connection, PreparedStatement, ResultSet}
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.{Callable, ConcurrentLinkedQueue, ExecutionException, Executors}
 
 import org.orbeon.oxf.fr.FormRunner
 import org.orbeon.oxf.fr.persistence.relational.Provider.MySQL
 import org.orbeon.oxf.fr.persistence.relational.index.status.{Backend, Status, StatusStore}
+import org.orbeon.oxf.fr.persistence.relational.search.SearchCountCache
 import org.orbeon.oxf.fr.persistence.relational.{Provider, RelationalUtils}
 import org.orbeon.oxf.util.CoreUtils._
 import org.orbeon.oxf.util.IOUtils._
@@ -28,6 +31,8 @@ import org.orbeon.scaxon
 import org.orbeon.scaxon.SimplePath._
 
 import scala.collection.JavaConverters._
+import scala.util.Try
+import scala.util.control.NonFatal
 
 trait Reindex extends FormDefinition {
 
@@ -47,10 +52,20 @@ trait Reindex extends FormDefinition {
   //   3. For each document:
   //      - add 1 row to orbeon_i_current
   //      - add as many as necessary to orbeon_i_control_text
+  //
+  // Rows are inserted in JDBC batches of `oxf.fr.persistence.[provider].reindex.batch-size` documents. When reindexing
+  // all the data, `newConnection` is provided, and more than one worker is configured with
+  // `oxf.fr.persistence.[provider].reindex.workers`, forms are distributed between workers, each with its own
+  // connection, and each committing after indexing a form.
+  //
+  // By default, indexed controls are computed reading the form definition through the persistence API, which requires
+  // the current request. `indexedControls` allows callers without a request to read form definitions otherwise.
   def reindex(
-    provider      : Provider,
-    connection    : Connection,
-    whatToReindex : WhatToReindex
+    provider        : Provider,
+    connection      : Connection,
+    whatToReindex   : WhatToReindex,
+    newConnection   : Option[() ⇒ Connection]               = None,
+    indexedControls : (String, String) ⇒ Seq[IndexedControl] = readIndexedControls
   ): Unit = {
 
     // If a document id was provided, produce WHERE clause, and set parameter
@@ -119,32 +134,10 @@ trait Reindex extends FormDefinition {
       }
     }
 
-    val currentFromWhere =
-      s"""|    FROM
-          |      orbeon_form_data d,
-          |      (
-          |        SELECT
-          |          document_id,
-          |          draft,
-          |          max(last_modified_time) last_modified_time
-          |        FROM
-          |          orbeon_form_data
-          |        ${whereConditions.nonEmpty.string("WHERE")}
-          |          ${whereConditions.mkString(" AND ")}
-          |        GROUP BY
-          |          document_id,
-          |          draft
-          |      ) l
-          |   WHERE
-          |     d.document_id          = l.document_id        AND
-          |     d.last_modified_time   = l.last_modified_time AND
-          |     d.deleted              = 'N'
-          |""".stripMargin
-
     // Count how many documents we'll reindex, and tell progress code
     val countSql =
       s"""|SELECT count(*)
-          |$currentFromWhere
+          |${currentFromWhere(whereConditions)}
           |""".stripMargin
     useAndClose(connection.prepareStatement(countSql)) { ps ⇒
       paramSetter(ps)
@@ -155,143 +148,319 @@ trait Reindex extends FormDefinition {
       }
     }
 
-    // Get all the row from orbeon_form_data that are "latest" and not deleted
-    val xmlCol = Provider.xmlCol(provider, "d")
-    val currentDataSql =
-      s"""  SELECT d.id,
-         |         d.created,
-         |         d.last_modified_time,
-         |         d.last_modified_by,
-         |         d.username,
-         |         d.groupname,
-         |         d.organization_id,
-         |         d.app,
-         |         d.form,
-         |         d.form_version,
-         |         d.document_id,
-         |         d.draft,
-         |         $xmlCol
-         |$currentFromWhere
-         |ORDER BY app, form
-         |""".stripMargin
-
-    useAndClose(connection.prepareStatement(currentDataSql)) { ps ⇒
-      paramSetter(ps)
-      useAndClose(ps.executeQuery()) { currentData ⇒
+    val batchSize =
+      FormRunner.providerPropertyAsInt(provider.entryName, "reindex.batch-size", DefaultBatchSize) max 1
 
-        // Info on indexed controls for a given app/form
-        case class FormIndexedControls(
-          app             : String,
-          form            : String,
-          indexedControls : Seq[IndexedControl]
-        )
+    val workers =
+      newConnection match {
+        case Some(_) if whatToReindex == AllData ⇒ FormRunner.providerPropertyAsInt(provider.entryName, "reindex.workers", 1)
+        case _                                  ⇒ 1
+      }
 
-        // Go through each data document
-        // - we keep track of the indexed controls along in the iteration, and thus avoid recomputing them
-        var prevIndexedControls: Option[FormIndexedControls] = None
-        while (currentData.next() && StatusStore.getStatus != Status.Stopping) {
-
-          Backend.setProviderDocumentNext()
-          val app = currentData.getString("app")
-          val form = currentData.getString("form")
-
-          // Get indexed controls for current app/form
-          val indexedControls: Seq[IndexedControl] = prevIndexedControls match {
-            case Some(FormIndexedControls(`app`, `form`, indexedControls)) ⇒
-              // Use indexed controls from previous iteration
-              indexedControls
-            case _ ⇒
-              // Compute indexed controls reading the form definition
-              FormRunner.readPublishedForm(app, form)(RelationalUtils.Logger) match {
-                case None ⇒
-                  RelationalUtils.Logger.logError("", s"Can't index documents for $app/$form as form definition can't be found")
-                  Seq.empty
-                case Some(formDefinition) ⇒
-                  findIndexedControls(formDefinition, app, form)
-              }
-          }
+    if (workers > 1) {
+      reindexInParallel(provider, connection, newConnection.get, workers, batchSize, indexedControls)
+    } else {
 
-          // Insert into the "current data" table
-          val position = Iterator.from(1)
-
-          val insertIntoCurrentSql =
-            """INSERT INTO orbeon_i_current
-              |           (data_id,
-              |            created,
-              |            last_modified_time,
-              |            last_modified_by,
-              |            username,
-              |            groupname,
-              |            organization_id,
-              |            app,
-              |            form,
-              |            form_version,
-              |            document_id,
-              |            draft)
-              |    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-            """.stripMargin
-
-          useAndClose(connection.prepareStatement(insertIntoCurrentSql)) { ps ⇒
-            ps.setInt      (position.next(), currentData.getInt("id"))
-            ps.setTimestamp(position.next(), currentData.getTimestamp("created"))
-            ps.setTimestamp(position.next(), currentData.getTimestamp("last_modified_time"))
-            ps.setString   (position.next(), currentData.getString("last_modified_by"))
-            ps.setString   (position.next(), currentData.getString("username"))
-            ps.setString   (position.next(), currentData.getString("groupname"))
-            RelationalUtils.getIntOpt(currentData, "organization_id") match {
-              case Some(id) ⇒ ps.setInt(position.next(), id)
-              case None     ⇒ ps.setNull(position.next(), java.sql.Types.INTEGER)
-            }
-            ps.setString   (position.next(), app)
-            ps.setString   (position.next(), form)
-            ps.setInt      (position.next(), currentData.getInt("form_version"))
-            ps.setString   (position.next(), currentData.getString("document_id"))
-            ps.setString   (position.next(), currentData.getString("draft"))
-            ps.executeUpdate()
-            ps.close()
+      // Info on indexed controls for a given app/form
+      case class FormIndexedControls(
+        app             : String,
+        form            : String,
+        indexedControls : Seq[IndexedControl]
+      )
+
+      // We keep track of the indexed controls along in the iteration, and thus avoid recomputing them
+      var prevIndexedControls: Option[FormIndexedControls] = None
+
+      def indexedControlsForForm(app: String, form: String): Seq[IndexedControl] = {
+        val controls =
+          prevIndexedControls match {
+            case Some(FormIndexedControls(`app`, `form`, prevControls)) ⇒ prevControls
+            case _                                                      ⇒ indexedControls(app, form)
           }
+        prevIndexedControls = Some(FormIndexedControls(app, form, controls))
+        controls
+      }
 
-          // Read data (XML)
-          // - using lazy, as we might not need the data, if there are no controls to index
-          // - return root element, as XPath this is the node XPath expressions are relative to
-          lazy val dataRootElement: NodeInfo = {
-            val document = Provider.readXmlColumn(provider, currentData)
-            document.descendant(*).head
+      useAndClose(connection.prepareStatement(currentDataSql(provider, whereConditions))) { ps ⇒
+        paramSetter(ps)
+        ps.setFetchSize(batchSize)
+        useAndClose(ps.executeQuery()) { currentData ⇒
+          useAndClose(new IndexWriter(provider, connection, batchSize)) { writer ⇒
+            indexRows(currentData, writer, indexedControlsForForm)
+            writer.flush()
           }
+        }
+      }
+    }
+
+    // Counts of search results might have changed
+    SearchCountCache.invalidate()
+  }
+
+  private val DefaultBatchSize = 100
+
+  private def currentFromWhere(whereConditions: List[String]): String =
+    s"""|    FROM
+        |      orbeon_form_data d,
+        |      (
+        |        SELECT
+        |          document_id,
+        |          draft,
+        |          max(last_modified_time) last_modified_time
+        |        FROM
+        |          orbeon_form_data
+        |        ${whereConditions.nonEmpty.string("WHERE")}
+        |          ${whereConditions.mkString(" AND ")}
+        |        GROUP BY
+        |          document_id,
+        |          draft
+        |      ) l
+        |   WHERE
+        |     d.document_id          = l.document_id        AND
+        |     d.last_modified_time   = l.last_modified_time AND
+        |     d.deleted              = 'N'
+        |""".stripMargin
+
+  // Get all the row from orbeon_form_data that are "latest" and not deleted
+  private def currentDataSql(provider: Provider, whereConditions: List[String]): String = {
+    val xmlCol = Provider.xmlCol(provider, "d")
+    s"""  SELECT d.id,
+       |         d.created,
+       |         d.last_modified_time,
+       |         d.last_modified_by,
+       |         d.username,
+       |         d.groupname,
+       |         d.organization_id,
+       |         d.app,
+       |         d.form,
+       |         d.form_version,
+       |         d.document_id,
+       |         d.draft,
+       |         $xmlCol
+       |${currentFromWhere(whereConditions)}
+       |ORDER BY app, form
+       |""".stripMargin
+  }
+
+  // Compute indexed controls reading the form definition
+  private def readIndexedControls(app: String, form: String): Seq[IndexedControl] =
+    FormRunner.readPublishedForm(app, form)(RelationalUtils.Logger) match {
+      case None ⇒
+        RelationalUtils.Logger.logError("", s"Can't index documents for $app/$form as form definition can't be found")
+        Seq.empty
+      case Some(formDefinition) ⇒
+        findIndexedControls(formDefinition, app, form)
+    }
+
+  // Go through each data document, until reindexing is stopped
+  private def indexRows(
+    currentData     : ResultSet,
+    writer          : IndexWriter,
+    indexedControls : (String, String) ⇒ Seq[IndexedControl]
+  ): Unit =
+    while (currentData.next() && StatusStore.getStatus != Status.Stopping) {
+      val app  = currentData.getString("app")
+      val form = currentData.getString("form")
+      writer.add(currentData, app, form, indexedControls(app, form))
+    }
+
+  // Distribute forms between workers, each with its own connection
+  //
+  // Indexed controls are computed upfront, as reading form definitions can require the current request.
+  private def reindexInParallel(
+    provider        : Provider,
+    connection      : Connection,
+    newConnection   : () ⇒ Connection,
+    workers         : Int,
+    batchSize       : Int,
+    indexedControls : (String, String) ⇒ Seq[IndexedControl]
+  ): Unit = {
+
+    // Workers insert into the tables cleaned with this connection
+    connection.commit()
+
+    val forms = {
+      val formsSql =
+        s"""|SELECT DISTINCT d.app, d.form
+            |${currentFromWhere(Nil)}
+            |""".stripMargin
+      useAndClose(connection.prepareStatement(formsSql)) { ps ⇒
+        useAndClose(ps.executeQuery()) { rs ⇒
+          Iterator.continually(rs.next()).takeWhile(identity).map(_ ⇒ (rs.getString(1), rs.getString(2))).toList
+        }
+      }
+    }
+
+    val indexedControlsByForm = forms.map(appForm ⇒ appForm → indexedControls(appForm._1, appForm._2)).toMap
+
+    val formDataSql    = currentDataSql(provider, List("app = ?", "form = ?"))
+    val remainingForms = new ConcurrentLinkedQueue[(String, String)](forms.asJava)
+    val failed         = new AtomicBoolean(false)
 
-          // Extract and insert value for each indexed control
-          for (control ← indexedControls) {
-
-            val nodes = scaxon.XPath.eval(dataRootElement, control.xpath, FbNamespaceMapping).asInstanceOf[Seq[NodeInfo]]
-            for ((node, pos) ← nodes.zipWithIndex) {
-              val nodeValue = truncateValue(provider, node.getStringValue)
-              // For indexing, we are not interested in empty values
-              if (!nodeValue.isEmpty) {
-                val position = Iterator.from(1)
-                val insertIntoControlTextSql =
-                  """INSERT INTO orbeon_i_control_text
-                    |           (data_id,
-                    |            pos,
-                    |            control,
-                    |            val)
-                    |    VALUES (? , ? , ? , ? )
-                  """.stripMargin
-                useAndClose(connection.prepareStatement(insertIntoControlTextSql)) { ps ⇒
-                  ps.setInt   (position.next(), currentData.getInt("id"))
-                  ps.setInt   (position.next(), pos + 1)
-                  ps.setString(position.next(), control.xpath)
-                  ps.setString(position.next(), nodeValue)
-                  ps.executeUpdate()
-                  ps.close()
-                }
+    def nextForm: Option[(String, String)] =
+      Option(remainingForms.poll()) filter (_ ⇒ ! failed.get && StatusStore.getStatus != Status.Stopping)
+
+    def indexForms(workerConnection: Connection): Unit =
+      try {
+        useAndClose(workerConnection.prepareStatement(formDataSql)) { ps ⇒
+          useAndClose(new IndexWriter(provider, workerConnection, batchSize)) { writer ⇒
+            Iterator.continually(nextForm).takeWhile(_.isDefined).flatten foreach { case (app, form) ⇒
+              ps.setString(1, app)
+              ps.setString(2, form)
+              ps.setFetchSize(batchSize)
+              useAndClose(ps.executeQuery()) { currentData ⇒
+                indexRows(currentData, writer, (_, _) ⇒ indexedControlsByForm((app, form)))
               }
+              writer.flush()
+              workerConnection.commit()
             }
           }
-          // Pass current indexed controls to the next iteration
-          prevIndexedControls = Some(FormIndexedControls(app, form, indexedControls))
+        }
+      } catch {
+        case NonFatal(t) ⇒
+          failed.set(true)
+          workerConnection.rollback()
+          throw t
+      }
+
+    val executor    = Executors.newFixedThreadPool(workers)
+    val connections = (1 to workers).toList map (_ ⇒ newConnection())
+
+    try {
+      val futures =
+        connections map { workerConnection ⇒
+          executor.submit(new Callable[Unit] {
+            def call(): Unit = indexForms(workerConnection)
+          })
+        }
+
+      // Rethrow the first error, after all workers are done
+      val errors =
+        futures flatMap { future ⇒
+          try {
+            future.get()
+            None
+          } catch {
+            case e: ExecutionException ⇒ Some(e.getCause)
+          }
+        }
+
+      errors.headOption foreach (t ⇒ throw t)
+    } finally {
+      executor.shutdown()
+      connections foreach (c ⇒ Try(c.close()))
+    }
+  }
+
+  private val InsertIntoCurrentSql =
+    """INSERT INTO orbeon_i_current
+      |           (data_id,
+      |            created,
+      |            last_modified_time,
+      |            last_modified_by,
+      |            username,
+      |            groupname,
+      |            organization_id,
+      |            app,
+      |            form,
+      |            form_version,
+      |            document_id,
+      |            draft)
+      |    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+    """.stripMargin
+
+  private val InsertIntoControlTextSql =
+    """INSERT INTO orbeon_i_control_text
+      |           (data_id,
+      |            pos,
+      |            control,
+      |            val)
+      |    VALUES (? , ? , ? , ? )
+    """.stripMargin
+
+  // Insert index rows in JDBC batches, reusing the same prepared statements, and report progress after each batch
+  private class IndexWriter(provider: Provider, connection: Connection, batchSize: Int) {
+
+    private val insertIntoCurrent     = connection.prepareStatement(InsertIntoCurrentSql)
+    private val insertIntoControlText = connection.prepareStatement(InsertIntoControlTextSql)
+
+    private var pendingDocuments = 0
+    private var pendingValues    = 0
+
+    def add(currentData: ResultSet, app: String, form: String, indexedControls: Seq[IndexedControl]): Unit = {
+
+      val dataId = currentData.getInt("id")
+
+      // Insert into the "current data" table
+      locally {
+        val ps = insertIntoCurrent
+        val position = Iterator.from(1)
+        ps.setInt      (position.next(), dataId)
+        ps.setTimestamp(position.next(), currentData.getTimestamp("created"))
+        ps.setTimestamp(position.next(), currentData.getTimestamp("last_modified_time"))
+        ps.setString   (position.next(), currentData.getString("last_modified_by"))
+        ps.setString   (position.next(), currentData.getString("username"))
+        ps.setString   (position.next(), currentData.getString("groupname"))
+        RelationalUtils.getIntOpt(currentData, "organization_id") match {
+          case Some(id) ⇒ ps.setInt(position.next(), id)
+          case None     ⇒ ps.setNull(position.next(), java.sql.Types.INTEGER)
+        }
+        ps.setString   (position.next(), app)
+        ps.setString   (position.next(), form)
+        ps.setInt      (position.next(), currentData.getInt("form_version"))
+        ps.setString   (position.next(), currentData.getString("document_id"))
+        ps.setString   (position.next(), currentData.getString("draft"))
+        ps.addBatch()
+      }
+
+      // Read data (XML)
+      // - using lazy, as we might not need the data, if there are no controls to index
+      // - return root element, as XPath this is the node XPath expressions are relative to
+      lazy val dataRootElement: NodeInfo = {
+        val document = Provider.readXmlColumn(provider, currentData)
+        document.descendant(*).head
+      }
+
+      // Extract and insert value for each indexed control
+      for (control ← indexedControls) {
+
+        val nodes = scaxon.XPath.eval(dataRootElement, control.xpath, FbNamespaceMapping).asInstanceOf[Seq[NodeInfo]]
+        for ((node, pos) ← nodes.zipWithIndex) {
+          val nodeValue = truncateValue(provider, node.getStringValue)
+          // For indexing, we are not interested in empty values
+          if (!nodeValue.isEmpty) {
+            val ps = insertIntoControlText
+            val position = Iterator.from(1)
+            ps.setInt   (position.next(), dataId)
+            ps.setInt   (position.next(), pos + 1)
+            ps.setString(position.next(), control.xpath)
+            ps.setString(position.next(), nodeValue)
+            ps.addBatch()
+            pendingValues += 1
+          }
         }
       }
+
+      pendingDocuments += 1
+      if (pendingDocuments >= batchSize)
+        flush()
     }
+
+    def flush(): Unit =
+      if (pendingDocuments > 0) {
+        insertIntoCurrent.executeBatch()
+        if (pendingValues > 0)
+          insertIntoControlText.executeBatch()
+        Backend.setProviderDocumentsDone(pendingDocuments)
+        pendingDocuments = 0
+        pendingValues    = 0
+      }
+
+    def close(): Unit =
+      try
+        insertIntoCurrent.close()
+      finally
+        insertIntoControlText.close()
   }
 
   /**
@@ -32,7 +32,8 @@ class ReindexProcessor extends ProcessorImpl {
 
   override def start(pipelineContext: PipelineContext): Unit = {
     val ReindexPathRegex(providerToken) = NetUtils.getExternalContext.getRequest.getRequestPath
-    RelationalUtils.withConnection(Index.reindex(Provider.withName(providerToken), _, Index.WhatToReindex.AllData))
+    val newConnection = RelationalUtils.newConnectionFromHeaders
+    RelationalUtils.withConnection(Index.reindex(Provider.withName(providerToken), _, Index.WhatToReindex.AllData, Some(newConnection)))
   }
 
 }
@@ -40,12 +40,15 @@ object Backend {
   def setProviderDocumentTotal(total: Int): Unit =
     setIndexing(i ⇒ Some(i.copy(documentCount = Some(Count(total = total, current = 0)))))
 
-  def setProviderDocumentNext(): Unit =
-    setDocumentCount(c ⇒ c.copy(current = c.current + 1))
+  // Can be called concurrently by reindexing workers
+  def setProviderDocumentsDone(count: Int): Unit =
+    setDocumentCount(c ⇒ c.copy(current = c.current + count))
 
   private def setIndexing(setter: Status.Indexing ⇒ Option[Status.Indexing]): Unit =
-    Some(StatusStore.getStatus).collect { case status: Status.Indexing ⇒
-      setter(status).foreach(StatusStore.setStatus)
+    StatusStore.synchronized {
+      Some(StatusStore.getStatus).collect { case status: Status.Indexing ⇒
+        setter(status).foreach(StatusStore.setStatus)
+      }
     }
 
   private def setDocumentCount(setter: Count ⇒ Count): Unit =
@@ -19,7 +19,8 @@ import org.orbeon.oxf.fr.persistence.relational.RelationalUtils
 
 object StatusStore {
 
-  private var currentStatus: Status = Status.Stopped
+  // Read by the UI while reindexing updates it
+  @volatile private var currentStatus: Status = Status.Stopped
 
   def getStatus: Status = currentStatus
 
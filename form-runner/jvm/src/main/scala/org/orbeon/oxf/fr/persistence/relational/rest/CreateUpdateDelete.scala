@@ -26,7 +26,7 @@ import org.orbeon.oxf.fr.permission._
 import org.orbeon.oxf.fr.persistence.relational.RelationalCommon._
 import org.orbeon.oxf.fr.persistence.relational.RelationalUtils
 import org.orbeon.oxf.fr.persistence.relational.Version._
-import org.orbeon.oxf.fr.persistence.relational.index.Index
+import org.orbeon.oxf.fr.persistence.relational.index.{Index, IndexQueue}
 import org.orbeon.oxf.http.{HttpStatusCodeException, StatusCode}
 import org.orbeon.oxf.pipeline.api.PipelineContext
 import org.orbeon.oxf.processor.generator.RequestGenerator
@@ -432,6 +432,13 @@ trait CreateUpdateDelete
 
       debug("CRUD: database updated, before commit", List("version" → versionSet.toString))
 
+      // Unless the caller waits for the index to be updated, queue the index update in the same transaction, so
+      // it isn't lost if the server stops before the index is updated
+      val indexAsync = IndexQueue.isAsync(req.provider) && ! requestWaitForIndex
+
+      if (indexAsync)
+        IndexQueue.enqueue(connection, req.app, req.form, versionSet, req.dataPart map (_.documentId))
+
       // Commit before reindexing, as reindexing will read back the form definition, which can
       // cause a deadlock since we're still in the transaction writing the form definition
       useAndClose(connection.prepareStatement("COMMIT"))(_.execute())
@@ -439,18 +446,22 @@ trait CreateUpdateDelete
       debug("CRUD: after commit")
 
       // Update index
-      val whatToReindex = req.dataPart match {
-        case Some(dataPart) ⇒
-          // Data: update index for this document id
-          Index.WhatToReindex.DataForDocumentId(dataPart.documentId)
-        case None ⇒
-          // Form definition: update index for this form version
-          // Re. the asInstanceOf, when updating a form, we must have a specific version specified
-          Index.WhatToReindex.DataForForm(req.app, req.form, versionSet)
-      }
+      if (indexAsync) {
+        IndexQueue.entriesAdded(req.provider, RelationalUtils.getDataSourceNameFromHeaders)
+      } else {
+        val whatToReindex = req.dataPart match {
+          case Some(dataPart) ⇒
+            // Data: update index for this document id
+            Index.WhatToReindex.DataForDocumentId(dataPart.documentId)
+          case None ⇒
+            // Form definition: update index for this form version
+            // Re. the asInstanceOf, when updating a form, we must have a specific version specified
+            Index.WhatToReindex.DataForForm(req.app, req.form, versionSet)
+        }
 
-      withDebug("CRUD: reindexing", List("what" → whatToReindex.toString)) {
-        Index.reindex(req.provider, connection, whatToReindex)
+        withDebug("CRUD: reindexing", List("what" → whatToReindex.toString)) {
+          Index.reindex(req.provider, connection, whatToReindex)
+        }
       }
 
       // Create flat view if needed
@@ -13,17 +13,17 @@
  */
 package org.orbeon.oxf.fr.persistence.relational.rest
 
-import java.io.{ByteArrayInputStream, OutputStreamWriter, StringReader}
+import java.io.{InputStream, OutputStream, OutputStreamWriter}
+import java.sql.{Connection, PreparedStatement, Timestamp}
 
 import org.joda.time.DateTime
 import org.orbeon.io.CharsetNames
 import org.orbeon.oxf.fr.permission.PermissionsAuthorization.CheckWithDataUser
 import org.orbeon.oxf.fr.permission.{Operations, PermissionsAuthorization, PermissionsXML}
-import org.orbeon.oxf.fr.persistence.relational.Provider.PostgreSQL
 import org.orbeon.oxf.fr.persistence.relational.Version._
 import org.orbeon.oxf.fr.persistence.relational._
 import org.orbeon.oxf.fr.{FormRunnerPersistence, permission}
-import org.orbeon.oxf.http.{Headers, HttpStatusCodeException, StatusCode}
+import org.orbeon.oxf.http.{Headers, HttpRange, HttpStatusCodeException, StatusCode}
 import org.orbeon.oxf.util.CoreUtils._
 import org.orbeon.oxf.util.IOUtils._
 import org.orbeon.oxf.util.{DateUtils, NetUtils}
@@ -56,7 +56,7 @@ trait Read extends RequestResponse with Common with FormRunnerPersistence {
         val idCols = idColumns(req)
         val xmlCol = Provider.xmlCol(req.provider, "t")
         s"""|SELECT  t.last_modified_time, t.created
-            |        ${if (req.forAttachment) ", t.file_content"                             else s", $xmlCol"}
+            |        ${if (req.forAttachment) ", octet_length(t.file_content) file_length"   else s", $xmlCol"}
             |        ${if (req.forData)       ", t.username, t.groupname, t.organization_id" else ""}
             |        ${if (hasStage)          ", t.stage"                                    else ""}
             |        , t.form_version, t.deleted
@@ -74,16 +74,22 @@ trait Read extends RequestResponse with Common with FormRunnerPersistence {
             |WHERE   ${joinColumns("last_modified_time" +: idCols, "t", "m")}
             |""".stripMargin
       }
-      useAndClose(connection.prepareStatement(sql)) { ps ⇒
-        val position = Iterator.from(1)
+      val formVersionOpt = req.forForm option requestedFormVersion(connection, req)
+
+      // Set parameters for the id columns, in the order of `idColumns`
+      def setIdParams(ps: PreparedStatement, position: Iterator[Int]): Unit = {
         ps.setString(position.next(), req.app)
         ps.setString(position.next(), req.form)
-        if (req.forForm) ps.setInt(position.next(), requestedFormVersion(connection, req))
+        formVersionOpt foreach (ps.setInt(position.next(), _))
         if (req.forData) {
           ps.setString(position.next(), req.dataPart.get.documentId)
           ps.setString(position.next(), if (req.dataPart.get.isDraft) "Y" else "N")
         }
         if (req.forAttachment) ps.setString(position.next(), req.filename.get)
+      }
+
+      useAndClose(connection.prepareStatement(sql)) { ps ⇒
+        setIdParams(ps, Iterator.from(1))
         useAndClose(ps.executeQuery()) { resultSet ⇒
           if (resultSet.next()) {
 
@@ -131,16 +137,32 @@ trait Read extends RequestResponse with Common with FormRunnerPersistence {
 
             // Write content (XML / file)
             if (req.forAttachment) {
-              val stream = req.provider match {
-                case PostgreSQL ⇒ new ByteArrayInputStream(resultSet.getBytes("file_content"))
-                case _          ⇒ resultSet.getBlob("file_content").getBinaryStream
+
+              val fileLength = resultSet.getLong("file_length")
+
+              httpResponse.setHeader(Headers.AcceptRanges, "bytes")
+
+              HttpRange(headerValue(Headers.RangeLower), fileLength) match {
+                case range if ! canReadRange(req.provider, range, fileLength) ⇒
+                  httpResponse.setHeader(Headers.ContentRange, HttpRange.notSatisfiableContentRange(fileLength))
+                  httpResponse.setStatus(StatusCode.RangeNotSatisfiable)
+                case range ⇒
+
+                  val partial =
+                    range match {
+                      case partial: HttpRange.Partial ⇒
+                        httpResponse.setStatus(StatusCode.PartialContent)
+                        httpResponse.setHeader(Headers.ContentRange, partial.contentRange(fileLength))
+                        partial
+                      case _ ⇒
+                        HttpRange.Partial(0, fileLength - 1)
+                    }
+
+                  httpResponse.setHeader(Headers.ContentLength, partial.length.toString)
+                  writeAttachment(connection, req, lastModifiedDateTime, setIdParams, partial)
               }
-              NetUtils.copyStream(stream, httpResponse.getOutputStream)
             } else {
-              val stream = req.provider match {
-                case PostgreSQL ⇒ new StringReader(resultSet.getString("xml"))
-                case _          ⇒ resultSet.getClob("xml").getCharacterStream
-              }
+              val stream = resultSet.getCharacterStream("xml")
               httpResponse.setHeader(Headers.ContentType, "application/xml")
 
               // Date headers
@@ -159,4 +181,131 @@ trait Read extends RequestResponse with Common with FormRunnerPersistence {
       }
     }
   }
+
+  private val DefaultChunkSize = 1024 * 1024
+
+  // With PostgreSQL, positions are passed to `substring` as `INT`, which `bytea` values don't exceed anyway
+  private def canReadRange(provider: Provider, range: HttpRange, fileLength: Long): Boolean =
+    range match {
+      case HttpRange.NotSatisfiable  ⇒ false
+      case HttpRange.Whole           ⇒ provider != Provider.PostgreSQL || fileLength <= Int.MaxValue
+      case HttpRange.Partial(_, end) ⇒ provider != Provider.PostgreSQL || end < Int.MaxValue
+    }
+
+  // Write the requested range of the attachment, without keeping the whole attachment in memory when possible
+  private def writeAttachment(
+    connection       : Connection,
+    req              : Request,
+    lastModifiedTime : Timestamp,
+    setIdParams      : (PreparedStatement, Iterator[Int]) ⇒ Unit,
+    range            : HttpRange.Partial
+  ): Unit = {
+
+    val os = httpResponse.getOutputStream
+
+    req.provider match {
+      case Provider.PostgreSQL ⇒ writeAttachmentInChunks(connection, req, lastModifiedTime, setIdParams, range, os)
+      case _                   ⇒ writeAttachmentStreamed(connection, req, lastModifiedTime, setIdParams, range, os)
+    }
+
+    os.flush()
+  }
+
+  private def attachmentSql(req: Request, column: String): String =
+    s"""|SELECT  $column
+        |FROM    ${tableName(req)}
+        |WHERE   ${idColumns(req) map (_ + " = ?") mkString " AND "}
+        |        AND last_modified_time = ?
+        |""".stripMargin
+
+  // With PostgreSQL, the driver reads the whole value of `file_content` when it is part of a result set, but `substring`
+  // only reads the part of the value it returns, as values are stored uncompressed, so one query is run per chunk
+  private def writeAttachmentInChunks(
+    connection       : Connection,
+    req              : Request,
+    lastModifiedTime : Timestamp,
+    setIdParams      : (PreparedStatement, Iterator[Int]) ⇒ Unit,
+    range            : HttpRange.Partial,
+    os               : OutputStream
+  ): Unit = {
+
+    val chunkSize =
+      providerPropertyAsInt(req.provider.entryName, "attachment.chunk-size", DefaultChunkSize) max 1
+
+    useAndClose(connection.prepareStatement(attachmentSql(req, "substring(file_content FROM ? FOR ?) file_chunk"))) { ps ⇒
+
+      var position = range.start
+      while (position <= range.end) {
+
+        val length = (range.end - position + 1 min chunkSize).toInt
+
+        val paramPosition = Iterator.from(1)
+        ps.setInt(paramPosition.next(), (position + 1).toInt)
+        ps.setInt(paramPosition.next(), length)
+        setIdParams(ps, paramPosition)
+        ps.setTimestamp(paramPosition.next(), lastModifiedTime)
+
+        useAndClose(ps.executeQuery()) { resultSet ⇒
+          if (! resultSet.next())
+            throw new IllegalStateException(s"attachment `${req.filename.get}` not found while reading it")
+          os.write(resultSet.getBytes("file_chunk"))
+        }
+
+        position += length
+      }
+    }
+  }
+
+  // Other databases read the whole value of a BLOB for each query returning part of it, so a single query is run, and
+  // the range is copied from the value's stream. With MySQL, the result set is streamed, so that the driver doesn't
+  // also buffer the result set.
+  private def writeAttachmentStreamed(
+    connection       : Connection,
+    req              : Request,
+    lastModifiedTime : Timestamp,
+    setIdParams      : (PreparedStatement, Iterator[Int]) ⇒ Unit,
+    range            : HttpRange.Partial,
+    os               : OutputStream
+  ): Unit =
+    useAndClose(connection.prepareStatement(attachmentSql(req, "file_content"))) { ps ⇒
+
+      if (req.provider == Provider.MySQL)
+        ps.setFetchSize(Integer.MIN_VALUE)
+
+      val paramPosition = Iterator.from(1)
+      setIdParams(ps, paramPosition)
+      ps.setTimestamp(paramPosition.next(), lastModifiedTime)
+
+      useAndClose(ps.executeQuery()) { resultSet ⇒
+        if (! resultSet.next())
+          throw new IllegalStateException(s"attachment `${req.filename.get}` not found while reading it")
+        useAndClose(resultSet.getBinaryStream("file_content")) { is ⇒
+          copyRange(is, os, range)
+        }
+      }
+    }
+
+  private def copyRange(is: InputStream, os: OutputStream, range: HttpRange.Partial): Unit = {
+
+    var toSkip = range.start
+    while (toSkip > 0) {
+      val skipped = is.skip(toSkip)
+      if (skipped > 0)
+        toSkip -= skipped
+      else if (is.read() == -1)
+        throw new IllegalStateException("attachment shorter than expected")
+      else
+        toSkip -= 1
+    }
+
+    val buffer    = new Array[Byte](8192)
+    var remaining = range.length
+    while (remaining > 0) {
+      val read = is.read(buffer, 0, (remaining min buffer.length).toInt)
+      if (read == -1)
+        throw new IllegalStateException("attachment shorter than expected")
+      os.write(buffer, 0, read)
+      remaining -= read
+    }
+  }
 }
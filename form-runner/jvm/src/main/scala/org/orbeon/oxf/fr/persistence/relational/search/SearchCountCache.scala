@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr.persistence.relational.search
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+import org.orbeon.oxf.fr.FormRunner
+import org.orbeon.oxf.fr.persistence.relational.search.adt.{Request, SearchPermissions}
+
+import scala.collection.JavaConverters._
+
+// Short-lived cache of the total number of documents matching a search, so that going through pages of results doesn't
+// count the documents for each page
+//
+// Entries are kept for `oxf.fr.persistence.[provider].search.count-cache.ttl` ms, and all entries are invalidated when
+// the index is updated on this server. Updates from other servers sharing the database are only seen after entries
+// expire.
+object SearchCountCache {
+
+  // The criteria determining the count: the request without paging, with only the columns used for filtering, and the
+  // permissions, which are represented by the form permissions and the user
+  case class Key(
+    dataSourceName : String,
+    request        : Request,
+    version        : Int,
+    permissions    : (Boolean, Option[String], Option[String], List[String])
+  )
+
+  object Key {
+    def apply(dataSourceName: String, request: Request, version: Int, permissions: SearchPermissions): Key =
+      Key(
+        dataSourceName = dataSourceName,
+        request        =
+          request.copy(
+            pageSize   = 0,
+            pageNumber = 0,
+            pageCursor = None,
+            columns    = request.columns filter (_.filterWith.nonEmpty) sortBy (_.path)
+          ),
+        version        = version,
+        permissions    = (
+          permissions.authorizedBasedOnRole,
+          permissions.authorizedIfUsername,
+          permissions.authorizedIfGroup,
+          permissions.authorizedIfOrganizationMatch
+        )
+      )
+  }
+
+  private case class Entry(count: Int, generation: Long, expiration: Long)
+
+  private val MaxEntries = 1000
+  private val DefaultTTL = 5000
+
+  private val generation = new AtomicLong(0)
+  private val entries    = new ConcurrentHashMap[Key, Entry]
+
+  // Called when the index is updated
+  def invalidate(): Unit =
+    generation.incrementAndGet()
+
+  def count(key: Key)(compute: ⇒ Int): Int = {
+
+    val ttl = FormRunner.providerPropertyAsInt(key.request.provider.entryName, "search.count-cache.ttl", DefaultTTL)
+
+    if (ttl <= 0)
+      compute
+    else {
+      // Read the generation before counting, so that a count done while the index is updated isn't used afterwards
+      val now               = System.currentTimeMillis
+      val currentGeneration = generation.get
+
+      entries.get(key) match {
+        case Entry(count, `currentGeneration`, expiration) if expiration > now ⇒
+          count
+        case _ ⇒
+          val count = compute
+          if (entries.size >= MaxEntries)
+            removeStale(now, currentGeneration)
+          entries.put(key, Entry(count, currentGeneration, now + ttl))
+          count
+      }
+    }
+  }
+
+  private def removeStale(now: Long, currentGeneration: Long): Unit = {
+    entries.asScala.retain { case (_, entry) ⇒ entry.generation == currentGeneration && entry.expiration > now }
+    if (entries.size >= MaxEntries)
+      entries.clear()
+  }
+}
@@ -13,7 +13,7 @@
  */
 package org.orbeon.oxf.fr.persistence.relational.search
 
-import java.sql.Timestamp
+import java.sql.Connection
 
 import org.orbeon.oxf.externalcontext.{Credentials, Organization}
 import org.orbeon.oxf.fr.permission.PermissionsAuthorization.{CheckWithDataUser, PermissionsCheck}
@@ -63,7 +63,7 @@ trait SearchLogic extends SearchRequest {
     )
   }
 
-  def doSearch(request: Request): (List[Document], Int) =  {
+  def doSearch(request: Request): (List[Document], Int, Option[PageCursor]) =  {
 
     val user             = PermissionsAuthorization.currentUserFromSession
     val permissions      = computePermissions(request, user)
@@ -75,7 +75,7 @@ trait SearchLogic extends SearchRequest {
 
     if (hasNoPermissions)
       // There is no chance we can access any data, no need to run any SQL
-      (Nil, 0)
+      (Nil, 0, None)
     else
       RelationalUtils.withConnection { connection ⇒
 
@@ -89,95 +89,69 @@ trait SearchLogic extends SearchRequest {
           freeTextFilterPart (request)
         )
 
-        val innerSQL = buildQuery(commonParts)
         val searchCount = {
-          val sql =
-            s"""SELECT count(*)
-               |  FROM (
-               |       $innerSQL
-               |       ) a
-             """.stripMargin
-
-          Logger.logDebug("search total query", sql)
-          executeQuery(connection, sql, commonParts) { rs ⇒
-            rs.next()
-            rs.getInt(1)
-          }
+          val key = SearchCountCache.Key(RelationalUtils.getDataSourceNameFromHeaders, request, version, permissions)
+          SearchCountCache.count(key)(countDocuments(connection, commonParts))
         }
 
         // Build SQL and create statement
-        val sql = {
-          val startOffsetZeroBased = (request.pageNumber - 1) * request.pageSize
-          val rowNumSQL            = Provider.rowNumSQL(request.provider, connection, tableAlias = "c")
-          val rowNumCol            = rowNumSQL.col
-          val rowNumOrderBy        = rowNumSQL.orderBy
-          val rowNumTable          = rowNumSQL.table match {
-            case Some(table) ⇒ table + ","
-            case None        ⇒ ""
-          }
-
-          // Use LEFT JOIN instead of regular join, in case the form doesn't have any control marked
-          // to be indexed, in which case there won't be anything for it in orbeon_i_control_text.
-          s"""SELECT
-             |    c.*,
-             |    t.control,
-             |    t.pos,
-             |    t.val
-             |FROM
-             |    (
-             |        SELECT
-             |            c.*,
-             |            $rowNumCol
-             |        FROM
-             |            $rowNumTable
-             |            (
-             |                $innerSQL
-             |            ) s
-             |        INNER JOIN
-             |            orbeon_i_current c
-             |            ON c.data_id = s.data_id
-             |        $rowNumOrderBy
-             |    ) c
-             | LEFT JOIN
-             |    orbeon_i_control_text t
-             |    ON t.data_id = c.data_id
-             | WHERE
-             |    row_num
-             |        BETWEEN ${startOffsetZeroBased + 1}
-             |        AND     ${startOffsetZeroBased + request.pageSize}
-             |""".stripMargin
-        }
+        val (sql, parts) =
+          documentsQuery(
+            provider   = request.provider,
+            connection = connection,
+            innerParts = commonParts,
+            pageSize   = request.pageSize,
+            pageNumber = request.pageNumber,
+            pageCursor = request.pageCursor
+          )
         Logger.logDebug("search items query", sql)
 
-        val documentsMetadataValues = executeQuery(connection, sql, commonParts) { documentsResultSet ⇒
-
-          Iterator.iterateWhile(
-            cond = documentsResultSet.next(),
-            elem = (
-                DocumentMetaData(
-                  documentId       = documentsResultSet.getString                 ("document_id"),
-                  draft            = documentsResultSet.getString                 ("draft") == "Y",
-                  created          = documentsResultSet.getTimestamp              ("created"),
-                  lastModifiedTime = documentsResultSet.getTimestamp              ("last_modified_time"),
-                  lastModifiedBy   = documentsResultSet.getString                 ("last_modified_by"),
-                  username         = Option(documentsResultSet.getString          ("username")),
-                  groupname        = Option(documentsResultSet.getString          ("groupname")),
-                  organizationId   = RelationalUtils.getIntOpt(documentsResultSet, "organization_id")
-                ),
-                DocumentValue(
-                  control          = documentsResultSet.getString                 ("control"),
-                  pos              = documentsResultSet.getInt                    ("pos"),
-                  value            = documentsResultSet.getString                 ("val")
-                )
+        val (documentsMetadataValues, nextPageCursor) = executeQuery(connection, sql, parts) { documentsResultSet ⇒
+
+          val rows =
+            Iterator.iterateWhile(
+              cond = documentsResultSet.next(),
+              elem = (
+                  DocumentMetaData(
+                    documentId       = documentsResultSet.getString                 ("document_id"),
+                    draft            = documentsResultSet.getString                 ("draft") == "Y",
+                    created          = documentsResultSet.getTimestamp              ("created"),
+                    lastModifiedTime = documentsResultSet.getTimestamp              ("last_modified_time"),
+                    lastModifiedBy   = documentsResultSet.getString                 ("last_modified_by"),
+                    username         = Option(documentsResultSet.getString          ("username")),
+                    groupname        = Option(documentsResultSet.getString          ("groupname")),
+                    organizationId   = RelationalUtils.getIntOpt(documentsResultSet, "organization_id")
+                  ),
+                  DocumentValue(
+                    control          = documentsResultSet.getString                 ("control"),
+                    pos              = documentsResultSet.getInt                    ("pos"),
+                    value            = documentsResultSet.getString                 ("val")
+                  ),
+                  PageCursor(
+                    lastModifiedTime = documentsResultSet.getTimestamp              ("last_modified_time"),
+                    dataId           = documentsResultSet.getInt                    ("data_id")
+                  )
+              )
             )
-          )
-            .toList
+              .toList
+
+          val metadataValues =
+            rows
+              // Group row by common metadata, since the metadata is repeated in the result set
+              .groupBy(_._1).toList
 
-            // Group row by common metadata, since the metadata is repeated in the result set
-            .groupBy(_._1).mapValues(_.map(_._2)).toList
+              // Sort by last modified in descending order, then by data id like the query, as the call expects the
+              // result to be pre-sorted, and documents with the same last modified time must be in the order of pages
+              .sortBy(_._2.head._3)(PageCursor.PageCursorOrdering.reverse)
 
-            // Sort by last modified in descending order, as the call expects the result to be pre-sorted
-            .sortBy(_._1.lastModifiedTime)(Ordering[Timestamp].reverse)
+              .map { case (metadata, metadataRows) ⇒ metadata → metadataRows.map(_._2) }
+
+          // If the page is full, the next page starts after the last document of this page
+          val nextPageCursor =
+            (metadataValues.size == request.pageSize && rows.nonEmpty) option
+              rows.map(_._3).min(PageCursor.PageCursorOrdering)
+
+          (metadataValues, nextPageCursor)
         }
 
         // Compute possible operations for each document
@@ -189,8 +163,142 @@ trait SearchLogic extends SearchRequest {
             val operations                = PermissionsAuthorization.authorizedOperations(permissions.formPermissions, user, check)
             Document(metadata, Operations.serialize(operations), values)
           }
-        (documents, searchCount)
+        (documents, searchCount, nextPageCursor)
       }
     }
 
+  def countDocuments(connection: Connection, innerParts: List[StatementPart]): Int = {
+
+    val sql =
+      s"""SELECT count(*)
+         |  FROM (
+         |       ${buildQuery(innerParts)}
+         |       ) a
+       """.stripMargin
+
+    Logger.logDebug("search total query", sql)
+    executeQuery(connection, sql, innerParts) { rs ⇒
+      rs.next()
+      rs.getInt(1)
+    }
+  }
+
+  // Query for the documents of a page with their values, in descending order of last modified time, then of data id
+  //
+  // With a cursor, and for the first page, the page is read with a keyset condition and a limit, so the database
+  // only needs to keep the documents of the page while going through the matching documents, and can use the
+  // `orbeon_i_current_i3` index. Otherwise, all the matching documents are numbered to find those of the page.
+  def documentsQuery(
+    provider   : Provider,
+    connection : Connection,
+    innerParts : List[StatementPart],
+    pageSize   : Int,
+    pageNumber : Int,
+    pageCursor : Option[PageCursor]
+  ): (String, List[StatementPart]) = {
+
+    val innerSQL = buildQuery(innerParts)
+
+    if (pageCursor.isDefined || pageNumber == 1) {
+
+      val cursorPart =
+        pageCursor match {
+          case Some(PageCursor(lastModifiedTime, dataId)) ⇒
+            StatementPart(
+              sql     =
+                """|WHERE
+                   |    c.last_modified_time < ? OR
+                   |    (
+                   |        c.last_modified_time = ? AND
+                   |        c.data_id            < ?
+                   |    )
+                   |""".stripMargin,
+              setters = List(
+                _.setTimestamp(_, lastModifiedTime),
+                _.setTimestamp(_, lastModifiedTime),
+                _.setInt      (_, dataId)
+              )
+            )
+          case None ⇒
+            NilPart
+        }
+
+      // Use LEFT JOIN instead of regular join, in case the form doesn't have any control marked
+      // to be indexed, in which case there won't be anything for it in orbeon_i_control_text.
+      val sql =
+        s"""SELECT
+           |    c.*,
+           |    t.control,
+           |    t.pos,
+           |    t.val
+           |FROM
+           |    (
+           |        SELECT
+           |            c.*
+           |        FROM
+           |            (
+           |                $innerSQL
+           |            ) s
+           |        INNER JOIN
+           |            orbeon_i_current c
+           |            ON c.data_id = s.data_id
+           |        ${cursorPart.sql}
+           |        ORDER BY
+           |            c.last_modified_time DESC,
+           |            c.data_id            DESC
+           |        LIMIT $pageSize
+           |    ) c
+           | LEFT JOIN
+           |    orbeon_i_control_text t
+           |    ON t.data_id = c.data_id
+           |""".stripMargin
+
+      (sql, innerParts :+ cursorPart)
+
+    } else {
+
+      val startOffsetZeroBased = (pageNumber - 1) * pageSize
+      val rowNumSQL            = Provider.rowNumSQL(provider, connection, tableAlias = "c")
+      val rowNumCol            = rowNumSQL.col
+      val rowNumOrderBy        = rowNumSQL.orderBy
+      val rowNumTable          = rowNumSQL.table match {
+        case Some(table) ⇒ table + ","
+        case None        ⇒ ""
+      }
+
+      // Use LEFT JOIN instead of regular join, in case the form doesn't have any control marked
+      // to be indexed, in which case there won't be anything for it in orbeon_i_control_text.
+      val sql =
+        s"""SELECT
+           |    c.*,
+           |    t.control,
+           |    t.pos,
+           |    t.val
+           |FROM
+           |    (
+           |        SELECT
+           |            c.*,
+           |            $rowNumCol
+           |        FROM
+           |            $rowNumTable
+           |            (
+           |                $innerSQL
+           |            ) s
+           |        INNER JOIN
+           |            orbeon_i_current c
+           |            ON c.data_id = s.data_id
+           |        $rowNumOrderBy
+           |    ) c
+           | LEFT JOIN
+           |    orbeon_i_control_text t
+           |    ON t.data_id = c.data_id
+           | WHERE
+           |    row_num
+           |        BETWEEN ${startOffsetZeroBased + 1}
+           |        AND     ${startOffsetZeroBased + pageSize}
+           |""".stripMargin
+
+      (sql, innerParts)
+    }
+  }
 }
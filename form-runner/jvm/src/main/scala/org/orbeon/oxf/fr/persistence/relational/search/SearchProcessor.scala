@@ -53,9 +53,9 @@ class SearchProcessor
           )
           val request = parseRequest(searchDocument, version)
 
-          val (result, count) = doSearch(request)
+          val (result, count, nextPageCursor) = doSearch(request)
 
-          outputResult(request, result, count, xmlReceiver)
+          outputResult(request, result, count, nextPageCursor, xmlReceiver)
         }
       }
     )
@@ -18,6 +18,7 @@ import org.orbeon.oxf.fr.persistence.relational.search.adt.Drafts._
 import org.orbeon.oxf.fr.persistence.relational.search.adt.WhichDrafts._
 import org.orbeon.oxf.fr.persistence.relational.search.adt._
 import org.orbeon.oxf.fr.persistence.relational.{Provider, Version}
+import org.orbeon.oxf.http.{HttpStatusCodeException, StatusCode}
 import org.orbeon.oxf.util.NetUtils
 import org.orbeon.oxf.util.StringUtils._
 import org.orbeon.oxf.xml.TransformerUtils
@@ -53,6 +54,10 @@ trait SearchRequest {
           group          = group,
           pageSize       = searchElement.firstChildOpt("page-size")  .get.stringValue.toInt,
           pageNumber     = searchElement.firstChildOpt("page-number").get.stringValue.toInt,
+          pageCursor     =
+            searchElement.firstChildOpt("page-cursor")
+              .flatMap(el ⇒ trimAllToOpt(el.stringValue))
+              .map(cursor ⇒ PageCursor.decode(cursor).getOrElse(throw HttpStatusCodeException(StatusCode.BadRequest))),
           freeTextSearch =
             queryEls
               // Free text is in the first <query>
@@ -14,24 +14,30 @@
 package org.orbeon.oxf.fr.persistence.relational.search
 
 import org.orbeon.oxf.fr.persistence.relational.RelationalUtils.Logger
-import org.orbeon.oxf.fr.persistence.relational.search.adt.{Document, Request}
+import org.orbeon.oxf.fr.persistence.relational.search.adt.{Document, PageCursor, Request}
 import org.orbeon.oxf.util.DateUtils._
 import org.orbeon.oxf.xml.XMLReceiver
 import org.orbeon.scaxon.NodeConversions
 
+import scala.xml.Text
+
 
 trait SearchResult extends SearchRequest {
 
   def outputResult(
-    request   : Request,
-    documents : List[Document],
-    count     : Int,
-    receiver  : XMLReceiver)
+    request        : Request,
+    documents      : List[Document],
+    count          : Int,
+    nextPageCursor : Option[PageCursor],
+    receiver       : XMLReceiver)
   : Unit = {
 
     // Produce XML result
+    // The next page cursor can be passed back in the request as `<page-cursor>` to get the next page
     val documentsElem =
-      <documents search-total={count.toString}>{
+      <documents
+        search-total     ={count.toString}
+        next-page-cursor ={nextPageCursor map (cursor ⇒ Text(cursor.encode))}>{
         documents.map(doc ⇒
           <document
             created       ={DateTime.print(doc.metadata.created.getTime)}
@@ -13,8 +13,12 @@
  */
 package org.orbeon.oxf.fr.persistence.relational.search.adt
 
+import java.sql.Timestamp
+
 import org.orbeon.oxf.fr.persistence.relational.{Provider, RequestCommon, Version}
 
+import scala.util.Try
+
 case class Request(
   provider       : Provider,
   app            : String,
@@ -24,12 +28,41 @@ case class Request(
   group          : Option[String],
   pageSize       : Int,
   pageNumber     : Int,
+  pageCursor     : Option[PageCursor],
   columns        : List[Column],
   drafts         : Drafts,
   freeTextSearch : Option[String]
 ) extends
   RequestCommon
 
+// Position of the last document of a page, in the order of documents, which is by descending last modified time, then
+// by descending data id, so the next page can be read without going through the documents of the previous pages
+case class PageCursor(
+  lastModifiedTime : Timestamp,
+  dataId           : Int
+) {
+  def encode: String =
+    s"${lastModifiedTime.getTime}_${lastModifiedTime.getNanos}_$dataId"
+}
+
+object PageCursor {
+
+  val PageCursorOrdering: Ordering[PageCursor] =
+    Ordering.by((c: PageCursor) ⇒ (c.lastModifiedTime.getTime, c.lastModifiedTime.getNanos, c.dataId))
+
+  def decode(encoded: String): Option[PageCursor] =
+    encoded.split('_') match {
+      case Array(time, nanos, dataId) ⇒
+        Try {
+          val lastModifiedTime = new Timestamp(time.toLong)
+          lastModifiedTime.setNanos(nanos.toInt)
+          PageCursor(lastModifiedTime, dataId.toInt)
+        }.toOption
+      case _ ⇒
+        None
+    }
+}
+
 case class Column(
   path           : String,
   filterWith     : Option[String]
@@ -27,10 +27,16 @@ import java.util.concurrent.locks.Lock;
  *
  * @noinspection SimplifiableIfStatement
  */
-public class MemoryCacheImpl implements Cache {
+public class MemoryCacheImpl implements Cache, CacheStatistics {
 
     private int maxSize;
 
+    // Statistics, updated while holding the monitor
+    private int hitCount;
+    private int missCount;
+    private int addCount;
+    private int expirationCount;
+
     private Map<CacheKey, CacheEntry> keyToEntryMap = new HashMap<CacheKey, CacheEntry>();
     private CacheLinkedList linkedList = new CacheLinkedList();
     private int currentSize;
@@ -51,6 +57,7 @@ public class MemoryCacheImpl implements Cache {
                 // maxsize.
             }
             currentSize++;
+            addCount++;
 
             entry = new CacheEntry();
             entry.key = key;
@@ -123,6 +130,7 @@ public class MemoryCacheImpl implements Cache {
 
             // Notify object
             if (isEvict) {
+                expirationCount++;
                 notifyEvicted(entry.cacheable);
             } else if (isRemove) {
                 notifyRemoved(entry.cacheable);
@@ -187,6 +195,8 @@ public class MemoryCacheImpl implements Cache {
         final CacheEntry entry = keyToEntryMap.get(key);
         if (entry != null && lowerOrEqual(validity, entry.validity)) {
 
+            hitCount++;
+
             if (remove) {
                 // Remove and notify
                 remove(key, false, true);
@@ -199,6 +209,7 @@ public class MemoryCacheImpl implements Cache {
             return entry;
         } else {
             // Not latest validity
+            missCount++;
             return null;
         }
     }
@@ -216,6 +227,22 @@ public class MemoryCacheImpl implements Cache {
         return maxSize;
     }
 
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    public int getAddCount() {
+        return addCount;
+    }
+
+    public int getExpirationCount() {
+        return expirationCount;
+    }
+
     public synchronized void setMaxSize(int maxSize) {
         if (maxSize != this.maxSize) {
             // Decrease size if necessary
@@ -248,7 +275,7 @@ public class MemoryCacheImpl implements Cache {
         });
     }
 
-    private boolean lowerOrEqual(Object left, Object right) {
+    static boolean lowerOrEqual(Object left, Object right) {
         if (left instanceof List && right instanceof List) {
             List leftList = (List) left;
             List rightList = (List) right;
@@ -0,0 +1,411 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.xml.SAXStore;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Off-heap store for cached `SAXStore`s.
+ *
+ * `SAXStore`s are kept in their serialized form (see `SAXStore.writeExternal()`) in pages of direct memory. Pages are
+ * allocated up to a maximum number of bytes and reused rather than released, so that the amount of direct memory in
+ * use doesn't depend on when the garbage collector runs. When no page is available, entries are evicted in LRU order.
+ *
+ * Lookups read the pages into a new `SAXStore`, which is meant to be only referenced for the duration of a replay and
+ * therefore doesn't survive young collections. Pages of an entry being read are not reused until the read completes.
+ */
+public class OffHeapStore implements CacheStatistics {
+
+    public static final int PAGE_SIZE = 64 * 1024;
+
+    // An entry can't take more than this fraction of the pages, so that a single large document doesn't flush the store
+    private static final int MAX_ENTRY_FRACTION = 4;
+
+    private static class Entry {
+        final CacheKey key;
+        final Object validity;
+        final ByteBuffer[] pages;
+        final int length;
+
+        // Updated while holding the monitor
+        int readers;
+        boolean removed;
+
+        Entry(CacheKey key, Object validity, ByteBuffer[] pages, int length) {
+            this.key = key;
+            this.validity = validity;
+            this.pages = pages;
+            this.length = length;
+        }
+    }
+
+    private static class PagesExhaustedException extends IOException {}
+
+    // In access order, so that the first entry is the least recently used
+    private final LinkedHashMap<CacheKey, Entry> entries = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true);
+    private final Deque<ByteBuffer> freePages = new ArrayDeque<ByteBuffer>();
+
+    private volatile int maxPages;
+    private int allocatedPages;
+    private int usedPages;
+
+    // Statistics, updated while holding the monitor
+    private int hitCount;
+    private int missCount;
+    private int addCount;
+    private int expirationCount;
+
+    public OffHeapStore(long maxBytes) {
+        this.maxPages = pagesFor(maxBytes);
+    }
+
+    private static int pagesFor(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, bytes) / PAGE_SIZE);
+    }
+
+    public boolean isEnabled() {
+        return maxPages > 0;
+    }
+
+    public long getMaxBytes() {
+        return (long) maxPages * PAGE_SIZE;
+    }
+
+    public synchronized long getUsedBytes() {
+        return (long) usedPages * PAGE_SIZE;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return (long) allocatedPages * PAGE_SIZE;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        final int newMaxPages = pagesFor(maxBytes);
+        if (newMaxPages != maxPages) {
+            maxPages = newMaxPages;
+
+            // Evict entries if needed and drop surplus free pages
+            if (maxPages == 0)
+                removeAll();
+            while (usedPages > maxPages && evictLast())
+                ;
+            while (allocatedPages > maxPages && ! freePages.isEmpty()) {
+                freePages.poll();
+                allocatedPages--;
+            }
+        }
+    }
+
+    /**
+     * Store a `SAXStore`.
+     *
+     * @return whether the `SAXStore` was stored, which is not the case if it is too large
+     */
+    public boolean add(CacheKey key, Object validity, SAXStore saxStore) {
+
+        if (key == null || validity == null || ! isEnabled())
+            return false;
+
+        final PageOutputStream os = new PageOutputStream(maxPages / MAX_ENTRY_FRACTION);
+        try {
+            final ObjectOutputStream oos = new ObjectOutputStream(os);
+            saxStore.writeExternal(oos);
+            oos.close();
+        } catch (PagesExhaustedException e) {
+            os.releasePages();
+            return false;
+        } catch (IOException e) {
+            os.releasePages();
+            throw new OXFException(e);
+        }
+
+        synchronized (this) {
+            final Entry existing = entries.remove(key);
+            if (existing != null)
+                removed(existing);
+
+            entries.put(key, new Entry(key, validity, os.getPages(), os.getLength()));
+            addCount++;
+        }
+        return true;
+    }
+
+    public synchronized void remove(CacheKey key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null)
+            removed(entry);
+    }
+
+    public synchronized int removeAll() {
+        final int count = entries.size();
+        for (final Entry entry : entries.values())
+            removed(entry);
+        entries.clear();
+        return count;
+    }
+
+    public SAXStore findValid(CacheKey key, Object validity) {
+        final Entry entry = acquireValid(key, validity, false);
+        return entry == null ? null : read(entry);
+    }
+
+    public SAXStore takeValid(CacheKey key, Object validity) {
+        final Entry entry = acquireValid(key, validity, true);
+        return entry == null ? null : read(entry);
+    }
+
+    public scala.Option<scala.Tuple2<Object, Object>> findValidWithValidity(CacheKey key, Object validity) {
+        final Entry entry = acquireValid(key, validity, false);
+        if (entry == null)
+            return scala.Option.<scala.Tuple2<Object, Object>>apply(null);
+        else
+            return scala.Option.apply(new scala.Tuple2<Object, Object>(read(entry), entry.validity));
+    }
+
+    public CacheEntry findAny(CacheKey key) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null)
+                return null;
+            entry.readers++;
+        }
+
+        final CacheEntry result = new CacheEntry();
+        result.key = entry.key;
+        result.validity = entry.validity;
+        result.cacheable = read(entry);
+        return result;
+    }
+
+    public synchronized List<CacheKey> getKeys() {
+        return new ArrayList<CacheKey>(entries.keySet());
+    }
+
+    private synchronized Entry acquireValid(CacheKey key, Object validity, boolean remove) {
+        final Entry entry = entries.get(key);
+        if (entry != null && MemoryCacheImpl.lowerOrEqual(validity, entry.validity)) {
+            hitCount++;
+            entry.readers++;
+            if (remove) {
+                entries.remove(key);
+                removed(entry);
+            }
+            return entry;
+        } else {
+            missCount++;
+            return null;
+        }
+    }
+
+    // Read an entry acquired with `readers` incremented
+    private SAXStore read(Entry entry) {
+        try {
+            return new SAXStore(new ObjectInputStream(new PageInputStream(entry.pages, entry.length)));
+        } catch (IOException e) {
+            throw new OXFException(e);
+        } finally {
+            synchronized (this) {
+                entry.readers--;
+                if (entry.removed && entry.readers == 0)
+                    releasePages(entry.pages);
+            }
+        }
+    }
+
+    // Called while holding the monitor once the entry is no longer in the map
+    private void removed(Entry entry) {
+        entry.removed = true;
+        if (entry.readers == 0)
+            releasePages(entry.pages);
+    }
+
+    private void releasePages(ByteBuffer[] pages) {
+        for (final ByteBuffer page : pages) {
+            usedPages--;
+            if (allocatedPages > maxPages) {
+                // The maximum size was reduced
+                allocatedPages--;
+            } else {
+                freePages.push(page);
+            }
+        }
+    }
+
+    // Evict the least recently used entry which is not being read
+    private boolean evictLast() {
+        for (final Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+            final Entry entry = i.next();
+            if (entry.readers == 0) {
+                i.remove();
+                removed(entry);
+                expirationCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized ByteBuffer acquirePage() throws PagesExhaustedException {
+        while (true) {
+            final ByteBuffer freePage = freePages.poll();
+            if (freePage != null) {
+                usedPages++;
+                freePage.clear();
+                return freePage;
+            } else if (allocatedPages < maxPages) {
+                allocatedPages++;
+                usedPages++;
+                return ByteBuffer.allocateDirect(PAGE_SIZE);
+            } else if (! evictLast()) {
+                throw new PagesExhaustedException();
+            }
+        }
+    }
+
+    private class PageOutputStream extends OutputStream {
+
+        private final int maxEntryPages;
+        private final List<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+        private ByteBuffer current;
+        private int length;
+
+        PageOutputStream(int maxEntryPages) {
+            this.maxEntryPages = maxEntryPages;
+        }
+
+        private void ensurePage() throws PagesExhaustedException {
+            if (current == null || ! current.hasRemaining()) {
+                if (pages.size() >= maxEntryPages)
+                    throw new PagesExhaustedException();
+                current = acquirePage();
+                pages.add(current);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensurePage();
+            current.put((byte) b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                ensurePage();
+                final int count = Math.min(len, current.remaining());
+                current.put(b, off, count);
+                off += count;
+                len -= count;
+                length += count;
+            }
+        }
+
+        ByteBuffer[] getPages() {
+            return pages.toArray(new ByteBuffer[pages.size()]);
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        void releasePages() {
+            synchronized (OffHeapStore.this) {
+                OffHeapStore.this.releasePages(getPages());
+            }
+            pages.clear();
+        }
+    }
+
+    private static class PageInputStream extends InputStream {
+
+        private final ByteBuffer[] pages;
+        private int remaining;
+        private int pageIndex = -1;
+        private ByteBuffer current;
+
+        PageInputStream(ByteBuffer[] pages, int length) {
+            this.pages = pages;
+            this.remaining = length;
+        }
+
+        // Use a duplicate so that concurrent readers don't share positions
+        private boolean ensurePage() {
+            if (remaining == 0)
+                return false;
+            if (current == null || ! current.hasRemaining()) {
+                current = pages[++pageIndex].duplicate();
+                current.clear();
+                current.limit(Math.min(PAGE_SIZE, remaining));
+            }
+            return true;
+        }
+
+        @Override
+        public int read() {
+            if (! ensurePage())
+                return -1;
+            remaining--;
+            return current.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (! ensurePage())
+                return -1;
+            final int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return remaining;
+        }
+    }
+
+    public synchronized int getCurrentSize() {
+        return entries.size();
+    }
+
+    // The number of entries is only bounded by the number of bytes
+    public int getMaxSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getAddCount() {
+        return addCount;
+    }
+
+    public synchronized int getExpirationCount() {
+        return expirationCount;
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.apache.commons.collections.iterators.IteratorChain;
+
+import java.util.Iterator;
+
+/**
+ * Lock-striped memory cache.
+ *
+ * Keys are distributed over a fixed number of segments, each of which is a `MemoryCacheImpl` with its own monitor, so
+ * that concurrent lookups of different keys don't contend on a single lock. Validity and eviction semantics are those
+ * of `MemoryCacheImpl`, except that LRU ordering is maintained per segment only, which makes global eviction order
+ * approximate.
+ */
+public class SegmentedMemoryCacheImpl implements Cache, CacheStatistics {
+
+    private final MemoryCacheImpl[] segments;
+    private volatile int maxSize;
+
+    public SegmentedMemoryCacheImpl(int maxSize, int segmentCount) {
+
+        if (segmentCount < 1)
+            throw new IllegalArgumentException("segmentCount must be at least 1");
+
+        this.segments = new MemoryCacheImpl[segmentCount];
+        this.maxSize  = maxSize;
+
+        for (int i = 0; i < segmentCount; i++)
+            segments[i] = new MemoryCacheImpl(segmentMaxSize(maxSize, i));
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    // Distribute the size over the segments so that the sum of the segment sizes is exactly `maxSize`
+    private int segmentMaxSize(int maxSize, int segmentIndex) {
+        final int segmentCount = segments.length;
+        return maxSize / segmentCount + (segmentIndex < maxSize % segmentCount ? 1 : 0);
+    }
+
+    private MemoryCacheImpl segmentFor(CacheKey key) {
+        // Spread the hash so that keys with poor low bits still distribute well
+        final int h = key.hashCode();
+        final int spread = (h ^ (h >>> 16)) & 0x7fffffff;
+        return segments[spread % segments.length];
+    }
+
+    public void add(CacheKey key, Object validity, Object cacheable) {
+        if (key == null) return;
+        segmentFor(key).add(key, validity, cacheable);
+    }
+
+    public void remove(CacheKey key) {
+        segmentFor(key).remove(key);
+    }
+
+    public int removeAll() {
+        int count = 0;
+        for (final MemoryCacheImpl segment : segments)
+            count += segment.removeAll();
+        return count;
+    }
+
+    public scala.Option<scala.Tuple2<Object, Object>> findValidWithValidity(CacheKey key, Object validity) {
+        return segmentFor(key).findValidWithValidity(key, validity);
+    }
+
+    public Object findValid(CacheKey key, Object validity) {
+        return segmentFor(key).findValid(key, validity);
+    }
+
+    public Object takeValid(CacheKey key, Object validity) {
+        return segmentFor(key).takeValid(key, validity);
+    }
+
+    public CacheEntry findAny(CacheKey key) {
+        return segmentFor(key).findAny(key);
+    }
+
+    public Iterator<CacheKey> iterateCacheKeys() {
+        final IteratorChain chain = new IteratorChain();
+        for (final MemoryCacheImpl segment : segments)
+            chain.addIterator(segment.iterateCacheKeys());
+        return chain;
+    }
+
+    public Iterator<Object> iterateCacheObjects() {
+        final IteratorChain chain = new IteratorChain();
+        for (final MemoryCacheImpl segment : segments)
+            chain.addIterator(segment.iterateCacheObjects());
+        return chain;
+    }
+
+    public int getCurrentSize() {
+        int size = 0;
+        for (final MemoryCacheImpl segment : segments)
+            size += segment.getCurrentSize();
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        // Make the common case of an unchanged size cheap, as callers can set the size again whenever it is configured
+        if (maxSize != this.maxSize) {
+            for (int i = 0; i < segments.length; i++)
+                segments[i].setMaxSize(segmentMaxSize(maxSize, i));
+
+            this.maxSize = maxSize;
+        }
+    }
+
+    public int getHitCount() {
+        int count = 0;
+        for (final MemoryCacheImpl segment : segments)
+            count += segment.getHitCount();
+        return count;
+    }
+
+    public int getMissCount() {
+        int count = 0;
+        for (final MemoryCacheImpl segment : segments)
+            count += segment.getMissCount();
+        return count;
+    }
+
+    public int getAddCount() {
+        int count = 0;
+        for (final MemoryCacheImpl segment : segments)
+            count += segment.getAddCount();
+        return count;
+    }
+
+    public int getExpirationCount() {
+        int count = 0;
+        for (final MemoryCacheImpl segment : segments)
+            count += segment.getExpirationCount();
+        return count;
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.apache.commons.collections.Transformer;
+import org.apache.commons.collections.functors.NotNullPredicate;
+import org.apache.commons.collections.iterators.FilterIterator;
+import org.apache.commons.collections.iterators.IteratorChain;
+import org.apache.commons.collections.iterators.TransformIterator;
+import org.orbeon.oxf.xml.SAXStore;
+
+import java.util.Iterator;
+
+/**
+ * Memory cache with an off-heap tier for `SAXStore`s.
+ *
+ * When the off-heap store is enabled, `SAXStore`s are stored off-heap, unless they are too large, and all other
+ * objects are stored in the memory cache. Lookups check the memory cache first. Statistics combine both tiers, and
+ * statistics for the off-heap tier alone are available through `getOffHeapStore()`.
+ *
+ * The off-heap store is empty when it is not enabled, so lookups skip it in that case.
+ */
+public class TieredCacheImpl implements Cache, CacheStatistics {
+
+    private final MemoryCacheImpl heap;
+    private final OffHeapStore offHeap;
+
+    public TieredCacheImpl(MemoryCacheImpl heap, OffHeapStore offHeap) {
+        this.heap = heap;
+        this.offHeap = offHeap;
+    }
+
+    public OffHeapStore getOffHeapStore() {
+        return offHeap;
+    }
+
+    public void add(CacheKey key, Object validity, Object cacheable) {
+        if (key == null || validity == null) return;
+        if (cacheable instanceof SAXStore && offHeap.isEnabled() && offHeap.add(key, validity, (SAXStore) cacheable)) {
+            heap.remove(key);
+        } else {
+            if (offHeap.isEnabled())
+                offHeap.remove(key);
+            heap.add(key, validity, cacheable);
+        }
+    }
+
+    public void remove(CacheKey key) {
+        heap.remove(key);
+        offHeap.remove(key);
+    }
+
+    public int removeAll() {
+        return heap.removeAll() + offHeap.removeAll();
+    }
+
+    public scala.Option<scala.Tuple2<Object, Object>> findValidWithValidity(CacheKey key, Object validity) {
+        final scala.Option<scala.Tuple2<Object, Object>> result = heap.findValidWithValidity(key, validity);
+        return result.isDefined() || ! offHeap.isEnabled() ? result : offHeap.findValidWithValidity(key, validity);
+    }
+
+    public Object findValid(CacheKey key, Object validity) {
+        final Object result = heap.findValid(key, validity);
+        return result != null || ! offHeap.isEnabled() ? result : offHeap.findValid(key, validity);
+    }
+
+    public Object takeValid(CacheKey key, Object validity) {
+        final Object result = heap.takeValid(key, validity);
+        return result != null || ! offHeap.isEnabled() ? result : offHeap.takeValid(key, validity);
+    }
+
+    public CacheEntry findAny(CacheKey key) {
+        final CacheEntry result = heap.findAny(key);
+        return result != null || ! offHeap.isEnabled() ? result : offHeap.findAny(key);
+    }
+
+    public Iterator<CacheKey> iterateCacheKeys() {
+        return new IteratorChain(heap.iterateCacheKeys(), offHeap.getKeys().iterator());
+    }
+
+    // Off-heap entries are read as they are iterated, and skipped if they were removed in the meantime
+    public Iterator<Object> iterateCacheObjects() {
+        final Iterator<Object> offHeapObjects =
+            new FilterIterator(
+                new TransformIterator(offHeap.getKeys().iterator(), new Transformer() {
+                    public Object transform(Object o) {
+                        final CacheEntry entry = offHeap.findAny((CacheKey) o);
+                        return entry == null ? null : entry.cacheable;
+                    }
+                }),
+                NotNullPredicate.INSTANCE
+            );
+        return new IteratorChain(heap.iterateCacheObjects(), offHeapObjects);
+    }
+
+    public int getCurrentSize() {
+        return heap.getCurrentSize() + offHeap.getCurrentSize();
+    }
+
+    // The maximum size applies to the memory cache only
+    public int getMaxSize() {
+        return heap.getMaxSize();
+    }
+
+    public void setMaxSize(int maxSize) {
+        heap.setMaxSize(maxSize);
+    }
+
+    public int getHitCount() {
+        return heap.getHitCount() + offHeap.getHitCount();
+    }
+
+    // Memory cache misses are looked up in the off-heap store
+    public int getMissCount() {
+        return heap.getMissCount() - offHeap.getHitCount();
+    }
+
+    public int getAddCount() {
+        return heap.getAddCount() + offHeap.getAddCount();
+    }
+
+    public int getExpirationCount() {
+        return heap.getExpirationCount() + offHeap.getExpirationCount();
+    }
+}
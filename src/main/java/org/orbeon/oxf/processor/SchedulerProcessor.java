@@ -104,6 +104,13 @@ public class SchedulerProcessor extends ProcessorImpl {
                         String sync = XPathUtils.selectStringValueNormalize(startTaskElement, "synchronized");
                         config.setSynchro(Boolean.valueOf(sync).booleanValue());
 
+                        // Synchronized tasks skip executions while running, unless the policy is specified
+                        String overlap = XPathUtils.selectStringValueNormalize(startTaskElement, "overlap");
+                        if (overlap != null && ! overlap.equals(""))
+                            config.setOverlapPolicy(Task.OverlapPolicy.valueOf(overlap.toUpperCase()));
+                        else
+                            config.setOverlapPolicy(config.isSynchro() ? Task.OverlapPolicy.SKIP : Task.OverlapPolicy.COALESCE);
+
                         configs.add(config);
                     }
 
@@ -137,6 +144,7 @@ public class SchedulerProcessor extends ProcessorImpl {
                         ProcessorTask task = new ProcessorTask(config.getName(), processor, config.isSynchro(),
                                 new WebAppExternalContext(externalContext.getWebAppContext(), scala.Option.apply((HttpSession) null)));
                         task.setSchedule(config.getStartTime(), config.getInterval());
+                        task.setOverlapPolicy(config.getOverlapPolicy());
                         scheduler.schedule(task);
                         break;
                     case Config.STOP:
@@ -215,6 +223,7 @@ public class SchedulerProcessor extends ProcessorImpl {
         private long startTime;
         private long interval;
         private boolean synchro = true;
+        private Task.OverlapPolicy overlapPolicy;
 
         public Config(int action) {
             this.action = action;
@@ -256,6 +265,14 @@ public class SchedulerProcessor extends ProcessorImpl {
             this.synchro = synchro;
         }
 
+        public Task.OverlapPolicy getOverlapPolicy() {
+            return overlapPolicy;
+        }
+
+        public void setOverlapPolicy(Task.OverlapPolicy overlapPolicy) {
+            this.overlapPolicy = overlapPolicy;
+        }
+
         public ProcessorDefinition getProcessorDefinition() {
             return processorDefinition;
         }
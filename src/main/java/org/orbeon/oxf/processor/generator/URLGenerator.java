@@ -21,6 +21,7 @@ import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.OrbeonLocationException;
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.http.Credentials;
+import org.orbeon.oxf.http.Headers;
 import org.orbeon.oxf.http.HttpMethod;
 import org.orbeon.oxf.http.HttpStatusCodeException;
 import org.orbeon.oxf.json.Converter;
@@ -241,11 +242,9 @@ public class URLGenerator extends ProcessorImpl {
             // Local cache required for conditional GET
             this.cacheUseLocalCache = cacheUseLocalCache || enableConditionalGET;
 
-            // NOTE: Hard to handle this if XInclude is enabled as we would need to conditional-GET all dependencies,
-            // and then cache all individually-included documents. Or, store the non-XInclude-processed document in
-            // cache. Either way, it's complicated. So we disable conditional GET if XInclude is enabled for now. This
-            // could be easier if we had a real HTTP client document cache.
-            this.enableConditionalGET = enableConditionalGET && ! parserConfiguration.handleXInclude;
+            // NOTE: With XInclude, the cached document also records the validity of the included documents, and is
+            // only reused if none of them has changed. See CachedURLDocument.
+            this.enableConditionalGET = enableConditionalGET;
 
             // Authentication
             this.username = username;
@@ -501,7 +500,7 @@ public class URLGenerator extends ProcessorImpl {
                         final Object cachedResource = (localCacheKey == null) ? null : ObjectCache.instance().findValid(localCacheKey, localCacheValidity);
                         if (cachedResource != null) {
                             // Just replay the cached resource
-                            ((SAXStore) cachedResource).replay(xmlReceiver);
+                            ((CachedURLDocument) cachedResource).document().replay(xmlReceiver);
                         } else {
                             final ResourceHandler handler = state.ensureMainResourceHandler(pipelineContext, configURIReferences.config);
                             try {
@@ -577,8 +576,17 @@ public class URLGenerator extends ProcessorImpl {
                                 if (isUseLocalCache && ! handler.isFailureStatusCode()) {
                                     // Make sure SAXStore loses its reference on its output so that we don't clutter the cache
                                     ((SAXStore) output).setXMLReceiver(null);
-                                    // Add to cache
-                                    ObjectCache.instance().add(localCacheKey, localCacheValidity, output);
+                                    // Add to cache, with what is needed to revalidate the document later
+                                    final CachedURLDocument cachedDocument =
+                                        CachedURLDocument.apply(
+                                            (SAXStore) output,
+                                            validity,
+                                            handler.getHeader(Headers.ETag()),
+                                            handler.getHeader(Headers.CacheControl()),
+                                            getDependenciesLastModified(pipelineContext, configURIReferences),
+                                            System.currentTimeMillis()
+                                        );
+                                    ObjectCache.instance().add(localCacheKey, localCacheValidity, cachedDocument);
                                 }
                             } finally {
                                 handler.destroy();
@@ -709,22 +717,50 @@ public class URLGenerator extends ProcessorImpl {
                                 cacheEntry = null;
                             }
 
-                            if (cacheEntry != null) {
-                                // Found some entry in cache for the key
-                                final long lastModified = findLastModified(cacheEntry.validity);
-                                // This returns the validity and, possibly, stores the document in the state
-                                validity = handler.getConditional(lastModified);
-                                if (handler.getConnectionStatusCode() == 304) {
-                                    // The server responded that the resource hasn't changed
+                            final CachedURLDocument cachedDocument =
+                                cacheEntry != null ? (CachedURLDocument) cacheEntry.cacheable : null;
 
-                                    // Update the entry in cache
-                                    ObjectCache.instance().add(cacheEntry.key, lastModified, cacheEntry.cacheable);
-
-                                    // Remember the document for the rest of this request
-                                    state.setDocument((SAXStore) cacheEntry.cacheable);
-                                }
-                            } else {
+                            final long now = System.currentTimeMillis();
+                            if (cachedDocument == null) {
                                 validity = handler.getValidity();
+                            } else if (cachedDocument.isFresh(now)) {
+                                // The document is fresh: use it without contacting the server
+                                validity = useCachedDocument(state, cachedDocument);
+                            } else {
+                                // Only one request at a time revalidates a document which can still be used while it
+                                // is stale, and the others keep using it without contacting the server
+                                final boolean isStaleUsable = cachedDocument.isStaleUsable(now);
+                                final boolean ownsRevalidation = isStaleUsable && cachedDocument.tryStartRevalidation();
+                                if (isStaleUsable && ! ownsRevalidation) {
+                                    validity = useCachedDocument(state, cachedDocument);
+                                } else {
+                                    try {
+                                        if (! isDependenciesUnchanged(pipelineContext, cachedDocument)) {
+                                            // A document it includes has changed, so the document must be read again
+                                            validity = handler.getValidity();
+                                        } else {
+                                            // This returns the validity and, possibly, stores the document in the state
+                                            final Long conditionalValidity = handler.getConditional(cachedDocument.lastModified(), cachedDocument.etag());
+                                            if (handler.getConnectionStatusCode() == 304) {
+                                                // The server responded that the resource hasn't changed
+
+                                                // Update the entry in cache, as the response can update the validators and freshness
+                                                final CachedURLDocument revalidatedDocument =
+                                                    cachedDocument.revalidated(now, handler.getHeader(Headers.ETag()), handler.getHeader(Headers.CacheControl()));
+                                                ObjectCache.instance().add(cacheEntry.key, cacheEntry.validity, revalidatedDocument);
+
+                                                // Remember the document for the rest of this request
+                                                state.setDocument(revalidatedDocument.document());
+                                                validity = revalidatedDocument.lastModified();
+                                            } else {
+                                                validity = conditionalValidity;
+                                            }
+                                        }
+                                    } finally {
+                                        if (ownsRevalidation)
+                                            cachedDocument.endRevalidation();
+                                    }
+                                }
                             }
                         }
                         state.setLastModified(urlString, validity);
@@ -738,6 +774,37 @@ public class URLGenerator extends ProcessorImpl {
                 }
             }
 
+            // Use the cached document for the rest of this request without contacting any server, including for the
+            // documents it includes, which are considered unchanged as long as the document can be used
+            private Long useCachedDocument(URLGeneratorState state, CachedURLDocument cachedDocument) {
+                state.setDocument(cachedDocument.document());
+                for (final Map.Entry<String, Long> dependency : cachedDocument.dependencies().entrySet())
+                    if (! state.isLastModifiedSet(dependency.getKey()))
+                        state.setLastModified(dependency.getKey(), dependency.getValue());
+                return cachedDocument.lastModified();
+            }
+
+            private Map<String, Long> getDependenciesLastModified(PipelineContext pipelineContext, ConfigURIReferences configURIReferences) {
+                final Map<String, Long> dependencies = new HashMap<String, Long>();
+                if (configURIReferences.uriReferences != null) {
+                    for (URIProcessorOutputImpl.URIReference uriReference : configURIReferences.uriReferences) {
+                        final URL url = URLFactory.createURL(uriReference.context, uriReference.spec);
+                        dependencies.put(url.toExternalForm(), getHandlerValidity(pipelineContext, configURIReferences.config, url, null));
+                    }
+                }
+                return dependencies;
+            }
+
+            private boolean isDependenciesUnchanged(PipelineContext pipelineContext, CachedURLDocument cachedDocument) {
+                for (final Map.Entry<String, Long> dependency : cachedDocument.dependencies().entrySet()) {
+                    final URL url = URLFactory.createURL(dependency.getKey());
+                    // A dependency without last modification date can't be checked
+                    if (dependency.getValue() == null || ! dependency.getValue().equals(getHandlerValidity(pipelineContext, null, url, null)))
+                        return false;
+                }
+                return true;
+            }
+
             private ConfigURIReferences getConfigURIReferences(PipelineContext context) {
                 // Check if config is external
                 if (localConfigURIReferences != null)
@@ -766,7 +833,8 @@ public class URLGenerator extends ProcessorImpl {
 
     private interface ResourceHandler {
         Long getValidity() throws IOException;
-        Long getConditional(Long lastModified) throws IOException;
+        Long getConditional(Long lastModified, String etag) throws IOException;
+        String getHeader(String name) throws IOException;
         String getResourceMediaType() throws IOException;
         String getConnectionEncoding() throws IOException;
         int getConnectionStatusCode() throws IOException;
@@ -866,10 +934,14 @@ public class URLGenerator extends ProcessorImpl {
             return (result <= 0) ? null : result;
         }
 
-        public Long getConditional(Long lastModified) throws IOException {
+        public Long getConditional(Long lastModified, String etag) throws IOException {
             return getValidity();
         }
 
+        public String getHeader(String name) throws IOException {
+            return null;
+        }
+
         public void destroy() throws IOException {
             if (inputStream != null) {
                 inputStream.close();
@@ -948,11 +1020,16 @@ public class URLGenerator extends ProcessorImpl {
             return isFailureStatusCode() ? null : connectionResult.lastModifiedJava();
         }
 
-        public Long getConditional(Long lastModified) throws IOException {
-            openConnection(lastModified);
+        public Long getConditional(Long lastModified, String etag) throws IOException {
+            openConnection(lastModified, etag);
             return getValidity();
         }
 
+        public String getHeader(String name) throws IOException {
+            openConnection();
+            return URLGeneratorBase.headerValueOrNull(connectionResult, name);
+        }
+
         public void destroy() throws IOException {
             // Make sure the connection is closed because when
             // getting the last modified date, the stream is
@@ -963,15 +1040,15 @@ public class URLGenerator extends ProcessorImpl {
         }
 
         private void openConnection() throws IOException {
-            openConnection(null);
+            openConnection(null, null);
         }
 
-        private void openConnection(Long lastModified) throws IOException {
+        private void openConnection(Long lastModified, String etag) throws IOException {
             if (connectionResult == null) {
                 // TODO: pass logging callback
 
                 final Map<String, String[]> newHeaders =
-                    URLGeneratorBase.setIfModifiedIfNeeded(config.getHeaderNameValues(), lastModified);
+                    URLGeneratorBase.setConditionalHeadersIfNeeded(config.getHeaderNameValues(), lastModified, etag);
 
                 final Credentials credentials = config.getUsername() == null ?
                     null :
@@ -1102,10 +1179,14 @@ public class URLGenerator extends ProcessorImpl {
             return null;
         }
 
-        public Long getConditional(Long lastModified) throws IOException {
+        public Long getConditional(Long lastModified, String etag) throws IOException {
             return getValidity();
         }
 
+        public String getHeader(String name) throws IOException {
+            return null;
+        }
+
         public void destroy() throws IOException {
         }
 
@@ -33,6 +33,8 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
 
 /**
@@ -58,6 +60,9 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
     private List executionContextStack;
     private List currentNodes;
     private List<SQLFunctionLibrary.SQLFunctionContext> functionContextStack = new ArrayList<SQLFunctionLibrary.SQLFunctionContext>();
+
+    // Statements of batched updates, by query, which are reused until the end of the enclosing connection element
+    private Map<String, BatchedStatement> batchedStatements = new LinkedHashMap<String, BatchedStatement>();
     public static final String SQL_PROCESSOR_CONTEXT = "sql-processor-context"; // used by SQLProcessor and related
 
     public SQLProcessorInterpreterContext(PropertySet propertySet) {
@@ -378,6 +383,110 @@ public class SQLProcessorInterpreterContext extends DatabaseContext {
         executionContext.updateCount = updateCount;
     }
 
+    /**
+     * Prepared statement to which parameter sets are added with addBatch(), and which is executed once the batch size
+     * is reached.
+     */
+    public static class BatchedStatement {
+        private final PreparedStatement statement;
+        private final int batchSize;
+        private int pendingCount;
+
+        private BatchedStatement(PreparedStatement statement, int batchSize) {
+            this.statement = statement;
+            this.batchSize = batchSize;
+        }
+
+        public PreparedStatement getStatement() {
+            return statement;
+        }
+
+        /**
+         * Add the current parameters to the batch, and execute the batch if it is full.
+         *
+         * @return  the number of updated rows if the batch was executed, 0 otherwise
+         */
+        public int add() throws SQLException {
+            statement.addBatch();
+            pendingCount++;
+            return (pendingCount >= batchSize) ? execute() : 0;
+        }
+
+        private int execute() throws SQLException {
+            if (pendingCount == 0)
+                return 0;
+            pendingCount = 0;
+            int updateCount = 0;
+            for (int count : statement.executeBatch()) {
+                // Drivers can return SUCCESS_NO_INFO, in which case the number of rows is unknown
+                if (count != Statement.SUCCESS_NO_INFO)
+                    updateCount += count;
+            }
+            return updateCount;
+        }
+    }
+
+    /**
+     * Return the batched statement for the given query, creating it if needed. Pending batches of other queries are
+     * executed first, so that updates are executed in order.
+     */
+    public BatchedStatement getBatchedStatement(String query, int batchSize) throws SQLException {
+        final BatchedStatement existing = batchedStatements.get(query);
+        for (final Map.Entry<String, BatchedStatement> entry : batchedStatements.entrySet())
+            if (entry.getValue() != existing)
+                entry.getValue().execute();
+
+        if (existing != null) {
+            return existing;
+        } else {
+            // If the connection element is not ended, for example after an error, statements are closed with the
+            // pipeline context, and pending batches are discarded
+            if (batchedStatements.isEmpty())
+                pipelineContext.addContextListener(new PipelineContext.ContextListenerAdapter() {
+                    public void contextDestroyed(boolean success) {
+                        discardBatchedStatements();
+                    }
+                });
+            final BatchedStatement batchedStatement = new BatchedStatement(getConnection().prepareStatement(query), batchSize);
+            batchedStatements.put(query, batchedStatement);
+            return batchedStatement;
+        }
+    }
+
+    /**
+     * Execute all pending batches, which must happen before executing any other statement.
+     */
+    public void executePendingBatches() throws SQLException {
+        for (final BatchedStatement batchedStatement : batchedStatements.values())
+            batchedStatement.execute();
+    }
+
+    /**
+     * Execute all pending batches and close the batched statements.
+     */
+    public void closeBatchedStatements() throws SQLException {
+        try {
+            executePendingBatches();
+        } finally {
+            discardBatchedStatements();
+        }
+    }
+
+    /**
+     * Close the batched statements without executing pending batches.
+     */
+    private void discardBatchedStatements() {
+        for (final BatchedStatement batchedStatement : batchedStatements.values()) {
+            try {
+                batchedStatement.statement.close();
+            } catch (SQLException e) {
+                // Still close the other statements
+                SQLProcessor.logger.warn("Cannot close batched statement", e);
+            }
+        }
+        batchedStatements.clear();
+    }
+
     public NamespaceSupport getNamespaceSupport() {
         return namespaceSupport;
     }
@@ -13,10 +13,14 @@
  */
 package org.orbeon.oxf.processor.sql.interpreters;
 
+import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.processor.sql.SQLProcessor;
 import org.orbeon.oxf.processor.sql.SQLProcessorInterpreterContext;
+import org.orbeon.oxf.xml.dom4j.LocationData;
 import org.xml.sax.Attributes;
 
+import java.sql.SQLException;
+
 /**
  *
  */
@@ -32,6 +36,12 @@ public class ConnectionInterpreter extends SQLProcessor.InterpreterContentHandle
     }
 
     public void end(String uri, String localname, String qName) {
+        // Execute the remaining batched updates
+        try {
+            getInterpreterContext().closeBatchedStatements();
+        } catch (SQLException e) {
+            throw new ValidationException(e, new LocationData(getDocumentLocator()));
+        }
         // NOTE: Don't close connection: the connection will be closed when the context is destroyed
     }
 }
@@ -44,6 +44,8 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
     private static final String SQL_TYPE_BLOB = "blob";
     private static final String SQL_TYPE_XMLTYPE = "xmltype";
 
+    private static final String FETCH_SIZE_STREAMING = "streaming";
+
     public static final int QUERY = 0;
     public static final int UPDATE = 1;
     public static final int CALL = 2;
@@ -55,6 +57,8 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
     private boolean hasReplaceOrSeparator;
     private Iterator nodeIterator;
     private String debugString;
+    private int batchSize;
+    private int fetchSize;
 
     public QueryInterpreter(SQLProcessorInterpreterContext interpreterContext, int type) {
         super(interpreterContext, false);
@@ -158,6 +162,21 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
         }
         // Get debug attribute
         debugString = attributes.getValue("debug");
+        // Get batch size, which only applies to updates
+        final String batchSizeString = attributes.getValue("batch-size");
+        if (batchSizeString != null && type != UPDATE)
+            throw new ValidationException("batch-size attribute is valid only on update element", new LocationData(getDocumentLocator()));
+        batchSize = (batchSizeString != null) ? Integer.parseInt(batchSizeString) : getInterpreterContext().getPropertySet().getInteger("batch-size", 1);
+        // Get fetch size, which only applies to result sets
+        final String fetchSizeString = attributes.getValue("fetch-size");
+        if (fetchSizeString != null && type == UPDATE)
+            throw new ValidationException("fetch-size attribute is not valid on update element", new LocationData(getDocumentLocator()));
+        // MySQL Connector/J only uses a positive fetch size with `useCursorFetch=true` on the connection, and otherwise
+        // streams rows one at a time when the fetch size is `Integer.MIN_VALUE`, which "streaming" maps to
+        if (FETCH_SIZE_STREAMING.equals(fetchSizeString))
+            fetchSize = Integer.MIN_VALUE;
+        else
+            fetchSize = (fetchSizeString != null) ? Integer.parseInt(fetchSizeString) : getInterpreterContext().getPropertySet().getInteger("fetch-size", 0);
     }
 
     public void end(String uri, String localname, String qName) throws SAXException {
@@ -166,18 +185,34 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
             throw new ValidationException("Missing query", new LocationData(getDocumentLocator()));
         // Execute query
         try {
+            // Updates are batched only if the query is not modified at each iteration. Generated keys are not
+            // available for batched updates, and the update count only reflects the batches executed so far.
+            final boolean isBatched = type == UPDATE && batchSize > 1 && !hasReplaceOrSeparator;
+            SQLProcessorInterpreterContext.BatchedStatement batchedStatement = null;
+            int batchedUpdateCount = 0;
+
             // Create a single PreparedStatement if the query is not modified at each iteration
             PreparedStatement stmt = null;
             if (!hasReplaceOrSeparator) {
                 final String queryString = query.toString();
-                if (type != CALL) {
-                    // TODO: see how we can support this: Statement.RETURN_GENERATED_KEYS
-                    stmt = getInterpreterContext().getConnection().prepareStatement(queryString);
-                } else
-                    stmt = getInterpreterContext().getConnection().prepareCall(queryString);
+                if (isBatched) {
+                    // The statement is reused across iterations of enclosing elements, until the end of the connection
+                    batchedStatement = getInterpreterContext().getBatchedStatement(queryString, batchSize);
+                    stmt = batchedStatement.getStatement();
+                } else {
+                    getInterpreterContext().executePendingBatches();
+                    if (type != CALL) {
+                        // TODO: see how we can support this: Statement.RETURN_GENERATED_KEYS
+                        stmt = getInterpreterContext().getConnection().prepareStatement(queryString);
+                    } else
+                        stmt = getInterpreterContext().getConnection().prepareCall(queryString);
+                }
                 getInterpreterContext().setStatementString(queryString);
+            } else {
+                getInterpreterContext().executePendingBatches();
             }
-            getInterpreterContext().setStatement(stmt);
+            // A batched statement must not be closed at the end of the execute element
+            getInterpreterContext().setStatement(isBatched ? null : stmt);
             int nodeCount = 1;
             // Iterate through all source nodes (only one if "select" attribute is missing)
             for (Iterator j = (nodeIterator != null) ? nodeIterator : Collections.singletonList(getInterpreterContext().getCurrentNode()).iterator(); j.hasNext(); nodeCount++) {
@@ -579,8 +614,13 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
                     if (SQLProcessor.logger.isDebugEnabled())
                         SQLProcessor.logger.debug("Executing query/call, " +
                                 "statement = " + getInterpreterContext().getStatementSHA());
+                    // Fetch rows by groups of the given size as the result set is read, instead of the driver's default
+                    if (fetchSize > 0 || fetchSize == Integer.MIN_VALUE)
+                        stmt.setFetchSize(fetchSize);
                     final boolean hasResultSet = stmt.execute();
                     ResultSetInterpreter.setResultSetInfo(getInterpreterContext(), stmt, hasResultSet);
+                } else if (type == UPDATE && isBatched) {
+                    batchedUpdateCount += batchedStatement.add();
                 } else if (type == UPDATE) {
                     // We know there is only a possible update count
                     final int updateCount = stmt.executeUpdate();
@@ -589,6 +629,8 @@ public class QueryInterpreter extends SQLProcessor.InterpreterContentHandler {
                     	ResultSetInterpreter.setGeneratedKeysResultSetInfo(getInterpreterContext(), stmt);
                 }
             }
+            if (isBatched)
+                getInterpreterContext().setUpdateCount(batchedUpdateCount);
         } catch (Exception e) {
             // FIXME: should store exception so that it can be retrieved
             // Actually, we'll need a global exception mechanism for pipelines, so this may end up being done
@@ -13,43 +13,248 @@
  */
 package org.orbeon.oxf.resources;
 
-import java.util.HashMap;
+import org.orbeon.oxf.cache.CacheStatistics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A map where the value expire after the interval given at construction time.
+ *
+ * The map is bounded: each value has a weight, 1 unless a weigher is given, and when the total weight exceeds the
+ * maximum, the least recently used values are evicted. Keys are distributed over segments with their own lock, so that
+ * concurrent accesses to different keys don't contend on a single lock. The bound applies to the map as a whole, and
+ * eviction picks the least recently used value among the least recently used values of each segment. A value heavier
+ * than the maximum is not kept.
+ *
+ * For statistics, the size is the total weight, and the expiration count includes both expired and evicted values.
  */
-public class ExpirationMap {
+public class ExpirationMap implements CacheStatistics {
+
+    public interface Weigher {
+        long weigh(Object value);
+    }
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private static final Weigher UNIT_WEIGHER = new Weigher() {
+        public long weigh(Object value) {
+            return 1;
+        }
+    };
 
-    private long expirationInterval;
-    private Map store = new HashMap();
+    private final long expirationInterval;
+    private final long maxWeight;
+    private final Weigher weigher;
+    private final Segment[] segments;
 
-    public ExpirationMap(long expirationInterval) {
+    private final AtomicLong totalWeight = new AtomicLong();
+
+    // Incremented upon each access, to compare the recency of entries of different segments
+    private final AtomicLong accessClock = new AtomicLong();
+
+    public ExpirationMap(long expirationInterval, long maxSize) {
+        this(expirationInterval, maxSize, UNIT_WEIGHER);
+    }
+
+    public ExpirationMap(long expirationInterval, long maxWeight, Weigher weigher) {
         this.expirationInterval = expirationInterval;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++)
+            segments[i] = new Segment();
     }
 
-    public Object  get(long currentTimeMillis, String key) {
-        MapEntry entry = (MapEntry) store.get(key);
-        if (entry == null || (entry.lastAccess + expirationInterval) < currentTimeMillis) {
-            return null;
+    public Object get(long currentTimeMillis, String key) {
+        return segmentFor(key).get(currentTimeMillis, key);
+    }
+
+    public void put(long currentTimeMillis, String key, Object value) {
+        final long weight = weigher.weigh(value);
+        final Segment segment = segmentFor(key);
+        if (weight > maxWeight) {
+            // Don't evict everything else for a value which can't be kept anyway
+            segment.remove(key);
+            segment.evictionCount.incrementAndGet();
         } else {
-            entry.lastAccess = currentTimeMillis;
-            return entry.value;
+            segment.put(currentTimeMillis, key, value, weight);
+            evictIfNeeded(key);
         }
     }
 
-    public void put(long currentTimeMillis, String key, Object value) {
-        MapEntry entry = (MapEntry) store.get(key);
-        if (entry == null) {
-            entry = new MapEntry();
-            store.put(key, entry);
+    public void remove(String key) {
+        segmentFor(key).remove(key);
+    }
+
+    private Segment segmentFor(String key) {
+        final int h = key.hashCode();
+        return segments[((h ^ (h >>> 16)) & 0x7fffffff) % SEGMENT_COUNT];
+    }
+
+    // Evict least recently used entries, other than the entry just added, until the total weight is under the maximum
+    //
+    // Segment locks are taken one at a time, so entries can be accessed concurrently during the eviction, which is
+    // then approximately in LRU order.
+    private void evictIfNeeded(String addedKey) {
+        while (totalWeight.get() > maxWeight) {
+            Segment oldestSegment = null;
+            long oldestAccess = Long.MAX_VALUE;
+            for (final Segment segment : segments) {
+                final long access = segment.eldestAccess(addedKey);
+                if (access < oldestAccess) {
+                    oldestAccess = access;
+                    oldestSegment = segment;
+                }
+            }
+            if (oldestSegment == null)
+                break; // only the entry just added is left, and it is not heavier than the maximum
+            oldestSegment.evictEldest(addedKey);
         }
-        entry.lastAccess = currentTimeMillis;
-        entry.value = value;
+    }
+
+    public int getMaxSize() {
+        return (int) Math.min(maxWeight, Integer.MAX_VALUE);
+    }
+
+    public int getCurrentSize() {
+        return (int) Math.min(totalWeight.get(), Integer.MAX_VALUE);
+    }
+
+    public int getEntryCount() {
+        int count = 0;
+        for (final Segment segment : segments)
+            count += segment.entryCount();
+        return count;
+    }
+
+    public int getHitCount() {
+        int count = 0;
+        for (final Segment segment : segments)
+            count += segment.hitCount;
+        return count;
+    }
+
+    public int getMissCount() {
+        int count = 0;
+        for (final Segment segment : segments)
+            count += segment.missCount;
+        return count;
+    }
+
+    public int getAddCount() {
+        int count = 0;
+        for (final Segment segment : segments)
+            count += segment.addCount;
+        return count;
+    }
+
+    public int getExpirationCount() {
+        int count = 0;
+        for (final Segment segment : segments)
+            count += segment.expirationCount + segment.evictionCount.get();
+        return count;
+    }
+
+    /**
+     * Number of values removed to keep the total weight under the maximum.
+     */
+    public int getEvictionCount() {
+        int count = 0;
+        for (final Segment segment : segments)
+            count += segment.evictionCount.get();
+        return count;
     }
 
     private static class MapEntry {
+        public final long created;
+        public final long weight;
+        public final Object value;
         public long lastAccess;
-        public Object value;
+
+        MapEntry(long created, long weight, Object value, long lastAccess) {
+            this.created = created;
+            this.weight = weight;
+            this.value = value;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private class Segment {
+
+        // Access-ordered, so that iteration starts with the least recently used entry
+        private final LinkedHashMap<String, MapEntry> store = new LinkedHashMap<>(16, 0.75f, true);
+
+        // Statistics, updated while holding the lock, and read without it
+        volatile int hitCount;
+        volatile int missCount;
+        volatile int addCount;
+        volatile int expirationCount;
+
+        // Also updated without the lock for values which are not kept
+        final AtomicInteger evictionCount = new AtomicInteger();
+
+        synchronized Object get(long currentTimeMillis, String key) {
+            final MapEntry entry = store.get(key);
+            if (entry == null) {
+                missCount++;
+                return null;
+            } else if (currentTimeMillis - entry.created > expirationInterval) {
+                store.remove(key);
+                totalWeight.addAndGet(-entry.weight);
+                expirationCount++;
+                missCount++;
+                return null;
+            } else {
+                entry.lastAccess = accessClock.incrementAndGet();
+                hitCount++;
+                return entry.value;
+            }
+        }
+
+        synchronized void put(long currentTimeMillis, String key, Object value, long weight) {
+            final MapEntry previous = store.put(key, new MapEntry(currentTimeMillis, weight, value, accessClock.incrementAndGet()));
+            totalWeight.addAndGet(previous != null ? weight - previous.weight : weight);
+            addCount++;
+        }
+
+        synchronized void remove(String key) {
+            final MapEntry entry = store.remove(key);
+            if (entry != null)
+                totalWeight.addAndGet(-entry.weight);
+        }
+
+        // Last access of the least recently used entry other than the given key, or Long.MAX_VALUE if there is none
+        synchronized long eldestAccess(String excludedKey) {
+            final MapEntry eldest = eldest(excludedKey);
+            return eldest != null ? eldest.lastAccess : Long.MAX_VALUE;
+        }
+
+        synchronized void evictEldest(String excludedKey) {
+            final Iterator<Map.Entry<String, MapEntry>> entries = store.entrySet().iterator();
+            while (entries.hasNext()) {
+                final Map.Entry<String, MapEntry> entry = entries.next();
+                if (! entry.getKey().equals(excludedKey)) {
+                    entries.remove();
+                    totalWeight.addAndGet(-entry.getValue().weight);
+                    evictionCount.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        private MapEntry eldest(String excludedKey) {
+            for (final Map.Entry<String, MapEntry> entry : store.entrySet())
+                if (! entry.getKey().equals(excludedKey))
+                    return entry.getValue();
+            return null;
+        }
+
+        synchronized int entryCount() {
+            return store.size();
+        }
     }
 }
@@ -20,6 +20,7 @@ import org.orbeon.oxf.util.LoggerFactory;
 
 import java.io.*;
 import java.net.URLDecoder;
+import java.nio.file.Path;
 import java.util.Map;
 
 /**
@@ -86,6 +87,10 @@ public class FilesystemResourceManagerImpl extends ResourceManagerBase {
         }
     }
 
+    protected Path watchedFile(String key) {
+        return getFile(key).toPath();
+    }
+
     /**
      * Returns the length of the file denoted by this abstract pathname.
      * @return The length, in bytes, of the file denoted by this abstract pathname, or 0L if the file does not exist
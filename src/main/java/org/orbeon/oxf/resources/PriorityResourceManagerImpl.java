@@ -249,4 +249,9 @@ public class PriorityResourceManagerImpl implements ResourceManager {
         }
         return false;
     }
+
+    public void destroy() {
+        for (ResourceManager resourceManager: resourceManagers)
+            resourceManager.destroy();
+    }
 }
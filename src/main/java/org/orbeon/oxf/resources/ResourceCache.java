@@ -13,51 +13,106 @@
  */
 package org.orbeon.oxf.resources;
 
+import org.orbeon.oxf.cache.CacheStatistics;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
 
+/**
+ * Cache of parsed documents by key, bounded by the approximate total number of nodes of the documents. Documents are
+ * kept for at most the given time to live, and the least recently used documents are evicted first.
+ */
 public class ResourceCache {
 
+    private static final long DEFAULT_TIME_TO_LIVE = Long.MAX_VALUE;
+    private static final long DEFAULT_MAX_NODES = 1000 * 1000;
+
     /**
      * Stores keys in the form
      *  /one/two/three --> xml document
      */
-    protected Map cache = null;
-    protected Map lastModified = null;
+    protected final ExpirationMap cache;
 
     public ResourceCache() {
-        cache = new HashMap();
-        lastModified = new HashMap();
+        this(DEFAULT_TIME_TO_LIVE, DEFAULT_MAX_NODES);
+    }
+
+    public ResourceCache(long timeToLive, long maxNodes) {
+        cache = new ExpirationMap(timeToLive, maxNodes, new ExpirationMap.Weigher() {
+            public long weigh(Object value) {
+                return countNodes(((CachedDocument) value).doc);
+            }
+        });
     }
 
     public void addDocument(String key, Node doc, Date last) {
-        cache.put(key, doc);
-        lastModified.put(key, last);
+        cache.put(System.currentTimeMillis(), key, new CachedDocument(doc, last));
     }
 
     public Node getDocument(String key) {
-        return (Node) cache.get(key);
+        final CachedDocument cachedDocument = get(key);
+        return cachedDocument != null ? cachedDocument.doc : null;
     }
 
     public void removeDocument(String key) {
         cache.remove(key);
-        lastModified.remove(key);
     }
 
     public void deleteItemOlder(String key, Date date) {
-        Date last = (Date) lastModified.get(key);
-        if (date.after(last)) {
-            lastModified.remove(key);
+        final CachedDocument cachedDocument = get(key);
+        if (cachedDocument != null && date.after(cachedDocument.lastModified))
             cache.remove(key);
-        }
     }
 
     public Date getLastModified(String key) {
-        return (Date) lastModified.get(key);
+        final CachedDocument cachedDocument = get(key);
+        return cachedDocument != null ? cachedDocument.lastModified : null;
+    }
+
+    /**
+     * Statistics of the cache, where the size is the number of nodes and the expiration count includes evicted
+     * documents.
+     */
+    public CacheStatistics getStatistics() {
+        return cache;
     }
 
+    private CachedDocument get(String key) {
+        return (CachedDocument) cache.get(System.currentTimeMillis(), key);
+    }
+
+    /**
+     * Count the nodes of the tree, including attributes, without recursing so that deep documents are supported.
+     */
+    static long countNodes(Node root) {
+        long count = 0;
+        Node current = root;
+        while (current != null) {
+            count++;
+            final NamedNodeMap attributes = current.getAttributes();
+            if (attributes != null)
+                count += attributes.getLength();
+
+            // Next node in document order, not leaving the tree under `root`
+            if (current.getFirstChild() != null) {
+                current = current.getFirstChild();
+            } else {
+                while (current != root && current.getNextSibling() == null)
+                    current = current.getParentNode();
+                current = current == root ? null : current.getNextSibling();
+            }
+        }
+        return count;
+    }
+
+    private static class CachedDocument {
+        final Node doc;
+        final Date lastModified;
 
+        CachedDocument(Node doc, Date lastModified) {
+            this.doc = doc;
+            this.lastModified = lastModified;
+        }
+    }
 }
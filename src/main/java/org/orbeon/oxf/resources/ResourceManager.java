@@ -147,4 +147,10 @@ public interface ResourceManager {
      * @return      true iif the resource exists
      */
     boolean exists(String key);
+
+    /**
+     * Release the resources used by the resource manager, such as background threads. The resource manager must not
+     * be used after this.
+     */
+    void destroy();
 }
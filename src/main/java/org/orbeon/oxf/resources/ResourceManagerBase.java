@@ -13,6 +13,7 @@
  */
 package org.orbeon.oxf.resources;
 
+import org.orbeon.oxf.cache.CacheStatistics;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.pipeline.api.TransformerXMLReceiver;
@@ -29,6 +30,7 @@ import javax.xml.transform.stream.StreamResult;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.Map;
 
 /**
@@ -39,7 +41,15 @@ public abstract class ResourceManagerBase implements ResourceManager {
     private static final String MIN_RELOAD_INTERVAL_KEY = "oxf.resources.common.min-reload-interval";
     private static final long DEFAULT_MIN_RELOAD_INTERVAL = 2 * 1000;
 
+    private static final String LAST_MODIFIED_CACHE_SIZE_KEY = "oxf.resources.common.last-modified-cache-size";
+    private static final long DEFAULT_LAST_MODIFIED_CACHE_SIZE = 10 * 1000;
+
+    private static final String CHANGE_DETECTION_KEY = "oxf.resources.common.change-detection";
+    private static final String CHANGE_DETECTION_POLL = "poll";
+    private static final String CHANGE_DETECTION_WATCH = "watch";
+
     private ExpirationMap lastModifiedMap;
+    private ResourceWatcher resourceWatcher;
 
     /**
      * Initialisation. Should be called only by sub-classes
@@ -54,7 +64,30 @@ public abstract class ResourceManagerBase implements ResourceManager {
                 throw new OXFException("Value for property '" + MIN_RELOAD_INTERVAL_KEY + "' must be a non-negative integer.");
             minReloadInterval = longValue;
         }
-        lastModifiedMap = new ExpirationMap(minReloadInterval);
+
+        // Bound the number of resources for which the last modified time is kept
+        final String lastModifiedCacheSizeString = (String) props.get(LAST_MODIFIED_CACHE_SIZE_KEY);
+        long lastModifiedCacheSize = DEFAULT_LAST_MODIFIED_CACHE_SIZE;
+        if (lastModifiedCacheSizeString != null) {
+            final long longValue = Long.parseLong(lastModifiedCacheSizeString);
+            if (longValue < 1)
+                throw new OXFException("Value for property '" + LAST_MODIFIED_CACHE_SIZE_KEY + "' must be a positive integer.");
+            lastModifiedCacheSize = longValue;
+        }
+        lastModifiedMap = new ExpirationMap(minReloadInterval, lastModifiedCacheSize);
+
+        // With "watch", changes to resources stored in files are detected in the background
+        final String changeDetection = (String) props.get(CHANGE_DETECTION_KEY);
+        if (CHANGE_DETECTION_WATCH.equals(changeDetection)) {
+            resourceWatcher = new ResourceWatcher(
+                "orbeon-resource-watcher-" + getClass().getSimpleName(),
+                Math.max(minReloadInterval, 100),
+                lastModifiedCacheSize,
+                key -> lastModifiedImpl(key, true)
+            );
+        } else if (changeDetection != null && ! CHANGE_DETECTION_POLL.equals(changeDetection)) {
+            throw new OXFException("Value for property '" + CHANGE_DETECTION_KEY + "' must be '" + CHANGE_DETECTION_POLL + "' or '" + CHANGE_DETECTION_WATCH + "'.");
+        }
     }
 
     public Node getContentAsDOM(String key) {
@@ -122,7 +155,17 @@ public abstract class ResourceManagerBase implements ResourceManager {
         return transformer;
     }
 
-    final synchronized public long lastModified(String key, boolean doNotThrowResourceNotFound) {
+    final public long lastModified(String key, boolean doNotThrowResourceNotFound) {
+        if (resourceWatcher != null) {
+            final Path file = watchedFile(key);
+            if (file != null) {
+                final long lastModified = resourceWatcher.lastModified(key, file);
+                if (lastModified == -1 && ! doNotThrowResourceNotFound)
+                    throw new ResourceNotFoundException(key);
+                return lastModified;
+            }
+        }
+
         // Do only 1 call to currentTimeMillis()
         final long currentTime = System.currentTimeMillis();
         Object value = lastModifiedMap.get(currentTime, key);
@@ -145,6 +188,18 @@ public abstract class ResourceManagerBase implements ResourceManager {
         }
     }
 
+    /**
+     * Statistics of the cache of last modified times, where the expiration count includes evicted entries.
+     */
+    public CacheStatistics getLastModifiedCacheStatistics() {
+        return lastModifiedMap;
+    }
+
+    public void destroy() {
+        if (resourceWatcher != null)
+            resourceWatcher.close();
+    }
+
     public boolean exists(String key) {
         try {
             final InputStream is = getContentAsStream(key);
@@ -160,4 +215,14 @@ public abstract class ResourceManagerBase implements ResourceManager {
     }
 
     abstract protected long lastModifiedImpl(String key, boolean doNotThrowResourceNotFound);
+
+    /**
+     * Return the file storing the resource, if any, for changes to be detected by watching it.
+     *
+     * @param key A Resource Manager key
+     * @return the file, or null if the resource isn't stored in a file
+     */
+    protected Path watchedFile(String key) {
+        return null;
+    }
 }
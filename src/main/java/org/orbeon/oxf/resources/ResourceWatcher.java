@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.resources;
+
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.util.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Index of the last modified time of resources stored in files, kept up to date in the background, so that checking
+ * whether a resource has changed is a map lookup, without locking or accessing the filesystem.
+ *
+ * Changes are detected by watching the directories containing the resources. Resources in directories which can't be
+ * watched, for instance because they don't exist yet, or all resources if the platform doesn't support watching
+ * directories, are checked by polling.
+ *
+ * At most a given number of resources are indexed, and other resources are dropped from the index when it is full, so
+ * that their last modified time is read again the next time it is needed. The watcher must be closed to stop its
+ * background thread.
+ */
+class ResourceWatcher {
+
+    private static final Logger logger = LoggerFactory.createLogger(ResourceWatcher.class);
+
+    private final long pollInterval;
+    private final long maxKeys;
+    private final ToLongFunction<String> lastModifiedImpl;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    // Last modified time by resource key, or -1 if the resource doesn't exist
+    private final ConcurrentHashMap<String, Long> lastModifiedByKey = new ConcurrentHashMap<>();
+
+    // Resource keys by file, as several keys can point to the same file
+    private final ConcurrentHashMap<Path, Set<String>> keysByFile = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Path> fileByKey = new ConcurrentHashMap<>();
+
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    private final Set<String> polledKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param name              name of the background thread
+     * @param pollInterval      interval in ms at which resources which can't be watched are checked
+     * @param maxKeys           maximum number of resources indexed
+     * @param lastModifiedImpl  returns the last modified time of the resource with the given key, or -1 if it doesn't
+     *                          exist
+     */
+    ResourceWatcher(String name, long pollInterval, long maxKeys, ToLongFunction<String> lastModifiedImpl) {
+        this.pollInterval = pollInterval;
+        this.maxKeys = maxKeys;
+        this.lastModifiedImpl = lastModifiedImpl;
+
+        WatchService watchService;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("can't watch resources for changes, polling every " + pollInterval + " ms instead", e);
+            watchService = null;
+        }
+        this.watchService = watchService;
+
+        thread = new Thread(this::processChanges, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching resources, and stop the background thread.
+     */
+    void close() {
+        thread.interrupt();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("error while closing the resource watch service", e);
+            }
+        }
+    }
+
+    /**
+     * Return the last modified time of the resource, or -1 if it doesn't exist.
+     */
+    long lastModified(final String key, final Path file) {
+        final Long lastModified = lastModifiedByKey.get(key);
+        if (lastModified != null) {
+            return lastModified;
+        } else {
+            // Start watching the resource before reading its last modified time, so that no change is missed. Changes
+            // detected while the time is read update the entry after it is added, as updates lock the same entry.
+            final long result = lastModifiedByKey.computeIfAbsent(key, k -> {
+                watch(k, file.toAbsolutePath().normalize());
+                return lastModifiedImpl.applyAsLong(k);
+            });
+            evictIfNeeded(key);
+            return result;
+        }
+    }
+
+    private void watch(String key, Path file) {
+        fileByKey.put(key, file);
+        keysByFile.compute(file, (f, keys) -> {
+            final Set<String> newKeys = keys != null ? keys : ConcurrentHashMap.newKeySet();
+            newKeys.add(key);
+            return newKeys;
+        });
+        final Path directory = file.getParent();
+        if (directory == null || ! watchDirectory(directory))
+            polledKeys.add(key);
+    }
+
+    // Drop other resources from the index until it is no longer full
+    private void evictIfNeeded(String addedKey) {
+        final Iterator<String> keys = lastModifiedByKey.keySet().iterator();
+        while (lastModifiedByKey.size() > maxKeys && keys.hasNext()) {
+            final String key = keys.next();
+            if (! key.equals(addedKey))
+                // Stop watching the resource while its entry is locked, so that it isn't added back meanwhile
+                lastModifiedByKey.computeIfPresent(key, (k, previous) -> {
+                    unwatch(k);
+                    return null;
+                });
+        }
+    }
+
+    private void unwatch(String key) {
+        polledKeys.remove(key);
+        final Path file = fileByKey.remove(key);
+        if (file != null)
+            keysByFile.computeIfPresent(file, (f, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+    }
+
+    private boolean watchDirectory(Path directory) {
+        if (watchService == null)
+            return false;
+        else if (watchedDirectories.contains(directory))
+            return true;
+        else {
+            try {
+                directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                watchedDirectories.add(directory);
+                return true;
+            } catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+                if (logger.isDebugEnabled())
+                    logger.debug("can't watch directory, polling instead: " + directory);
+                return false;
+            }
+        }
+    }
+
+    private void processChanges() {
+        long nextPoll = System.currentTimeMillis() + pollInterval;
+        while (true) {
+            try {
+                final WatchKey watchKey =
+                    watchService != null
+                        ? watchService.poll(pollInterval, TimeUnit.MILLISECONDS)
+                        : sleep();
+
+                if (watchKey != null)
+                    processWatchKey(watchKey);
+
+                final long now = System.currentTimeMillis();
+                if (now >= nextPoll) {
+                    poll();
+                    nextPoll = now + pollInterval;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } catch (Exception e) {
+                if (thread.isInterrupted())
+                    return;
+                logger.error("error while checking resources for changes", e);
+            }
+        }
+    }
+
+    private WatchKey sleep() throws InterruptedException {
+        Thread.sleep(pollInterval);
+        return null;
+    }
+
+    private void processWatchKey(WatchKey watchKey) {
+        final Path directory = (Path) watchKey.watchable();
+
+        boolean overflow = false;
+        for (final WatchEvent<?> event : watchKey.pollEvents()) {
+            if (event.kind() == OVERFLOW)
+                overflow = true;
+            else
+                refreshFile(directory.resolve((Path) event.context()));
+        }
+
+        // Some events were lost, so check all the files in the directory
+        if (overflow)
+            for (final Path file : keysByFile.keySet())
+                if (directory.equals(file.getParent()))
+                    refreshFile(file);
+
+        // The directory is no longer watched, for instance because it was deleted
+        if (! watchKey.reset()) {
+            watchedDirectories.remove(directory);
+            for (final Path file : keysByFile.keySet())
+                if (directory.equals(file.getParent())) {
+                    polledKeys.addAll(keysByFile.getOrDefault(file, Collections.emptySet()));
+                    refreshFile(file);
+                }
+        }
+    }
+
+    private void poll() {
+        for (final String key : polledKeys)
+            refreshKey(key);
+
+        // Watch directories which now exist
+        if (watchService != null)
+            for (final Path file : keysByFile.keySet()) {
+                final Path directory = file.getParent();
+                if (directory != null && ! watchedDirectories.contains(directory) && Files.isDirectory(directory) && watchDirectory(directory)) {
+                    final Set<String> keys = keysByFile.getOrDefault(file, Collections.emptySet());
+                    polledKeys.removeAll(keys);
+                    // Changes may have happened between the last poll and watching the directory
+                    for (final String key : keys)
+                        refreshKey(key);
+                }
+            }
+    }
+
+    private void refreshFile(Path file) {
+        final Set<String> keys = keysByFile.get(file);
+        if (keys != null)
+            for (final String key : keys)
+                refreshKey(key);
+    }
+
+    private void refreshKey(String key) {
+        lastModifiedByKey.computeIfPresent(key, (k, previous) -> lastModifiedImpl.applyAsLong(k));
+    }
+}
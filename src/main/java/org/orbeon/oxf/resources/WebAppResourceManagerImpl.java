@@ -20,6 +20,8 @@ import org.orbeon.oxf.externalcontext.WebAppContext;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
 
 /**
@@ -100,6 +102,12 @@ public class WebAppResourceManagerImpl extends ResourceManagerBase {
         }
     }
 
+    protected Path watchedFile(String key) {
+        // No file if the WAR file isn't expanded
+        final String realPath = webAppContext.getRealPath(rootDirectory + key);
+        return realPath != null ? Paths.get(realPath) : null;
+    }
+
     /**
      * Indicates if the resource manager implementation supports write operations
      * @return true if write operations are allowed
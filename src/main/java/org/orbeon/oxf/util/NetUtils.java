@@ -796,13 +796,14 @@ public class NetUtils {
 
         try {
             // Assume the file will be deleted with the request so rename it first
+            final File oldFile = new File(new URI(existingFileURI));
+            // Create the new file next to the existing one so that renaming never requires copying the content
             final String newPath;
             {
-                final File newFile = File.createTempFile("xforms_upload_", null);
+                final File newFile = File.createTempFile("xforms_upload_", null, oldFile.getParentFile());
                 newPath = newFile.getCanonicalPath();
                 newFile.delete();
             }
-            final File oldFile = new File(new URI(existingFileURI));
             final File newFile = new File(newPath);
             final boolean success = oldFile.renameTo(newFile);
             try {
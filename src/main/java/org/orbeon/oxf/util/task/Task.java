@@ -17,6 +17,7 @@ import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.io.OptionalDataException;
 
 /**
  * A task which can be scheduled to run at specified times by the TaskScheduler <br>
@@ -31,6 +32,19 @@ import java.io.ObjectOutput;
 
 public abstract class Task implements Runnable, Externalizable {
 
+    /**
+     * What the TaskScheduler does when the task is due while a previous execution is still running or waiting for a
+     * worker.
+     */
+    public enum OverlapPolicy {
+        /** The execution is skipped. */
+        SKIP,
+        /** The execution is queued, and runs after all the previous executions. */
+        QUEUE,
+        /** At most one execution is queued, and further ones are skipped. */
+        COALESCE
+    }
+
     // instance variables
     /** has the cancel() method been called? */
     protected boolean isCancelled = false;
@@ -42,6 +56,10 @@ public abstract class Task implements Runnable, Externalizable {
     private long scheduledInitialTime = 0;
     private long scheduledInterval = 0;   // if <=0 -- means one-time execution
     private long lastRunTime = 0;
+    private OverlapPolicy overlapPolicy = OverlapPolicy.COALESCE;
+
+    // Not persisted, as they are about the executions in this JVM
+    private final transient TaskMetrics metrics = new TaskMetrics();
 
     // package view -- the task scheduler sets this when the task is scheduled with it
     TaskScheduler scheduler = null;
@@ -103,6 +121,37 @@ public abstract class Task implements Runnable, Externalizable {
     }
 
 
+    /**
+     * Set what happens when the task is due while a previous execution is still running. The default is
+     * OverlapPolicy.COALESCE. Executions of the same task never run concurrently.
+     * <p>
+     * This must be called before the task is scheduled.
+     *
+     * @param overlapPolicy the policy
+     */
+    public synchronized final void setOverlapPolicy(OverlapPolicy overlapPolicy) {
+        this.overlapPolicy = overlapPolicy;
+    }
+
+
+    /**
+     * Get what happens when the task is due while a previous execution is still running.
+     * @return the policy
+     */
+    public synchronized OverlapPolicy getOverlapPolicy() {
+        return overlapPolicy;
+    }
+
+
+    /**
+     * Get metrics about the executions of the task.
+     * @return the metrics, updated by the TaskScheduler
+     */
+    public TaskMetrics getMetrics() {
+        return metrics;
+    }
+
+
     /**
      * Get the task ID.
      * @return unique Task ID.
@@ -235,6 +284,7 @@ public abstract class Task implements Runnable, Externalizable {
         out.writeLong(this.scheduledInterval);
         out.writeLong(this.lastRunTime);
         out.writeObject(this.name);
+        out.writeObject(this.overlapPolicy.name());
     }
 
 
@@ -267,6 +317,14 @@ public abstract class Task implements Runnable, Externalizable {
         this.lastRunTime = in.readLong();
         this.name = (String) in.readObject();
 
+        // Tasks persisted by older versions don't have an overlap policy
+        try {
+            this.overlapPolicy = OverlapPolicy.valueOf((String) in.readObject());
+        } catch (OptionalDataException e) {
+            if (! e.eof)
+                throw e;
+        }
+
         // set scheduledInitialTime to make it in the future
         if (scheduledInitialTime < System.currentTimeMillis()) {
             long n = System.currentTimeMillis() - scheduledInitialTime;
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util.task;
+
+/**
+ * Metrics about the executions of a task, in milliseconds.
+ *
+ * The lateness of an execution is the time between when the execution was due and when it started, which grows when
+ * workers are all busy or when previous executions of the task overrun.
+ */
+public class TaskMetrics {
+
+    private long runCount;
+    private long skipCount;
+    private long failureCount;
+    private long totalRunTime;
+    private long maxRunTime;
+    private long totalLateness;
+    private long maxLateness;
+
+    synchronized void executed(long lateness, long runTime, boolean failed) {
+        runCount++;
+        if (failed)
+            failureCount++;
+        totalRunTime += runTime;
+        maxRunTime = Math.max(maxRunTime, runTime);
+        totalLateness += lateness;
+        maxLateness = Math.max(maxLateness, lateness);
+    }
+
+    synchronized void skipped() {
+        skipCount++;
+    }
+
+    public synchronized long getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * Number of executions skipped because a previous execution was still running.
+     */
+    public synchronized long getSkipCount() {
+        return skipCount;
+    }
+
+    /**
+     * Number of executions which threw an exception.
+     */
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    public synchronized long getTotalRunTime() {
+        return totalRunTime;
+    }
+
+    public synchronized long getMaxRunTime() {
+        return maxRunTime;
+    }
+
+    public synchronized long getAverageRunTime() {
+        return runCount == 0 ? 0 : totalRunTime / runCount;
+    }
+
+    public synchronized long getMaxLateness() {
+        return maxLateness;
+    }
+
+    public synchronized long getAverageLateness() {
+        return runCount == 0 ? 0 : totalLateness / runCount;
+    }
+
+    public synchronized String toString() {
+        return "runs: " + runCount + ", skipped: " + skipCount + ", failed: " + failureCount
+            + ", average run time: " + getAverageRunTime() + " ms, max run time: " + maxRunTime
+            + " ms, average lateness: " + getAverageLateness() + " ms, max lateness: " + maxLateness + " ms";
+    }
+}
@@ -16,14 +16,16 @@ package org.orbeon.oxf.util.task;
 // imports
 
 import org.apache.log4j.Logger;
+import org.orbeon.oxf.properties.Properties;
 import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.externalcontext.WebAppContext;
 import org.orbeon.oxf.externalcontext.WebAppListener;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -34,6 +36,13 @@ import java.util.TimerTask;
  * the abstract methods ( e.g. its run() method ).
  * </p>
  * <p>
+ * Tasks are triggered by a single timer thread and run on a bounded pool of
+ * worker threads, sized with the oxf.scheduler.workers property. Executions of
+ * the same task never run concurrently: when a task is due while a previous
+ * execution is still running or waiting for a worker, its overlap policy
+ * determines whether the execution is skipped, queued, or coalesced.
+ * </p>
+ * <p>
  * Persistence of the Task objects allows the TaskScheduler to be shutdown and
  * restarted with all the scheduled tasks read from storage.
  * </p>
@@ -47,8 +56,13 @@ public class TaskScheduler {
 
     private static Logger logger = LoggerFactory.createLogger(TaskScheduler.class);
 
+    private static final String WORKERS_PROPERTY = "oxf.scheduler.workers";
+    private static final int DEFAULT_WORKERS = 4;
+
     // instance variables
-    private Timer schedulerThread;
+    private final int workerCount;
+    private ScheduledExecutorService schedulerThread;
+    private ThreadPoolExecutor workers;
     private ArrayList taskList;
     private long initTime;
 
@@ -56,12 +70,36 @@ public class TaskScheduler {
 
 
     /**
-     * Create a task scheduler with a default thread pool size.
+     * Create a task scheduler with the given number of worker threads.
      */
-    private TaskScheduler() {
-        schedulerThread = new Timer(false);
+    TaskScheduler(int workerCount) {
+        this.workerCount = workerCount;
         initTime = System.currentTimeMillis();
         taskList = new ArrayList();
+        createExecutors();
+    }
+
+
+    private void createExecutors() {
+        schedulerThread = Executors.newSingleThreadScheduledExecutor(threadFactory("orbeon-scheduler-timer"));
+        workers = new ThreadPoolExecutor(
+            workerCount, workerCount, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            threadFactory("orbeon-scheduler-worker")
+        );
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+
+    private static ThreadFactory threadFactory(final String prefix) {
+        final AtomicInteger threadNumber = new AtomicInteger(0);
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, prefix + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(false);
+                return thread;
+            }
+        };
     }
 
 
@@ -85,6 +123,24 @@ public class TaskScheduler {
     }
 
 
+    /**
+     * Get the number of worker threads running tasks.
+     * @return the number of workers currently running a task.
+     */
+    public int getActiveWorkerCount() {
+        return workers.getActiveCount();
+    }
+
+
+    /**
+     * Get the number of task executions waiting for a worker.
+     * @return the number of waiting executions.
+     */
+    public int getWaitingExecutionCount() {
+        return workers.getQueue().size();
+    }
+
+
     /**
      * Schedules the specified task for execution according to the task's
      * scheduling properties.
@@ -101,15 +157,21 @@ public class TaskScheduler {
             cleanupAll();
             if (taskList.contains(task))
                 throw new IllegalStateException("Task was already scheduled");
+            if (task.isCancelled())
+                throw new IllegalStateException("Task was cancelled");
 
-            Date time = new Date(task.getScheduledFirstTime());
+            RunTask runTask = new RunTask(task, workers);
 
-            RunTask runTask = new RunTask(task);
+            long delay = Math.max(0, task.getScheduledFirstTime() - System.currentTimeMillis());
 
-            if (task.getScheduledInterval() <= 0) {
-                schedulerThread.schedule(runTask, time);
-            } else {
-                schedulerThread.scheduleAtFixedRate(runTask, time, task.getScheduledInterval());
+            try {
+                if (task.getScheduledInterval() <= 0) {
+                    runTask.future = schedulerThread.schedule(runTask, delay, TimeUnit.MILLISECONDS);
+                } else {
+                    runTask.future = schedulerThread.scheduleAtFixedRate(runTask, delay, task.getScheduledInterval(), TimeUnit.MILLISECONDS);
+                }
+            } catch (RejectedExecutionException e) {
+                throw new IllegalStateException("Scheduler was cancelled");
             }
 
             task.scheduler = this;
@@ -129,10 +191,14 @@ public class TaskScheduler {
     public void cancelAll(boolean withRestart) {
         synchronized (this) {
             taskList.clear();
-            schedulerThread.cancel();
+
+            // Running executions complete, but waiting executions don't start
+            schedulerThread.shutdownNow();
+            workers.getQueue().clear();
+            workers.shutdown();
 
             if (withRestart)
-                schedulerThread = new Timer(false);
+                createExecutors();
         }
     }
 
@@ -239,7 +305,8 @@ public class TaskScheduler {
             if (existingTaskScheduler != null) {
                 return existingTaskScheduler;
             } else {
-                final TaskScheduler newTaskScheduler = new TaskScheduler();
+                final int workerCount = Properties.instance().getPropertySet().getInteger(WORKERS_PROPERTY, DEFAULT_WORKERS);
+                final TaskScheduler newTaskScheduler = new TaskScheduler(Math.max(workerCount, 1));
                 webAppContext.getAttributesMap().put("task-scheduler", newTaskScheduler);
                 webAppContext.addListener(new WebAppListener() {
                     public void webAppDestroyed() {
@@ -253,42 +320,108 @@ public class TaskScheduler {
 
 
     /**
-     * RunTask class is scheduler to on the Timer
-     * and is associated with a Task which it runs.
+     * RunTask is scheduled on the timer thread and is associated with a Task
+     * which it submits to the workers when it is due.
      */
-    private class RunTask extends TimerTask {
+    private static class RunTask implements Runnable {
         // instance variables
-        private Task task;
+        private final Task task;
+        private final ExecutorService workers;
+        private final Task.OverlapPolicy overlapPolicy;
+        private volatile Future<?> future;
+
+        private long nextScheduledTime;
+
+        // Guarded by this: whether an execution is running or waiting for a worker, and the scheduled times of the
+        // executions waiting for it to complete
+        private boolean executing = false;
+        private final Deque<Long> pending = new ArrayDeque<Long>();
 
 
         /**
          * Create a new RunTask
          * @param task The Task to run
          */
-        public RunTask(Task task) {
+        public RunTask(Task task, ExecutorService workers) {
             this.task = task;
+            this.workers = workers;
+            this.overlapPolicy = task.getOverlapPolicy();
+            this.nextScheduledTime = Math.max(task.getScheduledFirstTime(), System.currentTimeMillis());
         }
 
 
         /**
-         * Run the Task
+         * Called on the timer thread when the task is due
          */
         public void run() {
+            final long scheduledTime = nextScheduledTime;
+            nextScheduledTime += task.getScheduledInterval();
+
             if (task.isCancelled()) {
-                this.cancel();
+                if (future != null)
+                    future.cancel(false);
                 return;
             }
 
-            // NOTE: TBD
-            //    For now we just launch a thread to do the task.
-            //    This is potentially not scaleable. In the future,
-            //    we will pick threads from a pool.
+            synchronized (this) {
+                if (! executing) {
+                    executing = true;
+                    submit(scheduledTime);
+                } else if (overlapPolicy == Task.OverlapPolicy.QUEUE
+                        || overlapPolicy == Task.OverlapPolicy.COALESCE && pending.isEmpty()) {
+                    pending.addLast(scheduledTime);
+                } else {
+                    task.getMetrics().skipped();
+                    if (logger.isDebugEnabled())
+                        logger.debug("Task: " + task.getName() + " skipped since a previous execution is still running");
+                }
+            }
+        }
+
 
-            Thread runner = new Thread(task);
-            runner.start();
-            task.setLastRunTime(System.currentTimeMillis());
+        private void submit(final long scheduledTime) {
+            try {
+                workers.execute(new Runnable() {
+                    public void run() {
+                        execute(scheduledTime);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The scheduler was cancelled
+                executing = false;
+                pending.clear();
+            }
         }
 
+
+        /**
+         * Run the Task on a worker thread
+         */
+        private void execute(long scheduledTime) {
+            try {
+                if (! task.isCancelled()) {
+                    final long startTime = System.currentTimeMillis();
+                    boolean failed = false;
+                    try {
+                        task.setLastRunTime(scheduledTime);
+                        task.run();
+                    } catch (Throwable t) {
+                        failed = true;
+                        logger.error("Task: " + task.getName() + " failed", t);
+                    }
+                    task.getMetrics().executed(startTime - scheduledTime, System.currentTimeMillis() - startTime, failed);
+                }
+            } finally {
+                synchronized (this) {
+                    if (pending.isEmpty() || task.isCancelled()) {
+                        executing = false;
+                        pending.clear();
+                    } else {
+                        submit(pending.removeFirst());
+                    }
+                }
+            }
+        }
     }
 
 
@@ -25,10 +25,8 @@ import org.xml.sax.helpers.AttributesImpl;
 
 import javax.xml.transform.stream.StreamResult;
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.*;
 
 /**
  * SAXStore keeps a compact representation of SAX events sent to the ContentHandler interface.
@@ -37,6 +35,15 @@ import java.util.List;
  * passed a threshold, say 10 MB or 20 MB, we could use a linked list of such big blocks.
  *
  * TODO: Handling of system IDs is not optimal in memory as system IDs are unlikely to change much within a document.
+ *
+ * Once complete, a SAXStore can be frozen with freeze(). A frozen SAXStore has trimmed buffers, cannot receive events
+ * or marks anymore, and can be replayed concurrently from multiple threads, as replay only reads the buffers and
+ * passes character data to the receiver directly from the shared character buffer. SAXStores read with readExternal()
+ * are frozen.
+ *
+ * The serialized form is a single contiguous block of bytes (see toByteArray()), where strings are stored once in a
+ * table. Buffers are copied in bulk to and from the block. The previous serialized form, which wrote each value
+ * separately, can still be read.
  */
 public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
 
@@ -80,6 +87,8 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
 
     private transient Locator locator; // used only for recording events, MUST be cleared afterwards
 
+    private volatile boolean frozen;
+
     private final Mark START_MARK = new Mark();
 
     private List<Mark> marks = null;
@@ -377,6 +386,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
     // Create a new mark
     // NOTE: This must be called *before* the startElement() event that will be the first element associated with the mark.
     public Mark getMark(String id) {
+        checkNotFrozen();
         return new Mark(this, id);
     }
 
@@ -412,9 +422,61 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
     }
 
     public void clear() {
+        checkNotFrozen();
         init();
     }
 
+    /**
+     * Freeze this SAXStore so that it can be shared and replayed concurrently.
+     *
+     * The buffers are trimmed and the SAXStore rejects further events and marks. As with any object shared between
+     * threads, the SAXStore must be published safely after being frozen, for example through a cache.
+     *
+     * @return this SAXStore
+     */
+    public SAXStore freeze() {
+        if (! frozen) {
+            eventBuffer = trim(eventBuffer, eventBufferPosition);
+            charBuffer = trim(charBuffer, charBufferPosition);
+            intBuffer = trim(intBuffer, intBufferPosition);
+            lineBuffer = trim(lineBuffer, lineBufferPosition);
+            systemIdBuffer = trim(systemIdBuffer, systemIdBufferPosition);
+            attributeCountBuffer = trim(attributeCountBuffer, attributeCountBufferPosition);
+            StringBuilder = Arrays.asList(StringBuilder.toArray(new String[StringBuilder.size()]));
+            if (marks != null)
+                marks = Collections.unmodifiableList(marks);
+
+            locator = null;
+            frozen = true;
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen)
+            throw new OXFException("SAXStore is frozen");
+    }
+
+    private static byte[] trim(byte[] buffer, int length) {
+        return buffer.length == length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    private static char[] trim(char[] buffer, int length) {
+        return buffer.length == length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    private static int[] trim(int[] buffer, int length) {
+        return buffer.length == length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    private static String[] trim(String[] buffer, int length) {
+        return buffer.length == length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
     public Document getDocument() {
         try {
             LocationSAXContentHandler ch = new LocationSAXContentHandler();
@@ -495,6 +557,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
 
     @Override
     public void setDocumentLocator(Locator locator) {
+        checkNotFrozen();
         this.hasDocumentLocator = locator != null;
         this.locator = locator;
         super.setDocumentLocator(locator);
@@ -649,6 +712,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
 
 
     protected void addToEventBuffer(byte b) {
+        checkNotFrozen();
         if (eventBuffer.length - eventBufferPosition == 1) {
             // double the array
             byte[] old = eventBuffer;
@@ -691,64 +755,29 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
         }
     }
 
-    public void writeExternal(ObjectOutput out) throws IOException {
-
-        out.writeInt(eventBufferPosition);
-        out.write(eventBuffer, 0, eventBufferPosition);
-
-        out.writeInt(charBufferPosition);
-        for (int i = 0; i < charBufferPosition; i++)
-            out.writeChar(charBuffer[i]);
-
-        out.writeInt(intBufferPosition);
-        for (int i = 0; i < intBufferPosition; i++)
-            out.writeInt(intBuffer[i]);
-
-        out.writeInt(lineBufferPosition);
-        for (int i = 0; i < lineBufferPosition; i++)
-            out.writeInt(lineBuffer[i]);
-
-        out.writeInt(systemIdBufferPosition);
-        for (int i = 0; i < systemIdBufferPosition; i++) {
-            final String systemId = systemIdBuffer[i];
-            out.writeObject(systemId == null ? "" : systemId);
-        }
-
-        out.writeInt(attributeCountBufferPosition);
-        for (int i = 0; i < attributeCountBufferPosition; i++)
-            out.writeInt(attributeCountBuffer[i]);
-
-        out.writeInt(StringBuilder.size());
-        for (int i = 0; i < StringBuilder.size(); i++)
-            out.writeObject(StringBuilder.get(i));
-
-        out.writeBoolean(hasDocumentLocator);
-        out.writeObject(publicId == null ? "" : publicId);
-
-        if (marks == null || marks.isEmpty()) {
-            out.writeInt(0);
-        } else {
-            out.writeInt(marks.size());
-            for (final Mark mark : marks) {
-                out.writeObject(mark.id);
-                out.writeInt(mark.eventBufferPosition);
-                out.writeInt(mark.charBufferPosition);
-                out.writeInt(mark.intBufferPosition);
-                out.writeInt(mark.lineBufferPosition);
-                out.writeInt(mark.systemIdBufferPosition);
-                out.writeInt(mark.attributeCountBufferPosition);
-                out.writeInt(mark.StringBuilderPosition);
-            }
-        }
+    // Written before the block of bytes produced by toByteArray(). Stores serialized with the previous format start
+    // with the size of the event buffer instead, which can't be negative.
+    private static final int FORMAT_MARKER = 0xC0DE5A02;
 
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeInt(FORMAT_MARKER);
+        out.write(toByteArray());
         out.flush();
     }
 
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-        eventBufferPosition = in.readInt();
+        final int first = in.readInt();
+        if (first == FORMAT_MARKER)
+            readBlock(new StreamBlockInput(in));
+        else
+            readLegacyExternal(in, first);
+    }
+
+    // Read the format which wrote each value separately, so that stores persisted before are still readable
+    private void readLegacyExternal(ObjectInput in, int eventBufferPosition) throws IOException, ClassNotFoundException {
+        this.eventBufferPosition = eventBufferPosition;
         eventBuffer = new byte[eventBufferPosition];
-        for (int i = 0; i < eventBufferPosition; i++)
-            eventBuffer[i] = in.readByte();
+        in.readFully(eventBuffer);
 
         charBufferPosition = in.readInt();
         charBuffer = new char[charBufferPosition];
@@ -775,6 +804,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
 
         attributeCountBufferPosition = in.readInt();
         attributeCountBuffer = new int[attributeCountBufferPosition];
+        attributeCount = 0;
         for (int i = 0; i < attributeCountBufferPosition; i++) {
             final int count = in.readInt();
             attributeCountBuffer[i] = count;
@@ -782,6 +812,7 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
         }
 
         final int StringBuilderSize = in.readInt();
+        StringBuilder = new ArrayList<String>(StringBuilderSize);
         for (int i = 0; i < StringBuilderSize; i++)
             StringBuilder.add((String) in.readObject());
 
@@ -790,15 +821,298 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
         if ("".equals(publicId))
             publicId = null;
 
+        marks = null;
         final int marksCount = in.readInt();
-        if (marksCount > 0) {
-            for (int i = 0; i < marksCount; i++) {
-                final String id = (String) in.readObject();
-                int[] values = new int[7];
-                for (int j = 0; j < 7; j++)
-                    values[j] = in.readInt();
-                new Mark(values, id);
+        for (int i = 0; i < marksCount; i++) {
+            final String id = (String) in.readObject();
+            int[] values = new int[MARK_VALUES];
+            for (int j = 0; j < MARK_VALUES; j++)
+                values[j] = in.readInt();
+            new Mark(values, id);
+        }
+
+        freeze();
+    }
+
+    /**
+     * Read a frozen SAXStore from a block of bytes produced by toByteArray().
+     */
+    public static SAXStore fromByteArray(byte[] bytes) {
+        final SAXStore saxStore = new SAXStore();
+        try {
+            saxStore.readBlock(new BufferBlockInput(ByteBuffer.wrap(bytes)));
+        } catch (IOException e) {
+            // Not thrown when reading from a buffer
+            throw new OXFException(e);
+        }
+        return saxStore;
+    }
+
+    private static final int HEADER_SIZE = 10 * 4 + 1;
+    private static final int MARK_VALUES = 7;
+
+    // Strings stored once in the serialized form, and referred to by index
+    private static class StringTable {
+        final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        final List<String> strings = new ArrayList<String>();
+        int charCount;
+
+        int index(String s) {
+            if (s == null)
+                return -1;
+            final Integer existing = indexes.get(s);
+            if (existing != null)
+                return existing;
+            final int index = strings.size();
+            indexes.put(s, index);
+            strings.add(s);
+            charCount += s.length();
+            return index;
+        }
+    }
+
+    /**
+     * Return the content of this SAXStore, including marks, as a single contiguous block of bytes.
+     */
+    public byte[] toByteArray() {
+
+        final StringTable table = new StringTable();
+
+        final int[] systemIdIndexes = new int[systemIdBufferPosition];
+        for (int i = 0; i < systemIdBufferPosition; i++)
+            systemIdIndexes[i] = table.index(systemIdBuffer[i]);
+
+        final int stringCount = StringBuilder.size();
+        final int[] stringIndexes = new int[stringCount];
+        for (int i = 0; i < stringCount; i++)
+            stringIndexes[i] = table.index(StringBuilder.get(i));
+
+        final List<Mark> marks = getMarks();
+        final int[] markValues = new int[marks.size() * (MARK_VALUES + 1)];
+        {
+            int i = 0;
+            for (final Mark mark : marks) {
+                markValues[i++] = table.index(mark.id);
+                markValues[i++] = mark.eventBufferPosition;
+                markValues[i++] = mark.charBufferPosition;
+                markValues[i++] = mark.intBufferPosition;
+                markValues[i++] = mark.lineBufferPosition;
+                markValues[i++] = mark.systemIdBufferPosition;
+                markValues[i++] = mark.attributeCountBufferPosition;
+                markValues[i++] = mark.StringBuilderPosition;
             }
         }
+
+        final int publicIdIndex = table.index(publicId);
+
+        final long size =
+            HEADER_SIZE +
+            table.strings.size() * 4L + table.charCount * 2L +
+            (intBufferPosition + lineBufferPosition + attributeCountBufferPosition) * 4L +
+            (systemIdIndexes.length + stringIndexes.length + markValues.length) * 4L +
+            charBufferPosition * 2L +
+            eventBufferPosition;
+
+        if (size > Integer.MAX_VALUE)
+            throw new OXFException("SAXStore too large to be serialized: " + size + " bytes");
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+        buffer.putInt(eventBufferPosition);
+        buffer.putInt(charBufferPosition);
+        buffer.putInt(intBufferPosition);
+        buffer.putInt(lineBufferPosition);
+        buffer.putInt(systemIdBufferPosition);
+        buffer.putInt(attributeCountBufferPosition);
+        buffer.putInt(stringCount);
+        buffer.putInt(marks.size());
+        buffer.putInt(table.strings.size());
+        buffer.putInt(publicIdIndex);
+        buffer.put((byte) (hasDocumentLocator ? 1 : 0));
+
+        for (final String s : table.strings) {
+            buffer.putInt(s.length());
+            buffer.asCharBuffer().put(s);
+            buffer.position(buffer.position() + s.length() * 2);
+        }
+
+        putInts(buffer, intBuffer, intBufferPosition);
+        putInts(buffer, lineBuffer, lineBufferPosition);
+        putInts(buffer, attributeCountBuffer, attributeCountBufferPosition);
+        putInts(buffer, systemIdIndexes, systemIdIndexes.length);
+        putInts(buffer, stringIndexes, stringIndexes.length);
+        putInts(buffer, markValues, markValues.length);
+
+        buffer.asCharBuffer().put(charBuffer, 0, charBufferPosition);
+        buffer.position(buffer.position() + charBufferPosition * 2);
+
+        buffer.put(eventBuffer, 0, eventBufferPosition);
+
+        return buffer.array();
+    }
+
+    // Source of the values of the block of bytes produced by toByteArray()
+    private interface BlockInput {
+        int getInt() throws IOException;
+        byte getByte() throws IOException;
+        void getInts(int[] values) throws IOException;
+        void getChars(char[] values) throws IOException;
+        void getBytes(byte[] values) throws IOException;
+    }
+
+    private static class BufferBlockInput implements BlockInput {
+
+        private final ByteBuffer buffer;
+
+        BufferBlockInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int getInt() {
+            return buffer.getInt();
+        }
+
+        public byte getByte() {
+            return buffer.get();
+        }
+
+        public void getInts(int[] values) {
+            buffer.asIntBuffer().get(values);
+            buffer.position(buffer.position() + values.length * 4);
+        }
+
+        public void getChars(char[] values) {
+            buffer.asCharBuffer().get(values);
+            buffer.position(buffer.position() + values.length * 2);
+        }
+
+        public void getBytes(byte[] values) {
+            buffer.get(values);
+        }
+    }
+
+    // Read the block directly from the stream into the buffers of the store, converting ints and chars through a
+    // small buffer, so that the block is never held in memory as a whole
+    private static class StreamBlockInput implements BlockInput {
+
+        private static final int CHUNK_SIZE = 8192;
+
+        private final DataInput in;
+        private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+
+        StreamBlockInput(DataInput in) {
+            this.in = in;
+        }
+
+        public int getInt() throws IOException {
+            return in.readInt();
+        }
+
+        public byte getByte() throws IOException {
+            return in.readByte();
+        }
+
+        public void getInts(int[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                final int count = Math.min(values.length - offset, CHUNK_SIZE / 4);
+                fillChunk(count * 4);
+                chunk.asIntBuffer().get(values, offset, count);
+                offset += count;
+            }
+        }
+
+        public void getChars(char[] values) throws IOException {
+            int offset = 0;
+            while (offset < values.length) {
+                final int count = Math.min(values.length - offset, CHUNK_SIZE / 2);
+                fillChunk(count * 2);
+                chunk.asCharBuffer().get(values, offset, count);
+                offset += count;
+            }
+        }
+
+        public void getBytes(byte[] values) throws IOException {
+            in.readFully(values);
+        }
+
+        private void fillChunk(int length) throws IOException {
+            in.readFully(chunk.array(), 0, length);
+            chunk.clear();
+            chunk.limit(length);
+        }
+    }
+
+    private void readBlock(BlockInput in) throws IOException {
+
+        eventBufferPosition = in.getInt();
+        charBufferPosition = in.getInt();
+        intBufferPosition = in.getInt();
+        lineBufferPosition = in.getInt();
+        systemIdBufferPosition = in.getInt();
+        attributeCountBufferPosition = in.getInt();
+        final int stringCount = in.getInt();
+        final int marksCount = in.getInt();
+        final int tableSize = in.getInt();
+        final int publicIdIndex = in.getInt();
+        hasDocumentLocator = in.getByte() != 0;
+
+        final String[] table = new String[tableSize];
+        for (int i = 0; i < tableSize; i++) {
+            final char[] chars = new char[in.getInt()];
+            in.getChars(chars);
+            table[i] = new String(chars);
+        }
+
+        intBuffer = getInts(in, intBufferPosition);
+        lineBuffer = getInts(in, lineBufferPosition);
+
+        attributeCountBuffer = getInts(in, attributeCountBufferPosition);
+        attributeCount = 0;
+        for (int i = 0; i < attributeCountBufferPosition; i++)
+            attributeCount += attributeCountBuffer[i];
+
+        final int[] systemIdIndexes = getInts(in, systemIdBufferPosition);
+        systemIdBuffer = new String[systemIdBufferPosition];
+        for (int i = 0; i < systemIdBufferPosition; i++)
+            systemIdBuffer[i] = fromTable(table, systemIdIndexes[i]);
+
+        final int[] stringIndexes = getInts(in, stringCount);
+        final String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++)
+            strings[i] = fromTable(table, stringIndexes[i]);
+        StringBuilder = Arrays.asList(strings);
+
+        final int[] markValues = getInts(in, marksCount * (MARK_VALUES + 1));
+        marks = null;
+        for (int i = 0; i < marksCount; i++) {
+            final int offset = i * (MARK_VALUES + 1);
+            new Mark(Arrays.copyOfRange(markValues, offset + 1, offset + 1 + MARK_VALUES), fromTable(table, markValues[offset]));
+        }
+
+        publicId = fromTable(table, publicIdIndex);
+
+        charBuffer = new char[charBufferPosition];
+        in.getChars(charBuffer);
+
+        eventBuffer = new byte[eventBufferPosition];
+        in.getBytes(eventBuffer);
+
+        freeze();
+    }
+
+    private static String fromTable(String[] table, int index) {
+        return index == -1 ? null : table[index];
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values, int length) {
+        buffer.asIntBuffer().put(values, 0, length);
+        buffer.position(buffer.position() + length * 4);
+    }
+
+    private static int[] getInts(BlockInput in, int length) throws IOException {
+        final int[] values = new int[length];
+        in.getInts(values);
+        return values;
     }
 }
@@ -64,6 +64,7 @@ public class XMLConstants {
     public final static QName XS_STRING_QNAME = QName.apply("string", XSD_NAMESPACE);
     public final static QName XS_BOOLEAN_QNAME = QName.apply("boolean", XSD_NAMESPACE);
     public final static QName XS_INTEGER_QNAME = QName.apply("integer", XSD_NAMESPACE);
+    public final static QName XS_LONG_QNAME = QName.apply("long", XSD_NAMESPACE);
     public final static QName XS_DATE_QNAME = QName.apply("date", XSD_NAMESPACE);
     public final static QName XS_DATETIME_QNAME = QName.apply("dateTime", XSD_NAMESPACE);
     public final static QName XS_QNAME_QNAME = QName.apply("QName", XSD_NAMESPACE);
@@ -39,6 +39,10 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class XMLParsing {
 
@@ -52,7 +56,41 @@ public class XMLParsing {
     private static final DocumentBuilderFactory documentBuilderFactory;
     private static Map<Thread, DocumentBuilder> documentBuilders = null;
 
-    private static Map<String, SAXParserFactory> parserFactories = new HashMap<String, SAXParserFactory>();
+    private static final Map<String, SAXParserFactory> parserFactories = new ConcurrentHashMap<String, SAXParserFactory>();
+
+    // Readers used internally for parsing are pooled per parser configuration, so that they are reused, keeping their
+    // symbol tables. The pools are not tied to threads, so that they don't keep references from container threads to
+    // the web app class loader once the web app is undeployed. A reader is removed from its pool while it is in use,
+    // as parsing can be reentrant, for example when a receiver parses another document.
+    private static final int MAX_POOLED_XML_READERS = Runtime.getRuntime().availableProcessors() * 2;
+    private static final Map<String, XMLReaderPool> pooledXMLReaders = new ConcurrentHashMap<String, XMLReaderPool>();
+
+    private static class XMLReaderPool {
+        private final ConcurrentLinkedQueue<XMLReader> readers = new ConcurrentLinkedQueue<XMLReader>();
+        // Maintained separately as the size of the queue is computed by traversing it
+        private final AtomicInteger size = new AtomicInteger();
+
+        XMLReader poll() {
+            final XMLReader xmlReader = readers.poll();
+            if (xmlReader != null)
+                size.decrementAndGet();
+            return xmlReader;
+        }
+
+        void offer(XMLReader xmlReader) {
+            if (size.incrementAndGet() <= MAX_POOLED_XML_READERS)
+                readers.offer(xmlReader);
+            else
+                size.decrementAndGet();
+        }
+
+        int size() {
+            return size.get();
+        }
+    }
+
+    private static final AtomicLong xmlReadersCreated = new AtomicLong();
+    private static final AtomicLong xmlReadersReused  = new AtomicLong();
 
     public static class ParserConfiguration {
         public final boolean validating;
@@ -135,17 +173,8 @@ public class XMLParsing {
      * @param parserConfiguration  parser configuration
      * @return                     the SAXParserFactory
      */
-    public static synchronized SAXParserFactory getSAXParserFactory(ParserConfiguration parserConfiguration) {
-
-        final String key = parserConfiguration.getKey();
-
-        final SAXParserFactory existingFactory = parserFactories.get(key);
-        if (existingFactory != null)
-            return existingFactory;
-
-        final SAXParserFactory newFactory = createSAXParserFactory(parserConfiguration);
-        parserFactories.put(key, newFactory);
-        return newFactory;
+    public static SAXParserFactory getSAXParserFactory(ParserConfiguration parserConfiguration) {
+        return parserFactories.computeIfAbsent(parserConfiguration.getKey(), key -> createSAXParserFactory(parserConfiguration));
     }
 
     /**
@@ -154,7 +183,7 @@ public class XMLParsing {
      * @param parserConfiguration  parser configuration
      * @return                     the SAXParser
      */
-    public static synchronized SAXParser newSAXParser(ParserConfiguration parserConfiguration) {
+    public static SAXParser newSAXParser(ParserConfiguration parserConfiguration) {
         try {
             return getSAXParserFactory(parserConfiguration).newSAXParser();
         } catch (Exception e) {
@@ -174,6 +203,61 @@ public class XMLParsing {
         }
     }
 
+    /**
+     * Return the number of XMLReader instances created for internal parsing.
+     */
+    public static long getXMLReadersCreated() {
+        return xmlReadersCreated.get();
+    }
+
+    /**
+     * Return the number of times an XMLReader was reused from the pool for internal parsing.
+     */
+    public static long getXMLReadersReused() {
+        return xmlReadersReused.get();
+    }
+
+    /**
+     * Obtain an XMLReader from the pool, or create one. The caller must call releaseXMLReader()
+     * once it is done with the reader, unless it doesn't want the reader to be reused.
+     */
+    private static XMLReader borrowXMLReader(ParserConfiguration parserConfiguration) throws SAXException {
+        final XMLReaderPool pool = pooledXMLReaders.get(parserConfiguration.getKey());
+        final XMLReader pooledXMLReader = (pool == null) ? null : pool.poll();
+        if (pooledXMLReader != null) {
+            xmlReadersReused.incrementAndGet();
+            return pooledXMLReader;
+        } else {
+            xmlReadersCreated.incrementAndGet();
+            final XMLReader xmlReader = newSAXParser(parserConfiguration).getXMLReader();
+            xmlReader.setEntityResolver(ENTITY_RESOLVER);
+            xmlReader.setErrorHandler(ERROR_HANDLER);
+            return xmlReader;
+        }
+    }
+
+    private static void releaseXMLReader(ParserConfiguration parserConfiguration, XMLReader xmlReader, boolean handleLexical) {
+        try {
+            // Don't keep references to handlers, and restore the default resolver and error handler
+            xmlReader.setContentHandler(null);
+            if (handleLexical)
+                xmlReader.setProperty(XMLConstants.SAX_LEXICAL_HANDLER, null);
+            xmlReader.setEntityResolver(ENTITY_RESOLVER);
+            xmlReader.setErrorHandler(ERROR_HANDLER);
+        } catch (SAXException e) {
+            // Don't reuse the reader
+            return;
+        }
+
+        pooledXMLReaders.computeIfAbsent(parserConfiguration.getKey(), key -> new XMLReaderPool()).offer(xmlReader);
+    }
+
+    // For tests
+    static int getPooledXMLReaderCount(ParserConfiguration parserConfiguration) {
+        final XMLReaderPool pool = pooledXMLReaders.get(parserConfiguration.getKey());
+        return (pool == null) ? 0 : pool.size();
+    }
+
     /**
      * Given an input stream, return a reader. This performs encoding detection as per the XML spec. Caller must close
      * the resulting Reader when done.
@@ -311,14 +395,14 @@ public class XMLParsing {
         }
 
         try {
-            final XMLReader xmlReader = newSAXParser(parserConfiguration).getXMLReader();
+            final XMLReader xmlReader = borrowXMLReader(parserConfiguration);
             xmlReader.setContentHandler(xmlReceiver);
             if (handleLexical)
                 xmlReader.setProperty(XMLConstants.SAX_LEXICAL_HANDLER, xmlReceiver);
 
-            xmlReader.setEntityResolver(ENTITY_RESOLVER);
-            xmlReader.setErrorHandler(ERROR_HANDLER);
             xmlReader.parse(inputSource);
+            // Only reuse readers which completed parsing successfully
+            releaseXMLReader(parserConfiguration, xmlReader, handleLexical);
         } catch (SAXParseException e) {
             throw new ValidationException(e.getMessage(), new LocationData(e));
         } catch (Exception e) {
@@ -342,9 +426,8 @@ public class XMLParsing {
             return false;
 
         try {
-            final XMLReader xmlReader = newSAXParser(ParserConfiguration.PLAIN).getXMLReader();
+            final XMLReader xmlReader = borrowXMLReader(ParserConfiguration.PLAIN);
             xmlReader.setContentHandler(NULL_CONTENT_HANDLER);
-            xmlReader.setEntityResolver(ENTITY_RESOLVER);
             xmlReader.setErrorHandler(new org.xml.sax.ErrorHandler() {
                 public void error(SAXParseException exception) throws SAXException {
                     throw exception;
@@ -358,6 +441,7 @@ public class XMLParsing {
                 }
             });
             xmlReader.parse(new InputSource(new StringReader(xmlString)));
+            releaseXMLReader(ParserConfiguration.PLAIN, xmlReader, false);
             return true;
         } catch (Exception e) {
             // Ideally we would like the parser to not throw as this is time-consuming, but not sure how to achieve that
@@ -392,13 +476,14 @@ public class XMLParsing {
 
     public static void parseDocumentFragment(Reader reader, XMLReceiver xmlReceiver) throws SAXException {
         try {
-            final XMLReader xmlReader = newSAXParser(ParserConfiguration.PLAIN).getXMLReader();
+            final XMLReader xmlReader = borrowXMLReader(ParserConfiguration.PLAIN);
             xmlReader.setContentHandler(new XMLFragmentReceiver(xmlReceiver));
             final ArrayList<Reader> readers = new ArrayList<Reader>(3);
             readers.add(new StringReader("<root>"));
             readers.add(reader);
             readers.add(new StringReader("</root>"));
             xmlReader.parse(new InputSource(new SequenceReader(readers.iterator())));
+            releaseXMLReader(ParserConfiguration.PLAIN, xmlReader, false);
         } catch (IOException e) {
             throw new OXFException(e);
         }
@@ -407,9 +492,10 @@ public class XMLParsing {
     public static void parseDocumentFragment(String fragment, XMLReceiver xmlReceiver) throws SAXException {
         if (fragment.contains("<") || fragment.contains("&")) {
             try {
-                final XMLReader xmlReader = newSAXParser(ParserConfiguration.PLAIN).getXMLReader();
+                final XMLReader xmlReader = borrowXMLReader(ParserConfiguration.PLAIN);
                 xmlReader.setContentHandler(new XMLFragmentReceiver(xmlReceiver));
                 xmlReader.parse(new InputSource(new StringReader("<root>" + fragment + "</root>")));
+                releaseXMLReader(ParserConfiguration.PLAIN, xmlReader, false);
             } catch (IOException e) {
                 throw new OXFException(e);
             }
@@ -22,28 +22,51 @@ object ObjectCache {
   private val DefaultCacheName = "cache.main"
   private val DefaultSize      = 200
 
-  private val CachePropertyNamePrefix     = "oxf"
-  private val CachePropertyNameSizeSuffix = "size"
+  private val CachePropertyNamePrefix         = "oxf"
+  private val CachePropertyNameSizeSuffix     = "size"
+  private val CachePropertyNameSegmentsSuffix = "segments"
 
   private val namedObjectCaches = new ju.concurrent.ConcurrentHashMap[String, Cache]
 
+  // The off-heap tier of the main cache is disabled until it is configured with `oxf.cache.off-heap.max-size`
+  private val mainOffHeapStore = new OffHeapStore(0)
+
   locally {
-    namedObjectCaches.put(DefaultCacheName, new MemoryCacheImpl(DefaultSize))
+    namedObjectCaches.put(DefaultCacheName, new TieredCacheImpl(new MemoryCacheImpl(DefaultSize), mainOffHeapStore))
   }
 
   // Get the instance of the main object cache
   def instance: Cache = namedObjectCaches.get(DefaultCacheName)
 
+  // Off-heap tier of the main object cache, which holds cached `SAXStore`s when enabled
+  def offHeapStore: OffHeapStore = mainOffHeapStore
+
   // Get the instance of the object cache specified
+  //
+  // The main cache is created eagerly because reading properties itself goes through the main cache. Named caches
+  // can be lock-striped by setting `oxf.$cacheName.segments` to a value greater than 1.
   def instance(cacheName: String, defaultSize: Int): Cache =
     namedObjectCaches.computeIfAbsent(
       cacheName,
       _ ⇒ {
 
-        val propertyName = s"$CachePropertyNamePrefix.$cacheName.$CachePropertyNameSizeSuffix"
-        val size         = Properties.instance.getPropertySetOrThrow.getInteger(propertyName, defaultSize)
+        val propertySet = Properties.instance.getPropertySetOrThrow
+
+        def propertyName(suffix: String) = s"$CachePropertyNamePrefix.$cacheName.$suffix"
 
-        new MemoryCacheImpl(size)
+        val size     = propertySet.getInteger(propertyName(CachePropertyNameSizeSuffix), defaultSize)
+        val segments = propertySet.getInteger(propertyName(CachePropertyNameSegmentsSuffix), 1)
+
+        if (segments > 1)
+          new SegmentedMemoryCacheImpl(size, segments)
+        else
+          new MemoryCacheImpl(size)
       }
     )
+
+  // Statistics for the given cache, if it has been created
+  def statistics(cacheName: String): Option[CacheStatistics] =
+    Option(namedObjectCaches.get(cacheName)) collect {
+      case statistics: CacheStatistics ⇒ statistics
+    }
 }
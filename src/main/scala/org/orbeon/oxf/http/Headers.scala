@@ -39,6 +39,16 @@ object Headers {
   val SOAPAction              = "SOAPAction"
   val Timeout                 = "Timeout"
   val TimeoutValuePrefix      = "Second-"
+  val Range                   = "Range"
+  val ContentRange            = "Content-Range"
+  val AcceptRanges            = "Accept-Ranges"
+  val ETag                    = "ETag"
+  val IfNoneMatch             = "If-None-Match"
+  val IfModifiedSince         = "If-Modified-Since"
+  val CacheControl            = "Cache-Control"
+  val AcceptEncoding          = "Accept-Encoding"
+  val ContentEncoding         = "Content-Encoding"
+  val Vary                    = "Vary"
 
   val OrbeonTokenLower        = OrbeonToken.toLowerCase
   val OrbeonUsernameLower     = OrbeonUsername.toLowerCase
@@ -54,6 +64,9 @@ object Headers {
   val OrbeonClientLower       = OrbeonClient.toLowerCase
   val CreatedLower            = Created.toLowerCase
   val TimeoutLower            = Timeout.toLowerCase
+  val RangeLower              = Range.toLowerCase
+  val IfNoneMatchLower        = IfNoneMatch.toLowerCase
+  val AcceptEncodingLower     = AcceptEncoding.toLowerCase
 
   val EmbeddedClient          = "embedded"
   val PortletClient           = "portlet"
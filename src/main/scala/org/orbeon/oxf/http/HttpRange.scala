@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.http
+
+import scala.util.Try
+
+// Range of bytes requested with the `Range` header, see https://tools.ietf.org/html/rfc7233
+sealed trait HttpRange
+
+object HttpRange {
+
+  case object Whole                           extends HttpRange
+  case object NotSatisfiable                  extends HttpRange
+  case class  Partial(start: Long, end: Long) extends HttpRange {
+    def length: Long = end - start + 1
+    def contentRange(contentLength: Long): String = s"bytes $start-$end/$contentLength"
+  }
+
+  private val ByteRange = """bytes=(\d*)-(\d*)""".r
+
+  // Only a single range is supported, and the whole content is returned otherwise, which the RFC allows
+  def apply(rangeHeader: Option[String], contentLength: Long): HttpRange =
+    rangeHeader map (_.trim) match {
+      case Some(ByteRange(first, last)) if first.nonEmpty || last.nonEmpty ⇒
+
+        val firstOpt = Try(first.toLong).toOption
+        val lastOpt  = Try(last.toLong).toOption
+
+        (firstOpt, lastOpt) match {
+          case (Some(start), _) if start >= contentLength ⇒
+            NotSatisfiable
+          case (Some(start), Some(end)) if end < start ⇒
+            Whole
+          case (Some(start), endOpt) ⇒
+            Partial(start, endOpt map (_ min (contentLength - 1)) getOrElse (contentLength - 1))
+          case (None, Some(suffixLength)) if suffixLength > 0 && contentLength > 0 ⇒
+            Partial((contentLength - suffixLength) max 0, contentLength - 1)
+          case (None, Some(_)) ⇒
+            NotSatisfiable
+          case _ ⇒
+            Whole
+        }
+      case _ ⇒
+        Whole
+    }
+
+  def notSatisfiableContentRange(contentLength: Long): String = s"bytes */$contentLength"
+}
@@ -212,6 +212,7 @@ trait HttpResponse {
 
 object StatusCode {
   val Ok                    = 200
+  val PartialContent        = 206
   val NotModified           = 304
   val Unauthorized          = 401
   val Forbidden             = 403
@@ -221,6 +222,7 @@ object StatusCode {
   val Conflict              = 409
   val Gone                  = 410
   val RequestEntityTooLarge = 413
+  val RangeNotSatisfiable   = 416
   val Locked                = 423
   val InternalServerError   = 500
   val ServiceUnavailable    = 503
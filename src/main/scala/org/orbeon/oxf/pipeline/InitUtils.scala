@@ -40,6 +40,7 @@ import scala.util.control.NonFatal
 object InitUtils {
 
   private val CacheSizeProperty            = "oxf.cache.size"
+  private val CacheOffHeapSizeProperty     = "oxf.cache.off-heap.max-size"
   private val ProcessorsProperty           = "oxf.pipeline.processors"
   private val DeprecatedProcessorsProperty = "oxf.prologue"
   private val DefaultProcessors            = "oxf:/processors.xml"
@@ -79,6 +80,10 @@ object InitUtils {
       Properties.instance.getPropertySet.getIntOpt(CacheSizeProperty) foreach
         ObjectCache.instance.setMaxSize
 
+      // Read as a long, as the off-heap store can be larger than 2 GB
+      Properties.instance.getPropertySet.getLongOpt(CacheOffHeapSizeProperty) foreach
+        ObjectCache.offHeapStore.setMaxBytes
+
       // Start execution
       processor.reset(pipelineContext)
       processor.start(pipelineContext)
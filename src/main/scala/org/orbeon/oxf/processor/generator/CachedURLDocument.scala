@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.generator
+
+import java.util.concurrent.atomic.AtomicBoolean
+import java.{lang ⇒ jl, util ⇒ ju}
+
+import org.orbeon.oxf.xml.SAXStore
+
+import scala.util.Try
+
+// Parsed document kept in cache by the URL generator, with what is needed to revalidate it following HTTP semantics:
+//
+// - the validators of the response (`Last-Modified` and `ETag`), used for conditional GET
+// - how long the response is fresh and can be used without contacting the server (`Cache-Control: max-age`), and
+//   then how long it can still be used while it is being revalidated (`Cache-Control: stale-while-revalidate`)
+// - the last modification dates of the documents included with XInclude, so that the document is only reused when
+//   none of them has changed
+class CachedURLDocument private (
+  val document             : SAXStore,
+  val lastModified         : jl.Long,                 // null if unknown
+  val etag                 : String,                  // null if unknown
+  val storedAt             : Long,
+  val maxAge               : Long,                    // -1 if the document must always be revalidated
+  val staleWhileRevalidate : Long,
+  val dependencies         : ju.Map[String, jl.Long]  // included URL → last modified, null if unknown
+) {
+
+  private val revalidating = new AtomicBoolean(false)
+
+  def isFresh(now: Long): Boolean =
+    maxAge >= 0 && now - storedAt <= maxAge
+
+  def isStaleUsable(now: Long): Boolean =
+    maxAge >= 0 && now - storedAt <= maxAge + staleWhileRevalidate
+
+  // Only one caller at a time revalidates a stale document, while the others keep using it
+  def tryStartRevalidation(): Boolean = revalidating.compareAndSet(false, true)
+  def endRevalidation(): Unit         = revalidating.set(false)
+
+  // New entry for the same document after the server responded with `304 Not Modified`, which can carry updated
+  // validators and caching directives
+  def revalidated(now: Long, etagOrNull: String, cacheControlOrNull: String): CachedURLDocument = {
+    val (newMaxAge, newStaleWhileRevalidate) =
+      if (cacheControlOrNull ne null)
+        CachedURLDocument.freshness(cacheControlOrNull)
+      else
+        (maxAge, staleWhileRevalidate)
+
+    new CachedURLDocument(
+      document,
+      lastModified,
+      Option(etagOrNull) getOrElse etag,
+      now,
+      newMaxAge,
+      newStaleWhileRevalidate,
+      dependencies
+    )
+  }
+}
+
+object CachedURLDocument {
+
+  def apply(
+    document           : SAXStore,
+    lastModified       : jl.Long,
+    etagOrNull         : String,
+    cacheControlOrNull : String,
+    dependencies       : ju.Map[String, jl.Long],
+    now                : Long
+  ): CachedURLDocument = {
+    val (maxAge, staleWhileRevalidate) = freshness(cacheControlOrNull)
+    new CachedURLDocument(document, lastModified, etagOrNull, now, maxAge, staleWhileRevalidate, dependencies)
+  }
+
+  // Freshness lifetime and stale-while-revalidate window in ms, where a lifetime of -1 means that the document must
+  // always be revalidated
+  def freshness(cacheControlOrNull: String): (Long, Long) = {
+
+    val directives = parseCacheControl(cacheControlOrNull)
+
+    def seconds(name: String) =
+      directives.get(name).flatten flatMap (v ⇒ Try(v.toLong).toOption) filter (_ >= 0) map (_ * 1000)
+
+    if (directives.contains("no-cache") || directives.contains("no-store"))
+      (-1L, 0L)
+    else
+      seconds("max-age") match {
+        case Some(maxAge) ⇒ (maxAge, seconds("stale-while-revalidate") getOrElse 0L)
+        case None         ⇒ (-1L, 0L)
+      }
+  }
+
+  // Directive names are case-insensitive and values can be quoted, as in `max-age="60"`
+  def parseCacheControl(cacheControlOrNull: String): Map[String, Option[String]] = {
+
+    val directives =
+      Option(cacheControlOrNull).toList flatMap (_.split(',')) map (_.trim) filter (_.nonEmpty)
+
+    directives.map { directive ⇒
+      directive.split("=", 2) match {
+        case Array(name, value) ⇒ name.trim.toLowerCase → Some(value.trim.stripPrefix("\"").stripSuffix("\""))
+        case Array(name)        ⇒ name.trim.toLowerCase → None
+      }
+    }.toMap
+  }
+}
@@ -16,6 +16,7 @@ package org.orbeon.oxf.processor.generator
 import java.{lang ⇒ jl, util ⇒ ju}
 
 import org.orbeon.dom.Element
+import org.orbeon.oxf.http.Headers
 import org.orbeon.oxf.util.{CollectionUtils, ConnectionResult, DateUtils, NetUtils}
 import org.orbeon.oxf.xml.Dom4j
 
@@ -42,17 +43,27 @@ object URLGeneratorBase {
     headers map (_.toString) mkString ("Map(", ",", ")")
   }
 
-  def setIfModifiedIfNeeded(
+  def setConditionalHeadersIfNeeded(
     headersOrNull      : Map[String, List[String]],
-    lastModifiedOrNull : jl.Long
+    lastModifiedOrNull : jl.Long,
+    etagOrNull         : String
   ): ju.Map[String, Array[String]] = {
 
     val headersOrEmpty  = Option(headersOrNull) map { _ map { case (k, v) ⇒ (k, v.to[Array]) }} getOrElse Map.empty[String, Array[String]]
-    val newHeaderAsList = Option(lastModifiedOrNull).map(lastModified ⇒ "If-Modified-Since" → Array(DateUtils.RFC1123Date.print(lastModified))).to[List]
+    val newHeaderAsList =
+      Option(lastModifiedOrNull).map(lastModified ⇒ Headers.IfModifiedSince → Array(DateUtils.RFC1123Date.print(lastModified))).to[List] :::
+      Option(etagOrNull).map(etag ⇒ Headers.IfNoneMatch → Array(etag)).to[List]
 
     headersOrEmpty ++ newHeaderAsList
   }.asJava
 
+  // Multiple header lines are combined into a single comma-separated value
+  def headerValueOrNull(connectionResult: ConnectionResult, name: String): String =
+    connectionResult.getHeaderIgnoreCase(name) match {
+      case Nil    ⇒ null
+      case values ⇒ values mkString ", "
+    }
+
   // Save headers as request attributes
   def collectHeaders(connectionResult: ConnectionResult, readHeader: ju.List[String]): List[(String, String)] =
     if ((readHeader ne null) && ! readHeader.isEmpty) {
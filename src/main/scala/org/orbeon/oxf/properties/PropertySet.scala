@@ -261,6 +261,9 @@ class PropertySet {
   def getInteger(name: String, default: Int): jl.Integer =
     Option(getInteger(name)) getOrElse new jl.Integer(default)
 
+  def getLong(name: String): jl.Long =
+    getPropertyValueOrNull(name, XMLConstants.XS_LONG_QNAME).asInstanceOf[jl.Long]
+
   def getBoolean(name: String): jl.Boolean =
     getPropertyValueOrNull(name, XMLConstants.XS_BOOLEAN_QNAME).asInstanceOf[jl.Boolean]
 
@@ -284,6 +287,7 @@ class PropertySet {
     getPropertyValueOrNull(name, XMLConstants.XS_ANYURI_QNAME).asInstanceOf[URI]
 
   def getIntOpt     (name: String): Option[Int]     = Option(getInteger(name)) map (_.intValue)
+  def getLongOpt    (name: String): Option[Long]    = Option(getLong(name)) map (_.longValue)
   def getBooleanOpt (name: String): Option[Boolean] = Option(getBoolean(name)) map (_.booleanValue)
   def getDateOpt    (name: String): Option[ju.Date] = Option(getDate(name))
   def getDateTimeOpt(name: String): Option[ju.Date] = Option(getDateTime(name))
@@ -89,6 +89,7 @@ object PropertyStore {
   private val SupportedTypes = Map[QName, (String, Element) ⇒ AnyRef](
     XS_STRING_QNAME             → convertString,
     XS_INTEGER_QNAME            → convertInteger,
+    XS_LONG_QNAME               → convertLong,
     XS_BOOLEAN_QNAME            → convertBoolean,
     XS_DATE_QNAME               → convertDate,
     XS_DATETIME_QNAME           → convertDate,
@@ -111,6 +112,7 @@ object PropertyStore {
 
   private def convertString (value: String, element: Element) = value
   private def convertInteger(value: String, element: Element) = new jl.Integer(value)
+  private def convertLong   (value: String, element: Element) = new jl.Long(value)
   private def convertBoolean(value: String, element: Element) = jl.Boolean.valueOf(value)
   private def convertDate   (value: String, element: Element) = new ju.Date(DateUtils.parseISODateOrDateTime(value))
 
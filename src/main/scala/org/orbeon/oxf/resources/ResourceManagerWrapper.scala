@@ -51,11 +51,20 @@ object ResourceManagerWrapper {
       }
   }
 
+  @volatile private var instanceCreated = false
+
   lazy val instance: ResourceManager = {
     assert(_factory ne null, "ResourceManagerWrapper not initialized")
-    _factory.makeInstance
+    val newInstance = _factory.makeInstance
+    instanceCreated = true
+    newInstance
   }
 
+  // Called when the web app is destroyed
+  def destroy(): Unit =
+    if (instanceCreated)
+      instance.destroy()
+
   def propertiesAsJsonJava(props: ju.Map[String, AnyRef]): String =
     propertiesAsJson(props.asScala)
 
@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.io.ByteArrayOutputStream
+
+// Compression algorithm used by `Compressor`, which can be registered with `Compressor.registerCodec()`.
+//
+// Compressed bytes start with a header holding the codec id, so that they can be uncompressed whatever codec is
+// configured when they are read. The exception is the `gzip` codec, whose output is plain gzip for compatibility.
+trait CompressionCodec {
+
+  // Name used to select the codec with the `oxf.compression.codec` property
+  def name: String
+
+  // Identifier stored in the header of the compressed bytes, between 0 and 255
+  def id: Int
+
+  def compress(bytes: Array[Byte], os: ByteArrayOutputStream): Unit
+  def uncompress(bytes: Array[Byte], offset: Int): Array[Byte]
+}
+
+// Byte-oriented LZ77 codec without entropy coding, in the style of LZ4, which is several times faster than deflate at
+// the cost of a lower compression ratio.
+//
+// The format is the uncompressed length on 4 bytes, followed by sequences made of:
+//
+// - a token, where the high 4 bits are the number of literals and the low 4 bits the length of the match minus 4, a
+//   value of 15 meaning that the length continues on the next bytes, each adding up to 255
+// - the literals
+// - the offset of the match on 2 bytes, little-endian
+// - the rest of the length of the match if needed
+//
+// The last sequence only has literals.
+object LZCompressionCodec extends CompressionCodec {
+
+  val name = "lz"
+  val id   = 1
+
+  private val MinMatch     = 4
+  private val HashLog      = 14
+  private val MaxOffset    = 65535
+  private val LastLiterals = 5
+  private val MatchLimit   = 12 // no match starts within the last bytes
+  private val MaxRatio     = 255 // each byte of a match length adds at most 255 bytes
+
+  def maxCompressedLength(length: Int): Int =
+    4 + length + length / 255 + 16
+
+  def compress(src: Array[Byte], os: ByteArrayOutputStream): Unit = {
+
+    val length = src.length
+    val dst    = new Array[Byte](maxCompressedLength(length))
+
+    writeIntBE(dst, 0, length)
+
+    // Positions of the last occurrences of 4-byte sequences, plus 1 so that 0 means none
+    val table = new Array[Int](1 << HashLog)
+
+    var dp     = 4
+    var anchor = 0
+    var ip     = 0
+
+    while (ip < length - MatchLimit) {
+
+      val sequence = readIntLE(src, ip)
+      val h        = (sequence * -1640531535) >>> (32 - HashLog)
+      val ref      = table(h) - 1
+      table(h) = ip + 1
+
+      if (ref >= 0 && ip - ref <= MaxOffset && readIntLE(src, ref) == sequence) {
+
+        // Extend the match backwards into the pending literals, then forwards
+        var start    = ip
+        var refStart = ref
+        while (start > anchor && refStart > 0 && src(start - 1) == src(refStart - 1)) {
+          start    -= 1
+          refStart -= 1
+        }
+
+        var matchLength = ip + MinMatch - start
+        val limit = length - LastLiterals
+        while (start + matchLength < limit && src(start + matchLength) == src(refStart + matchLength))
+          matchLength += 1
+
+        dp = writeSequence(src, anchor, start - anchor, start - refStart, matchLength, dst, dp)
+
+        ip     = start + matchLength
+        anchor = ip
+      } else {
+        // Skip faster over data which doesn't compress
+        ip += 1 + ((ip - anchor) >> 6)
+      }
+    }
+
+    dp = writeLiterals(src, anchor, length - anchor, dst, dp)
+
+    os.write(dst, 0, dp)
+  }
+
+  def uncompress(src: Array[Byte], offset: Int): Array[Byte] = {
+
+    if (src.length - offset < 4)
+      throw new IllegalArgumentException("missing length")
+
+    // Check the declared length before allocating, as it can't be larger than what the sequences can produce
+    val length           = readIntBE(src, offset)
+    val compressedLength = src.length - offset - 4
+
+    if (length < 0 || length.toLong > MaxRatio.toLong * compressedLength)
+      throw new IllegalArgumentException(s"invalid declared length: $length")
+
+    val dst = new Array[Byte](length)
+
+    var sp = offset + 4
+    var dp = 0
+
+    def readLength(initial: Int): Int = {
+      var result = initial
+      if (initial == 15) {
+        var b = 255
+        while (b == 255) {
+          b = src(sp) & 0xff
+          sp += 1
+          result += b
+        }
+      }
+      result
+    }
+
+    while (sp < src.length) {
+
+      val token = src(sp) & 0xff
+      sp += 1
+
+      val literalsLength = readLength(token >>> 4)
+      System.arraycopy(src, sp, dst, dp, literalsLength)
+      sp += literalsLength
+      dp += literalsLength
+
+      if (sp < src.length) {
+        val matchOffset = (src(sp) & 0xff) | ((src(sp + 1) & 0xff) << 8)
+        sp += 2
+
+        val matchLength = readLength(token & 0x0f) + MinMatch
+        val ref         = dp - matchOffset
+
+        if (matchOffset == 0 || ref < 0 || dp + matchLength > dst.length)
+          throw new IllegalArgumentException("invalid match")
+
+        if (matchOffset >= matchLength) {
+          System.arraycopy(dst, ref, dst, dp, matchLength)
+        } else {
+          // Overlapping match, which repeats the last `matchOffset` bytes
+          var i = 0
+          while (i < matchLength) {
+            dst(dp + i) = dst(ref + i)
+            i += 1
+          }
+        }
+        dp += matchLength
+      }
+    }
+
+    if (dp != dst.length)
+      throw new IllegalArgumentException("invalid length")
+
+    dst
+  }
+
+  private def writeSequence(
+    src            : Array[Byte],
+    literalsStart  : Int,
+    literalsLength : Int,
+    matchOffset    : Int,
+    matchLength    : Int,
+    dst            : Array[Byte],
+    initialDp      : Int
+  ): Int = {
+
+    val tokenPosition = initialDp
+    var dp = writeLiterals(src, literalsStart, literalsLength, dst, initialDp)
+
+    dst(dp)     = matchOffset.toByte
+    dst(dp + 1) = (matchOffset >>> 8).toByte
+    dp += 2
+
+    val remainingMatchLength = matchLength - MinMatch
+    if (remainingMatchLength >= 15) {
+      dst(tokenPosition) = (dst(tokenPosition) | 0x0f).toByte
+      dp = writeLength(remainingMatchLength - 15, dst, dp)
+    } else {
+      dst(tokenPosition) = (dst(tokenPosition) | remainingMatchLength).toByte
+    }
+
+    dp
+  }
+
+  // Write the token with the literals length, followed by the literals
+  private def writeLiterals(src: Array[Byte], start: Int, length: Int, dst: Array[Byte], initialDp: Int): Int = {
+    var dp = initialDp + 1
+    if (length >= 15) {
+      dst(initialDp) = 0xf0.toByte
+      dp = writeLength(length - 15, dst, dp)
+    } else {
+      dst(initialDp) = (length << 4).toByte
+    }
+    System.arraycopy(src, start, dst, dp, length)
+    dp + length
+  }
+
+  private def writeLength(length: Int, dst: Array[Byte], initialDp: Int): Int = {
+    var dp        = initialDp
+    var remaining = length
+    while (remaining >= 255) {
+      dst(dp) = 255.toByte
+      dp += 1
+      remaining -= 255
+    }
+    dst(dp) = remaining.toByte
+    dp + 1
+  }
+
+  private def readIntLE(bytes: Array[Byte], i: Int): Int =
+    (bytes(i) & 0xff) | ((bytes(i + 1) & 0xff) << 8) | ((bytes(i + 2) & 0xff) << 16) | ((bytes(i + 3) & 0xff) << 24)
+
+  private def readIntBE(bytes: Array[Byte], i: Int): Int =
+    ((bytes(i) & 0xff) << 24) | ((bytes(i + 1) & 0xff) << 16) | ((bytes(i + 2) & 0xff) << 8) | (bytes(i + 3) & 0xff)
+
+  private def writeIntBE(bytes: Array[Byte], i: Int, value: Int): Unit = {
+    bytes(i)     = (value >>> 24).toByte
+    bytes(i + 1) = (value >>> 16).toByte
+    bytes(i + 2) = (value >>> 8).toByte
+    bytes(i + 3) = value.toByte
+  }
+}
@@ -13,12 +13,16 @@
  */
 package org.orbeon.oxf.util
 
-import java.io.{ByteArrayInputStream, ByteArrayOutputStream, OutputStream}
-import java.util.zip.{Deflater, GZIPInputStream, GZIPOutputStream}
+import java.io._
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip._
 
 import org.apache.commons.pool.BasePoolableObjectFactory
 import org.orbeon.exception.OrbeonFormatter
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.properties.Properties
 
+import scala.collection.JavaConverters._
 import scala.util.control.NonFatal
 
 object Compressor extends Logging {
@@ -31,7 +35,39 @@ object Compressor extends Logging {
   private val BUFFER_SIZE = 1024 * 8
   private val TRAILER_SIZE = 8
 
-  def compressBytes(bytesToEncode: Array[Byte], level: Int) = {
+  val CodecProperty = "oxf.compression.codec"
+  val DefaultCodec  = GzipCodec.name
+
+  // First byte of compressed bytes which are not plain gzip, followed by the codec id
+  private val HeaderMagic: Byte = 0xc5.toByte
+  private val GzipMagic         = Array(0x1f.toByte, 0x8b.toByte)
+
+  private val codecsById   = new ConcurrentHashMap[Integer, CompressionCodec]
+  private val codecsByName = new ConcurrentHashMap[String, CompressionCodec]
+
+  List(GzipCodec, LZCompressionCodec, DictionaryCodec) foreach registerCodec
+
+  def registerCodec(codec: CompressionCodec): Unit = {
+    require(codec.id >= 0 && codec.id <= 255, s"invalid codec id: ${codec.id}")
+    val existing = codecsById.putIfAbsent(codec.id, codec)
+    if ((existing ne null) && (existing ne codec))
+      throw new OXFException(s"Compression codec id ${codec.id} already used by `${existing.name}`")
+    codecsByName.put(codec.name, codec)
+  }
+
+  def codecs: List[CompressionCodec] =
+    codecsById.values.asScala.toList sortBy (_.id)
+
+  def findCodec(name: String): Option[CompressionCodec] =
+    Option(codecsByName.get(name))
+
+  // Codec set with the `oxf.compression.codec` property, gzip by default or if properties are not available
+  def configuredCodec: CompressionCodec = {
+    val name = Option(Properties.instance.getPropertySet) map (_.getString(CodecProperty, DefaultCodec)) getOrElse DefaultCodec
+    findCodec(name) getOrElse (throw new OXFException(s"Unknown compression codec `$name` for property `$CodecProperty`"))
+  }
+
+  def compressBytes(bytesToEncode: Array[Byte], level: Int): Array[Byte] = {
     val deflater = deflaterPool.borrowObject
     try {
       deflater.setLevel(level)
@@ -46,52 +82,127 @@ object Compressor extends Logging {
     }
   }
 
-  // Compress using BEST_SPEED as serializing state quickly has been determined to be more important than saving extra
-  // memory. Even this way compression typically is more than 10X.
-  def compressBytes(bytesToEncode: Array[Byte]): Array[Byte] = compressBytes(bytesToEncode, Deflater.BEST_SPEED)
-
-  // Example of effective compression ratios and speeds for XML inputs:
-  //
-  // Sizes in bytes:
-  //
-  // Input     | SPEED   | DEFAULT | COMPRESSION
-  // ----------+---------+---------+------------
-  // 1,485,020 | 130,366 |  90,323 |      85,118
-  //   955,373 | 117,509 |  78,538 |      76,461
-  //   511,776 |  49,751 |  35,309 |      33,858
-  //   178,796 |  17,321 |  12,234 |      11,973
-  //
-  // Times in ms per compression:
-  //
-  // Input     | SPEED   | DEFAULT | COMPRESSION
-  // ----------+---------+---------+------------
-  // 1,485,020 |      15 |      37 |         122
-  //   955,373 |      12 |      31 |         108
-  //   511,776 |       6 |      13 |          42
-  //   178,796 |       2 |       5 |          12
-
-  def compressBytesMeasurePerformance(bytesToEncode: Array[Byte]): Array[Byte] = {
-
-    val settings = Map(
-      Deflater.BEST_SPEED          → "BEST_SPEED",
-      Deflater.DEFAULT_COMPRESSION → "DEFAULT_COMPRESSION",
-      Deflater.BEST_COMPRESSION    → "BEST_COMPRESSION"
-    )
-
-    for ((level, description) ← settings)
-      withDebug(description) {
-        for (v ← 1 to 100)
-          compressBytes(bytesToEncode, level)
+  // Compress with the configured codec. All codecs favor speed, as serializing state quickly has been determined to be
+  // more important than saving extra memory. Use `CompressionBenchmark`, in the `benchmarks` project, to compare them
+  // on actual data.
+  def compressBytes(bytesToEncode: Array[Byte]): Array[Byte] = compressBytes(bytesToEncode, configuredCodec)
+
+  def compressBytes(bytesToEncode: Array[Byte], codec: CompressionCodec): Array[Byte] =
+    if (codec eq GzipCodec) {
+      compressBytes(bytesToEncode, Deflater.BEST_SPEED)
+    } else {
+      val os = new ByteArrayOutputStream(bytesToEncode.length / 4 + 16)
+      os.write(HeaderMagic)
+      os.write(codec.id)
+      codec.compress(bytesToEncode, os)
+      os.toByteArray
+    }
+
+  // Uncompress bytes produced by any registered codec, including plain gzip bytes produced by older versions
+  def uncompressBytes(bytesToDecode: Array[Byte]): Array[Byte] =
+    if (bytesToDecode.length >= 2 && bytesToDecode(0) == GzipMagic(0) && bytesToDecode(1) == GzipMagic(1)) {
+      GzipCodec.uncompress(bytesToDecode, 0)
+    } else if (bytesToDecode.length >= 2 && bytesToDecode(0) == HeaderMagic) {
+      val id    = bytesToDecode(1) & 0xff
+      val codec = Option(codecsById.get(id)) getOrElse (throw new OXFException(s"Unknown compression codec id: $id"))
+      try
+        codec.uncompress(bytesToDecode, 2)
+      catch {
+        case NonFatal(t) ⇒ throw new OXFException(s"Invalid data for compression codec `${codec.name}`", t)
       }
+    } else {
+      throw new OXFException("Invalid compressed data")
+    }
+
+  // Gzip with BEST_SPEED, which older versions can uncompress
+  object GzipCodec extends CompressionCodec {
 
-    compressBytes(bytesToEncode, Deflater.BEST_SPEED)
+    val name = "gzip"
+    val id   = 0
+
+    def compress(bytes: Array[Byte], os: ByteArrayOutputStream): Unit =
+      os.write(compressBytes(bytes, Deflater.BEST_SPEED))
+
+    def uncompress(bytes: Array[Byte], offset: Int): Array[Byte] = {
+      val is = new GZIPInputStream(new ByteArrayInputStream(bytes, offset, bytes.length - offset))
+      val os = new ByteArrayOutputStream(BUFFER_SIZE)
+      NetUtils.copyStream(is, os)
+      os.toByteArray
+    }
   }
 
-  def uncompressBytes(bytesToDecode: Array[Byte]) = {
-    val is = new GZIPInputStream(new ByteArrayInputStream(bytesToDecode))
-    val os = new ByteArrayOutputStream(BUFFER_SIZE)
-    NetUtils.copyStream(is, os)
-    os.toByteArray
+  // Deflate with BEST_SPEED and a preset dictionary made of strings frequently found in Form Runner instances and
+  // forms, which mostly helps with small documents. The Adler-32 checksum of the dictionary is stored first, so that
+  // bytes compressed with another dictionary are rejected.
+  object DictionaryCodec extends CompressionCodec {
+
+    val name = "dictionary"
+    val id   = 2
+
+    private val DictionaryPath = "/org/orbeon/oxf/util/compression-dictionary.txt"
+
+    private lazy val dictionary = {
+      val is = getClass.getResourceAsStream(DictionaryPath)
+      if (is eq null)
+        throw new OXFException(s"Missing compression dictionary: $DictionaryPath")
+      val os = new ByteArrayOutputStream
+      NetUtils.copyStream(is, os)
+      os.toByteArray
+    }
+
+    private lazy val dictionaryChecksum = {
+      val adler = new Adler32
+      adler.update(dictionary)
+      adler.getValue.toInt
+    }
+
+    def compress(bytes: Array[Byte], os: ByteArrayOutputStream): Unit = {
+
+      val data = new DataOutputStream(os)
+      data.writeInt(dictionaryChecksum)
+      data.flush()
+
+      val deflater = deflaterPool.borrowObject
+      try {
+        deflater.setLevel(Deflater.BEST_SPEED)
+        deflater.setDictionary(dictionary)
+        deflater.setInput(bytes)
+        deflater.finish()
+
+        val buffer = new Array[Byte](BUFFER_SIZE)
+        while (! deflater.finished) {
+          val length = deflater.deflate(buffer)
+          os.write(buffer, 0, length)
+        }
+      } finally {
+        deflaterPool.returnObject(deflater)
+      }
+    }
+
+    def uncompress(bytes: Array[Byte], offset: Int): Array[Byte] = {
+
+      val checksum = new DataInputStream(new ByteArrayInputStream(bytes, offset, 4)).readInt()
+      if (checksum != dictionaryChecksum)
+        throw new OXFException("Data was compressed with a different dictionary")
+
+      val inflater = new Inflater(true)
+      try {
+        inflater.setDictionary(dictionary)
+        inflater.setInput(bytes, offset + 4, bytes.length - offset - 4)
+
+        val os     = new ByteArrayOutputStream(BUFFER_SIZE)
+        val buffer = new Array[Byte](BUFFER_SIZE)
+        while (! inflater.finished) {
+          val length = inflater.inflate(buffer)
+          if (length == 0 && (inflater.needsInput || inflater.needsDictionary))
+            throw new OXFException("Truncated compressed data")
+          os.write(buffer, 0, length)
+        }
+        os.toByteArray
+      } finally {
+        inflater.end()
+      }
+    }
   }
 
   private class DeflaterPoolableObjectFactory extends BasePoolableObjectFactory[Deflater] {
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.lang.ref.SoftReference
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong, AtomicReferenceArray}
+
+import org.apache.commons.pool.{BaseObjectPool, PoolableObjectFactory}
+
+// Object pool which keeps up to `hardSize` idle objects through hard references, and any other idle objects through
+// soft references
+//
+// Unlike `SoftReferenceObjectPool`, at least `hardSize` objects survive garbage collection, and borrowing and
+// returning objects doesn't require taking a lock. Only `makeObject()` is called on the factory.
+class HardSoftReferenceObjectPool[T <: AnyRef](
+  factory    : PoolableObjectFactory[T],
+  hardSize   : Int,
+  statistics : ObjectPoolStatistics
+) extends BaseObjectPool[T] {
+
+  private val hard      = new AtomicReferenceArray[T](hardSize max 0)
+  private val soft      = new ConcurrentLinkedQueue[SoftReference[T]]
+  private val numActive = new AtomicInteger
+
+  override def borrowObject(): T = {
+    assertOpen()
+    numActive.incrementAndGet()
+
+    def fromHard: T = {
+      var i = 0
+      while (i < hard.length) {
+        if (hard.get(i) ne null) {
+          val o = hard.getAndSet(i, null.asInstanceOf[T])
+          if (o ne null)
+            return o
+        }
+        i += 1
+      }
+      null.asInstanceOf[T]
+    }
+
+    // Return `null` and whether a cleared reference was found if no object is available
+    def fromSoft: (T, Boolean) = {
+      var cleared = false
+      var ref = soft.poll()
+      while (ref ne null) {
+        val o = ref.get
+        if (o ne null)
+          return (o, cleared)
+        cleared = true
+        ref = soft.poll()
+      }
+      (null.asInstanceOf[T], cleared)
+    }
+
+    fromHard match {
+      case null ⇒
+        fromSoft match {
+          case (null, cleared) ⇒
+            statistics.misses.incrementAndGet()
+            if (cleared)
+              statistics.recreations.incrementAndGet()
+            try
+              factory.makeObject()
+            catch {
+              case t: Throwable ⇒
+                numActive.decrementAndGet()
+                throw t
+            }
+          case (o, _) ⇒
+            statistics.hits.incrementAndGet()
+            o
+        }
+      case o ⇒
+        statistics.hits.incrementAndGet()
+        o
+    }
+  }
+
+  override def returnObject(o: T): Unit = {
+    numActive.decrementAndGet()
+    if (! isClosed) {
+      var i = 0
+      while (i < hard.length) {
+        if ((hard.get(i) eq null) && hard.compareAndSet(i, null.asInstanceOf[T], o))
+          return
+        i += 1
+      }
+      soft.offer(new SoftReference(o))
+    }
+  }
+
+  override def invalidateObject(o: T): Unit =
+    numActive.decrementAndGet()
+
+  override def getNumActive: Int = numActive.get
+
+  override def getNumIdle: Int = {
+    var count = 0
+    var i = 0
+    while (i < hard.length) {
+      if (hard.get(i) ne null)
+        count += 1
+      i += 1
+    }
+    count + soft.size
+  }
+
+  override def clear(): Unit = {
+    var i = 0
+    while (i < hard.length) {
+      hard.set(i, null.asInstanceOf[T])
+      i += 1
+    }
+    soft.clear()
+  }
+
+  override def close(): Unit = {
+    super.close()
+    clear()
+  }
+}
+
+// Counters shared by a group of pools
+class ObjectPoolStatistics {
+  // Objects found idle in a pool
+  val hits        = new AtomicLong
+  // Objects which had to be created
+  val misses      = new AtomicLong
+  // Objects which had to be created because idle objects had been garbage-collected
+  val recreations = new AtomicLong
+
+  def getHitCount       : Long = hits.get
+  def getMissCount      : Long = misses.get
+  def getRecreationCount: Long = recreations.get
+}
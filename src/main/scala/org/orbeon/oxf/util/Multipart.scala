@@ -14,10 +14,11 @@
 package org.orbeon.oxf.util
 
 import java.io.OutputStream
+import java.security.MessageDigest
 
 import org.apache.commons.fileupload.FileUploadBase.SizeLimitExceededException
 import org.apache.commons.fileupload._
-import org.apache.commons.fileupload.disk.{DiskFileItem, DiskFileItemFactory}
+import org.apache.commons.fileupload.disk.DiskFileItem
 import org.apache.commons.fileupload.servlet.ServletFileUpload
 import org.apache.commons.fileupload.util.Streams
 import org.orbeon.datatypes.MaximumSize.LimitedSize
@@ -28,6 +29,7 @@ import org.orbeon.oxf.externalcontext.ExternalContext._
 import org.orbeon.oxf.pipeline.api.PipelineContext
 import org.orbeon.oxf.processor.generator.RequestGenerator
 import org.orbeon.oxf.util.CollectionUtils._
+import org.orbeon.oxf.util.CoreUtils._
 import org.orbeon.oxf.util.IOUtils._
 
 import scala.collection.{mutable ⇒ m}
@@ -112,18 +114,23 @@ object Multipart {
   // occurred by looking at the Throwable returned. If the caller wants to discard the partial request, it is the
   // responsibility of the caller to discard returned FileItem if the caller doesn't want to process the partial
   // results further.
+  //
+  // The content of files is streamed to the given sink while it is size-checked, and hashed if the sink needs it, without
+  // being read again.
   def parseMultipartRequest(
     uploadContext  : UploadContext,
     lifecycleOpt   : Option[MultipartLifecycle],
     maxSize        : MaximumSize,
     headerEncoding : String,
-    maxMemorySize  : Int
+    maxMemorySize  : Int,
+    sink           : UploadSink = UploadSink.configured
   ): (List[(String, AnyRef)], Option[Throwable]) = {
 
     require(uploadContext ne null)
     require(headerEncoding ne null)
 
-    val servletFileUpload = new ServletFileUpload(new DiskFileItemFactory(maxMemorySize, SystemUtils.getTemporaryDirectory))
+    // Items are created by the sink, so no `FileItemFactory` is needed
+    val servletFileUpload = new ServletFileUpload
 
     servletFileUpload.setHeaderEncoding(headerEncoding)
 
@@ -144,7 +151,7 @@ object Multipart {
         // `getItemIterator` can throw a `SizeLimitExceededException` in particular
         val itemIterator = asScalaIterator(servletFileUpload.getItemIterator(uploadContext))
         for (fis ← itemIterator)
-          result += processSingleStreamItem(servletFileUpload, fis, lifecycleOpt)
+          result += processSingleStreamItem(fis, lifecycleOpt, sink, maxMemorySize)
 
         (result.toList, None)
       } catch {
@@ -178,9 +185,10 @@ object Multipart {
       if (maxSize < 0L) -1L else maxSize max DefaultBufferSize
 
     def processSingleStreamItem(
-      servletFileUpload : ServletFileUpload,
-      fis               : FileItemStream,
-      lifecycleOpt      : Option[MultipartLifecycle]
+      fis           : FileItemStream,
+      lifecycleOpt  : Option[MultipartLifecycle],
+      sink          : UploadSink,
+      maxMemorySize : Int
     ): (String, AnyRef) = { // String | FileItem
 
       val fieldName = fis.getFieldName
@@ -198,7 +206,11 @@ object Multipart {
 
         try {
 
-          val fileItem = servletFileUpload.getFileItemFactory.createItem(fieldName, fis.getContentType, false, fis.getName).asInstanceOf[DiskFileItem]
+          val fileItem      = sink.createItem(fieldName, fis.getContentType, fis.getName, maxMemorySize)
+          // Only hash the content if the sink uses the digest
+          val messageDigestOpt = sink.needsDigest option MessageDigest.getInstance("SHA-256")
+          var size             = 0L
+
           try {
 
             // Browsers (at least Chrome and Firefox) don't seem to want to put a `Content-Length` per part :(
@@ -231,6 +243,8 @@ object Multipart {
                 // We know that this is the only `write` method called by `copyStream`
                 override def write(b: Array[Byte], off: Int, len: Int) = {
                   lifecycleOpt foreach (_.updateProgress(b, off, len)) // can throw `FileScanException`
+                  messageDigestOpt foreach (_.update(b, off, len))
+                  size += len
                   fios.write(b, off, len)
                 }
 
@@ -238,6 +252,8 @@ object Multipart {
                 override def close() = fios.close()
               }
             )
+
+            sink.complete(fileItem, messageDigestOpt map (digest ⇒ SecureUtils.byteArrayToHex(digest.digest)), size)
           } catch {
             // Clean-up FileItem right away in case of failure
             case NonFatal(t) ⇒
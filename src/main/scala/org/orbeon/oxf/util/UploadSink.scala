@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.io.File
+import java.nio.file.{FileAlreadyExistsException, Files, Path, StandardCopyOption}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+
+import org.apache.commons.fileupload.disk.{DiskFileItem, DiskFileItemFactory}
+import org.orbeon.oxf.externalcontext.{WebAppContext, WebAppListener}
+import org.orbeon.oxf.properties.Properties
+import org.orbeon.oxf.util.StringUtils._
+import org.orbeon.oxf.util.task.{Task, TaskScheduler}
+
+import scala.util.control.NonFatal
+
+// Destination of the content of uploaded files, to which `Multipart` writes the bytes as they are streamed from the
+// request.
+//
+// If the sink needs it, the content is hashed while it is written, and the digest is passed to the sink upon
+// completion, so that neither the sink nor subsequent steps need to read the content again to identify it.
+trait UploadSink {
+
+  // Whether `complete` must receive the digest of the content
+  def needsDigest: Boolean
+
+  // Create the item to which the content of an uploaded file is written
+  def createItem(fieldName: String, contentType: String, fileName: String, maxMemorySize: Int): DiskFileItem
+
+  // Called once the content has been fully written, with its hex-encoded SHA-256 digest if `needsDigest`, and its size
+  def complete(fileItem: DiskFileItem, digestOpt: Option[String], size: Long): Unit
+}
+
+object UploadSink {
+
+  val ContentStoreProperty              = "oxf.upload.content-store"
+  val ContentStoreSweepIntervalProperty = "oxf.upload.content-store.sweep-interval"
+
+  private val DefaultSweepInterval = 60 * 60 * 1000
+
+  // Default sink, which writes to temporary files
+  object Temporary extends UploadSink {
+
+    val needsDigest = false
+
+    def createItem(fieldName: String, contentType: String, fileName: String, maxMemorySize: Int): DiskFileItem =
+      new DiskFileItemFactory(maxMemorySize, SystemUtils.getTemporaryDirectory)
+        .createItem(fieldName, contentType, false, fileName).asInstanceOf[DiskFileItem]
+
+    def complete(fileItem: DiskFileItem, digestOpt: Option[String], size: Long): Unit = ()
+  }
+
+  // Sink configured with the `oxf.upload.content-store` property, which is the temporary sink if no directory is set.
+  // The sweep of the content store is scheduled the first time the store is used within a web app.
+  def configured: UploadSink =
+    Option(Properties.instance.getPropertySet) flatMap { propertySet ⇒
+      Option(propertySet.getString(ContentStoreProperty)) flatMap (_.trimAllToOpt) map { path ⇒
+
+        val sink          = ContentAddressedUploadSink(new File(path))
+        val sweepInterval = propertySet.getInteger(ContentStoreSweepIntervalProperty, DefaultSweepInterval).intValue
+
+        for {
+          externalContext ← Option(NetUtils.getExternalContext)
+          if sweepInterval > 0
+        } locally {
+          sink.scheduleSweep(externalContext.getWebAppContext, sweepInterval)
+        }
+
+        sink
+      }
+    } getOrElse
+      Temporary
+}
+
+// Sink which keeps the content of uploaded files in a local directory, where it is addressed by its digest.
+//
+// Uploaded files are written directly into the store directory, and upon completion a hard link to the file is added
+// under `<first 2 digest characters>/<digest>`. If content with the same digest is already stored, the uploaded file
+// is replaced by a link to it, so identical uploads share the same storage. As links are used, renaming uploaded files
+// within the same filesystem never copies their content.
+//
+// Entries of the store which are no longer linked from anywhere else, that is which have a single link, are removed by
+// `sweep`, which runs periodically on the `TaskScheduler` as per `oxf.upload.content-store.sweep-interval`.
+class ContentAddressedUploadSink private (val directory: File) extends UploadSink {
+
+  import ContentAddressedUploadSink._
+
+  private val sweepScheduled = new AtomicBoolean(false)
+
+  directory.mkdirs()
+
+  val needsDigest = true
+
+  def createItem(fieldName: String, contentType: String, fileName: String, maxMemorySize: Int): DiskFileItem =
+    // Files must always be created in order to be linked, whatever the configured memory threshold
+    new DiskFileItemFactory(-1, directory).createItem(fieldName, contentType, false, fileName).asInstanceOf[DiskFileItem]
+
+  def complete(fileItem: DiskFileItem, digestOpt: Option[String], size: Long): Unit =
+    for {
+      digest ← digestOpt
+      file   ← Option(fileItem.getStoreLocation)
+      if file.exists
+    } locally {
+
+      val storedPath = pathForDigest(digest)
+      val filePath   = file.toPath
+
+      try {
+        Files.createDirectories(storedPath.getParent)
+        try {
+          Files.createLink(storedPath, filePath)
+        } catch {
+          case _: FileAlreadyExistsException ⇒
+            // Share the content already stored, replacing the uploaded file only once the link exists
+            val linkPath = filePath.resolveSibling(filePath.getFileName + ".link")
+            Files.createLink(linkPath, storedPath)
+            Files.move(linkPath, filePath, StandardCopyOption.REPLACE_EXISTING)
+        }
+      } catch {
+        case NonFatal(t) ⇒
+          // The uploaded file remains usable, but its content is not stored. This also happens if the stored entry is
+          // swept between the two links above.
+          Logger.warn(s"could not store uploaded content with digest `$digest`: ${t.getMessage}")
+      }
+    }
+
+  def find(digest: String): Option[File] =
+    Some(pathForDigest(digest).toFile) filter (_.exists)
+
+  // Remove the stored entries which are no longer linked from an uploaded file, and return how many were removed.
+  // Uploaded files themselves, which are directly in the store directory, are left alone.
+  def sweep(): Int = {
+    var removed = 0
+    for {
+      subdirectory ← Option(directory.listFiles).toList.flatten
+      if subdirectory.isDirectory
+      entry        ← Option(subdirectory.listFiles).toList.flatten
+      path         = entry.toPath
+      if linkCount(path) == 1
+    } locally {
+      if (Files.deleteIfExists(path))
+        removed += 1
+    }
+    removed
+  }
+
+  def scheduleSweep(webAppContext: WebAppContext, interval: Long): Unit =
+    if (sweepScheduled.compareAndSet(false, true)) {
+
+      val task = new Task {
+        def getStatus: String = ""
+        def run(): Unit =
+          try {
+            val removed = sweep()
+            if (removed > 0)
+              Logger.debug(s"removed $removed unlinked entries from upload content store `$directory`")
+          } catch {
+            case NonFatal(t) ⇒
+              Logger.warn(s"could not sweep upload content store `$directory`: ${t.getMessage}")
+          }
+      }
+
+      task.setSchedule(System.currentTimeMillis + interval, interval)
+      task.setOverlapPolicy(Task.OverlapPolicy.SKIP)
+
+      TaskScheduler.getInstance(webAppContext).schedule(task)
+
+      // Schedule the sweep again if the store is used by a web app started later in the same class loader
+      webAppContext.addListener(
+        new WebAppListener {
+          def webAppDestroyed(): Unit = sweepScheduled.set(false)
+        }
+      )
+    }
+
+  private def pathForDigest(digest: String): Path =
+    directory.toPath.resolve(digest.substring(0, 2)).resolve(digest)
+}
+
+object ContentAddressedUploadSink {
+
+  private val Logger = LoggerFactory.createLogger(classOf[ContentAddressedUploadSink])
+
+  private val sinks = new ConcurrentHashMap[File, ContentAddressedUploadSink]
+
+  // Link counts are only available on filesystems with Unix attributes, and entries are never removed otherwise
+  private def linkCount(path: Path): Int =
+    try
+      Files.getAttribute(path, "unix:nlink").asInstanceOf[Int]
+    catch {
+      case _: UnsupportedOperationException | _: IllegalArgumentException ⇒ Int.MaxValue
+    }
+
+  def apply(directory: File): ContentAddressedUploadSink =
+    sinks.computeIfAbsent(directory.getAbsoluteFile, new ContentAddressedUploadSink(_))
+}
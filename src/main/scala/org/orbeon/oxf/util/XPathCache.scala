@@ -18,6 +18,7 @@ import java.util.{List ⇒ JList, Map ⇒ JMap}
 import org.apache.commons.pool.{BasePoolableObjectFactory, ObjectPool}
 import org.orbeon.oxf.cache.InternalCacheKey
 import org.orbeon.oxf.cache.ObjectCache
+import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.xml.dom4j.LocationData
 import org.orbeon.oxf.xml.NamespaceMapping
 import org.orbeon.saxon.Configuration
@@ -39,6 +40,16 @@ object XPathCache {
   private val XPathCacheName = "cache.xpath"
   private val XPathCacheDefaultSize = 200
 
+  // Number of idle compiled expressions, per expression, which are not reclaimed by the garbage collector
+  private val XPathPoolHardSizeProperty = "oxf.cache.xpath.pool.hard-size"
+  private val XPathPoolHardSizeDefault  = 1
+
+  private lazy val xpathPoolHardSize: Int =
+    Properties.instance.getPropertySet.getInteger(XPathPoolHardSizeProperty, XPathPoolHardSizeDefault)
+
+  // Hits, misses and recompilations over all expression pools
+  val PoolStatistics = new ObjectPoolStatistics
+
   private val Logger = LoggerFactory.createLogger(getClass)
 
   case class XPathContext(
@@ -162,6 +173,39 @@ object XPathCache {
       reporter           = null
     ).asScala
 
+  // Evaluate an XPath expression known statically on the document and keep Item objects in the result
+  def evaluateKeepItems(
+    contextItems       : JList[Item],
+    contextPosition    : Int,
+    handle             : XPathExpressionHandle,
+    variableToValueMap : JMap[String, ValueRepresentation],
+    functionLibrary    : FunctionLibrary,
+    functionContext    : FunctionContext,
+    baseURI            : String,
+    locationData       : LocationData,
+    reporter           : Reporter
+  ): JList[Item] = {
+
+    val xpathExpression =
+      getXPathExpression(
+        XPath.GlobalConfiguration,
+        contextItems,
+        contextPosition,
+        handle.xpathString,
+        handle.namespaceMapping,
+        variableToValueMap,
+        functionLibrary,
+        baseURI,
+        handle.isAVT,
+        locationData,
+        handle
+      )
+
+    withEvaluation(handle.xpathString, xpathExpression, locationData, reporter) {
+      xpathExpression.evaluateKeepItems(functionContext)
+    }
+  }
+
   // Evaluate an XPath expression on the document and keep Item objects in the result
   // 4 external usages
   def evaluateKeepItems(
@@ -533,56 +577,31 @@ object XPathCache {
     functionLibrary    : FunctionLibrary,
     baseURI            : String,
     isAVT              : Boolean,
-    locationData       : LocationData
+    locationData       : LocationData,
+    handle             : XPathExpressionHandle = null
   ): PooledXPathExpression = {
     try {
-      // Find pool from cache
-      val validity = 0L
-      val cache = ObjectCache.instance(XPathCacheName, XPathCacheDefaultSize)
-      val cacheKeyString = new StringBuilder(xpathString)
-
-      if (functionLibrary ne null) {// This is ok
-        cacheKeyString.append('|')
-        cacheKeyString.append(functionLibrary.hashCode.toString)
-      }
-      // NOTE: Mike Kay confirms on 2007-07-04 that compilation depends on the namespace context, so we need
-      // to use it as part of the cache key.
-      if (namespaceMapping ne null) {
-        // NOTE: Hash is mandatory in NamespaceMapping
-        cacheKeyString.append('|')
-        cacheKeyString.append(namespaceMapping.hash)
-      }
-
-      // NOTE: Make sure to copy the values in the key set, as the set returned by the map keeps a pointer to the
-      // Map! This can cause the XPath cache to keep a reference to variable values, which in turn can keep a
-      // reference all the way to e.g. an XFormsContainingDocument.
-      val variableNames = Option(variableToValueMap) map (_.keySet.asScala.toList) getOrElse List()
-
-      if (variableNames.nonEmpty) {
-        // There are some variables in scope. They must be part of the key
-        // TODO: Put this in static state as this can be determined statically once and for all
-        for (variableName ← variableNames) {
-          cacheKeyString.append('|')
-          cacheKeyString.append(variableName)
-        }
+      // Find pool from handle, then from cache
+      val pool = {
+        val poolFromHandle = if (handle ne null) handle.findPool(functionLibrary, variableToValueMap) else null
+        if (poolFromHandle ne null)
+          poolFromHandle
+        else
+          findOrCreateXPathPool(
+            configuration,
+            xpathString,
+            namespaceMapping,
+            variableToValueMap,
+            functionLibrary,
+            baseURI,
+            isAVT,
+            locationData,
+            handle
+          )
       }
 
-      // Add this to the key as evaluating "name" as XPath or as AVT is very different!
-      cacheKeyString.append('|')
-      cacheKeyString.append(isAVT.toString)
-
-      // TODO: Add baseURI to cache key (currently, baseURI is pretty much unused)
-
-      val pooledXPathExpression = {
-        val cacheKey = new InternalCacheKey("XPath Expression2", cacheKeyString.toString)
-        var pool = cache.findValid(cacheKey, validity).asInstanceOf[ObjectPool[PooledXPathExpression]]
-        if (pool eq null) {
-          pool = createXPathPool(configuration, xpathString, namespaceMapping, variableNames, functionLibrary, baseURI, isAVT, locationData)
-          cache.add(cacheKey, validity, pool)
-        }
-        // Get object from pool
-        pool.borrowObject
-      }
+      // Get object from pool
+      val pooledXPathExpression = pool.borrowObject
 
       // Set context items and position
       pooledXPathExpression.setContextItems(contextItems, contextPosition)
@@ -596,6 +615,74 @@ object XPathCache {
     }
   }
 
+  private[util] def findOrCreateXPathPool(
+    configuration      : Configuration,
+    xpathString        : String,
+    namespaceMapping   : NamespaceMapping,
+    variableToValueMap : JMap[String, ValueRepresentation],
+    functionLibrary    : FunctionLibrary,
+    baseURI            : String,
+    isAVT              : Boolean,
+    locationData       : LocationData,
+    handle             : XPathExpressionHandle
+  ): ObjectPool[PooledXPathExpression] = {
+
+    val validity = 0L
+    val cache = ObjectCache.instance(XPathCacheName, XPathCacheDefaultSize)
+
+    // The static part of the key is precomputed by the handle if available
+    val cacheKeyString =
+      if (handle ne null)
+        new StringBuilder(handle.staticKey)
+      else {
+        val sb = new StringBuilder(xpathString)
+        // NOTE: Mike Kay confirms on 2007-07-04 that compilation depends on the namespace context, so we need
+        // to use it as part of the cache key.
+        if (namespaceMapping ne null) {
+          // NOTE: Hash is mandatory in NamespaceMapping
+          sb.append('|')
+          sb.append(namespaceMapping.hash)
+        }
+        sb
+      }
+
+    if (functionLibrary ne null) {// This is ok
+      cacheKeyString.append('|')
+      cacheKeyString.append(functionLibrary.hashCode.toString)
+    }
+
+    // NOTE: Make sure to copy the values in the key set, as the set returned by the map keeps a pointer to the
+    // Map! This can cause the XPath cache to keep a reference to variable values, which in turn can keep a
+    // reference all the way to e.g. an XFormsContainingDocument.
+    val variableNames = Option(variableToValueMap) map (_.keySet.asScala.toList) getOrElse List()
+
+    if (variableNames.nonEmpty) {
+      // There are some variables in scope. They must be part of the key
+      for (variableName ← variableNames) {
+        cacheKeyString.append('|')
+        cacheKeyString.append(variableName)
+      }
+    }
+
+    // Add this to the key as evaluating "name" as XPath or as AVT is very different!
+    cacheKeyString.append('|')
+    cacheKeyString.append(isAVT.toString)
+
+    // TODO: Add baseURI to cache key (currently, baseURI is pretty much unused)
+
+    val cacheKey = new InternalCacheKey("XPath Expression2", cacheKeyString.toString)
+    var pool = cache.findValid(cacheKey, validity).asInstanceOf[ObjectPool[PooledXPathExpression]]
+    if (pool eq null) {
+      pool = createXPathPool(configuration, xpathString, namespaceMapping, variableNames, functionLibrary, baseURI, isAVT, locationData)
+      cache.add(cacheKey, validity, pool)
+    }
+
+    if (handle ne null)
+      handle.rememberPool(functionLibrary, variableNames, pool)
+
+    pool
+  }
+
   private def createXPathPool(
     xpathConfiguration : Configuration,
     xpathString        : String,
@@ -607,7 +694,6 @@ object XPathCache {
     locationData       : LocationData
   ): ObjectPool[PooledXPathExpression] = {
 
-    // TODO: pool should have at least one hard reference
     val factory =
       new XPathCachePoolableObjectFactory(
         configurationOrDefault(xpathConfiguration),
@@ -619,7 +705,7 @@ object XPathCache {
         isAVT,
         locationData
       )
-    val pool = new SoftReferenceObjectPool(factory)
+    val pool = new HardSoftReferenceObjectPool(factory, xpathPoolHardSize, PoolStatistics)
     factory.pool = pool
     pool
   }
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.{util ⇒ ju}
+
+import org.apache.commons.pool.ObjectPool
+import org.orbeon.oxf.xml.NamespaceMapping
+import org.orbeon.saxon.functions.FunctionLibrary
+import org.orbeon.saxon.om.ValueRepresentation
+
+// Handle on an XPath expression known statically, for example the binding of a control
+//
+// The static part of the `XPathCache` key is computed once. In addition, the handle remembers the pool of compiled
+// expressions it last resolved to, so that as long as the function library and the names of the in-scope variables
+// don't change, which is the common case, evaluating the expression doesn't require building a key and looking up
+// the cache.
+class XPathExpressionHandle(val xpathString: String, val namespaceMapping: NamespaceMapping, val isAVT: Boolean) {
+
+  import XPathExpressionHandle._
+
+  // Static part of the cache key
+  val staticKey: String = {
+    val sb = new java.lang.StringBuilder(xpathString)
+    if (namespaceMapping ne null) {
+      sb.append('|')
+      sb.append(namespaceMapping.hash)
+    }
+    sb.toString
+  }
+
+  @volatile private var resolved: Resolved = null
+
+  def findPool(
+    functionLibrary    : FunctionLibrary,
+    variableToValueMap : ju.Map[String, ValueRepresentation]
+  ): ObjectPool[PooledXPathExpression] = {
+    val r = resolved
+    if ((r ne null) && (r.functionLibrary eq functionLibrary) && sameVariableNames(r.variableNames, variableToValueMap))
+      r.pool
+    else
+      null
+  }
+
+  def rememberPool(
+    functionLibrary : FunctionLibrary,
+    variableNames   : List[String],
+    pool            : ObjectPool[PooledXPathExpression]
+  ): Unit =
+    resolved = Resolved(functionLibrary, variableNames.toArray, pool)
+}
+
+object XPathExpressionHandle {
+
+  private case class Resolved(
+    functionLibrary : FunctionLibrary,
+    variableNames   : Array[String],
+    pool            : ObjectPool[PooledXPathExpression]
+  )
+
+  // Compiled expressions don't depend on the order of variables, as variables are bound by name
+  private def sameVariableNames(names: Array[String], variableToValueMap: ju.Map[String, ValueRepresentation]): Boolean =
+    if (variableToValueMap eq null)
+      names.length == 0
+    else if (names.length != variableToValueMap.size)
+      false
+    else {
+      var i = 0
+      while (i < names.length) {
+        if (! variableToValueMap.containsKey(names(i)))
+          return false
+        i += 1
+      }
+      true
+    }
+
+  def apply(xpathString: String, namespaceMapping: NamespaceMapping, isAVT: Boolean): XPathExpressionHandle =
+    new XPathExpressionHandle(xpathString, namespaceMapping, isAVT)
+}
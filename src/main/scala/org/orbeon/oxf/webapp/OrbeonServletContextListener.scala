@@ -17,6 +17,7 @@ import javax.servlet.{ServletContextEvent, ServletContextListener, ServletExcept
 
 import org.orbeon.oxf.externalcontext.WebAppContext
 import org.orbeon.oxf.pipeline.InitUtils.runWithServletContext
+import org.orbeon.oxf.resources.ResourceManagerWrapper
 import org.orbeon.oxf.webapp.ServletPortlet._
 
 // For backward compatibility
@@ -40,13 +41,16 @@ class OrbeonServletContextListener extends ServletContextListener {
   def contextInitialized(event: ServletContextEvent): Unit =
     withRootException("context creation", new ServletException(_)) {
       runWithServletContext(event.getServletContext, None, logPrefix, "Context initialized.", InitProcessorPrefix, InitInputPrefix)
+      WarmUp.start()
     }
 
   def contextDestroyed(event: ServletContextEvent): Unit =
     withRootException("context destruction", new ServletException(_)) {
+      WarmUp.stop()
       runWithServletContext(event.getServletContext, None, logPrefix, "Context destroyed.", DestroyProcessorPrefix, DestroyInputPrefix)
       // NOTE: This calls all listeners, because the listeners are stored in the actual web app context's attributes
       // TODO: Shouldn't a singleton `WebAppContext` be available instead?
       WebAppContext(event.getServletContext).webAppDestroyed()
+      ResourceManagerWrapper.destroy()
     }
 }
\ No newline at end of file
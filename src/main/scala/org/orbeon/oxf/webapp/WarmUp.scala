@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.webapp
+
+import java.io.InputStream
+import java.net.{ConnectException, HttpURLConnection, URL}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{Callable, ExecutorService, Executors, ThreadFactory, TimeUnit}
+
+import org.orbeon.exception.OrbeonFormatter
+import org.orbeon.oxf.properties.Properties
+import org.orbeon.oxf.util.IOUtils._
+import org.orbeon.oxf.util.LoggerFactory
+import org.orbeon.oxf.util.PathUtils._
+import org.orbeon.oxf.util.StringUtils._
+
+import scala.collection.JavaConverters._
+import scala.util.control.NonFatal
+
+// Warm-up of the web app after it has started.
+//
+// Static states, XBL bindings and XSLT stylesheets are compiled and cached lazily upon the first request for a given
+// page. When the `oxf.warm-up.paths` property lists paths, such as `/fr/acme/order/new`, these paths are requested
+// from the web app itself, at `oxf.warm-up.base-url`, in parallel on a bounded pool, so that the caches are populated
+// before users access the pages. The time taken by each path is logged.
+//
+// `WarmUpStatusServlet` can be used as a readiness check, as it only succeeds once the warm-up is complete, or once
+// `oxf.warm-up.timeout` has elapsed.
+object WarmUp {
+
+  val PathsProperty   = "oxf.warm-up.paths"
+  val BaseURLProperty = "oxf.warm-up.base-url"
+  val ThreadsProperty = "oxf.warm-up.threads"
+  val TimeoutProperty = "oxf.warm-up.timeout"
+
+  private val DefaultThreads = 4
+  private val DefaultTimeout = 300000
+  private val RetryDelay     = 1000L
+
+  private val Logger = LoggerFactory.createLogger("org.orbeon.warm-up")
+
+  case class Result(path: String, statusOpt: Option[Int], durationMs: Long) {
+    def succeeded = statusOpt exists (status ⇒ status >= 200 && status < 300)
+  }
+
+  @volatile private var complete    = true
+  @volatile private var executorOpt : Option[ExecutorService] = None
+
+  def isComplete: Boolean = complete
+
+  // Start the warm-up in the background if paths and the base URL are configured
+  def start(): Unit = {
+
+    val propertySet = Properties.instance.getPropertySet
+
+    for {
+      paths   ← propertySet.getNonBlankString(PathsProperty) map (_.splitTo[List]()) filter (_.nonEmpty)
+      baseURL ← propertySet.getNonBlankString(BaseURLProperty) orElse {
+        // The server is not listening yet when the web app starts, so its address and port can't be known
+        Logger.warn(s"`$PathsProperty` is set but `$BaseURLProperty` is not, so the web app is not warmed up")
+        None
+      }
+    } locally {
+
+      val threads = propertySet.getInteger(ThreadsProperty, DefaultThreads).intValue max 1
+      val timeout = propertySet.getInteger(TimeoutProperty, DefaultTimeout).intValue
+
+      val executor = Executors.newFixedThreadPool(threads, newThreadFactory("orbeon-warm-up-"))
+      executorOpt = Some(executor)
+      complete    = false
+
+      val coordinator = new Thread("orbeon-warm-up") {
+        override def run(): Unit =
+          try warmUp(executor, paths, timeout, path ⇒ fetch(baseURL.dropTrailingSlash + path.prependSlash, timeout))
+          finally {
+            executor.shutdown()
+            complete = true
+          }
+      }
+      coordinator.setDaemon(true)
+      coordinator.start()
+    }
+  }
+
+  def stop(): Unit = {
+    executorOpt foreach (_.shutdownNow())
+    executorOpt = None
+  }
+
+  // Request all the paths on the given executor, and return the results in the order of the paths. Paths which are not
+  // done once the timeout has elapsed are cancelled, and have no status.
+  def warmUp(executor: ExecutorService, paths: List[String], timeout: Long, fetch: String ⇒ Int): List[Result] = {
+
+    Logger.info(s"starting warm-up of ${paths.size} paths")
+    val start = System.currentTimeMillis
+
+    val tasks =
+      for (path ← paths)
+        yield new Callable[Result] {
+          def call(): Result = {
+            val pathStart = System.currentTimeMillis
+            val statusOpt =
+              try {
+                Some(fetch(path))
+              } catch {
+                case NonFatal(t) ⇒
+                  Logger.warn(s"warm-up of `$path` failed:\n${OrbeonFormatter.format(t)}")
+                  None
+              }
+            val result = Result(path, statusOpt, System.currentTimeMillis - pathStart)
+            statusOpt foreach { status ⇒
+              Logger.info(s"warm-up of `$path` returned status $status in ${result.durationMs} ms")
+            }
+            result
+          }
+        }
+
+    val futures = executor.invokeAll(tasks.asJava, timeout, TimeUnit.MILLISECONDS).asScala.toList
+
+    val results =
+      for ((path, future) ← paths zip futures)
+        yield
+          if (future.isCancelled) {
+            Logger.warn(s"warm-up of `$path` did not complete within $timeout ms")
+            Result(path, None, System.currentTimeMillis - start)
+          } else
+            future.get
+
+    Logger.info(
+      s"completed warm-up in ${System.currentTimeMillis - start} ms, " +
+      s"${results count (_.succeeded)} of ${results.size} paths succeeded"
+    )
+
+    results
+  }
+
+  // Request the URL and read the response entirely, retrying while the server is not accepting connections
+  private def fetch(url: String, timeout: Long): Int = {
+
+    val deadline = System.currentTimeMillis + timeout
+
+    def remaining = (deadline - System.currentTimeMillis) max 1L
+
+    def tryConnect(): Int = {
+      val connection = new URL(url).openConnection.asInstanceOf[HttpURLConnection]
+      connection.setConnectTimeout(remaining.toInt)
+      connection.setReadTimeout(remaining.toInt)
+      connection.setInstanceFollowRedirects(true)
+      try {
+        val status = connection.getResponseCode
+        Option(if (status < 400) connection.getInputStream else connection.getErrorStream) foreach consume
+        status
+      } finally
+        connection.disconnect()
+    }
+
+    var statusOpt: Option[Int] = None
+    while (statusOpt.isEmpty) {
+      try
+        statusOpt = Some(tryConnect())
+      catch {
+        case _: ConnectException if System.currentTimeMillis + RetryDelay < deadline ⇒
+          Thread.sleep(RetryDelay)
+      }
+    }
+    statusOpt.get
+  }
+
+  private def consume(is: InputStream): Unit =
+    useAndClose(is) { is ⇒
+      val buffer = new Array[Byte](8192)
+      while (is.read(buffer) != -1) {}
+    }
+
+  private def newThreadFactory(prefix: String): ThreadFactory = new ThreadFactory {
+    private val count = new AtomicInteger
+    def newThread(runnable: Runnable): Thread = {
+      val thread = new Thread(runnable, prefix + count.incrementAndGet())
+      thread.setDaemon(true)
+      thread
+    }
+  }
+}
@@ -0,0 +1,25 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.webapp
+
+import javax.servlet.http.{HttpServlet, HttpServletRequest, HttpServletResponse}
+
+// This servlet returns an ok response once the warm-up is complete, and a 503 response before that
+class WarmUpStatusServlet extends HttpServlet {
+
+  override def service(request: HttpServletRequest, response: HttpServletResponse): Unit = {
+    response.setStatus(if (WarmUp.isComplete) 200 else 503)
+    response.setContentType("text/plain")
+  }
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import java.io.ByteArrayOutputStream
+import java.nio.charset.StandardCharsets.UTF_8
+import java.{util ⇒ ju}
+
+import org.orbeon.dom.Document
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.xml.dom4j.LocationSAXContentHandler
+import org.orbeon.saxon.Configuration
+import org.orbeon.saxon.om.DocumentInfo
+import org.xml.sax.{Attributes, Locator}
+import org.xml.sax.helpers.AttributesImpl
+
+// Compact binary representation of an XML tree
+//
+// This is used to store XML documents, in particular XForms instances in the dynamic state, without going through XML
+// serialization and parsing. The format is a sequence of events close to SAX:
+//
+// - names (namespace URIs, local names, qualified names, prefixes and attribute types) go through a per-document name
+//   pool: the first occurrence is written in full, and subsequent occurrences are written as an index into the pool
+// - the pool is seeded with a fixed dictionary of names common in XForms and Form Runner instances
+// - text and attribute values are written as length-prefixed UTF-8
+// - integers are written as variable-length quantities
+//
+// Location information is not preserved.
+//
+// The encoded bytes start with a header made of a magic number and of the format version.
+object BinaryXML {
+
+  val FormatVersion = 1
+
+  // Header made of a magic number followed by the format version. The first byte is not valid at the start of XML
+  // text, in any encoding, so that the format can be told apart from XML text.
+  private val Magic        = Array[Byte](0x89.toByte, 'O'.toByte, 'B'.toByte, 'X'.toByte)
+  private val HeaderLength = Magic.length + 1
+
+  private object Event {
+    val StartDocument         = 1
+    val EndDocument           = 2
+    val StartPrefixMapping    = 3
+    val EndPrefixMapping      = 4
+    val StartElement          = 5
+    val EndElement            = 6
+    val Characters            = 7
+    val Comment               = 8
+    val ProcessingInstruction = 9
+  }
+
+  // Names seeded in the pool so that frequent names are never written in full
+  // NOTE: Changing this list changes the format, so only ever append to it and bump `FormatVersion` if needed.
+  private val Dictionary = Array(
+    "",
+    "CDATA",
+    "ID",
+    "xml",
+    XMLConstants.XML_URI,
+    "xmlns",
+    XMLConstants.XSI_URI,
+    XMLConstants.XSI_PREFIX,
+    XMLConstants.XSD_URI,
+    XMLConstants.XSD_PREFIX,
+    "http://www.w3.org/2002/xforms",
+    "http://orbeon.org/oxf/xml/xforms",
+    "http://orbeon.org/oxf/xml/form-runner",
+    "http://orbeon.org/oxf/xml/form-builder",
+    "fr",
+    "xf",
+    "xxf",
+    "id",
+    "type",
+    "name",
+    "value",
+    "label",
+    "hint",
+    "help",
+    "alert",
+    "item",
+    "section",
+    "grid"
+  )
+
+  // Encode the events produced by `write` into a byte array
+  def encode(write: XMLReceiver ⇒ Unit): Array[Byte] = {
+    val encoder = new Encoder
+    write(encoder)
+    encoder.toByteArray
+  }
+
+  // Replay the encoded events into the given receiver
+  def decode(bytes: Array[Byte], receiver: XMLReceiver): Unit =
+    new Decoder(bytes).replay(receiver)
+
+  def decodeToDom4j(bytes: Array[Byte]): Document = {
+    val handler = new LocationSAXContentHandler
+    decode(bytes, handler)
+    handler.getDocument
+  }
+
+  def decodeToTinyTree(configuration: Configuration, bytes: Array[Byte]): DocumentInfo = {
+    val (treeBuilder, receiver) = TransformerUtils.createTinyBuilder(configuration)
+    decode(bytes, receiver)
+    treeBuilder.getCurrentRoot.asInstanceOf[DocumentInfo]
+  }
+
+  def isBinaryXML(bytes: Array[Byte]): Boolean =
+    hasMagic(bytes) && bytes(Magic.length) == FormatVersion
+
+  private def hasMagic(bytes: Array[Byte]): Boolean =
+    bytes.length >= HeaderLength && Magic.indices.forall(i ⇒ bytes(i) == Magic(i))
+
+  private class Encoder extends XMLReceiver with XMLReceiverUnneededEvents {
+
+    private val out   = new ByteArrayOutputStream
+    private val names = new ju.HashMap[String, Integer]
+
+    locally {
+      for (name ← Dictionary)
+        names.put(name, names.size)
+      out.write(Magic, 0, Magic.length)
+      out.write(FormatVersion)
+    }
+
+    def toByteArray: Array[Byte] = out.toByteArray
+
+    private def writeInt(value: Int): Unit = {
+      var v = value
+      while ((v & ~0x7F) != 0) {
+        out.write((v & 0x7F) | 0x80)
+        v >>>= 7
+      }
+      out.write(v)
+    }
+
+    private def writeText(s: String): Unit = {
+      val bytes = s.getBytes(UTF_8)
+      writeInt(bytes.length)
+      out.write(bytes, 0, bytes.length)
+    }
+
+    // Index 0 means that a new name follows, otherwise the index is 1 + the index in the pool
+    private def writeName(name: String): Unit = {
+      val s = if (name eq null) "" else name
+      names.get(s) match {
+        case null ⇒
+          writeInt(0)
+          writeText(s)
+          names.put(s, names.size)
+        case index ⇒
+          writeInt(index.intValue + 1)
+      }
+    }
+
+    def startDocument()                          : Unit = out.write(Event.StartDocument)
+    def endDocument()                            : Unit = out.write(Event.EndDocument)
+    def setDocumentLocator(locator: Locator)     : Unit = ()
+
+    def startPrefixMapping(prefix: String, uri: String): Unit = {
+      out.write(Event.StartPrefixMapping)
+      writeName(prefix)
+      writeName(uri)
+    }
+
+    def endPrefixMapping(prefix: String): Unit = {
+      out.write(Event.EndPrefixMapping)
+      writeName(prefix)
+    }
+
+    def startElement(uri: String, localName: String, qName: String, atts: Attributes): Unit = {
+      out.write(Event.StartElement)
+      writeName(uri)
+      writeName(localName)
+      writeName(qName)
+
+      val length = atts.getLength
+      writeInt(length)
+      var i = 0
+      while (i < length) {
+        writeName(atts.getURI(i))
+        writeName(atts.getLocalName(i))
+        writeName(atts.getQName(i))
+        writeName(atts.getType(i))
+        writeText(atts.getValue(i))
+        i += 1
+      }
+    }
+
+    def endElement(uri: String, localName: String, qName: String): Unit =
+      out.write(Event.EndElement)
+
+    def characters(ch: Array[Char], start: Int, length: Int): Unit =
+      if (length > 0) {
+        out.write(Event.Characters)
+        writeText(new String(ch, start, length))
+      }
+
+    def comment(ch: Array[Char], start: Int, length: Int): Unit = {
+      out.write(Event.Comment)
+      writeText(new String(ch, start, length))
+    }
+
+    def processingInstruction(target: String, data: String): Unit = {
+      out.write(Event.ProcessingInstruction)
+      writeName(target)
+      writeText(data)
+    }
+  }
+
+  private class Decoder(bytes: Array[Byte]) {
+
+    private var position = 0
+    private val names    = new ju.ArrayList[String](Dictionary.length * 2)
+
+    locally {
+      for (name ← Dictionary)
+        names.add(name)
+    }
+
+    private def readByte(): Int = {
+      val b = bytes(position) & 0xFF
+      position += 1
+      b
+    }
+
+    private def readInt(): Int = {
+      var result = 0
+      var shift  = 0
+      var b      = 0
+      do {
+        b = readByte()
+        result |= (b & 0x7F) << shift
+        shift += 7
+      } while ((b & 0x80) != 0)
+      result
+    }
+
+    private def readText(): String = {
+      val length = readInt()
+      val result = new String(bytes, position, length, UTF_8)
+      position += length
+      result
+    }
+
+    private def readName(): String =
+      readInt() match {
+        case 0 ⇒
+          val name = readText()
+          names.add(name)
+          name
+        case index ⇒
+          names.get(index - 1)
+      }
+
+    def replay(receiver: XMLReceiver): Unit = {
+
+      if (! hasMagic(bytes))
+        throw new OXFException("not in the binary XML format")
+
+      position = Magic.length
+
+      val version = readByte()
+      if (version != FormatVersion)
+        throw new OXFException(s"unsupported binary XML format version: `$version`")
+
+      // Elements are not nested in the format, so keep a stack of names for `endElement()`
+      val elementStack = new ju.ArrayList[String]
+      val attributes   = new AttributesImpl
+
+      while (position < bytes.length) {
+        readByte() match {
+          case Event.StartDocument ⇒
+            receiver.startDocument()
+          case Event.EndDocument ⇒
+            receiver.endDocument()
+          case Event.StartPrefixMapping ⇒
+            val prefix = readName()
+            receiver.startPrefixMapping(prefix, readName())
+          case Event.EndPrefixMapping ⇒
+            receiver.endPrefixMapping(readName())
+          case Event.StartElement ⇒
+            val uri       = readName()
+            val localName = readName()
+            val qName     = readName()
+
+            attributes.clear()
+            var remaining = readInt()
+            while (remaining > 0) {
+              val attURI       = readName()
+              val attLocalName = readName()
+              val attQName     = readName()
+              val attType      = readName()
+              attributes.addAttribute(attURI, attLocalName, attQName, attType, readText())
+              remaining -= 1
+            }
+
+            elementStack.add(uri)
+            elementStack.add(localName)
+            elementStack.add(qName)
+
+            receiver.startElement(uri, localName, qName, attributes)
+          case Event.EndElement ⇒
+            val size = elementStack.size
+            val qName     = elementStack.remove(size - 1)
+            val localName = elementStack.remove(size - 2)
+            val uri       = elementStack.remove(size - 3)
+            receiver.endElement(uri, localName, qName)
+          case Event.Characters ⇒
+            val chars = readText().toCharArray
+            receiver.characters(chars, 0, chars.length)
+          case Event.Comment ⇒
+            val chars = readText().toCharArray
+            receiver.comment(chars, 0, chars.length)
+          case Event.ProcessingInstruction ⇒
+            val target = readName()
+            receiver.processingInstruction(target, readText())
+          case other ⇒
+            throw new OXFException(s"invalid binary XML event: `$other`")
+        }
+      }
+    }
+  }
+}
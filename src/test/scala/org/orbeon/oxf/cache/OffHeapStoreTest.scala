@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache
+
+import org.junit.Test
+import org.orbeon.oxf.xml.{SAXStore, XMLReceiverAdapter}
+import org.scalatest.junit.AssertionsForJUnit
+import org.xml.sax.Attributes
+import org.xml.sax.helpers.AttributesImpl
+
+class OffHeapStoreTest extends AssertionsForJUnit {
+
+  case class Key(key: String) extends InternalCacheKey("test", key)
+
+  // Document with the given number of elements, each containing the given text
+  def saxStore(elements: Int, text: String): SAXStore = {
+    val store = new SAXStore
+    store.startDocument()
+    store.startElement("", "root", "root", new AttributesImpl)
+    for (i ← 1 to elements) {
+      val attributes = new AttributesImpl
+      attributes.addAttribute("", "id", "id", "CDATA", i.toString)
+      store.startElement("", "e", "e", attributes)
+      store.characters(text.toCharArray, 0, text.length)
+      store.endElement("", "e", "e")
+    }
+    store.endElement("", "root", "root")
+    store.endDocument()
+    store
+  }
+
+  def serialize(store: SAXStore): String = {
+    val sb = new java.lang.StringBuilder
+    store.replay(new XMLReceiverAdapter {
+      override def startElement(uri: String, localName: String, qName: String, attributes: Attributes): Unit =
+        sb.append('<').append(qName).append(Option(attributes.getValue("id")) map (" " + _) getOrElse "").append('>')
+      override def characters(ch: Array[Char], start: Int, length: Int): Unit =
+        sb.append(ch, start, length)
+      override def endElement(uri: String, localName: String, qName: String): Unit =
+        sb.append("</").append(qName).append('>')
+    })
+    sb.toString
+  }
+
+  @Test def storeAndReplay(): Unit = {
+
+    val store    = new OffHeapStore(1024 * 1024)
+    val original = saxStore(1000, "value")
+
+    assert(store.add(Key("k"), 10L, original))
+    assert(store.getUsedBytes > 0)
+
+    assert(serialize(store.findValid(Key("k"), 10L)) === serialize(original))
+    assert(store.findValid(Key("k"), 11L) eq null)
+    assert(store.getHitCount  === 1)
+    assert(store.getMissCount === 1)
+
+    store.remove(Key("k"))
+    assert(store.getCurrentSize === 0)
+    assert(store.getUsedBytes === 0)
+  }
+
+  @Test def evictLeastRecentlyUsed(): Unit = {
+
+    // Each document takes 3 pages, and there is room for 4 documents
+    val store = new OffHeapStore(14 * OffHeapStore.PAGE_SIZE)
+    val text  = "x" * (OffHeapStore.PAGE_SIZE * 5 / 4 / 100)
+
+    for (i ← 1 to 4)
+      assert(store.add(Key("k" + i), 10L, saxStore(100, text)))
+
+    assert(store.getExpirationCount === 0)
+
+    // Use the first entry so that the second one is evicted first
+    assert(store.findValid(Key("k1"), 10L) ne null)
+    assert(store.add(Key("k5"), 10L, saxStore(100, text)))
+
+    assert(store.findValid(Key("k1"), 10L) ne null)
+    assert(store.findValid(Key("k2"), 10L) eq null)
+    assert(store.getExpirationCount === 1)
+    assert(store.getAllocatedBytes <= store.getMaxBytes)
+  }
+
+  @Test def rejectLargeDocuments(): Unit = {
+
+    val store = new OffHeapStore(4 * OffHeapStore.PAGE_SIZE)
+
+    assert(! store.add(Key("k"), 10L, saxStore(1000, "x" * 1000)))
+    assert(store.getCurrentSize === 0)
+    assert(store.getUsedBytes === 0)
+  }
+
+  @Test def tieredCache(): Unit = {
+
+    val offHeap = new OffHeapStore(0)
+    val cache   = new TieredCacheImpl(new MemoryCacheImpl(10), offHeap)
+
+    // Disabled off-heap store
+    cache.add(Key("s1"), 10L, saxStore(10, "value"))
+    assert(offHeap.getCurrentSize === 0)
+    assert(cache.getCurrentSize === 1)
+
+    offHeap.setMaxBytes(1024 * 1024)
+
+    // `SAXStore`s go off-heap and other objects stay in memory
+    val original = saxStore(10, "value")
+    cache.add(Key("s1"), 10L, original)
+    cache.add(Key("o1"), 10L, "object")
+
+    assert(offHeap.getCurrentSize === 1)
+    assert(cache.getCurrentSize === 2)
+
+    assert(serialize(cache.findValid(Key("s1"), 10L).asInstanceOf[SAXStore]) === serialize(original))
+    assert(cache.findValid(Key("o1"), 10L) === "object")
+    assert(cache.findValid(Key("o2"), 10L) eq null)
+
+    assert(cache.getHitCount  === 2)
+    assert(cache.getMissCount === 1)
+
+    offHeap.setMaxBytes(0)
+    assert(cache.findValid(Key("s1"), 10L) eq null)
+    assert(cache.getCurrentSize === 1)
+  }
+}
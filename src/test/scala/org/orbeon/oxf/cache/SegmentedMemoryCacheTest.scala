@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Future}
+
+class SegmentedMemoryCacheTest extends AssertionsForJUnit {
+
+  case class Key(key: String) extends InternalCacheKey("test", key)
+  val VALIDITY = 0L
+
+  @Test def testSizeDistributedOverSegments(): Unit = {
+    val cache = new SegmentedMemoryCacheImpl(10, 4)
+
+    for (i ← 1 to 100)
+      cache.add(Key("o" + i), VALIDITY, i)
+
+    assert(cache.getMaxSize === 10)
+    assert(cache.getCurrentSize === 10)
+    assert(cache.getExpirationCount === 90)
+    assert(cache.getAddCount === 100)
+  }
+
+  @Test def testValidity(): Unit = {
+    val cache = new SegmentedMemoryCacheImpl(10, 4)
+
+    cache.add(Key("o1"), 10L, "v1")
+
+    assert(cache.findValid(Key("o1"), 10L) === "v1")
+    assert(cache.findValid(Key("o1"), 5L)  === "v1")
+    assert(cache.findValid(Key("o1"), 11L) === null)
+    assert(cache.findValid(Key("o2"), 10L) === null)
+
+    assert(cache.getHitCount  === 2)
+    assert(cache.getMissCount === 2)
+
+    assert(cache.takeValid(Key("o1"), 10L) === "v1")
+    assert(cache.getCurrentSize === 0)
+  }
+
+  @Test def testSetMaxSizeEvicts(): Unit = {
+    val cache = new SegmentedMemoryCacheImpl(100, 8)
+
+    for (i ← 1 to 100)
+      cache.add(Key("o" + i), VALIDITY, i)
+
+    cache.setMaxSize(0)
+
+    assert(cache.getCurrentSize === 0)
+    assert(cache.iterateCacheKeys.asScala.isEmpty)
+  }
+
+  @Test def testConcurrentAccess(): Unit = {
+    val size  = 1000
+    // Leave room in each segment so that no eviction takes place
+    val cache = new SegmentedMemoryCacheImpl(size * 16, 16)
+
+    val futures =
+      for (t ← 1 to 8)
+        yield Future {
+          for (i ← 1 to size) {
+            cache.add(Key("o" + i), VALIDITY, i)
+            assert(cache.findValid(Key("o" + i), VALIDITY) === i)
+          }
+        }
+
+    Await.result(Future.sequence(futures), Duration.Inf)
+
+    assert(cache.getCurrentSize === size)
+    assert(cache.iterateCacheObjects.asScala.map(_.asInstanceOf[Int]).toSet === (1 to size).toSet)
+  }
+}
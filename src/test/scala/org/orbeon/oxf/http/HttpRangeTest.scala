@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.http
+
+import org.orbeon.oxf.http.HttpRange._
+import org.scalatest.FunSpec
+
+class HttpRangeTest extends FunSpec {
+
+  describe("Parsing the `Range` header") {
+
+    val Expected = List(
+      None                     → Whole,
+      Some("bytes=0-99")       → Partial(0, 99),
+      Some("bytes=100-")       → Partial(100, 999),
+      Some("bytes=900-2000")   → Partial(900, 999),
+      Some("bytes=-100")       → Partial(900, 999),
+      Some("bytes=-2000")      → Partial(0, 999),
+      Some("bytes=1000-")      → NotSatisfiable,
+      Some("bytes=-0")         → NotSatisfiable,
+      Some("bytes=99-0")       → Whole,
+      Some("bytes=0-9,20-29")  → Whole,
+      Some("items=0-9")        → Whole,
+      Some("bytes=-")          → Whole
+    )
+
+    for ((header, expected) ← Expected)
+      it(s"must parse `${header getOrElse ""}`") {
+        assert(expected === HttpRange(header, 1000))
+      }
+
+    it("must produce the `Content-Range` header") {
+      assert("bytes 0-99/1000" === Partial(0, 99).contentRange(1000))
+      assert(100               === Partial(0, 99).length)
+    }
+  }
+}
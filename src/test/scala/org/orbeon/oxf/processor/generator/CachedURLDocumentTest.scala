@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.generator
+
+import java.{util ⇒ ju}
+
+import org.junit.Test
+import org.orbeon.oxf.xml.SAXStore
+import org.scalatest.junit.AssertionsForJUnit
+
+class CachedURLDocumentTest extends AssertionsForJUnit {
+
+  private def newDocument(cacheControl: String) =
+    CachedURLDocument(new SAXStore, 1000L, "\"v1\"", cacheControl, new ju.HashMap, 0)
+
+  @Test def testFreshness(): Unit = {
+    assert(CachedURLDocument.freshness(null)                                       === (-1L, 0L))
+    assert(CachedURLDocument.freshness("public")                                   === (-1L, 0L))
+    assert(CachedURLDocument.freshness("max-age=60")                               === (60000L, 0L))
+    assert(CachedURLDocument.freshness("Max-Age=\"60\", stale-while-revalidate=30") === (60000L, 30000L))
+    assert(CachedURLDocument.freshness("max-age=60, no-cache")                     === (-1L, 0L))
+    assert(CachedURLDocument.freshness("max-age=-1")                               === (-1L, 0L))
+    assert(CachedURLDocument.freshness("max-age=foo")                              === (-1L, 0L))
+  }
+
+  @Test def testStaleWhileRevalidate(): Unit = {
+    val document = newDocument("max-age=10, stale-while-revalidate=20")
+
+    assert(document.isFresh(10000))
+    assert(! document.isFresh(10001))
+    assert(document.isStaleUsable(30000))
+    assert(! document.isStaleUsable(30001))
+
+    // A single caller revalidates at a time
+    assert(document.tryStartRevalidation())
+    assert(! document.tryStartRevalidation())
+    document.endRevalidation()
+    assert(document.tryStartRevalidation())
+  }
+
+  @Test def testRevalidated(): Unit = {
+    val document = newDocument("max-age=10")
+
+    val unchanged = document.revalidated(50000, null, null)
+    assert(unchanged.document eq document.document)
+    assert(unchanged.etag === "\"v1\"")
+    assert(unchanged.isFresh(60000))
+    assert(! unchanged.isFresh(60001))
+
+    val updated = document.revalidated(50000, "\"v2\"", "no-cache")
+    assert(updated.etag === "\"v2\"")
+    assert(updated.lastModified === 1000L)
+    assert(! updated.isFresh(50000))
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.resources
+
+import java.nio.file.Files
+import java.util.Date
+
+import javax.xml.parsers.DocumentBuilderFactory
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+
+class ExpirationMapTest extends AssertionsForJUnit {
+
+  @Test def testExpiration(): Unit = {
+    val map = new ExpirationMap(1000, 100)
+
+    map.put(0, "k", "v")
+
+    assert(map.get(1000, "k") === "v")
+    assert(map.get(1001, "k") === null)
+    assert(map.getEntryCount === 0)
+
+    assert(map.getHitCount        === 1)
+    assert(map.getMissCount       === 1)
+    assert(map.getExpirationCount === 1)
+    assert(map.getEvictionCount   === 0)
+  }
+
+  @Test def testSizeBounded(): Unit = {
+    val map = new ExpirationMap(Long.MaxValue, 32)
+
+    for (i ← 1 to 1000)
+      map.put(0, "k" + i, i)
+
+    assert(map.getMaxSize       === 32)
+    assert(map.getCurrentSize   === 32)
+    assert(map.getAddCount      === 1000)
+    assert(map.getEvictionCount === 1000 - map.getEntryCount)
+  }
+
+  private def stringLengthMap(maxWeight: Long) =
+    new ExpirationMap(Long.MaxValue, maxWeight, new ExpirationMap.Weigher {
+      def weigh(value: AnyRef): Long = value.asInstanceOf[String].length
+    })
+
+  @Test def testWeightBounded(): Unit = {
+    val map = stringLengthMap(10)
+
+    map.put(0, "k", "12345")
+    map.put(0, "k", "1234")
+    assert(map.getCurrentSize === 4)
+
+    // A value heavier than the maximum is not kept, and doesn't evict other values
+    map.put(0, "l", "123")
+    map.put(0, "k", "12345678901")
+    assert(map.get(0, "k") === null)
+    assert(map.get(0, "l") === "123")
+    assert(map.getCurrentSize === 3)
+    assert(map.getEvictionCount === 1)
+  }
+
+  @Test def testSingleValueCanUseWholeWeight(): Unit = {
+    val map = stringLengthMap(1000)
+
+    for (i ← 1 to 100)
+      map.put(0, "k" + i, "1234567890")
+
+    assert(map.getCurrentSize === 1000)
+
+    // Much heavier than the share of a segment, so evicts values in other segments
+    val heavy = "x" * 900
+    map.put(0, "heavy", heavy)
+
+    assert(map.get(0, "heavy") eq heavy)
+    assert(map.getCurrentSize <= 1000)
+    assert(map.getEntryCount === 1 + 10)
+  }
+
+  @Test def testEvictsLeastRecentlyUsedAcrossSegments(): Unit = {
+    val map = new ExpirationMap(Long.MaxValue, 100)
+
+    for (i ← 1 to 100)
+      map.put(0, "k" + i, i)
+
+    // Use the first 50 values again, so that adding 50 values evicts the other ones
+    for (i ← 1 to 50)
+      map.get(0, "k" + i)
+
+    for (i ← 101 to 150)
+      map.put(0, "k" + i, i)
+
+    assert(map.getCurrentSize === 100)
+    assert((1   to 50)  forall (i ⇒ map.get(0, "k" + i) == i))
+    assert((51  to 100) forall (i ⇒ map.get(0, "k" + i) == null))
+    assert((101 to 150) forall (i ⇒ map.get(0, "k" + i) == i))
+  }
+
+  @Test def testResourceCacheWeighsNodes(): Unit = {
+
+    val doc  = DocumentBuilderFactory.newInstance.newDocumentBuilder.newDocument
+    val root = doc.createElement("root")
+    doc.appendChild(root)
+    for (i ← 1 to 10) {
+      val child = doc.createElement("child")
+      child.setAttribute("id", i.toString)
+      child.appendChild(doc.createTextNode("text"))
+      root.appendChild(child)
+    }
+
+    // Document, root, and for each child the element, its attribute and text
+    assert(ResourceCache.countNodes(doc) === 2 + 10 * 3)
+
+    val cache = new ResourceCache(Long.MaxValue, 100)
+    cache.addDocument("/doc.xml", doc, new Date(1000))
+
+    assert(cache.getDocument("/doc.xml") eq doc)
+    assert(cache.getStatistics.getCurrentSize === 32)
+
+    cache.deleteItemOlder("/doc.xml", new Date(2000))
+    assert(cache.getDocument("/doc.xml") === null)
+  }
+
+  @Test def testResourceManagerLastModifiedStatistics(): Unit = {
+
+    val directory = Files.createTempDirectory("expiration-map-test")
+    val files     = (1 to 3) map (i ⇒ Files.createFile(directory.resolve(s"file$i.txt")))
+
+    try {
+      val resourceManager =
+        new FilesystemResourceManagerImpl(
+          Map(
+            FilesystemResourceManagerFactory.SANDBOX_DIRECTORY_PROPERTY → directory.toString,
+            "oxf.resources.common.min-reload-interval"                  → Long.MaxValue.toString,
+            "oxf.resources.common.last-modified-cache-size"             → "2"
+          ).asJava
+        )
+
+      def lastModified(i: Int) = resourceManager.lastModified(s"/file$i.txt", false)
+
+      lastModified(1)
+      lastModified(1)
+      lastModified(2)
+      lastModified(3)
+
+      val statistics = resourceManager.getLastModifiedCacheStatistics
+
+      assert(statistics.getMaxSize         === 2)
+      assert(statistics.getCurrentSize     === 2)
+      assert(statistics.getHitCount        === 1)
+      assert(statistics.getMissCount       === 3)
+      assert(statistics.getAddCount        === 3)
+      assert(statistics.getExpirationCount === 1)
+    } finally {
+      files foreach Files.delete
+      Files.delete(directory)
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.resources
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+
+class ResourceWatcherTest extends AssertionsForJUnit {
+
+  private val threadNumber = new AtomicInteger(0)
+
+  // The "last modified time" of a resource is the length of its file, so that tests don't depend on the resolution of
+  // file times, and reads are counted by key
+  class Watcher(pollInterval: Long, maxKeys: Long) {
+
+    val reads = new ConcurrentHashMap[String, AtomicInteger]
+    val name  = "resource-watcher-test-" + threadNumber.incrementAndGet()
+
+    val watcher =
+      new ResourceWatcher(
+        name,
+        pollInterval,
+        maxKeys,
+        key ⇒ {
+          reads.computeIfAbsent(key, _ ⇒ new AtomicInteger(0)).incrementAndGet()
+          val file = Paths.get(key)
+          if (Files.exists(file)) Files.size(file) else -1L
+        }
+      )
+
+    def lastModified(file: Path): Long = watcher.lastModified(file.toString, file)
+    def readCount(file: Path): Int = Option(reads.get(file.toString)) map (_.get) getOrElse 0
+  }
+
+  private def withWatcher(pollInterval: Long, maxKeys: Long = 100)(body: (Watcher, Path) ⇒ Unit): Unit = {
+    val directory = Files.createTempDirectory("resource-watcher-test")
+    val watcher   = new Watcher(pollInterval, maxKeys)
+    try
+      body(watcher, directory)
+    finally {
+      watcher.watcher.close()
+      Files.walk(directory).iterator.asScala.toList.reverse foreach Files.deleteIfExists
+    }
+  }
+
+  private def write(file: Path, content: String): Unit =
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8))
+
+  private def waitFor(condition: ⇒ Boolean): Unit = {
+    val end = System.currentTimeMillis + 20000
+    while (! condition && System.currentTimeMillis < end)
+      Thread.sleep(10)
+    assert(condition)
+  }
+
+  @Test def testWatchedChanges(): Unit =
+    // Poll rarely, so that changes can only be detected by watching
+    withWatcher(pollInterval = 60 * 1000) { (watcher, directory) ⇒
+
+      val file = directory.resolve("a.xml")
+      write(file, "a")
+
+      assert(watcher.lastModified(file) === 1)
+      assert(watcher.lastModified(file) === 1)
+      assert(watcher.readCount(file) === 1)
+
+      write(file, "abc")
+      waitFor(watcher.lastModified(file) == 3)
+
+      Files.delete(file)
+      waitFor(watcher.lastModified(file) == -1)
+
+      write(file, "abcde")
+      waitFor(watcher.lastModified(file) == 5)
+    }
+
+  @Test def testPolledChanges(): Unit =
+    withWatcher(pollInterval = 100) { (watcher, directory) ⇒
+
+      // The directory doesn't exist yet, so it can't be watched
+      val subdirectory = directory.resolve("sub")
+      val file         = subdirectory.resolve("a.xml")
+
+      assert(watcher.lastModified(file) === -1)
+
+      Files.createDirectory(subdirectory)
+      write(file, "ab")
+      waitFor(watcher.lastModified(file) == 2)
+
+      // Once the directory exists, it is watched
+      write(file, "abcd")
+      waitFor(watcher.lastModified(file) == 4)
+    }
+
+  @Test def testBoundedKeys(): Unit =
+    withWatcher(pollInterval = 60 * 1000, maxKeys = 2) { (watcher, directory) ⇒
+
+      val files = List("a.xml", "b.xml", "c.xml") map directory.resolve
+      files.zipWithIndex foreach { case (file, index) ⇒ write(file, "x" * (index + 1)) }
+
+      // Reading a third resource drops one of the first two from the index
+      files foreach (watcher.lastModified(_))
+      files foreach (watcher.lastModified(_))
+      assert((files map watcher.readCount).sum > 3)
+
+      // Resources read again after they were dropped are still watched
+      files.zipWithIndex foreach { case (file, index) ⇒
+        assert(watcher.lastModified(file) === index + 1)
+      }
+      val lastFile = files.last
+      write(lastFile, "y" * 10)
+      waitFor(watcher.lastModified(lastFile) == 10)
+    }
+
+  @Test def testClose(): Unit =
+    withWatcher(pollInterval = 100) { (watcher, directory) ⇒
+
+      def threadRunning = Thread.getAllStackTraces.keySet.asScala exists (t ⇒ t.getName == watcher.name && t.isAlive)
+
+      assert(threadRunning)
+      watcher.watcher.close()
+      waitFor(! threadRunning)
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.io.ByteArrayOutputStream
+import java.util.zip.GZIPOutputStream
+
+import org.junit.Test
+import org.orbeon.oxf.common.OXFException
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.util.Random
+
+class CompressorTest extends AssertionsForJUnit {
+
+  private val Xml =
+    (1 to 500) map (i ⇒ s"""<control-$i xml:lang="en">Value $i</control-$i>""") mkString ("<form>", "", "</form>")
+
+  private val Inputs = {
+    val random = new Random(42)
+    List(
+      Array.emptyByteArray,
+      "short".getBytes,
+      Array.fill(100000)('a'.toByte),
+      Array.fill(100000)(random.nextInt(4).toByte),
+      Array.fill(100000)(random.nextInt.toByte),
+      Xml.getBytes("UTF-8")
+    )
+  }
+
+  @Test def testRoundTrip(): Unit =
+    for {
+      codec ← Compressor.codecs
+      input ← Inputs
+    } {
+      val compressed = Compressor.compressBytes(input, codec)
+      assert(Compressor.uncompressBytes(compressed).toList === input.toList, codec.name)
+    }
+
+  @Test def testBuiltinCodecs(): Unit = {
+    assert(Compressor.codecs.map(_.name) === List("gzip", "lz", "dictionary"))
+    assert(Compressor.findCodec("lz") === Some(LZCompressionCodec))
+  }
+
+  @Test def testCompresses(): Unit =
+    for (codec ← Compressor.codecs)
+      assert(Compressor.compressBytes(Xml.getBytes("UTF-8"), codec).length < Xml.length / 4, codec.name)
+
+  @Test def testUncompressPlainGzip(): Unit = {
+    val os = new ByteArrayOutputStream
+    val gzip = new GZIPOutputStream(os)
+    gzip.write(Xml.getBytes("UTF-8"))
+    gzip.close()
+
+    assert(new String(Compressor.uncompressBytes(os.toByteArray), "UTF-8") === Xml)
+  }
+
+  @Test def testInvalidData(): Unit = {
+    val compressed = Compressor.compressBytes(Xml.getBytes("UTF-8"), LZCompressionCodec)
+
+    intercept[OXFException](Compressor.uncompressBytes(compressed.take(compressed.length / 2)))
+    intercept[OXFException](Compressor.uncompressBytes(Array(0xc5.toByte, 200.toByte, 0, 0)))
+    intercept[OXFException](Compressor.uncompressBytes("plain".getBytes))
+  }
+
+  @Test def testInvalidDeclaredLength(): Unit = {
+
+    def lz(bytes: Int*) = Compressor.uncompressBytes((List(0xc5, LZCompressionCodec.id) ++ bytes map (_.toByte)).toArray)
+
+    // Declared lengths which are negative, or larger than the compressed data can produce, are rejected before
+    // allocating the result
+    intercept[OXFException](lz(0x80, 0, 0, 0, 0))
+    intercept[OXFException](lz(0x7f, 0xff, 0xff, 0xff, 0))
+    intercept[OXFException](lz(0, 0, 0x03, 0xfd, 0xf0, 255, 255, 255))
+    intercept[OXFException](lz(0, 0))
+  }
+}
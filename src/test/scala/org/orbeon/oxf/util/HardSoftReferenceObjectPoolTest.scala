@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.apache.commons.pool.BasePoolableObjectFactory
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+class HardSoftReferenceObjectPoolTest extends AssertionsForJUnit {
+
+  class CountingFactory extends BasePoolableObjectFactory[Object] {
+    val created = new AtomicInteger
+    def makeObject = { created.incrementAndGet(); new Object }
+  }
+
+  @Test def reuseIdleObjects(): Unit = {
+
+    val factory    = new CountingFactory
+    val statistics = new ObjectPoolStatistics
+    val pool       = new HardSoftReferenceObjectPool(factory, 2, statistics)
+
+    val o1 = pool.borrowObject()
+    val o2 = pool.borrowObject()
+    val o3 = pool.borrowObject()
+
+    assert(factory.created.get === 3)
+    assert(pool.getNumActive === 3)
+
+    // Two objects go to hard references, the third one to a soft reference
+    pool.returnObject(o1)
+    pool.returnObject(o2)
+    pool.returnObject(o3)
+
+    assert(pool.getNumActive === 0)
+    assert(pool.getNumIdle === 3)
+
+    val borrowed = Set(pool.borrowObject(), pool.borrowObject(), pool.borrowObject())
+
+    assert(borrowed === Set(o1, o2, o3))
+    assert(factory.created.get === 3)
+    assert(statistics.getHitCount === 3)
+    assert(statistics.getMissCount === 3)
+  }
+
+  @Test def noHardReferences(): Unit = {
+
+    val factory = new CountingFactory
+    val pool    = new HardSoftReferenceObjectPool(factory, 0, new ObjectPoolStatistics)
+
+    val o1 = pool.borrowObject()
+    pool.returnObject(o1)
+
+    assert(pool.getNumIdle <= 1)
+    pool.clear()
+    assert(pool.getNumIdle === 0)
+
+    pool.borrowObject()
+    assert(factory.created.get === 2)
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.nio.file.Files
+import java.security.MessageDigest
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+class UploadSinkTest extends AssertionsForJUnit {
+
+  private def upload(sink: UploadSink, content: String) = {
+    val bytes    = content.getBytes("UTF-8")
+    val fileItem = sink.createItem("field", "text/plain", "file.txt", 10000)
+    IOUtils.useAndClose(fileItem.getOutputStream)(_.write(bytes))
+    val digest = SecureUtils.byteArrayToHex(MessageDigest.getInstance("SHA-256").digest(bytes))
+    sink.complete(fileItem, Some(digest), bytes.length)
+    (fileItem, digest)
+  }
+
+  @Test def testContentAddressedStore(): Unit = {
+
+    val sink = ContentAddressedUploadSink(Files.createTempDirectory("orbeon-upload-store").toFile)
+
+    val (fileItem1, digest1) = upload(sink, "Les Misérables")
+    val (fileItem2, digest2) = upload(sink, "Les Misérables")
+    val (fileItem3, digest3) = upload(sink, "Notre-Dame de Paris")
+
+    assert(digest1 === digest2)
+    assert(digest1 !== digest3)
+
+    // Uploaded files are always on disk, in the store directory
+    for (fileItem ← List(fileItem1, fileItem2, fileItem3)) {
+      assert(! fileItem.isInMemory)
+      assert(fileItem.getStoreLocation.getParentFile === sink.directory)
+    }
+
+    // Identical uploads share the stored content
+    val stored1 = sink.find(digest1).get
+    assert(Files.isSameFile(stored1.toPath, fileItem1.getStoreLocation.toPath))
+    assert(Files.isSameFile(stored1.toPath, fileItem2.getStoreLocation.toPath))
+    assert(new String(fileItem2.get, "UTF-8") === "Les Misérables")
+
+    // Stored content outlives the uploaded files
+    fileItem1.delete()
+    fileItem2.delete()
+    assert(new String(Files.readAllBytes(stored1.toPath), "UTF-8") === "Les Misérables")
+    assert(new String(Files.readAllBytes(sink.find(digest3).get.toPath), "UTF-8") === "Notre-Dame de Paris")
+
+    assert(sink.find("00" * 32).isEmpty)
+  }
+
+  @Test def testSweep(): Unit = {
+
+    val sink = ContentAddressedUploadSink(Files.createTempDirectory("orbeon-upload-store").toFile)
+
+    val (fileItem1, digest1) = upload(sink, "Les Misérables")
+    val (fileItem2, digest2) = upload(sink, "Les Misérables")
+    val (fileItem3, digest3) = upload(sink, "Notre-Dame de Paris")
+
+    // Entries still linked from an uploaded file are kept
+    assert(sink.sweep() === 0)
+    fileItem1.delete()
+    assert(sink.sweep() === 0)
+    assert(sink.find(digest1).isDefined)
+
+    // Entries no longer linked are removed, but not uploaded files
+    fileItem2.delete()
+    assert(sink.sweep() === 1)
+    assert(sink.find(digest2).isEmpty)
+    assert(sink.find(digest3).isDefined)
+    assert(fileItem3.getStoreLocation.exists)
+  }
+}
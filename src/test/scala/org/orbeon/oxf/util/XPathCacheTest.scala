@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import java.{util ⇒ ju}
+
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.xml.NamespaceMapping
+import org.orbeon.saxon.om.{Item, ValueRepresentation}
+import org.orbeon.saxon.value.StringValue
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+
+class XPathCacheTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  private val Expression = "concat($a, 'x')"
+  private val Mapping    = NamespaceMapping(Map("foo" → "http://example.org/foo"))
+
+  private def variables(names: String*): ju.Map[String, ValueRepresentation] = {
+    val map = new ju.HashMap[String, ValueRepresentation]
+    names foreach (name ⇒ map.put(name, StringValue.makeStringValue(name)))
+    map
+  }
+
+  private def pool(
+    xpathString        : String,
+    namespaceMapping   : NamespaceMapping,
+    variableToValueMap : ju.Map[String, ValueRepresentation],
+    isAVT              : Boolean,
+    handle             : XPathExpressionHandle = null
+  ) =
+    XPathCache.findOrCreateXPathPool(
+      XPath.GlobalConfiguration,
+      xpathString,
+      namespaceMapping,
+      variableToValueMap,
+      null,
+      null,
+      isAVT,
+      null,
+      handle
+    )
+
+  @Test def handleAndStringKeyShareEntry(): Unit = {
+
+    val stringPool = pool(Expression, Mapping, variables("a"), isAVT = false)
+    val handle     = XPathExpressionHandle(Expression, Mapping, isAVT = false)
+
+    // The key built from the handle's static part is the same as the key built from the string
+    assert(pool(Expression, Mapping, variables("a"), isAVT = false, handle) eq stringPool)
+
+    // The handle then resolves to that same entry without going through the cache
+    assert(handle.findPool(null, variables("a")) eq stringPool)
+
+    // Evaluating through the handle uses the shared entry
+    val result =
+      XPathCache.evaluateKeepItems(
+        contextItems       = ju.Collections.singletonList[Item](StringValue.makeStringValue("context")),
+        contextPosition    = 1,
+        handle             = handle,
+        variableToValueMap = variables("a"),
+        functionLibrary    = null,
+        functionContext    = null,
+        baseURI            = null,
+        locationData       = null,
+        reporter           = null
+      )
+
+    assert(List("ax") === (result.asScala map (_.getStringValue)))
+    assert(pool(Expression, Mapping, variables("a"), isAVT = false) eq stringPool)
+  }
+
+  @Test def differentVariablesDontShareEntry(): Unit = {
+
+    val handle     = XPathExpressionHandle(Expression, Mapping, isAVT = false)
+    val handlePool = pool(Expression, Mapping, variables("a"), isAVT = false, handle)
+
+    assert(pool(Expression, Mapping, variables("a", "b"), isAVT = false) ne handlePool)
+    assert(handle.findPool(null, variables("a", "b")) eq null)
+    assert(handle.findPool(null, variables("b")) eq null)
+    assert(handle.findPool(null, null) eq null)
+  }
+
+  @Test def differentNamespaceMappingsDontShareEntry(): Unit = {
+
+    val otherMapping = NamespaceMapping(Map("foo" → "http://example.org/bar"))
+
+    val handle      = XPathExpressionHandle(Expression, Mapping, isAVT = false)
+    val otherHandle = XPathExpressionHandle(Expression, otherMapping, isAVT = false)
+
+    assert(handle.staticKey != otherHandle.staticKey)
+
+    val handlePool = pool(Expression, Mapping, variables("a"), isAVT = false, handle)
+
+    assert(pool(Expression, otherMapping, variables("a"), isAVT = false, otherHandle) ne handlePool)
+    assert(pool(Expression, otherMapping, variables("a"), isAVT = false) ne handlePool)
+    assert(pool(Expression, null, variables("a"), isAVT = false) ne handlePool)
+  }
+
+  @Test def xpathAndAVTDontShareEntry(): Unit = {
+
+    val xpathHandle = XPathExpressionHandle("a", Mapping, isAVT = false)
+    val avtHandle   = XPathExpressionHandle("a", Mapping, isAVT = true)
+
+    val xpathPool = pool("a", Mapping, null, isAVT = false, xpathHandle)
+    val avtPool   = pool("a", Mapping, null, isAVT = true,  avtHandle)
+
+    assert(avtPool ne xpathPool)
+    assert(pool("a", Mapping, null, isAVT = true) eq avtPool)
+    assert(pool("a", Mapping, null, isAVT = false) eq xpathPool)
+  }
+}
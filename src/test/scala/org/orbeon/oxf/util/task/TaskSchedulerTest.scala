@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util.task
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+class TaskSchedulerTest extends AssertionsForJUnit {
+
+  // Task whose first execution blocks until released
+  class BlockingTask(policy: Task.OverlapPolicy) extends Task {
+
+    val started     = new CountDownLatch(1)
+    val release     = new CountDownLatch(1)
+    val concurrent  = new AtomicInteger(0)
+    val maxParallel = new AtomicInteger(0)
+
+    setSchedule(System.currentTimeMillis, 10)
+    setOverlapPolicy(policy)
+
+    def run(): Unit = {
+      maxParallel.accumulateAndGet(concurrent.incrementAndGet(), (a, b) ⇒ a max b)
+      started.countDown()
+      release.await(10, TimeUnit.SECONDS)
+      concurrent.decrementAndGet()
+    }
+
+    def getStatus = ""
+  }
+
+  private def withScheduler(body: TaskScheduler ⇒ Unit): Unit = {
+    val scheduler = new TaskScheduler(2)
+    try
+      body(scheduler)
+    finally
+      scheduler.cancelAll(false)
+  }
+
+  private def waitFor(condition: ⇒ Boolean): Unit = {
+    val end = System.currentTimeMillis + 10000
+    while (! condition && System.currentTimeMillis < end)
+      Thread.sleep(5)
+    assert(condition)
+  }
+
+  @Test def testSkip(): Unit =
+    withScheduler { scheduler ⇒
+      val task = new BlockingTask(Task.OverlapPolicy.SKIP)
+      scheduler.schedule(task)
+
+      assert(task.started.await(10, TimeUnit.SECONDS))
+      waitFor(task.getMetrics.getSkipCount >= 3)
+      assert(task.getMetrics.getRunCount === 0)
+
+      task.release.countDown()
+      waitFor(task.getMetrics.getRunCount >= 3)
+      task.cancel()
+
+      assert(task.maxParallel.get === 1)
+      assert(scheduler.getRunningTasks.isEmpty)
+    }
+
+  @Test def testCoalesce(): Unit =
+    withScheduler { scheduler ⇒
+      val task = new BlockingTask(Task.OverlapPolicy.COALESCE)
+      scheduler.schedule(task)
+
+      assert(task.started.await(10, TimeUnit.SECONDS))
+      // One execution is waiting, and the others are skipped
+      waitFor(task.getMetrics.getSkipCount >= 3)
+
+      task.release.countDown()
+      waitFor(task.getMetrics.getRunCount >= 2)
+      task.cancel()
+
+      assert(task.maxParallel.get === 1)
+      // The execution which waited for the first one started late
+      assert(task.getMetrics.getMaxLateness >= 10)
+    }
+
+  @Test def testQueue(): Unit =
+    withScheduler { scheduler ⇒
+      val task = new BlockingTask(Task.OverlapPolicy.QUEUE)
+      scheduler.schedule(task)
+
+      assert(task.started.await(10, TimeUnit.SECONDS))
+      Thread.sleep(100)
+      task.cancel()
+      task.release.countDown()
+
+      // No execution was skipped, and queued executions don't run once the task is cancelled
+      assert(task.getMetrics.getSkipCount === 0)
+      waitFor(task.getMetrics.getRunCount === 1)
+      assert(task.maxParallel.get === 1)
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.webapp
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{CountDownLatch, Executors, TimeUnit}
+
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+class WarmUpTest extends AssertionsForJUnit {
+
+  @Test def testResults(): Unit = {
+    val executor = Executors.newFixedThreadPool(2)
+    try {
+      val results =
+        WarmUp.warmUp(executor, List("/fr/a/b/new", "/fr/c/d/new", "/fr/e/f/new"), 1000, {
+          case "/fr/c/d/new" ⇒ 404
+          case "/fr/e/f/new" ⇒ throw new IllegalStateException
+          case _             ⇒ 200
+        })
+
+      assert(results.map(_.path)      === List("/fr/a/b/new", "/fr/c/d/new", "/fr/e/f/new"))
+      assert(results.map(_.statusOpt) === List(Some(200), Some(404), None))
+      assert(results.map(_.succeeded) === List(true, false, false))
+    } finally
+      executor.shutdown()
+  }
+
+  @Test def testBoundedParallelism(): Unit = {
+    val executor = Executors.newFixedThreadPool(2)
+    try {
+      val running    = new AtomicInteger
+      val maxRunning = new AtomicInteger
+      val bothRan    = new CountDownLatch(2)
+
+      WarmUp.warmUp(executor, (1 to 6).toList map ("/path-" + _), 1000, _ ⇒ {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math.max(_, _))
+        bothRan.countDown()
+        bothRan.await(1, TimeUnit.SECONDS)
+        running.decrementAndGet()
+        200
+      })
+
+      assert(maxRunning.get === 2)
+    } finally
+      executor.shutdown()
+  }
+
+  @Test def testTimeout(): Unit = {
+    val executor = Executors.newFixedThreadPool(2)
+    try {
+      val release = new CountDownLatch(1)
+      val start   = System.currentTimeMillis
+
+      val results =
+        WarmUp.warmUp(executor, List("/fast", "/hung"), 200, {
+          case "/hung" ⇒ release.await(10, TimeUnit.SECONDS); 200
+          case _       ⇒ 200
+        })
+
+      // The warm-up completes once the timeout has elapsed, even though a path is still being requested
+      assert(System.currentTimeMillis - start < 5000)
+      assert(results.map(_.statusOpt) === List(Some(200), None))
+      release.countDown()
+    } finally
+      executor.shutdownNow()
+  }
+}
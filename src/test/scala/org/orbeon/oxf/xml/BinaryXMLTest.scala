@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import org.junit.Test
+import org.orbeon.dom.Document
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.test.XMLSupport
+import org.orbeon.oxf.util.XPath
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+
+class BinaryXMLTest extends XMLSupport {
+
+  val doc: Document =
+    <form xmlns:fr="http://orbeon.org/oxf/xml/form-runner" xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance">
+      <section-1>
+        <grid-1>
+          <first-name>Wile E.</first-name>
+          <last-name xsi:nil="false">Coyote</last-name>
+          <fr:comment>Ωμέγα – “quotes” &amp; &lt;markup&gt;</fr:comment>
+          <empty/>
+        </grid-1>
+      </section-1>
+      <section-2>
+        <grid-2 id="g2" fr:attribute="value">
+          <first-name>Road</first-name>
+          <last-name>Runner</last-name>
+        </grid-2>
+      </section-2>
+    </form>
+
+  @Test def roundTripDom4j(): Unit = {
+    val bytes = BinaryXML.encode(TransformerUtils.writeDom4j(doc, _))
+
+    assert(BinaryXML.isBinaryXML(bytes))
+    assertXMLDocumentsIgnoreNamespacesInScope(doc, BinaryXML.decodeToDom4j(bytes))
+  }
+
+  @Test def roundTripTinyTree(): Unit = {
+    val tinyTree = TransformerUtils.dom4jToTinyTree(XPath.GlobalConfiguration, doc, false)
+    val bytes    = BinaryXML.encode(TransformerUtils.writeTinyTree(tinyTree, _))
+
+    assertXMLDocumentsIgnoreNamespacesInScope(tinyTree, BinaryXML.decodeToTinyTree(XPath.GlobalConfiguration, bytes))
+  }
+
+  @Test def namesArePooled(): Unit = {
+    val bytes = BinaryXML.encode(TransformerUtils.writeDom4j(doc, _))
+    val text  = TransformerUtils.dom4jToString(doc, false)
+
+    // Repeated names are only written once
+    assert(new String(bytes, "UTF-8").split("first-name", -1).length === 2)
+    assert(bytes.length < text.getBytes("UTF-8").length)
+  }
+
+  @Test def header(): Unit = {
+    val bytes = BinaryXML.encode(TransformerUtils.writeDom4j(doc, _))
+    val text  = TransformerUtils.dom4jToString(doc, false).getBytes("UTF-8")
+
+    // Only the first byte used to be checked, so check that the whole header is
+    assert(! BinaryXML.isBinaryXML(text))
+    assert(! BinaryXML.isBinaryXML(Array[Byte](BinaryXML.FormatVersion.toByte)))
+    assert(! BinaryXML.isBinaryXML(bytes.take(4)))
+    assert(! BinaryXML.isBinaryXML(bytes.updated(4, (BinaryXML.FormatVersion + 1).toByte)))
+
+    intercept[OXFException](BinaryXML.decodeToDom4j(text))
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xml
+
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.xml.XMLParsing.ParserConfiguration
+import org.scalatest.FunSpec
+import org.xml.sax.Attributes
+
+import scala.collection.{mutable ⇒ m}
+
+class XMLParsingTest extends FunSpec {
+
+  class ElementsReceiver(onElement: String ⇒ Unit = _ ⇒ ()) extends XMLReceiverAdapter {
+    val elements = m.ListBuffer[String]()
+    override def startElement(uri: String, localname: String, qName: String, attributes: Attributes): Unit = {
+      elements += localname
+      onElement(localname)
+    }
+  }
+
+  def parse(xml: String, receiver: ElementsReceiver = new ElementsReceiver): List[String] = {
+    XMLParsing.stringToSAX(xml, null, receiver, ParserConfiguration.PLAIN, false)
+    receiver.elements.toList
+  }
+
+  def counts = (XMLParsing.getXMLReadersCreated, XMLParsing.getXMLReadersReused)
+
+  describe("Pooling of XML readers") {
+
+    it("must reuse readers") {
+      parse("<a/>")
+      val (createdBefore, reusedBefore) = counts
+      assert(parse("<a><b/></a>") === List("a", "b"))
+      assert(parse("<c/>")        === List("c"))
+      val (createdAfter, reusedAfter) = counts
+      assert(createdAfter === createdBefore)
+      assert(reusedAfter  === reusedBefore + 2)
+    }
+
+    it("must reuse readers released by other threads") {
+      val thread = new Thread {
+        override def run(): Unit = parse("<a/>")
+      }
+      thread.start()
+      thread.join()
+      val (createdBefore, _) = counts
+      assert(parse("<b/>") === List("b"))
+      assert(counts._1 === createdBefore)
+    }
+
+    it("must support parsing from within a receiver") {
+      val nested = m.ListBuffer[String]()
+      val receiver = new ElementsReceiver(name ⇒ if (name == "a") nested ++= parse("<nested/>"))
+      assert(parse("<a><b/></a>", receiver) === List("a", "b"))
+      assert(nested.toList === List("nested"))
+    }
+
+    it("must not reuse readers after a failure") {
+      parse("<a/>")
+      val pooledBefore = XMLParsing.getPooledXMLReaderCount(ParserConfiguration.PLAIN)
+      intercept[OXFException](parse("<a>"))
+      assert(XMLParsing.getPooledXMLReaderCount(ParserConfiguration.PLAIN) === pooledBefore - 1)
+    }
+
+    it("must keep a bounded number of readers") {
+      // Parse from within receivers so that many readers are in use at the same time
+      def parseNested(depth: Int): Unit =
+        parse("<a/>", new ElementsReceiver(_ ⇒ if (depth > 0) parseNested(depth - 1)))
+      parseNested(Runtime.getRuntime.availableProcessors * 4)
+      assert(XMLParsing.getPooledXMLReaderCount(ParserConfiguration.PLAIN) === Runtime.getRuntime.availableProcessors * 2)
+    }
+
+    it("must not keep the receiver of the last parse") {
+      val receiver = new ElementsReceiver
+      parse("<a/>", receiver)
+      assert(parse("<b/>") === List("b"))
+      assert(receiver.elements.toList === List("a"))
+    }
+  }
+}
@@ -98,6 +98,7 @@ public class XFormsContainingDocument extends XFormsContainingDocumentSupport {
     private Set<String> controlsStructuralChanges;
 
     private final XPathDependencies xpathDependencies;
+    private final DynamicStateJournal stateJournal;
 
     /**
      * Return the global function library.
@@ -140,6 +141,7 @@ public class XFormsContainingDocument extends XFormsContainingDocumentSupport {
 
             this.xpathDependencies =
                 (Version.isPE() && this.staticState.isXPathAnalysis()) ? new PathMapXPathDependencies(this) : new DumbXPathDependencies();
+            this.stateJournal = createStateJournal(this.staticState);
 
             // Remember parameters used during initialization
             this.uriResolver = uriResolver;
@@ -230,6 +232,7 @@ public class XFormsContainingDocument extends XFormsContainingDocumentSupport {
             this.staticOps = new StaticStateGlobalOps(staticState.topLevelPart());
             this.xpathDependencies =
                 (Version.isPE() && this.staticState.isXPathAnalysis()) ? new PathMapXPathDependencies(this) : new DumbXPathDependencies();
+            this.stateJournal = createStateJournal(this.staticState);
 
             this.functionLibrary = staticState.functionLibrary();
         }
@@ -344,6 +347,20 @@ public class XFormsContainingDocument extends XFormsContainingDocumentSupport {
         return xpathDependencies;
     }
 
+    /**
+     * Return the journal of instance changes since the last snapshot of the dynamic state was stored.
+     */
+    public final DynamicStateJournal getStateJournal() {
+        return stateJournal;
+    }
+
+    private static DynamicStateJournal createStateJournal(XFormsStaticState staticState) {
+        return new DynamicStateJournal(
+            staticState.isServerStateHandling() && XFormsProperties.isDeltaState(),
+            XFormsProperties.getDeltaStateMaxChanges()
+        );
+    }
+
     /**
      * Whether the document is dirty since the last request.
      *
@@ -614,6 +631,9 @@ public class XFormsContainingDocument extends XFormsContainingDocumentSupport {
 
     public void afterInitialResponse() {
 
+        // Tell dependencies first, as they report statistics
+        xpathDependencies.afterInitialResponse();
+
         getRequestStats().afterInitialResponse();
 
         this.uriResolver = null;        // URI resolver is of no use after initialization and it may keep dangerous references (PipelineContext)
@@ -625,9 +645,6 @@ public class XFormsContainingDocument extends XFormsContainingDocumentSupport {
             setInitialClientScript();
 
         clearClientState(); // client state can contain e.g. focus information, etc. set during initialization
-
-        // Tell dependencies
-        xpathDependencies.afterInitialResponse();
     }
 
     /**
@@ -664,6 +681,9 @@ public class XFormsContainingDocument extends XFormsContainingDocumentSupport {
      */
     public void afterUpdateResponse() {
 
+        // Tell dependencies first, as they report statistics
+        xpathDependencies.afterUpdateResponse();
+
         getRequestStats().afterUpdateResponse();
 
         if (! getStaticState().isInlineResources())
@@ -671,12 +691,10 @@ public class XFormsContainingDocument extends XFormsContainingDocumentSupport {
 
         clearClientState();
         xformsControls.afterUpdateResponse();
-        // Tell dependencies
-        xpathDependencies.afterUpdateResponse();
     }
 
     public void rememberLastAjaxResponse(SAXStore response) {
-        lastAjaxResponse = response;
+        lastAjaxResponse = response.freeze();
     }
 
     public long getSequence() {
@@ -20,6 +20,7 @@ import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.util.IndentedLogger;
 import org.orbeon.oxf.util.XPath;
 import org.orbeon.oxf.util.XPathCache;
+import org.orbeon.oxf.util.XPathExpressionHandle;
 import org.orbeon.oxf.xforms.analysis.ElementAnalysis;
 import org.orbeon.oxf.xforms.analysis.VariableAnalysisTrait;
 import org.orbeon.oxf.xforms.function.XFormsFunction;
@@ -243,6 +244,15 @@ public class XFormsContextStack {
 
     // NOTE: actions pass handleNonFatal = "false", other callers pass handleNonFatal = "true".
     public void pushBinding(Element bindingElement, String sourceEffectiveId, Scope scope, boolean handleNonFatal) {
+        pushBinding(bindingElement, sourceEffectiveId, scope, handleNonFatal, null);
+    }
+
+    // Push a binding for an element whose binding expression is known statically
+    public void pushBinding(Element bindingElement, String sourceEffectiveId, Scope scope, XPathExpressionHandle refHandle) {
+        pushBinding(bindingElement, sourceEffectiveId, scope, true, refHandle);
+    }
+
+    private void pushBinding(Element bindingElement, String sourceEffectiveId, Scope scope, boolean handleNonFatal, XPathExpressionHandle refHandle) {
         // TODO: move away from element and use static analysis information
         pushBinding(
             bindingElement.attributeValue(XFormsConstants.REF_QNAME),
@@ -254,7 +264,8 @@ public class XFormsContextStack {
             container.getNamespaceMappings(bindingElement),
             sourceEffectiveId,
             scope,
-            handleNonFatal
+            handleNonFatal,
+            refHandle
         );
     }
 
@@ -280,6 +291,22 @@ public class XFormsContextStack {
         String sourceEffectiveId,
         Scope scope,
         boolean handleNonFatal) {
+        pushBinding(ref, context, nodeset, modelId, bindId, bindingElement, bindingElementNamespaceMapping, sourceEffectiveId, scope, handleNonFatal, null);
+    }
+
+    // If `refHandle` is not null, it is used to evaluate the `ref` or `nodeset` expression
+    private void pushBinding(
+        String ref,
+        String context,
+        String nodeset,
+        String modelId,
+        String bindId,
+        Element bindingElement,
+        NamespaceMapping bindingElementNamespaceMapping,
+        String sourceEffectiveId,
+        Scope scope,
+        boolean handleNonFatal,
+        XPathExpressionHandle refHandle) {
 
         assert scope != null;
 
@@ -484,18 +511,31 @@ public class XFormsContextStack {
 
                             List<Item> result;
                                 try {
-                                    result = XPathCache.evaluateKeepItems(
-                                        evaluationContextBinding.nodeset(),
-                                        evaluationContextBinding.position(),
-                                        ref != null ? ref : nodeset,
-                                        bindingElementNamespaceMapping,
-                                        evaluationContextBinding.getInScopeVariables(),
-                                        containingDocument.getFunctionLibrary(),
-                                        functionContext,
-                                        null,
-                                        locationData,
-                                        containingDocument.getRequestStats().getReporter()
-                                    );
+                                    if (refHandle != null)
+                                        result = XPathCache.evaluateKeepItems(
+                                            evaluationContextBinding.nodeset(),
+                                            evaluationContextBinding.position(),
+                                            refHandle,
+                                            evaluationContextBinding.getInScopeVariables(),
+                                            containingDocument.getFunctionLibrary(),
+                                            functionContext,
+                                            null,
+                                            locationData,
+                                            containingDocument.getRequestStats().getReporter()
+                                        );
+                                    else
+                                        result = XPathCache.evaluateKeepItems(
+                                            evaluationContextBinding.nodeset(),
+                                            evaluationContextBinding.position(),
+                                            ref != null ? ref : nodeset,
+                                            bindingElementNamespaceMapping,
+                                            evaluationContextBinding.getInScopeVariables(),
+                                            containingDocument.getFunctionLibrary(),
+                                            functionContext,
+                                            null,
+                                            locationData,
+                                            containingDocument.getRequestStats().getReporter()
+                                        );
                                 } catch (Exception e) {
                                     if (handleNonFatal) {
                                         XFormsError.handleNonFatalXPathError(container, e);
@@ -128,6 +128,8 @@ public class XFormsProperties {
     public static final String ENCRYPT_ITEM_VALUES_PROPERTY = "encrypt-item-values";
     public static final String XPATH_ANALYSIS_PROPERTY = "xpath-analysis";
     public static final String CALCULATE_ANALYSIS_PROPERTY = "analysis.calculate";
+    public static final String CALCULATE_PARALLEL_PROPERTY = "calculate.parallel";
+    public static final String CALCULATE_PARALLEL_MIN_NODES_PROPERTY = "calculate.parallel.min-nodes";
 
     public static final String SANITIZE_PROPERTY = "sanitize";
 
@@ -266,6 +268,8 @@ public class XFormsProperties {
             new PropertyDefinition(UPDATE_REPEATS_PROPERTY                       , false,                          false),
             new PropertyDefinition(XPATH_ANALYSIS_PROPERTY                       , false,                          false),
             new PropertyDefinition(CALCULATE_ANALYSIS_PROPERTY                   , false,                          false),
+            new PropertyDefinition(CALCULATE_PARALLEL_PROPERTY                   , false,                          false),
+            new PropertyDefinition(CALCULATE_PARALLEL_MIN_NODES_PROPERTY         , 64,                             false),
             new PropertyDefinition(SANITIZE_PROPERTY                             , "",                             false),
             new PropertyDefinition(ASSETS_BASELINE_EXCLUDES_PROPERTY             , "",                             false),
             new PropertyDefinition(INLINE_RESOURCES_PROPERTY                     , false,                          false),
@@ -302,6 +306,15 @@ public class XFormsProperties {
     public static final String GZIP_STATE_PROPERTY = XFORMS_PROPERTY_PREFIX + "gzip-state"; // global but could possibly be per document
     public static final boolean GZIP_STATE_DEFAULT = true;
 
+    public static final String BINARY_STATE_PROPERTY = XFORMS_PROPERTY_PREFIX + "binary-state";
+    public static final boolean BINARY_STATE_DEFAULT = true;
+
+    public static final String DELTA_STATE_PROPERTY = XFORMS_PROPERTY_PREFIX + "delta-state";
+    public static final boolean DELTA_STATE_DEFAULT = false;
+
+    public static final String DELTA_STATE_MAX_CHANGES_PROPERTY = XFORMS_PROPERTY_PREFIX + "delta-state.max-changes";
+    public static final int DELTA_STATE_MAX_CHANGES_DEFAULT = 100;
+
     public static final String HOST_LANGUAGE_AVTS_PROPERTY = XFORMS_PROPERTY_PREFIX + "host-language-avts"; // global but should be per document
     public static final boolean HOST_LANGUAGE_AVTS_DEFAULT = false;
 
@@ -314,6 +327,15 @@ public class XFormsProperties {
     public static final String CACHE_COMBINED_RESOURCES_PROPERTY = XFORMS_PROPERTY_PREFIX + "cache-combined-resources";
     public static final boolean CACHE_COMBINED_RESOURCES_DEFAULT = false;
 
+    public static final String PRECOMPRESS_COMBINED_RESOURCES_PROPERTY = XFORMS_PROPERTY_PREFIX + "precompress-combined-resources";
+    public static final boolean PRECOMPRESS_COMBINED_RESOURCES_DEFAULT = false;
+
+    public static final String PRECOMPRESS_COMBINED_RESOURCES_DIRECTORY_PROPERTY = PRECOMPRESS_COMBINED_RESOURCES_PROPERTY + ".directory";
+    public static final String PRECOMPRESS_COMBINED_RESOURCES_DIRECTORY_DEFAULT = "";
+
+    public static final String PRECOMPRESS_COMBINED_RESOURCES_MAX_NAMESPACES_PROPERTY = PRECOMPRESS_COMBINED_RESOURCES_PROPERTY + ".max-namespaces";
+    public static final int PRECOMPRESS_COMBINED_RESOURCES_MAX_NAMESPACES_DEFAULT = 16;
+
     public static final String JAVASCRIPT_AT_BOTTOM_PROPERTY = XFORMS_PROPERTY_PREFIX + "resources.javascript-at-bottom";
     public static final boolean JAVASCRIPT_AT_BOTTOM_PROPERTY_DEFAULT = true;
 
@@ -326,8 +348,13 @@ public class XFormsProperties {
     public static final String DEBUG_LOG_XPATH_ANALYSIS_PROPERTY = XFORMS_PROPERTY_PREFIX + "debug.log-xpath-analysis";
     public static final String DEBUG_REQUEST_STATS_PROPERTY      = XFORMS_PROPERTY_PREFIX + "debug.log-request-stats";
 
+    public static final String METRICS_PROPERTY          = XFORMS_PROPERTY_PREFIX + "metrics";
+    public static final String METRICS_REGISTRY_PROPERTY = XFORMS_PROPERTY_PREFIX + "metrics.registry";
+
     public static final String LOCATION_MODE_PROPERTY = XFORMS_PROPERTY_PREFIX + "location-mode";
 
+    public static final String CALCULATE_PARALLEL_THREADS_PROPERTY = XFORMS_PROPERTY_PREFIX + "calculate.parallel.threads";
+
     public static final String UPLOAD_DELAY_BEFORE_XFORMS_TIMEOUT_PROPERTY  = "upload.delay-before-xforms-timeout";
 
     public static final String CACHE_DOCUMENT_PROPERTY = "cache.document";
@@ -367,6 +394,21 @@ public class XFormsProperties {
                 (GZIP_STATE_PROPERTY, GZIP_STATE_DEFAULT);
     }
 
+    public static boolean isBinaryState() {
+        return Properties.instance().getPropertySet().getBoolean
+                (BINARY_STATE_PROPERTY, BINARY_STATE_DEFAULT);
+    }
+
+    public static boolean isDeltaState() {
+        return Properties.instance().getPropertySet().getBoolean
+                (DELTA_STATE_PROPERTY, DELTA_STATE_DEFAULT);
+    }
+
+    public static int getDeltaStateMaxChanges() {
+        return Properties.instance().getPropertySet().getInteger
+                (DELTA_STATE_MAX_CHANGES_PROPERTY, DELTA_STATE_MAX_CHANGES_DEFAULT);
+    }
+
     public static boolean isHostLanguageAVTs() {
         return Properties.instance().getPropertySet().getBoolean
                 (HOST_LANGUAGE_AVTS_PROPERTY, HOST_LANGUAGE_AVTS_DEFAULT);
@@ -387,6 +429,21 @@ public class XFormsProperties {
                 (CACHE_COMBINED_RESOURCES_PROPERTY, CACHE_COMBINED_RESOURCES_DEFAULT);
     }
 
+    public static boolean isPrecompressCombinedResources() {
+        return Properties.instance().getPropertySet().getBoolean
+                (PRECOMPRESS_COMBINED_RESOURCES_PROPERTY, PRECOMPRESS_COMBINED_RESOURCES_DEFAULT);
+    }
+
+    public static String getPrecompressCombinedResourcesDirectory() {
+        return Properties.instance().getPropertySet().getString
+                (PRECOMPRESS_COMBINED_RESOURCES_DIRECTORY_PROPERTY, PRECOMPRESS_COMBINED_RESOURCES_DIRECTORY_DEFAULT);
+    }
+
+    public static int getPrecompressCombinedResourcesMaxNamespaces() {
+        return Properties.instance().getPropertySet().getInteger
+                (PRECOMPRESS_COMBINED_RESOURCES_MAX_NAMESPACES_PROPERTY, PRECOMPRESS_COMBINED_RESOURCES_MAX_NAMESPACES_DEFAULT);
+    }
+
     public static boolean isJavaScriptAtBottom() {
         return Properties.instance().getPropertySet().getBoolean
                 (JAVASCRIPT_AT_BOTTOM_PROPERTY, JAVASCRIPT_AT_BOTTOM_PROPERTY_DEFAULT);
@@ -405,6 +462,18 @@ public class XFormsProperties {
         return Properties.instance().getPropertySet().getBoolean(DEBUG_REQUEST_STATS_PROPERTY, false);
     }
 
+    public static boolean isMetrics() {
+        return Properties.instance().getPropertySet().getBoolean(METRICS_PROPERTY, false);
+    }
+
+    public static String getMetricsRegistry() {
+        return Properties.instance().getPropertySet().getString(METRICS_REGISTRY_PROPERTY, "");
+    }
+
+    public static int getCalculateParallelThreads() {
+        return Properties.instance().getPropertySet().getInteger(CALCULATE_PARALLEL_THREADS_PROPERTY, 0);
+    }
+
     public static long getAjaxTimeout() {
         return (long) Properties.instance().getPropertySet().getInteger(XFORMS_PROPERTY_PREFIX + DELAY_BEFORE_AJAX_TIMEOUT_PROPERTY, 30000);
     }
@@ -29,6 +29,7 @@ import org.orbeon.oxf.xforms.analysis.model.Submission;
 import org.orbeon.oxf.xforms.control.Controls;
 import org.orbeon.oxf.xforms.event.*;
 import org.orbeon.oxf.xforms.event.events.*;
+import org.orbeon.oxf.xforms.state.DynamicStateJournal;
 import org.orbeon.oxf.xforms.state.InstanceState;
 import org.orbeon.oxf.xforms.submission.BaseSubmission;
 import org.orbeon.oxf.xforms.submission.SubmissionUtils;
@@ -711,8 +712,19 @@ public class XFormsModel extends XFormsModelBase implements XFormsEventTarget {
         deferredActionContext().markValueChange(isCalculate);
 
         // Notify dependencies of the change
-        if (nodeInfo != null)
+        if (nodeInfo != null) {
             containingDocument().getXPathDependencies().markValueChanged(this, nodeInfo);
+
+            if (_modelBindsOpt.isDefined())
+                _modelBindsOpt.get().validationDependencies().markValueChanged(nodeInfo);
+
+            final DynamicStateJournal stateJournal = containingDocument().getStateJournal();
+            if (stateJournal.enabled()) {
+                final XFormsInstance instance = getInstanceForNode(nodeInfo);
+                if (instance != null)
+                    stateJournal.markValueChanged(instance, nodeInfo);
+            }
+        }
     }
 
 //    public void markMipChange(NodeInfo nodeInfo) {
@@ -372,6 +372,9 @@ abstract public class XFormsToSomething extends ProcessorImpl {
                     WhitespaceMatching.htmlPolicyMatcher()
                 ));
 
+            // The template is cached and replayed concurrently
+            this.template.saxStore().freeze();
+
             this.staticStateDocument = documentResult.getDocument();
             this.staticStateDigest = computeDigest ? NumberUtils.toHexString(digestReceiver.getResult()) : null;
 
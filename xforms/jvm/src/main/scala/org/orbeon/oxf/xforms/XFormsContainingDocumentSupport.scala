@@ -382,6 +382,7 @@ trait ContainingDocumentProperties {
   def isSessionHeartbeat                    = staticBooleanProperty(SESSION_HEARTBEAT_PROPERTY)
   def isUpdateRepeats                       = staticBooleanProperty(UPDATE_REPEATS_PROPERTY)
   def isXForms11Switch                      = staticBooleanProperty(XFORMS11_SWITCH_PROPERTY)
+  def isCalculateParallel                   = staticBooleanProperty(CALCULATE_PARALLEL_PROPERTY)
   def isClientStateHandling                 = staticBooleanProperty[String](STATE_HANDLING_PROPERTY, _ == STATE_HANDLING_CLIENT_VALUE)
   def isReadonlyAppearanceStaticSelectFull  = staticBooleanProperty[String](READONLY_APPEARANCE_STATIC_SELECT_PROPERTY, _ == "full")
   def isReadonlyAppearanceStaticSelect1Full = staticBooleanProperty[String](READONLY_APPEARANCE_STATIC_SELECT1_PROPERTY, _ ==  "full")
@@ -398,6 +399,7 @@ trait ContainingDocumentProperties {
   def getShowMaxRecoverableErrors           = staticIntProperty(SHOW_RECOVERABLE_ERRORS_PROPERTY)
   def getSubmissionPollDelay                = staticIntProperty(ASYNC_SUBMISSION_POLL_DELAY)
   def getAjaxFullUpdateThreshold            = staticIntProperty(AJAX_UPDATE_FULL_THRESHOLD)
+  def getCalculateParallelMinNodes          = staticIntProperty(CALCULATE_PARALLEL_MIN_NODES_PROPERTY)
 
   def isLocalSubmissionForward =
     staticBooleanProperty(LOCAL_SUBMISSION_FORWARD_PROPERTY) &&
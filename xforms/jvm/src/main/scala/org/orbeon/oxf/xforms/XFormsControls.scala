@@ -17,6 +17,7 @@ import org.orbeon.oxf.common.OXFException
 import org.orbeon.oxf.util.CoreUtils._
 import org.orbeon.oxf.util.IndentedLogger
 import org.orbeon.oxf.util.Logging._
+import org.orbeon.oxf.xforms.analytics.Phase
 import org.orbeon.oxf.xforms.control.Controls.{BindingUpdater, ControlsIterator}
 import org.orbeon.oxf.xforms.control.controls.{XFormsRepeatControl, XFormsRepeatIterationControl}
 import org.orbeon.oxf.xforms.control.{Controls, Focus, XFormsContainerControl, XFormsControl}
@@ -178,49 +179,51 @@ class XFormsControls(val containingDocument: XFormsContainingDocument) {
       refreshStart()
       refreshDone()
     } else {
-      withDebug("controls: performing refresh") {
-
-        // Notify dependencies
-        refreshStart()
-
-        // Focused control before updating bindings
-        val focusedBeforeOpt = focusedControlOpt
-
-        val resultOpt =
-          try {
-
-            // Update control bindings
-            // NOTE: During this process, ideally, no events are dispatched. However, at this point, the code
-            // can an dispatch, upon removed repeat iterations, xforms-disabled, DOMFocusOut and possibly events
-            // arising from updating the binding of nested XBL controls.
-            // This unfortunately means that side effects can take place. This should be fixed, maybe by simply
-            // detaching removed iterations first, and then dispatching events after all bindings have been
-            // updated as part of dispatchRefreshEvents() below. This requires that controls are able to kind of
-            // stay alive in detached mode, and then that the index is also available while these events are
-            // dispatched.
-
-            // `None` if bindings are clean
-            for (updater ← updateControlBindings())
-              yield updater → gatherControlsForRefresh
-
-          } finally {
-
-            // TODO: Why a `finally` block here? If an exception happened, do we really need to do a `refreshDone()`?
-
-            // "Actions that directly invoke rebuild, recalculate, revalidate, or refresh always have an immediate
-            // effect, and clear the corresponding flag."
-            refreshDone()
-          }
-
-        resultOpt foreach { case (updater, controlsEffectiveIds) ⇒
-          // Dispatch events
-          currentControlTree.dispatchRefreshEvents(controlsEffectiveIds, isInitial = false)
-          // Handle focus changes
-          Focus.updateFocusWithEvents(focusedBeforeOpt, updater.partialFocusRepeat)(containingDocument)
-
-          // Dispatch to the root control
-          getCurrentControlTree.rootOpt foreach { root ⇒
-            Dispatch.dispatchEvent(new XXFormsRefreshDoneEvent(root))
+      containingDocument.getRequestStats.withPhase(Phase.Refresh) {
+        withDebug("controls: performing refresh") {
+
+          // Notify dependencies
+          refreshStart()
+
+          // Focused control before updating bindings
+          val focusedBeforeOpt = focusedControlOpt
+
+          val resultOpt =
+            try {
+
+              // Update control bindings
+              // NOTE: During this process, ideally, no events are dispatched. However, at this point, the code
+              // can an dispatch, upon removed repeat iterations, xforms-disabled, DOMFocusOut and possibly events
+              // arising from updating the binding of nested XBL controls.
+              // This unfortunately means that side effects can take place. This should be fixed, maybe by simply
+              // detaching removed iterations first, and then dispatching events after all bindings have been
+              // updated as part of dispatchRefreshEvents() below. This requires that controls are able to kind of
+              // stay alive in detached mode, and then that the index is also available while these events are
+              // dispatched.
+
+              // `None` if bindings are clean
+              for (updater ← updateControlBindings())
+                yield updater → gatherControlsForRefresh
+
+            } finally {
+
+              // TODO: Why a `finally` block here? If an exception happened, do we really need to do a `refreshDone()`?
+
+              // "Actions that directly invoke rebuild, recalculate, revalidate, or refresh always have an immediate
+              // effect, and clear the corresponding flag."
+              refreshDone()
+            }
+
+          resultOpt foreach { case (updater, controlsEffectiveIds) ⇒
+            // Dispatch events
+            currentControlTree.dispatchRefreshEvents(controlsEffectiveIds, isInitial = false)
+            // Handle focus changes
+            Focus.updateFocusWithEvents(focusedBeforeOpt, updater.partialFocusRepeat)(containingDocument)
+
+            // Dispatch to the root control
+            getCurrentControlTree.rootOpt foreach { root ⇒
+              Dispatch.dispatchEvent(new XXFormsRefreshDoneEvent(root))
+            }
           }
         }
       }
@@ -390,6 +390,9 @@ object XFormsStaticStateImpl {
     val staticStateXML = documentResult.getDocument
     val digest = NumberUtils.toHexString(digestContentHandler.getResult)
 
+    // The template is cached with the static state and replayed concurrently
+    template.freeze()
+
     (template, create(staticStateXML, digest, metadata, AnnotatedTemplate(template)))
   }
 
@@ -15,6 +15,7 @@ package org.orbeon.oxf.xforms.analysis
 
 import org.orbeon.dom.{Element, QName}
 import org.orbeon.oxf.util.StringUtils._
+import org.orbeon.oxf.util.XPathExpressionHandle
 import org.orbeon.oxf.xforms.XFormsConstants
 import org.orbeon.oxf.xforms.XFormsConstants._
 import org.orbeon.oxf.xforms.XFormsUtils.{getElementId, maybeAVT}
@@ -136,9 +137,13 @@ abstract class ElementAnalysis(
   val bind = Option(element.attributeValue(XFormsConstants.BIND_QNAME))
   val value = Option(element.attributeValue(XFormsConstants.VALUE_QNAME))
 
+  // Handle used to evaluate the binding expression without building an `XPathCache` key each time
+  lazy val refHandle = ref map (XPathExpressionHandle(_, namespaceMapping, isAVT = false))
+
   def modelJava = model map (_.staticId) orNull
   def contextJava = context.orNull
   def refJava = ref.orNull
+  def refHandleJava = refHandle.orNull
   def bindJava = bind.orNull
 
   // Other
@@ -344,16 +344,16 @@ class PathMapXPathDependencies(
 
   def refreshDone(): Unit = {
 
-    debug(
+    outputStats(
       "refresh done",
       List(
-        "bindings updated"        → bindingUpdateCount.toString,
-        "values updated"          → valueUpdateCount.toString,
-        "MIPs updated"            → mipUpdateCount.toString,
-        "Binding XPath optimized" → bindingXPathOptimizedCount.toString,
-        "Value XPath optimized"   → valueXPathOptimizedCount.toString,
-        "MIP XPath optimized"     → mipXPathOptimizedCount.toString,
-        "Total XPath optimized"   → (bindingXPathOptimizedCount + valueXPathOptimizedCount + mipXPathOptimizedCount).toString
+        "bindings updated"        → bindingUpdateCount,
+        "values updated"          → valueUpdateCount,
+        "MIPs updated"            → mipUpdateCount,
+        "Binding XPath optimized" → bindingXPathOptimizedCount,
+        "Value XPath optimized"   → valueXPathOptimizedCount,
+        "MIP XPath optimized"     → mipXPathOptimizedCount,
+        "Total XPath optimized"   → (bindingXPathOptimizedCount + valueXPathOptimizedCount + mipXPathOptimizedCount)
       )
     )
 
@@ -405,21 +405,28 @@ class PathMapXPathDependencies(
   def notifyComputeItemset(): Unit = itemsetEvaluationCount += 1
   def notifyOptimizeItemset(): Unit = itemsetOptimizedCount += 1
 
-  private def outputLHHAItemsetStats(): Unit = {
-      debug("summary after response",
-        List(
-          "LHHA evaluations"             → lhhaEvaluationCount.toString,
-          "LHHA optimized"               → lhhaOptimizedCount.toString,
-          "LHHA unknown dependencies"    → lhhaUnknownDependencies.toString,
-          "LHHA intersections"           → lhhaHitCount.toString,
-          "LHHA disjoints"               → lhhaMissCount.toString,
-          "Itemset evaluations"          → itemsetEvaluationCount.toString,
-          "Itemset optimized"            → itemsetOptimizedCount.toString,
-          "Itemset unknown dependencies" → itemsetUnknownDependencies.toString,
-          "Itemset intersections"        → itemsetHitCount.toString,
-          "Itemset disjoints"            → itemsetMissCount.toString
-        )
+  private def outputLHHAItemsetStats(): Unit =
+    outputStats("summary after response",
+      List(
+        "LHHA evaluations"             → lhhaEvaluationCount,
+        "LHHA optimized"               → lhhaOptimizedCount,
+        "LHHA unknown dependencies"    → lhhaUnknownDependencies,
+        "LHHA intersections"           → lhhaHitCount,
+        "LHHA disjoints"               → lhhaMissCount,
+        "Itemset evaluations"          → itemsetEvaluationCount,
+        "Itemset optimized"            → itemsetOptimizedCount,
+        "Itemset unknown dependencies" → itemsetUnknownDependencies,
+        "Itemset intersections"        → itemsetHitCount,
+        "Itemset disjoints"            → itemsetMissCount
       )
+    )
+
+  // Log the statistics and add them to the request statistics
+  private def outputStats(message: String, stats: List[(String, Int)]): Unit = {
+    debug(message, stats map { case (name, value) ⇒ name → value.toString })
+    val requestStats = containingDocument.getRequestStats
+    for ((name, value) ← stats)
+      requestStats.addCounter(name, value)
   }
 
   // For unit tests only
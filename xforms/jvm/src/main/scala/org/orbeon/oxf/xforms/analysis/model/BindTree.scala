@@ -16,6 +16,7 @@ package org.orbeon.oxf.xforms.analysis.model
 import org.orbeon.dom._
 import org.orbeon.oxf.xforms.XFormsConstants._
 import org.orbeon.oxf.xforms.analysis._
+import org.orbeon.oxf.xforms.analysis.model.DependencyAnalyzer.EvaluationStratum
 import org.orbeon.oxf.xml.XMLReceiverHelper
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils
 
@@ -116,11 +117,13 @@ class BindTree(val model: Model, bindElements: Seq[Element], val isCustomMIP: QN
   // Whether we figured out all XPath ref analysis
   var figuredAllBindRefAnalysis = ! hasBinds // default value sets to true if no binds
 
-  private var _recalculateOrder: Option[List[StaticBind]] = None
-  def recalculateOrder = _recalculateOrder
+  private var _recalculateStrata: Option[List[EvaluationStratum]] = None
+  def recalculateStrata = _recalculateStrata
+  def recalculateOrder  = _recalculateStrata map (_ flatMap (_.binds))
 
-  private var _defaultValueOrder: Option[List[StaticBind]] = None
-  def defaultValueOrder = _defaultValueOrder
+  private var _defaultValueStrata: Option[List[EvaluationStratum]] = None
+  def defaultValueStrata = _defaultValueStrata
+  def defaultValueOrder  = _defaultValueStrata map (_ flatMap (_.binds))
 
   def analyzeBindsXPath(): Unit = {
     // Analyze all binds and return whether all of them were successfully analyzed
@@ -138,8 +141,8 @@ class BindTree(val model: Model, bindElements: Seq[Element], val isCustomMIP: QN
     }
 
     if (model.part.staticState.isCalculateDependencies) {
-      _recalculateOrder  = Some(DependencyAnalyzer.determineEvaluationOrder(this, Model.Calculate))
-      _defaultValueOrder = Some(DependencyAnalyzer.determineEvaluationOrder(this, Model.Default))
+      _recalculateStrata  = Some(DependencyAnalyzer.determineEvaluationStrata(this, Model.Calculate))
+      _defaultValueStrata = Some(DependencyAnalyzer.determineEvaluationStrata(this, Model.Default))
     }
   }
 
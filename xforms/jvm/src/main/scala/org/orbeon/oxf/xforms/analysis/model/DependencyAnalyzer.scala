@@ -63,6 +63,13 @@ object DependencyAnalyzer {
       }
   }
 
+  // Binds which only depend on binds of previous strata
+  //
+  // `independent` is set if, according to the XPath analysis, no bind of the stratum reads a node which a bind of the
+  // stratum writes, and if the expressions only call context-free functions, in which case the binds of the stratum
+  // can be evaluated in any order, or in parallel.
+  case class EvaluationStratum(binds: List[StaticBind], independent: Boolean)
+
   //
   // Return an evaluation order or a `ValidationException` if there is a cycle.
   //
@@ -71,7 +78,14 @@ object DependencyAnalyzer {
   def determineEvaluationOrder(
     tree : BindTree,
     mip  : Model.StringMIP // `Model.Calculate` or `Model.Default`.
-  ): List[StaticBind] = {
+  ): List[StaticBind] =
+    determineEvaluationStrata(tree, mip) flatMap (_.binds)
+
+  // Return the evaluation order grouped by strata or a `ValidationException` if there is a cycle.
+  def determineEvaluationStrata(
+    tree : BindTree,
+    mip  : Model.StringMIP // `Model.Calculate` or `Model.Default`.
+  ): List[EvaluationStratum] = {
 
     if (Logger.isDebugEnabled)
       Logger.debug(s"analyzing ${mip.name} dependencies for model ${tree.model.staticId}")
@@ -109,9 +123,9 @@ object DependencyAnalyzer {
     // NOTE: We would like to follow the original bind order as closely as possible, but currently we don't: the
     // order consists of nodes without references first, followed by the order or nodes with one reference, etc.
     // We might need to do a different algorithm to preserve the order.
-    def sortTopologically(bindsForSort: List[BindDetails]) = {
+    def sortTopologically(bindsForSort: List[BindDetails]): List[List[StaticBind]] = {
       @tailrec
-      def visit(bindDetails: List[BindDetails], done: List[StaticBind]): List[StaticBind] =
+      def visit(bindDetails: List[BindDetails], done: List[List[StaticBind]]): List[List[StaticBind]] =
         bindDetails partition (_.refs.isEmpty) match {
           case (Nil, Nil) ⇒
             done
@@ -123,15 +137,43 @@ object DependencyAnalyzer {
           case (noRefs, withRefs) ⇒
             visit(
               bindDetails = withRefs map (b ⇒ b.copy(refs = b.refs -- (noRefs flatMap (_.name)))),
-              done        = noRefs.map(_.staticBind).reverse ::: done
+              done        = noRefs.map(_.staticBind) :: done
             )
         }
 
       visit(bindsForSort, Nil).reverse
     }
 
-    def logResult(result: List[StaticBind]) =
-      if (result.nonEmpty && Logger.isDebugEnabled) {
+    // Whether, according to the XPath analysis, no bind reads a node written by a bind of the same stratum, and
+    // whether the expressions can be evaluated outside of the request thread
+    def isIndependent(binds: List[StaticBind]): Boolean = {
+
+      val analyses =
+        for (bind ← binds)
+          yield (bind.getBindingAnalysis, bind.firstXPathMIP(mip) map (_.analysis))
+
+      def overlap(p1: String, p2: String) =
+        p1 == p2 || p1.startsWith(p2 + "/") || p2.startsWith(p1 + "/")
+
+      analyses forall {
+        case (Some(bindingAnalysis), Some(mipAnalysis)) ⇒ bindingAnalysis.figuredOutDependencies && mipAnalysis.figuredOutDependencies
+        case _                                          ⇒ false
+      } && (binds forall (_.firstXPathMIP(mip) forall (_.callsContextFreeFunctionsOnly))) && {
+        val written = analyses flatMap (_._1.toList) flatMap (_.returnablePaths)
+        val read    = analyses flatMap (_._2.toList) flatMap (_.valueDependentPaths)
+
+        ! (read exists { case (readInstance, readPath) ⇒
+          written exists { case (writtenInstance, writtenPath) ⇒
+            readInstance == writtenInstance && overlap(readPath, writtenPath)
+          }
+        })
+      }
+    }
+
+    def logResult(strata: List[EvaluationStratum]) =
+      if (strata.nonEmpty && Logger.isDebugEnabled) {
+
+        val result = strata flatMap (_.binds)
 
         val idsToRefs = bindsWithMIPDetails map (b ⇒ b.staticBind.staticId → b.refs) toMap
 
@@ -149,12 +191,20 @@ object DependencyAnalyzer {
 
         val allExplanations = result map explanation mkString "\n"
 
-        Logger.debug(s"topological sort (${result.size}} nodes):\n$allExplanations")
+        Logger.debug(s"topological sort (${result.size}} nodes, ${strata.size} strata, ${strata count (_.independent)} independent):\n$allExplanations")
       }
 
     // We are only interested in the binds containing the MIP
     val idsToKeep = bindsWithMIPDetails map (_.staticBind.staticId) toSet
 
-    (sortTopologically(bindsWithMIPDetails ++ otherBindDetailsIt) filter (b ⇒ idsToKeep(b.staticId))) |!> logResult
+    val strata =
+      for {
+        stratum ← sortTopologically(bindsWithMIPDetails ++ otherBindDetailsIt)
+        binds   = stratum filter (b ⇒ idsToKeep(b.staticId))
+        if binds.nonEmpty
+      } yield
+        EvaluationStratum(binds, isIndependent(binds))
+
+    strata |!> logResult
   }
 }
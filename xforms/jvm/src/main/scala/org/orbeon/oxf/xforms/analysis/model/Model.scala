@@ -306,6 +306,8 @@ trait ModelBinds {
   def figuredAllBindRefAnalysis             = bindTree().figuredAllBindRefAnalysis
   def recalculateOrder                      = bindTree().recalculateOrder
   def defaultValueOrder                     = bindTree().defaultValueOrder
+  def recalculateStrata                     = bindTree().recalculateStrata
+  def defaultValueStrata                    = bindTree().defaultValueStrata
 
   def analyzeBindsXPath()                   = bindTree().analyzeBindsXPath()
   def bindsToXML(helper: XMLReceiverHelper) = bindTree().bindsToXML(helper)
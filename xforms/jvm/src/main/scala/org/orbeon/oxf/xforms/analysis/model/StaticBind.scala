@@ -12,9 +12,14 @@ import org.orbeon.oxf.xforms.XFormsUtils.getElementId
 import org.orbeon.oxf.xforms.analysis._
 import org.orbeon.oxf.xforms.analysis.model.Model._
 import org.orbeon.oxf.xforms.analysis.model.ValidationLevel._
+import org.orbeon.oxf.xforms.function.Instance
+import org.orbeon.oxf.xforms.function.xxforms.ValidationFunction
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils
-import org.orbeon.oxf.xml.{Dom4j, ShareableXPathStaticContext, XMLReceiverHelper}
+import org.orbeon.oxf.xml.{Dom4j, SaxonUtils, ShareableXPathStaticContext, XMLReceiverHelper}
 import org.orbeon.oxf.{util ⇒ u}
+import org.orbeon.saxon.expr._
+import org.orbeon.saxon.functions.SystemFunction
+import org.orbeon.saxon.om.Axis
 
 import scala.collection.JavaConverters._
 import scala.collection.immutable.List
@@ -88,6 +93,35 @@ class StaticBind(
     // Default to negative, analyzeXPath() can change that
     var analysis: XPathAnalysis = NegativeAnalysis(expression)
 
+    // Whether the result of the expression can only change if the value of the context item changes
+    //
+    // This is the case of expressions like `. castable as xs:integer` or `xxf:max-length(10)`, which don't navigate
+    // away from the context item, don't refer to variables, and don't call functions which access other data.
+    lazy val dependsOnContextValueOnly: Boolean =
+      SaxonUtils.iterateExpressionTree(compiledExpression.expression.getInternalExpression) forall {
+        case e: AxisExpression         ⇒ e.getAxis == Axis.SELF
+        case _: RootExpression         ⇒ false
+        case _: ParentNodeExpression   ⇒ false
+        case _: LocalVariableReference ⇒ true
+        case _: VariableReference      ⇒ false
+        case _: ValidationFunction[_]  ⇒ true
+        case f: SystemFunction         ⇒ ! StaticBind.ContextEscapingFunctionNames(f.getFunctionName.getLocalName)
+        case _: FunctionCall           ⇒ false
+        case _                         ⇒ true
+      }
+
+    // Whether the expression only calls standard functions which don't need the current request, or `instance()`
+    //
+    // This is the case of most calculations, which can then be evaluated on threads other than the request thread,
+    // where for example the external context is not available.
+    lazy val callsContextFreeFunctionsOnly: Boolean =
+      SaxonUtils.iterateExpressionTree(compiledExpression.expression.getInternalExpression) forall {
+        case _: Instance               ⇒ true
+        case f: SystemFunction         ⇒ StaticBind.isContextFreeFunction(f)
+        case _: FunctionCall           ⇒ false
+        case _                         ⇒ true
+      }
+
     def analyzeXPath(): Unit = {
 
       val allBindVariablesInScope = bindTree.allBindVariables
@@ -421,3 +455,34 @@ class StaticBind(
       child.toXML(helper)
   }
 }
+
+object StaticBind {
+
+  // Standard functions which resolve URIs, which requires the current request
+  val ResourceFunctionNames = Set(
+    "collection",
+    "doc",
+    "doc-available",
+    "document",
+    "unparsed-text",
+    "unparsed-text-available"
+  )
+
+  // Standard functions which access nodes other than their arguments or data which changes over time
+  val ContextEscapingFunctionNames = ResourceFunctionNames ++ Set(
+    "base-uri",
+    "current-date",
+    "current-dateTime",
+    "current-time",
+    "document-uri",
+    "id",
+    "idref",
+    "implicit-timezone",
+    "lang",
+    "root"
+  )
+
+  // Functions of the XForms and Form Runner libraries extend `SystemFunction` as well, so tell them apart by package
+  def isContextFreeFunction(f: SystemFunction): Boolean =
+    f.getClass.getName.startsWith("org.orbeon.saxon.") && ! ResourceFunctionNames(f.getFunctionName.getLocalName)
+}
@@ -13,22 +13,31 @@
  */
 package org.orbeon.oxf.xforms.analytics
 
-import collection.mutable
+import org.orbeon.oxf.util.LoggerFactory
 import org.orbeon.oxf.xforms.XFormsProperties
 
+import scala.collection.mutable
+
 // Gather request statistics
-// For now, only support XPath statistics
+//
+// Times are in microseconds. At the end of the request, statistics are logged and/or published to `XFormsMetrics` as
+// `RequestMetrics`. When neither is enabled, `NOPRequestStats` is used and gathering statistics has no cost beyond
+// a virtual call.
 trait RequestStats {
   def afterInitialResponse()
   def afterUpdateResponse()
   def addXPathStat(expr: String, time: Long)
   def withXPath[T](expr: ⇒ String)(body: ⇒ T): T
+  def withPhase[T](phase: Phase)(body: ⇒ T): T
+  def addControlsDiffed(count: Int)
+  def addResponseBytes(bytes: Long)
+  def addCounter(name: String, value: Long)
 
   // For Java callers
   def getReporter: (String, Long) ⇒ Unit = addXPathStat
 }
 
-class RequestStatsImpl extends RequestStats {
+class RequestStatsImpl(logStats: Boolean, publishMetrics: Boolean) extends RequestStats {
 
   private class XPathStats(val expr: String) {
     private var _count = 0
@@ -47,29 +56,71 @@ class RequestStatsImpl extends RequestStats {
       "expr: " + expr + ", count: " + count + ", total time: " + totalTime+ ", mean time: " + meanTime
   }
 
-  private val xpathStats = mutable.Map[String, XPathStats]()
+  private val xpathStats     = mutable.Map[String, XPathStats]()
+  private val phaseTimes     = mutable.Map[Phase, Long]()
+  private val counters       = mutable.Map[String, Long]()
+  private var controlsDiffed = 0
+  private var responseBytes  = 0L
 
   def addXPathStat(expr: String, time: Long) =
     xpathStats.getOrElseUpdate(expr, new XPathStats(expr)).addStat(time)
 
+  def addControlsDiffed(count: Int): Unit =
+    controlsDiffed += count
+
+  def addResponseBytes(bytes: Long): Unit =
+    responseBytes += bytes
+
+  def addCounter(name: String, value: Long): Unit =
+    counters(name) = counters.getOrElse(name, 0L) + value
+
   private def topXPath(n: Int, f: XPathStats ⇒ Long) =
     xpathStats.values.toSeq sortBy f takeRight n reverse
 
   private def distinctXPath = xpathStats.size
 
   def afterInitialResponse(): Unit =
-    afterUpdateResponse()
-
-  def afterUpdateResponse(): Unit = {
-    println("afterResponse:")
-    println(" distinct XPath: " + distinctXPath)
-    println(" total time in XPath: " + (xpathStats.values map (_.totalTime) sum))
-    println(" top XPath by mean time: ")
-    for ((topXPath, i) ← topXPath(10, _.meanTime).zipWithIndex)
-      println("  " + (i + 1) + ": " + topXPath.toString)
-    println(" top XPath by total time: ")
-    for ((topXPath, i) ← topXPath(10, _.totalTime).zipWithIndex)
-      println("  " + (i + 1) + ": " + topXPath.toString)
+    afterResponse(initial = true)
+
+  def afterUpdateResponse(): Unit =
+    afterResponse(initial = false)
+
+  private def afterResponse(initial: Boolean): Unit = {
+
+    if (logStats && RequestStatsImpl.Logger.isInfoEnabled) {
+
+      val lines = mutable.ListBuffer[String]()
+
+      lines += "afterResponse:"
+      lines += " distinct XPath: " + distinctXPath
+      lines += " total time in XPath: " + (xpathStats.values map (_.totalTime) sum)
+      for (phase ← Phase.values; time ← phaseTimes.get(phase))
+        lines += " total time in " + phase.name + ": " + time
+      lines += " controls diffed: " + controlsDiffed
+      lines += " response bytes: " + responseBytes
+      for ((name, value) ← counters.toList.sortBy(_._1))
+        lines += " " + name + ": " + value
+      lines += " top XPath by mean time: "
+      for ((topXPath, i) ← topXPath(10, _.meanTime).zipWithIndex)
+        lines += "  " + (i + 1) + ": " + topXPath.toString
+      lines += " top XPath by total time: "
+      for ((topXPath, i) ← topXPath(10, _.totalTime).zipWithIndex)
+        lines += "  " + (i + 1) + ": " + topXPath.toString
+
+      RequestStatsImpl.Logger.info(lines.mkString("\n"))
+    }
+
+    if (publishMetrics)
+      XFormsMetrics.requestCompleted(
+        RequestMetrics(
+          initial        = initial,
+          xpathStats     = xpathStats.values.toList map (s ⇒ XPathStat(s.expr, s.count, s.totalTime)),
+          phaseTimes     = phaseTimes.toMap,
+          controlsDiffed = controlsDiffed,
+          responseBytes  = responseBytes,
+          counters       = counters.toMap
+        )
+      )
   }
 
   def withXPath[T](expr: ⇒ String)(body: ⇒ T): T = {
@@ -83,6 +134,14 @@ class RequestStatsImpl extends RequestStats {
 
     result
   }
+
+  def withPhase[T](phase: Phase)(body: ⇒ T): T = {
+    val startTime = System.nanoTime
+    try
+      body
+    finally
+      phaseTimes(phase) = phaseTimes.getOrElse(phase, 0L) + (System.nanoTime - startTime) / 1000
+  }
 }
 
 object NOPRequestStats extends RequestStats {
@@ -90,12 +149,24 @@ object NOPRequestStats extends RequestStats {
   def afterUpdateResponse() = ()
   def addXPathStat(expr: String, time: Long) = ()
   def withXPath[T](expr: ⇒ String)(body: ⇒ T) = body
+  def withPhase[T](phase: Phase)(body: ⇒ T) = body
+  def addControlsDiffed(count: Int) = ()
+  def addResponseBytes(bytes: Long) = ()
+  def addCounter(name: String, value: Long) = ()
 }
 
 object RequestStatsImpl {
-  def apply(): RequestStats =
-    if (XFormsProperties.isRequestStats)
-      new RequestStatsImpl()
+
+  private val Logger = LoggerFactory.createLogger(classOf[RequestStats])
+
+  def apply(): RequestStats = {
+
+    val logStats       = XFormsProperties.isRequestStats
+    val publishMetrics = XFormsMetrics.isEnabled
+
+    if (logStats || publishMetrics)
+      new RequestStatsImpl(logStats, publishMetrics)
     else
       NOPRequestStats
-}
\ No newline at end of file
+  }
+}
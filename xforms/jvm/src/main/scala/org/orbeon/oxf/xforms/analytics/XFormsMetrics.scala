@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analytics
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+import javax.management.{ObjectName, StandardMBean}
+import org.orbeon.oxf.externalcontext.WebAppListener
+import org.orbeon.oxf.util.{LoggerFactory, NetUtils}
+import org.orbeon.oxf.util.StringUtils._
+import org.orbeon.oxf.xforms.XFormsProperties
+
+import scala.collection.JavaConverters._
+import scala.util.Try
+import scala.util.control.NonFatal
+
+sealed abstract class Phase(val name: String)
+
+object Phase {
+  case object Rebuild     extends Phase("rebuild")
+  case object Recalculate extends Phase("recalculate")
+  case object Revalidate  extends Phase("revalidate")
+  case object Refresh     extends Phase("refresh")
+
+  val values = List(Rebuild, Recalculate, Revalidate, Refresh)
+}
+
+case class XPathStat(expr: String, count: Int, totalTime: Long)
+
+// Metrics gathered during a single request, with times in microseconds
+case class RequestMetrics(
+  initial        : Boolean,
+  xpathStats     : List[XPathStat],
+  phaseTimes     : Map[Phase, Long],
+  controlsDiffed : Int,
+  responseBytes  : Long,
+  counters       : Map[String, Long]
+)
+
+// Receives metrics, for example to forward them to a monitoring system
+//
+// A registry is either configured with the `oxf.xforms.metrics.registry` property, which refers to a Scala object or
+// to a Java class with a static `instance()` method and is loaded on first use, or added with
+// `XFormsMetrics.addRegistry()`. Registries are
+// called on request threads, so they must be thread-safe and return quickly.
+trait MetricsRegistry {
+  def requestCompleted(metrics: RequestMetrics): Unit
+  def stateStored(time: Long): Unit
+}
+
+// Aggregate metrics exposed through JMX, with times in milliseconds
+trait XFormsMetricsMBean {
+  def getRequestCount          : Long
+  def getXPathEvaluationCount  : Long
+  def getXPathTime             : Long
+  def getRebuildTime           : Long
+  def getRecalculateTime       : Long
+  def getRevalidateTime        : Long
+  def getRefreshTime           : Long
+  def getControlsDiffed        : Long
+  def getAjaxResponseBytes     : Long
+  def getStateStoreCount       : Long
+  def getStateStoreTime        : Long
+  def getTopXPathByTotalTime   : Array[String]
+  def reset(): Unit
+}
+
+// Aggregate metrics for all requests, published when the `oxf.xforms.metrics` property is enabled
+object XFormsMetrics {
+
+  val MBeanName = "org.orbeon.oxf.xforms:type=Metrics"
+
+  // Maximum number of distinct XPath expressions for which aggregate times are kept
+  private val MaxXPathExpressions = 1000
+
+  private val Logger = LoggerFactory.createLogger(XFormsMetrics.getClass)
+
+  def isEnabled: Boolean = XFormsProperties.isMetrics
+
+  @volatile private var addedRegistries: List[MetricsRegistry] = Nil
+
+  def addRegistry(registry: MetricsRegistry): Unit = synchronized {
+    addedRegistries ::= registry
+  }
+
+  def removeRegistry(registry: MetricsRegistry): Unit = synchronized {
+    addedRegistries = addedRegistries filterNot (_ eq registry)
+  }
+
+  def requestCompleted(metrics: RequestMetrics): Unit = {
+    registerMBean()
+    Aggregate.requestCompleted(metrics)
+    registries foreach (r ⇒ safely(r.requestCompleted(metrics)))
+  }
+
+  // The document state is stored after the response is sent, so this is not part of `RequestMetrics`
+  def stateStored(time: Long): Unit = {
+    registerMBean()
+    Aggregate.stateStored(time)
+    registries foreach (r ⇒ safely(r.stateStored(time)))
+  }
+
+  // Time the body if metrics are enabled
+  def withStateStore[T](body: ⇒ T): T =
+    if (isEnabled) {
+      val startTime = System.nanoTime
+      try
+        body
+      finally
+        stateStored((System.nanoTime - startTime) / 1000)
+    } else
+      body
+
+  // For tests
+  def aggregate: XFormsMetricsMBean = Aggregate
+
+  private def safely(body: ⇒ Unit): Unit =
+    try
+      body
+    catch {
+      case NonFatal(t) ⇒ Logger.error("error in metrics registry", t)
+    }
+
+  private def registries: List[MetricsRegistry] =
+    configuredRegistry.toList ::: addedRegistries
+
+  // The property is read once, so that requests don't read it, and failing to load the registry is only logged once
+  private lazy val configuredRegistry: Option[MetricsRegistry] =
+    trimAllToOpt(XFormsProperties.getMetricsRegistry) flatMap { className ⇒
+
+      def tryFromScalaObject: Try[AnyRef] = Try {
+        Class.forName(className + "$").getDeclaredField("MODULE$").get(null)
+      }
+
+      def fromJavaClass: AnyRef =
+        Class.forName(className).getDeclaredMethod("instance").invoke(null)
+
+      try
+        tryFromScalaObject getOrElse fromJavaClass match {
+          case registry: MetricsRegistry ⇒ Some(registry)
+          case _ ⇒
+            Logger.error(
+              s"property `${XFormsProperties.METRICS_REGISTRY_PROPERTY}` does not refer to a ${classOf[MetricsRegistry].getName} with `$className`"
+            )
+            None
+        }
+      catch {
+        case NonFatal(t) ⇒
+          Logger.error(s"unable to load metrics registry `$className`", t)
+          None
+      }
+    }
+
+  @volatile private var mbeanRegistered = false
+
+  // Register the MBean on first use, and unregister it when the web app is destroyed, as the MBean server would
+  // otherwise keep a reference to the web app class loader, and the web app would fail to register it again
+  private def registerMBean(): Unit =
+    if (! mbeanRegistered)
+      synchronized {
+        if (! mbeanRegistered) {
+          mbeanRegistered = true
+          try {
+            ManagementFactory.getPlatformMBeanServer.registerMBean(
+              new StandardMBean(Aggregate, classOf[XFormsMetricsMBean]),
+              new ObjectName(MBeanName)
+            )
+            Option(NetUtils.getExternalContext) foreach {
+              _.getWebAppContext.addListener(
+                new WebAppListener {
+                  def webAppDestroyed(): Unit = unregisterMBean()
+                }
+              )
+            }
+          } catch {
+            case NonFatal(t) ⇒ Logger.warn(s"unable to register MBean `$MBeanName`", t)
+          }
+        }
+      }
+
+  private[analytics] def unregisterMBean(): Unit =
+    synchronized {
+      try {
+        val mbeanServer = ManagementFactory.getPlatformMBeanServer
+        val objectName  = new ObjectName(MBeanName)
+        if (mbeanServer.isRegistered(objectName))
+          mbeanServer.unregisterMBean(objectName)
+      } catch {
+        case NonFatal(t) ⇒ Logger.warn(s"unable to unregister MBean `$MBeanName`", t)
+      }
+      mbeanRegistered = false
+    }
+
+  private object Aggregate extends XFormsMetricsMBean {
+
+    private class XPathAggregate {
+      val count     = new LongAdder
+      val totalTime = new LongAdder
+    }
+
+    private val requestCount         = new LongAdder
+    private val xpathEvaluationCount = new LongAdder
+    private val xpathTime            = new LongAdder
+    private val phaseTimes           = (Phase.values map (_ → new LongAdder)).toMap
+    private val controlsDiffed       = new LongAdder
+    private val ajaxResponseBytes    = new LongAdder
+    private val stateStoreCount      = new LongAdder
+    private val stateStoreTime       = new LongAdder
+    private val xpathByExpression    = new ConcurrentHashMap[String, XPathAggregate]
+
+    def requestCompleted(metrics: RequestMetrics): Unit = {
+
+      requestCount.increment()
+
+      for (stat ← metrics.xpathStats) {
+        xpathEvaluationCount.add(stat.count)
+        xpathTime.add(stat.totalTime)
+
+        // Past the maximum, expressions are only counted in the totals
+        val aggregateOrNull =
+          xpathByExpression.get(stat.expr) match {
+            case null if xpathByExpression.size < MaxXPathExpressions ⇒
+              xpathByExpression.computeIfAbsent(stat.expr, _ ⇒ new XPathAggregate)
+            case other ⇒
+              other
+          }
+
+        if (aggregateOrNull ne null) {
+          aggregateOrNull.count.add(stat.count)
+          aggregateOrNull.totalTime.add(stat.totalTime)
+        }
+      }
+
+      for ((phase, time) ← metrics.phaseTimes)
+        phaseTimes(phase).add(time)
+
+      controlsDiffed.add(metrics.controlsDiffed)
+      if (! metrics.initial)
+        ajaxResponseBytes.add(metrics.responseBytes)
+    }
+
+    def stateStored(time: Long): Unit = {
+      stateStoreCount.increment()
+      stateStoreTime.add(time)
+    }
+
+    private def millis(adder: LongAdder) = adder.sum / 1000
+
+    def getRequestCount         = requestCount.sum
+    def getXPathEvaluationCount = xpathEvaluationCount.sum
+    def getXPathTime            = millis(xpathTime)
+    def getRebuildTime          = millis(phaseTimes(Phase.Rebuild))
+    def getRecalculateTime      = millis(phaseTimes(Phase.Recalculate))
+    def getRevalidateTime       = millis(phaseTimes(Phase.Revalidate))
+    def getRefreshTime          = millis(phaseTimes(Phase.Refresh))
+    def getControlsDiffed       = controlsDiffed.sum
+    def getAjaxResponseBytes    = ajaxResponseBytes.sum
+    def getStateStoreCount      = stateStoreCount.sum
+    def getStateStoreTime       = millis(stateStoreTime)
+
+    def getTopXPathByTotalTime: Array[String] = {
+
+      val entries =
+        xpathByExpression.asScala.toList map { case (expr, aggregate) ⇒
+          (expr, aggregate.count.sum, aggregate.totalTime.sum)
+        }
+
+      val top =
+        entries sortBy (- _._3) take 10 map { case (expr, count, totalTime) ⇒
+          s"expr: $expr, count: $count, total time: ${totalTime / 1000} ms"
+        }
+
+      top.toArray
+    }
+
+    def reset(): Unit = {
+      requestCount.reset()
+      xpathEvaluationCount.reset()
+      xpathTime.reset()
+      phaseTimes.values foreach (_.reset())
+      controlsDiffed.reset()
+      ajaxResponseBytes.reset()
+      stateStoreCount.reset()
+      stateStoreTime.reset()
+      xpathByExpression.clear()
+    }
+  }
+}
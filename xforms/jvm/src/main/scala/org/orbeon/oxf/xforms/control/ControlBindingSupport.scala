@@ -97,7 +97,7 @@ trait ControlBindingSupport {
   protected def computeBinding(parentContext: BindingContext): BindingContext = {
     val contextStack = container.getContextStack
     contextStack.setBinding(parentContext)
-    contextStack.pushBinding(element, effectiveId, staticControl.scope)
+    contextStack.pushBinding(element, effectiveId, staticControl.scope, staticControl.refHandleJava)
     contextStack.getCurrentBindingContext
   }
 
@@ -218,7 +218,7 @@ class XFormsRepeatControl(
   override protected def computeBinding(parentContext: BindingContext): BindingContext = {
     val contextStack = container.getContextStack
     contextStack.setBinding(parentContext)
-    contextStack.pushBinding(element, effectiveId, staticControl.scope)
+    contextStack.pushBinding(element, effectiveId, staticControl.scope, staticControl.refHandleJava)
 
     // Keep only the relevant items
     import XFormsSingleNodeControl.isRelevantItem
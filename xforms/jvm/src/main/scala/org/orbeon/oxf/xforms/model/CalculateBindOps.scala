@@ -13,13 +13,22 @@
   */
 package org.orbeon.oxf.xforms.model
 
+import java.util.concurrent.{Callable, ForkJoinPool, ForkJoinWorkerThread}
+
+import org.orbeon.oxf.externalcontext.WebAppListener
 import org.orbeon.oxf.util.Whitespace.applyPolicy
+import org.orbeon.oxf.util.{NetUtils, XPath}
+import org.orbeon.oxf.xforms.XFormsProperties
+import org.orbeon.oxf.xforms.action.XFormsAPI
+import org.orbeon.oxf.xforms.analysis.model.DependencyAnalyzer.EvaluationStratum
 import org.orbeon.oxf.xforms.analysis.model.Model._
 import org.orbeon.oxf.xforms.analysis.model.{DependencyAnalyzer, Model, StaticBind}
 import org.orbeon.oxf.xforms.event.XFormsEvent
 import org.orbeon.oxf.xforms.model.XFormsModelBinds._
 import org.orbeon.saxon.om.NodeInfo
 
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ListBuffer
 import scala.util.control.NonFatal
 
 
@@ -43,7 +52,7 @@ trait CalculateBindOps {
             case strategy: SomeDefaultsStrategy ⇒
               applyCalculatedBindsUseOrderIfNeeded(
                 Model.Default,
-                staticModel.defaultValueOrder,
+                staticModel.defaultValueStrata,
                 strategy,
                 collector
               )
@@ -53,7 +62,7 @@ trait CalculateBindOps {
         if (staticModel.hasCalculateBind)
           applyCalculatedBindsUseOrderIfNeeded(
             Model.Calculate,
-            staticModel.recalculateOrder,
+            staticModel.recalculateStrata,
             AllDefaultsStrategy,
             collector
           )
@@ -190,13 +199,13 @@ trait CalculateBindOps {
 
     def applyCalculatedBindsUseOrderIfNeeded(
       mip              : StringMIP,
-      orderOpt         : Option[List[StaticBind]],
+      strataOpt        : Option[List[EvaluationStratum]],
       defaultsStrategy : SomeDefaultsStrategy,
       collector        : XFormsEvent ⇒ Unit
     ): Unit = {
-      orderOpt match {
-        case Some(order) ⇒
-          applyCalculatedBindsFollowDependencies(order, mip, defaultsStrategy, collector)
+      strataOpt match {
+        case Some(strata) ⇒
+          applyCalculatedBindsFollowDependencies(strata, mip, defaultsStrategy, collector)
         case None ⇒
           iterateBinds(topLevelBinds, bindNode ⇒
             if (
@@ -211,29 +220,106 @@ trait CalculateBindOps {
     }
 
     def applyCalculatedBindsFollowDependencies(
-      order            : List[StaticBind],
+      strata           : List[EvaluationStratum],
       mip              : StringMIP,
       defaultsStrategy : SomeDefaultsStrategy,
       collector        : XFormsEvent ⇒ Unit
     ): Unit = {
-      order foreach { staticBind ⇒
-        val logger = DependencyAnalyzer.Logger
-        val isDebug = logger.isDebugEnabled
-        if (dependencies.requireModelMIPUpdate(model, staticBind, mip, null)) {
-          var evaluationCount = 0
-          BindVariableResolver.resolveNotAncestorOrSelf(self, None, staticBind) foreach { runtimeBindIt ⇒
-            runtimeBindIt flatMap (_.bindNodes) foreach { bindNode ⇒
 
+      val logger  = DependencyAnalyzer.Logger
+      val isDebug = logger.isDebugEnabled
+
+      // Bind nodes to evaluate for the given bind, in document order
+      def bindNodesToEvaluate(staticBind: StaticBind): List[BindNode] =
+        if (dependencies.requireModelMIPUpdate(model, staticBind, mip, null)) {
+          val bindNodes =
+            BindVariableResolver.resolveNotAncestorOrSelf(self, None, staticBind).toList flatMap { runtimeBindIt ⇒
               // Skip if we must process only flagged nodes and the node is not flagged
-              if (mustEvaluateNode(bindNode.node, defaultsStrategy)) {
-                evaluationCount += 1
-                evaluateAndSetCalculatedBind(bindNode, mip, collector)
-              }
+              runtimeBindIt flatMap (_.bindNodes) filter (bindNode ⇒ mustEvaluateNode(bindNode.node, defaultsStrategy))
             }
-          }
-          if (isDebug) logger.debug(s"run  ${mip.name} for ${staticBind.staticId} ($evaluationCount total)")
+          if (isDebug) logger.debug(s"run  ${mip.name} for ${staticBind.staticId} (${bindNodes.size} total)")
+          bindNodes
         } else {
           if (isDebug) logger.debug(s"skip ${mip.name} for ${staticBind.staticId}")
+          Nil
+        }
+
+      strata foreach {
+        case EvaluationStratum(binds, true) if containingDocument.isCalculateParallel ⇒
+          // The binds of the stratum don't read what they write, so they see the same values whatever the
+          // evaluation order, and values can be set once all the expressions have been evaluated
+          val bindNodes = binds flatMap bindNodesToEvaluate
+
+          if (bindNodes.size >= containingDocument.getCalculateParallelMinNodes)
+            evaluateInParallelAndSetCalculatedBinds(bindNodes, mip, collector)
+          else
+            bindNodes foreach (evaluateAndSetCalculatedBind(_, mip, collector))
+        case EvaluationStratum(binds, _) ⇒
+          // NOTE: Resolve the nodes of each bind only after the previous bind has been evaluated
+          binds foreach { staticBind ⇒
+            bindNodesToEvaluate(staticBind) foreach (evaluateAndSetCalculatedBind(_, mip, collector))
+          }
+      }
+    }
+
+    def evaluateInParallelAndSetCalculatedBinds(
+      bindNodes : List[BindNode],
+      mip       : StringMIP,
+      collector : XFormsEvent ⇒ Unit
+    ): Unit = {
+
+      // Everything which touches the document or the model is done on the current thread, except the evaluation
+      // proper, which only reads the instances. The static analysis guarantees that the expressions don't call
+      // functions which need the current request, as the pool threads don't have it.
+      //
+      // Each task has its own function context, and records its XPath statistics, which are reported on the current
+      // thread as the request statistics are not thread-safe.
+      val tasks =
+        for {
+          bindNode ← bindNodes
+          xpathMIP ← bindNode.staticBind.firstXPathMIP(mip)
+        } yield {
+          val functionContext = model.getContextStack.getFunctionContext(model.getEffectiveId, Some(bindNode))
+          val stats           = ListBuffer[(String, Long)]()
+
+          (bindNode, xpathMIP, stats) → new Callable[Either[Throwable, Option[String]]] {
+            def call(): Either[Throwable, Option[String]] =
+              XFormsAPI.withContainingDocument(containingDocument) {
+                try
+                  Right(
+                    Option(
+                      XPath.evaluateAsString(
+                        contextItems       = bindNode.parentBind.items,
+                        contextPosition    = bindNode.position,
+                        compiledExpression = xpathMIP.compiledExpression,
+                        functionContext    = functionContext,
+                        variableResolver   = model.variableResolver
+                      )(
+                        reporter           = (expression, time) ⇒ stats += expression → time
+                      )
+                    )
+                  )
+                catch {
+                  case NonFatal(t) ⇒ Left(t)
+                }
+              }
+          }
+        }
+
+      val results =
+        ParallelEvaluation.pool.invokeAll(tasks.map(_._2).asJava).asScala map (_.get)
+
+      for (((bindNode, xpathMIP, stats), result) ← tasks.map(_._1) zip results) {
+
+        stats foreach reporter.tupled
+
+        result match {
+          case Right(resultOpt) ⇒
+            resultOpt foreach (setCalculatedBindValue(bindNode, mip, _, collector))
+          case Left(t) ⇒
+            handleMIPXPathException(t, bindNode, xpathMIP, s"evaluating XForms ${xpathMIP.name} MIP", collector)
+            // Blank value so we don't have stale calculated values
+            setCalculatedBindValue(bindNode, mip, "", collector)
         }
       }
     }
@@ -243,24 +329,80 @@ trait CalculateBindOps {
       mip       : StringMIP,
       collector : XFormsEvent ⇒ Unit
     ): Unit =
-      evaluateCalculatedBind(bindNode, mip, collector) foreach { stringResult ⇒
+      evaluateCalculatedBind(bindNode, mip, collector) foreach
+        (setCalculatedBindValue(bindNode, mip, _, collector))
+
+    def setCalculatedBindValue(
+      bindNode     : BindNode,
+      mip          : StringMIP,
+      stringResult : String,
+      collector    : XFormsEvent ⇒ Unit
+    ): Unit = {
+
+      val valueToSet =
+        bindNode.staticBind.nonPreserveWhitespaceMIPOpt match {
+          case Some(mip) ⇒ applyPolicy(stringResult, mip.policy)
+          case None      ⇒ stringResult
+        }
+
+      DataModel.setValueIfChangedHandleErrors(
+        containingDocument = containingDocument,
+        eventTarget        = model,
+        locationData       = bindNode.locationData,
+        nodeInfo           = bindNode.node,
+        valueToSet         = valueToSet,
+        source             = mip.name,
+        isCalculate        = true,
+        collector          = collector
+      )
+    }
+  }
+}
+
+private object ParallelEvaluation {
 
-        val valueToSet =
-          bindNode.staticBind.nonPreserveWhitespaceMIPOpt match {
-            case Some(mip) ⇒ applyPolicy(stringResult, mip.policy)
-            case None      ⇒ stringResult
+  @volatile private var poolOpt: Option[ForkJoinPool] = None
+
+  // Shared by all documents, created on first use and shut down when the web app is destroyed
+  def pool: ForkJoinPool =
+    poolOpt getOrElse synchronized {
+      poolOpt getOrElse {
+
+        val threadCount =
+          XFormsProperties.getCalculateParallelThreads match {
+            case n if n > 0 ⇒ n
+            case _          ⇒ Runtime.getRuntime.availableProcessors
           }
 
-        DataModel.setValueIfChangedHandleErrors(
-          containingDocument = containingDocument,
-          eventTarget        = model,
-          locationData       = bindNode.locationData,
-          nodeInfo           = bindNode.node,
-          valueToSet         = valueToSet,
-          source             = mip.name,
-          isCalculate        = true,
-          collector          = collector
-        )
+        val newPool =
+          new ForkJoinPool(
+            threadCount,
+            new ForkJoinPool.ForkJoinWorkerThreadFactory {
+              def newThread(pool: ForkJoinPool): ForkJoinWorkerThread = {
+                val thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool)
+                thread.setName("orbeon-calculate-" + thread.getPoolIndex)
+                thread.setDaemon(true)
+                thread
+              }
+            },
+            null,
+            false
+          )
+
+        Option(NetUtils.getExternalContext) foreach {
+          _.getWebAppContext.addListener(
+            new WebAppListener {
+              def webAppDestroyed(): Unit = shutdown()
+            }
+          )
+        }
+
+        poolOpt = Some(newPool)
+        newPool
       }
+    }
+
+  def shutdown(): Unit = synchronized {
+    poolOpt foreach (_.shutdownNow())
+    poolOpt = None
   }
-}
@@ -57,6 +57,7 @@ trait RebuildBindOps {
       // Not ideal, but this state is updated when the bind tree is updated below
       singleNodeContextBinds.clear()
       iterationsForContextItem.clear()
+      validationDependencies.markAllChanged()
 
       // Iterate through all top-level bind elements to create new bind tree
       // TODO: In the future, XPath dependencies must allow for partial rebuild of the tree as is the case with controls
@@ -34,7 +34,7 @@ class RuntimeBind(
 
   val (items, bindNodes) = {
     val contextStack = model.getContextStack
-    contextStack.pushBinding(staticBind.element, model.getEffectiveId, model.getResolutionScope)
+    contextStack.pushBinding(staticBind.element, model.getEffectiveId, model.getResolutionScope, staticBind.refHandleJava)
 
     // NOTE: This should probably go into XFormsContextStack
     val bindingContext = contextStack.getCurrentBindingContext
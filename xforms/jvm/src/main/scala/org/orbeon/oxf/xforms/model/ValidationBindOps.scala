@@ -50,6 +50,11 @@ trait ValidationBindOps extends Logging {
       // Reset context stack just to re-evaluate the variables
       model.resetAndEvaluateVariables()
 
+      val evaluatedBefore = validationDependencies.evaluatedCount
+      val skippedBefore   = validationDependencies.skippedCount
+
+      validationDependencies.startRevalidation()
+
       // 1. Validate based on type and requiredness
       if (staticModel.hasTypeBind || staticModel.hasRequiredBind)
         iterateBinds(topLevelBinds, bindNode ⇒
@@ -63,6 +68,17 @@ trait ValidationBindOps extends Logging {
           if (bindNode.staticBind.constraintsByLevel.nonEmpty)
             validateConstraint(bindNode, invalidInstances, collector)
         )
+
+      validationDependencies.endRevalidation()
+
+      debug(
+        "performed bind revalidate",
+        List(
+          "model id"  → model.getEffectiveId,
+          "evaluated" → (validationDependencies.evaluatedCount - evaluatedBefore).toString,
+          "skipped"   → (validationDependencies.skippedCount   - skippedBefore).toString
+        )
+      )
     }
   }
 
@@ -121,10 +137,11 @@ trait ValidationBindOps extends Logging {
       // - we would not depend on requiredness
       // - but if we did, we should handle also the case where another bind is setting requiredness on the node
       //
+      // Type validity only depends on the value of the node, and on requiredness as per the above
       val typeValidity =
         staticBind.dataType match {
           case Some(_) ⇒
-            if (dependencies.requireModelMIPUpdate(model, staticBind, Type, null) ||
+            if (dependencies.requireModelMIPUpdate(model, staticBind, Type, null) && nodeValueMightHaveChanged(bindNode) ||
               requiredMIPOpt.isDefined && dependencies.requireModelMIPUpdate(model, staticBind, Required, null)) {
               // Compute new type validity if the value of the node might have changed OR the value of requiredness
               // might have changed
@@ -312,10 +329,15 @@ trait ValidationBindOps extends Logging {
       // that validation properties such as `max-length` are computed even when the datatype is not valid. So now we
       // keep the list of constraints up to date even when the datatype is not valid.
 
+      // Constraints which only depend on the value of the node don't need to be evaluated again if that value didn't
+      // change, and if the node doesn't have children elements, the values of which we don't track
+      def mightHaveChanged(mips: List[StaticXPathMIP]) =
+        bindNode.hasChildrenElements || ! (mips forall (_.dependsOnContextValueOnly)) || nodeValueMightHaveChanged(bindNode)
+
       for {
         (level, mips) ← bindNode.staticBind.constraintsByLevel
       } locally {
-        if (dependencies.requireModelMIPUpdate(model, bindNode.staticBind, Constraint, level)) {
+        if (dependencies.requireModelMIPUpdate(model, bindNode.staticBind, Constraint, level) && mightHaveChanged(mips)) {
           // Re-evaluate and set
           val failedConstraints = failedConstraintMIPs(mips, bindNode, collector)
           if (failedConstraints.nonEmpty)
@@ -334,6 +356,12 @@ trait ValidationBindOps extends Logging {
       }
     }
 
+    def nodeValueMightHaveChanged(bindNode: BindNode): Boolean = {
+      val mightHaveChanged = validationDependencies.nodeValueMightHaveChanged(bindNode)
+      validationDependencies.countValidation(mightHaveChanged)
+      mightHaveChanged
+    }
+
     def evaluateBooleanExpressionStoreProperties(
       bindNode  : BindNode,
       xpathMIP  : StaticXPathMIP,
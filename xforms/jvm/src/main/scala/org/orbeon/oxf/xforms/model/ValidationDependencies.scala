@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.model
+
+import java.{util ⇒ ju}
+
+import org.orbeon.saxon.om.{NodeInfo, VirtualNode}
+
+// Runtime index from instance nodes to the bind nodes bound to them
+//
+// `PathMapXPathDependencies` tells whether a validation MIP might have to be updated at the level of the static bind.
+// When a validation only depends on the value of the node it applies to, this index further allows skipping the bind
+// nodes whose node value didn't change since the last revalidation.
+//
+// Only nodes of the model's own instances are indexed, as value changes are reported to the model which owns the
+// instance. Bind nodes bound to other nodes are always revalidated.
+class ValidationDependencies(model: XFormsModel) {
+
+  import ValidationDependencies._
+
+  // Underlying node → bind nodes bound to it
+  private val bindNodesByNode = new ju.IdentityHashMap[AnyRef, List[BindNode]]
+  // Bind nodes known to the index → whether they are indexed
+  private val knownBindNodes  = new ju.IdentityHashMap[BindNode, java.lang.Boolean]
+  // Underlying nodes which changed value since the last revalidation
+  private val changedNodes    = new ju.IdentityHashMap[AnyRef, AnyRef]
+
+  private var allChanged = true
+
+  // Bind nodes affected by the changes, computed at the start of a revalidation
+  private var affectedBindNodes: ju.IdentityHashMap[BindNode, AnyRef] = null
+
+  private var _evaluatedCount = 0L
+  private var _skippedCount   = 0L
+
+  def evaluatedCount: Long = _evaluatedCount
+  def skippedCount  : Long = _skippedCount
+
+  def markValueChanged(nodeInfo: NodeInfo): Unit =
+    if (! allChanged)
+      changedNodes.put(underlyingNode(nodeInfo), nodeInfo)
+
+  // Upon rebuild, as bind nodes are recreated
+  def markAllChanged(): Unit = {
+    allChanged = true
+    changedNodes.clear()
+  }
+
+  def startRevalidation(): Unit =
+    if (allChanged) {
+      bindNodesByNode.clear()
+      knownBindNodes.clear()
+      affectedBindNodes = null
+    } else {
+      affectedBindNodes = new ju.IdentityHashMap[BindNode, AnyRef]
+      val changedIt = changedNodes.keySet.iterator
+      while (changedIt.hasNext)
+        bindNodesByNode.get(changedIt.next()) match {
+          case null      ⇒
+          case bindNodes ⇒ bindNodes foreach (affectedBindNodes.put(_, Present))
+        }
+    }
+
+  def endRevalidation(): Unit = {
+    allChanged        = false
+    affectedBindNodes = null
+    changedNodes.clear()
+  }
+
+  // Whether the value of the bind node's node might have changed since the last revalidation
+  //
+  // The bind node must be bound to a node without children elements.
+  def nodeValueMightHaveChanged(bindNode: BindNode): Boolean =
+    knownBindNodes.get(bindNode) match {
+      case null ⇒
+        val indexed = model.getInstanceForNode(bindNode.node) ne null
+        knownBindNodes.put(bindNode, indexed)
+        if (indexed) {
+          val key = underlyingNode(bindNode.node)
+          bindNodesByNode.get(key) match {
+            case null     ⇒ bindNodesByNode.put(key, List(bindNode))
+            case existing ⇒ bindNodesByNode.put(key, bindNode :: existing)
+          }
+        }
+        true
+      case java.lang.Boolean.FALSE ⇒
+        true
+      case _ ⇒
+        allChanged || affectedBindNodes.containsKey(bindNode)
+    }
+
+  // Count a validation which was either evaluated or skipped
+  def countValidation(evaluated: Boolean): Unit =
+    if (evaluated)
+      _evaluatedCount += 1
+    else
+      _skippedCount += 1
+}
+
+private object ValidationDependencies {
+
+  val Present = new AnyRef
+
+  def underlyingNode(nodeInfo: NodeInfo): AnyRef = nodeInfo match {
+    case virtualNode: VirtualNode ⇒ virtualNode.getUnderlyingNode
+    case other                    ⇒ other
+  }
+}
@@ -26,9 +26,9 @@ import org.orbeon.oxf.xforms.analysis.model.Instance
 import org.orbeon.oxf.xforms.control.controls.XFormsRepeatControl
 import org.orbeon.oxf.xforms.event._
 import org.orbeon.oxf.xforms.event.events._
-import org.orbeon.oxf.xforms.state.InstanceState
+import org.orbeon.oxf.xforms.state.{BinaryInstanceContent, InstanceState, JournalInstanceContent, XMLInstanceContent}
 import org.orbeon.oxf.xml.dom4j.{Dom4jUtils, LocationData}
-import org.orbeon.oxf.xml.{TransformerUtils, XMLReceiver}
+import org.orbeon.oxf.xml.{BinaryXML, TransformerUtils, XMLReceiver}
 import org.orbeon.saxon.om.{DocumentInfo, NodeInfo, VirtualNode}
 import org.orbeon.scaxon.NodeConversions._
 import org.orbeon.xforms.XFormsId
@@ -275,6 +275,15 @@ class XFormsInstance(
       (TransformerUtils.dom4jToString(_, false)) getOrElse
         TransformerUtils.tinyTreeToString(_documentInfo)
 
+  // Content in the compact binary format used for the dynamic state
+  def contentAsBinaryXML: Array[Byte] =
+    BinaryXML.encode { receiver ⇒
+      underlyingDocumentOpt match {
+        case Some(document) ⇒ TransformerUtils.writeDom4j(document, receiver)
+        case None           ⇒ TransformerUtils.writeTinyTree(_documentInfo, receiver)
+      }
+    }
+
   // Don't allow any external events
   def allowExternalEvent(eventName: String) = false
 
@@ -527,6 +536,12 @@ object XFormsInstance extends Logging {
     else
       wrapDocument(Dom4jUtils.readDom4j(xmlString), exposeXPathTypes)
 
+  def createDocumentInfo(binaryXML: Array[Byte], readonly: Boolean, exposeXPathTypes: Boolean): DocumentInfo =
+    if (readonly)
+      BinaryXML.decodeToTinyTree(XPath.GlobalConfiguration, binaryXML)
+    else
+      wrapDocument(BinaryXML.decodeToDom4j(binaryXML), exposeXPathTypes)
+
   // Take a non-wrapped DocumentInfo and wrap it if needed
   def wrapDocumentInfo(documentInfo: DocumentInfo, readonly: Boolean, exposeXPathTypes: Boolean): DocumentInfo = {
     assert(
@@ -567,16 +582,31 @@ object XFormsInstance extends Logging {
             )
           )
 
-        case Right(content) ⇒
+        case Right(XMLInstanceContent(xml)) ⇒
           debug("using initialized instance from state", Seq("id" → instanceState.effectiveId))
           (
             None,
             createDocumentInfo(
-              content,
+              xml,
               instanceState.readonly,
               instance.exposeXPathTypes
             )
           )
+
+        case Right(BinaryInstanceContent(bytes)) ⇒
+          debug("using initialized instance from binary state", Seq("id" → instanceState.effectiveId))
+          (
+            None,
+            createDocumentInfo(
+              bytes,
+              instanceState.readonly,
+              instance.exposeXPathTypes
+            )
+          )
+
+        case Right(JournalInstanceContent(_)) ⇒
+          // The state store replays journals on top of the last full state before returning the state
+          throw new IllegalStateException(s"instance journal not applied for instance `${instanceState.effectiveId}`")
       }
 
     model.indexInstance(
@@ -20,6 +20,7 @@ import org.orbeon.oxf.util.CoreUtils._
 import org.orbeon.oxf.util.Logging
 import org.orbeon.oxf.xforms._
 import org.orbeon.oxf.xforms.analysis.model.Model
+import org.orbeon.oxf.xforms.analytics.Phase
 import org.orbeon.oxf.xforms.event.events.{XXFormsInvalidEvent, XXFormsValidEvent}
 import org.orbeon.oxf.xforms.event.{Dispatch, ListenersTrait, XFormsEvent}
 import org.orbeon.oxf.xforms.function.XFormsFunction
@@ -66,19 +67,22 @@ abstract class XFormsModelBase(val container: XBLContainer, val effectiveId: Str
     deferredActionContext.markStructuralChange(defaultsStrategy, instanceOpt map (_.getId))
     // NOTE: PathMapXPathDependencies doesn't yet make use of the `instance` parameter.
     containingDocument.getXPathDependencies.markStructuralChange(selfModel, instanceOpt)
+    containingDocument.getStateJournal.markStructuralChange()
   }
 
   def doRebuild(): Unit = {
     if (deferredActionContext.rebuild) {
       try {
-        resetAndEvaluateVariables()
-        bindsIfInstance foreach { binds ⇒
-          // NOTE: contextStack.resetBindingContext(this) called in evaluateVariables()
-          binds.rebuild()
+        containingDocument.getRequestStats.withPhase(Phase.Rebuild) {
+          resetAndEvaluateVariables()
+          bindsIfInstance foreach { binds ⇒
+            // NOTE: contextStack.resetBindingContext(this) called in evaluateVariables()
+            binds.rebuild()
 
-          // Controls may have @bind or bind() references, so we need to mark them as dirty. Will need dependencies for controls to fix this.
-          // TODO: Handle XPathDependencies
-          container.requireRefresh()
+            // Controls may have @bind or bind() references, so we need to mark them as dirty. Will need dependencies for controls to fix this.
+            // TODO: Handle XPathDependencies
+            container.requireRefresh()
+          }
         }
       } finally {
         deferredActionContext.resetRebuild()
@@ -103,7 +107,9 @@ abstract class XFormsModelBase(val container: XBLContainer, val effectiveId: Str
       if (deferredActionContext.recalculateRevalidate) {
         try {
 
-          doRecalculate(deferredActionContext.defaultsStrategy, collector)
+          containingDocument.getRequestStats.withPhase(Phase.Recalculate) {
+            doRecalculate(deferredActionContext.defaultsStrategy, collector)
+          }
           containingDocument.getXPathDependencies.recalculateDone(selfModel)
 
           // Validate only if needed, including checking the flags, because if validation state is clean, validation
@@ -111,7 +117,10 @@ abstract class XFormsModelBase(val container: XBLContainer, val effectiveId: Str
           val mustRevalidate = bindsIfInstance.isDefined || hasSchema
 
           mustRevalidate option {
-            val invalidInstances = doRevalidate(collector)
+            val invalidInstances =
+              containingDocument.getRequestStats.withPhase(Phase.Revalidate) {
+                doRevalidate(collector)
+              }
             containingDocument.getXPathDependencies.revalidateDone(selfModel)
             invalidInstances
           }
@@ -48,6 +48,8 @@ class XFormsModelBinds(protected val model: XFormsModel)
   protected implicit def logger = model.getIndentedLogger
   protected implicit def reporter: XPath.Reporter = containingDocument.getRequestStats.addXPathStat
 
+  val validationDependencies = new ValidationDependencies(model)
+
   // Support for `xxf:evaluate-bind-property` function
   def evaluateBindByType(bind: RuntimeBind, position: Int, mipType: QName): Option[AtomicValue] = {
 
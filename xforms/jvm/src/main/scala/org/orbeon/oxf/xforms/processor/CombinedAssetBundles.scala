@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.processor
+
+import java.io._
+import java.nio.file.Files
+import java.security.{DigestOutputStream, MessageDigest}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.{Deflater, GZIPOutputStream}
+
+import org.orbeon.oxf.util.CoreUtils._
+import org.orbeon.oxf.util.IOUtils._
+import org.orbeon.oxf.util.StringUtils._
+import org.orbeon.oxf.util.{Logging, SecureUtils}
+import org.orbeon.oxf.xforms.{AssetPath, XFormsProperties}
+
+// Combined CSS or JavaScript assets, built once on first use and then served as is.
+//
+// Each bundle is stored in a file, next to a precompressed gzip variant, and has strong ETags derived from the digest
+// of its content. As bundles are only rebuilt if their files are removed, changes to the assets are only picked up
+// after a restart, which is the expected setup in production, where assets are versioned.
+object CombinedAssetBundles extends Logging {
+
+  case class Bundle(file: File, gzipFile: File, digest: String, lastModified: Long) {
+    // The gzip variant is a different representation, so it must have its own strong ETag
+    def etag     = "\"" + digest + "\""
+    def gzipEtag = "\"" + digest + "-gzip\""
+
+    def exists = file.exists && gzipFile.exists
+  }
+
+  // The namespace is part of the content of CSS bundles only
+  private case class Key(hash: String, namespaceOpt: Option[String], isCSS: Boolean)
+
+  private val bundles         = new ConcurrentHashMap[Key, Bundle]
+  private val namespaces      = ConcurrentHashMap.newKeySet[String]
+  private val nextBundleIndex = new AtomicInteger
+
+  // Portlet namespaces are made of characters valid in JavaScript and CSS identifiers
+  private val NamespaceRegex = """[A-Za-z0-9_$-]{1,128}""".r
+
+  private lazy val directory =
+    XFormsProperties.getPrecompressCombinedResourcesDirectory.trimAllToOpt match {
+      case Some(path) ⇒
+        new File(path)
+      case None ⇒
+        Files.createTempDirectory("orbeon-assets").toFile |!> (_.deleteOnExit())
+    }
+
+  // Return `None` if no bundle is built for the namespace, in which case the assets are served without bundle. As the
+  // namespace comes from a request parameter, bundles are only built for a bounded number of valid namespaces.
+  def findOrBuild(
+    hash         : String,
+    assetPaths   : List[AssetPath],
+    namespaceOpt : Option[String],
+    isCSS        : Boolean
+  ): Option[Bundle] = {
+
+    val bundleNamespaceOpt = namespaceOpt filter (_ ⇒ isCSS)
+
+    bundleNamespaceOpt forall acceptNamespace option {
+
+      val key = Key(hash, bundleNamespaceOpt, isCSS)
+
+      Option(bundles.get(key)) filter (_.exists) getOrElse
+        bundles.compute(
+          key,
+          (_, existing) ⇒
+            if ((existing ne null) && existing.exists)
+              existing
+            else
+              build(assetPaths, bundleNamespaceOpt, isCSS)
+        )
+    }
+  }
+
+  private def acceptNamespace(namespace: String): Boolean =
+    NamespaceRegex.pattern.matcher(namespace).matches && (
+      namespaces.contains(namespace) ||
+      namespaces.synchronized {
+        namespaces.contains(namespace) ||
+        namespaces.size < XFormsProperties.getPrecompressCombinedResourcesMaxNamespaces && namespaces.add(namespace)
+      }
+    )
+
+  private def build(assetPaths: List[AssetPath], namespaceOpt: Option[String], isCSS: Boolean): Bundle = {
+
+    implicit val indentedLogger = XFormsResourceServer.indentedLogger
+
+    // Name files with an index rather than with the namespace, so that names are distinct for distinct namespaces
+    val name     = "orbeon-" + nextBundleIndex.incrementAndGet() + "." + (if (isCSS) "css" else "js")
+    val file     = new File(directory, name)
+    val gzipFile = new File(directory, name + ".gz")
+
+    // The directory might have been removed, for example by a cleanup of temporary files
+    directory.mkdirs()
+
+    file.deleteOnExit()
+    gzipFile.deleteOnExit()
+
+    debug("building combined assets bundle", Seq("file" → file.getAbsolutePath))
+
+    val lastModified = XFormsResourceRewriter.computeCombinedLastModified(assetPaths, isMinimal = false)
+
+    val messageDigest = MessageDigest.getInstance("SHA-256")
+    XFormsResourceRewriter.generateAndClose(
+      assetPaths,
+      namespaceOpt,
+      new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(file)), messageDigest),
+      isCSS,
+      isMinimal = false
+    )
+
+    // Compression happens once, so use the best compression
+    useAndClose(new FileInputStream(file)) { is ⇒
+      useAndClose(new GZIPOutputStream(new FileOutputStream(gzipFile)) { `def`.setLevel(Deflater.BEST_COMPRESSION) }) { os ⇒
+        copyStream(is, os)
+      }
+    }
+
+    Bundle(file, gzipFile, SecureUtils.byteArrayToHex(messageDigest.digest), lastModified)
+  }
+}
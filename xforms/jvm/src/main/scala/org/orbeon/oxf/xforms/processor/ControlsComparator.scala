@@ -41,6 +41,10 @@ class ControlsComparator(
   private val breaks = new Breaks
   import breaks._
 
+  // Number of controls compared so far, for request statistics
+  private var _diffedCount = 0
+  def diffedCount: Int = _diffedCount
+
   def diffChildren(
     left             : Seq[XFormsControl],
     right            : Seq[XFormsControl],
@@ -58,6 +62,7 @@ class ControlsComparator(
       } locally {
 
         // 1: Diffs for current control
+        _diffedCount += 1
         outputSingleControlDiffIfNeeded(control1Opt, control2)
 
         if (fullUpdateBuffer exists (_.getAttributesCount >= FullUpdateThreshold))
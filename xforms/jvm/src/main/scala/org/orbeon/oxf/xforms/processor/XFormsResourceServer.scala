@@ -15,13 +15,16 @@ package org.orbeon.oxf.xforms.processor
 
 import java.io._
 import java.net.{URI, URLEncoder}
+import java.nio.channels.{Channels, FileChannel}
+import java.nio.file.StandardOpenOption
+import java.{lang ⇒ jl}
 
 import org.orbeon.exception.OrbeonFormatter
 import org.orbeon.io.{CharsetNames, UriScheme}
 import org.orbeon.oxf.externalcontext.ExternalContext.SessionScope
 import org.orbeon.oxf.externalcontext.{ExternalContext, URLRewriter}
 import org.orbeon.oxf.http.HttpMethod.GET
-import org.orbeon.oxf.http.StatusCode
+import org.orbeon.oxf.http.{Headers, StatusCode}
 import org.orbeon.oxf.pipeline.api.PipelineContext
 import org.orbeon.oxf.processor.{ProcessorImpl, ResourceServer}
 import org.orbeon.oxf.util.IOUtils._
@@ -212,6 +215,24 @@ class XFormsResourceServer extends ProcessorImpl with Logging {
     }
 
     val isMinimal = false
+    val isCSS     = ext == "css"
+
+    // Namespace to use, must be None if empty
+    def namespaceOpt = {
+      def nsFromParameters = Option(externalContext.getRequest.getParameterMap.get(NamespaceParameter)) map (_(0).asInstanceOf[String])
+      def nsFromContainer  = Some(response.getNamespacePrefix)
+
+      nsFromParameters orElse nsFromContainer filter (_.nonEmpty)
+    }
+
+    if (XFormsProperties.isPrecompressCombinedResources)
+      CombinedAssetBundles.findOrBuild(hash, resources, namespaceOpt, isCSS) match {
+        case Some(bundle) ⇒
+          serveBundle(requestTime, bundle, isCSS)
+          return
+        case None ⇒
+          // Namespace for which no bundle is built
+      }
 
     // Get last modified date
     val combinedLastModified = XFormsResourceRewriter.computeCombinedLastModified(resources, isMinimal)
@@ -230,18 +251,8 @@ class XFormsResourceServer extends ProcessorImpl with Logging {
       return
     }
 
-    val isCSS = ext == "css"
-
     response.setContentType(if (isCSS) ContentTypes.CssContentTypeWithCharset else ContentTypes.JavaScriptContentTypeWithCharset)
 
-    // Namespace to use, must be None if empty
-    def namespaceOpt = {
-      def nsFromParameters = Option(externalContext.getRequest.getParameterMap.get(NamespaceParameter)) map (_(0).asInstanceOf[String])
-      def nsFromContainer  = Some(response.getNamespacePrefix)
-
-      nsFromParameters orElse nsFromContainer filter (_.nonEmpty)
-    }
-
     val requestPath = externalContext.getRequest.getRequestPath
 
     def debugParameters = Seq("request path" → requestPath)
@@ -274,6 +285,74 @@ class XFormsResourceServer extends ProcessorImpl with Logging {
       XFormsResourceRewriter.generateAndClose(resources, namespaceOpt, response.getOutputStream, isCSS, isMinimal)
     }
   }
+
+  // Serve a bundle built once, without checking whether the assets have changed, and with the gzip variant if the client
+  // accepts it
+  private def serveBundle(
+    requestTime     : Long,
+    bundle          : CombinedAssetBundles.Bundle,
+    isCSS           : Boolean)(implicit
+    externalContext : ExternalContext
+  ): Unit = {
+
+    val request  = externalContext.getRequest
+    val response = externalContext.getResponse
+
+    val useGzip = acceptsGzip(request.getFirstHeader(Headers.AcceptEncodingLower))
+
+    if (URLRewriterUtils.isResourcesVersioned)
+      response.setResourceCaching(bundle.lastModified, requestTime + ResourceServer.ONE_YEAR_IN_MILLISECONDS)
+    else
+      response.setResourceCaching(bundle.lastModified, 0)
+
+    val etag = if (useGzip) bundle.gzipEtag else bundle.etag
+
+    response.setHeader(Headers.ETag, etag)
+    response.setHeader(Headers.Vary, Headers.AcceptEncoding)
+
+    // If-None-Match takes precedence over If-Modified-Since
+    val notModified =
+      request.getFirstHeader(Headers.IfNoneMatchLower) match {
+        case Some(ifNoneMatch) ⇒
+          ifNoneMatchMatches(ifNoneMatch, etag)
+        case None ⇒
+          ! response.checkIfModifiedSince(request, bundle.lastModified)
+      }
+
+    if (notModified) {
+      response.setStatus(StatusCode.NotModified)
+    } else {
+      response.setContentType(if (isCSS) ContentTypes.CssContentTypeWithCharset else ContentTypes.JavaScriptContentTypeWithCharset)
+      if (useGzip)
+        response.setHeader(Headers.ContentEncoding, "gzip")
+      sendFile(if (useGzip) bundle.gzipFile else bundle.file)
+    }
+  }
+
+  // Use the container's support to send the file directly to the socket if available, and otherwise transfer the file
+  // channel to the response without copying through an intermediate buffer
+  private def sendFile(file: File)(implicit externalContext: ExternalContext): Unit = {
+
+    val attributes = externalContext.getRequest.getAttributesMap
+    val response   = externalContext.getResponse
+    val length     = file.length
+
+    response.setContentLength(length.toInt)
+
+    if (attributes.get(TomcatSendfileSupport) == jl.Boolean.TRUE) {
+      attributes.put(TomcatSendfileFilename, file.getAbsolutePath)
+      attributes.put(TomcatSendfileStart, jl.Long.valueOf(0L))
+      attributes.put(TomcatSendfileEnd, jl.Long.valueOf(length))
+    } else {
+      useAndClose(FileChannel.open(file.toPath, StandardOpenOption.READ)) { channel ⇒
+        useAndClose(Channels.newChannel(response.getOutputStream)) { os ⇒
+          var position = 0L
+          while (position < length)
+            position += channel.transferTo(position, length - position, os)
+        }
+      }
+    }
+  }
 }
 
 object XFormsResourceServer {
@@ -292,6 +371,30 @@ object XFormsResourceServer {
   val DynamicResourcesPath       = XFormServerPrefix + "dynamic/"
   val NamespaceParameter         = "ns"
 
+  private val TomcatSendfileSupport  = "org.apache.tomcat.sendfile.support"
+  private val TomcatSendfileFilename = "org.apache.tomcat.sendfile.filename"
+  private val TomcatSendfileStart    = "org.apache.tomcat.sendfile.start"
+  private val TomcatSendfileEnd      = "org.apache.tomcat.sendfile.end"
+
+  // Whether `Accept-Encoding` lists gzip, or any coding, without excluding it with `q=0`
+  def acceptsGzip(acceptEncodingOpt: Option[String]): Boolean =
+    acceptEncodingOpt exists { acceptEncoding ⇒
+      acceptEncoding.split(',') exists { coding ⇒
+        val parts = coding.split(';') map (_.trim)
+        val name  = parts.head.toLowerCase
+        (name == "gzip" || name == "*") && ! (parts.tail exists (_.replaceAll("\\s", "").matches("q=0(\\.0*)?")))
+      }
+    }
+
+  // Whether `If-None-Match` lists the entity tag, or any entity tag, using the weak comparison required for this header,
+  // which ignores the `W/` prefix, as servers and proxies can make entity tags weak when they transform the response
+  def ifNoneMatchMatches(ifNoneMatch: String, etag: String): Boolean = {
+
+    def opaqueTag(tag: String) = if (tag.startsWith("W/")) tag.substring(2) else tag
+
+    ifNoneMatch.split(',') map (_.trim) exists (tag ⇒ tag == "*" || opaqueTag(tag) == opaqueTag(etag))
+  }
+
   implicit def indentedLogger: IndentedLogger = Loggers.getIndentedLogger("resources")
 
   // Transform an URI accessible from the server into a URI accessible from the client.
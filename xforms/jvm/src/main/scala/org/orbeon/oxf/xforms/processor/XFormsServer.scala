@@ -365,6 +365,8 @@ object XFormsServer {
             right            = state2,
             fullUpdateBuffer = None
           )
+
+          containingDocument.getRequestStats.addControlsDiffed(comparator.diffedCount)
         }
       }
 
@@ -752,6 +754,7 @@ class XFormsServer extends ProcessorImpl {
 
                               // Store response in to document
                               containingDocument.rememberLastAjaxResponse(responseStore)
+                              containingDocument.getRequestStats.addResponseBytes(responseStore.getApproximateSize)
 
                               // Actually output response
                               // If there is an error, we do not
@@ -21,10 +21,12 @@ import org.orbeon.oxf.util.URLRewriterUtils.PathMatcher
 import org.orbeon.oxf.xforms._
 import control.Controls.ControlsIterator
 import org.orbeon.dom
-import org.orbeon.oxf.xml.{EncodeDecode, SAXStore, TransformerUtils}
+import org.orbeon.oxf.xml.{BinaryXML, EncodeDecode, SAXStore, TransformerUtils}
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
 import org.orbeon.dom.{Document, DocumentFactory, Element}
 import org.orbeon.oxf.xforms.control.{XFormsComponentControl, XFormsControl}
 import org.orbeon.oxf.xforms.model.{InstanceCaching, XFormsInstance}
+import org.orbeon.oxf.xforms.xbl.XBLContainer
 import org.orbeon.xforms.XFormsId
 
 // Immutable representation of the dynamic state
@@ -126,8 +128,7 @@ case class DynamicState(
 
           instanceState.cachingOrContent match {
             case Left(caching)  ⇒ caching.writeAttributes(att)
-            case Right(content) ⇒ instanceElement.addText(content)
-
+            case Right(content) ⇒ instanceElement.addText(content.toXMLString)
           }
 
           instanceElement
@@ -200,7 +201,7 @@ case class ControlState(
 case class InstanceState(
   effectiveId      : String,
   modelEffectiveId : String,
-  cachingOrContent : InstanceCaching Either String,
+  cachingOrContent : InstanceCaching Either InstanceContent,
   readonly         : Boolean,
   modified         : Boolean,
   valid            : Boolean
@@ -210,12 +211,45 @@ case class InstanceState(
     this(
       instance.getEffectiveId,
       instance.parent.getEffectiveId,
-      instance.instanceCaching.toLeft(instance.contentAsString),
+      instance.instanceCaching.toLeft(InstanceContent(instance)),
       instance.readonly,
       instance.modified,
       instance.valid)
 }
 
+// Serialized content of an instance
+sealed trait InstanceContent {
+  def toXMLString: String
+}
+
+// Content as XML text, which requires XML serialization and parsing
+case class XMLInstanceContent(xml: String) extends InstanceContent {
+  def toXMLString = xml
+}
+
+// Content in the compact `BinaryXML` format, which avoids XML serialization and parsing
+//
+// The bytes are kept as an array, which is not copied when decoding, and must not be modified.
+case class BinaryInstanceContent(bytes: Array[Byte]) extends InstanceContent {
+  def toXMLString = TransformerUtils.dom4jToString(BinaryXML.decodeToDom4j(bytes), false)
+}
+
+// Value changes to apply on top of the content of the instance in the last full dynamic state
+case class JournalInstanceContent(changes: List[(String, String)]) extends InstanceContent {
+  def toXMLString = throw new IllegalStateException("instance journal must be applied first")
+}
+
+object InstanceContent {
+  def apply(instance: XFormsInstance): InstanceContent =
+    if (XFormsProperties.isBinaryState)
+      BinaryInstanceContent(instance.contentAsBinaryXML)
+    else
+      XMLInstanceContent(instance.contentAsString)
+}
+
+// Dynamic state stored as instance changes relative to the full dynamic state stored with the given sequence number
+case class DynamicStateDelta(snapshotSequence: Long, state: DynamicState)
+
 case class InstancesControls(instances: List[InstanceState], controls: Map[String, ControlState]) {
   def instancesJava = instances.asJava
 }
@@ -227,7 +261,72 @@ object DynamicState {
     apply(document, document.getControls.getCurrentControlTree.rootOpt)
 
   // Create a DynamicState from a control
-  def apply(document: XFormsContainingDocument, startOpt: Option[XFormsControl]): DynamicState = {
+  def apply(document: XFormsContainingDocument, startOpt: Option[XFormsControl]): DynamicState =
+    create(document, startOpt, new InstanceState(_))
+
+  // Create a DynamicState where the content of instances is replaced by the changes recorded in the journal since
+  // the last full dynamic state was stored
+  def delta(document: XFormsContainingDocument, journal: DynamicStateJournal): DynamicState =
+    create(
+      document,
+      document.getControls.getCurrentControlTree.rootOpt,
+      instance ⇒ new InstanceState(instance).copy(
+        cachingOrContent = instance.instanceCaching.toLeft(JournalInstanceContent(journal.changesForInstance(instance.getEffectiveId)))
+      )
+    )
+
+  // Effective ids of the instances which are part of the dynamic state of the document
+  def instanceIds(document: XFormsContainingDocument): Set[String] =
+    instancesToSerialize(Some(document)) map (_.getEffectiveId) toSet
+
+  // Replay the instance changes of a delta state on top of the given full state
+  def applyDelta(snapshot: DynamicState, delta: DynamicState): DynamicState = {
+
+    val snapshotInstances = snapshot.decodeInstances map (i ⇒ i.effectiveId → i) toMap
+
+    def applyChanges(content: InstanceContent, changes: List[(String, String)]): InstanceContent =
+      if (changes.isEmpty)
+        content
+      else
+        content match {
+          case XMLInstanceContent(xml) ⇒
+            val document = Dom4jUtils.readDom4j(xml)
+            for ((path, value) ← changes)
+              DynamicStateJournal.applyChange(document, path, value)
+            XMLInstanceContent(TransformerUtils.dom4jToString(document, false))
+          case BinaryInstanceContent(bytes) ⇒
+            val document = BinaryXML.decodeToDom4j(bytes)
+            for ((path, value) ← changes)
+              DynamicStateJournal.applyChange(document, path, value)
+            BinaryInstanceContent(BinaryXML.encode(TransformerUtils.writeDom4j(document, _)))
+          case JournalInstanceContent(_) ⇒
+            throw new IllegalStateException("full state cannot contain instance journals")
+        }
+
+    val instances =
+      delta.decodeInstances map { deltaInstance ⇒
+        deltaInstance.cachingOrContent match {
+          case Right(JournalInstanceContent(changes)) ⇒
+            snapshotInstances.get(deltaInstance.effectiveId) map (_.cachingOrContent) match {
+              case Some(Right(content)) ⇒ deltaInstance.copy(cachingOrContent = Right(applyChanges(content, changes)))
+              case _                    ⇒ throw new IllegalStateException(s"no content for instance `${deltaInstance.effectiveId}` in full state")
+            }
+          case _ ⇒
+            deltaInstance
+        }
+      }
+
+    delta.copy(instances = toByteSeq(instances))
+  }
+
+  private def instancesToSerialize(startContainerOpt: Option[XBLContainer]) =
+    startContainerOpt.iterator flatMap (_.allModels) flatMap (_.getInstances.asScala.iterator) filter (_.mustSerialize)
+
+  private def create(
+    document      : XFormsContainingDocument,
+    startOpt      : Option[XFormsControl],
+    instanceState : XFormsInstance ⇒ InstanceState
+  ): DynamicState = {
 
     val startContainerOpt = startOpt match {
       case Some(componentControl: XFormsComponentControl) ⇒ componentControl.nestedContainerOpt
@@ -276,7 +375,7 @@ object DynamicState {
       focusedControl      = document.getControls.getFocusedControl map (_.getEffectiveId),
       pendingUploads      = toByteSeq(document.getPendingUploads.asScala.toSet),
       lastAjaxResponse    = toByteSeq(Option(document.getLastAjaxResponse)),
-      instances           = toByteSeq(startContainerOpt.iterator flatMap (_.allModels) flatMap (_.getInstances.asScala.iterator) filter (_.mustSerialize) map (new InstanceState(_)) toList),
+      instances           = toByteSeq(instancesToSerialize(startContainerOpt) map instanceState toList),
       controls            = toByteSeq(controlsToSerialize),
       initialClientScript = document.initialClientScript
     )
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import org.orbeon.dom
+import org.orbeon.oxf.xforms.model.XFormsInstance
+import org.orbeon.saxon.om.{NodeInfo, VirtualNode}
+
+import scala.annotation.tailrec
+import scala.collection.JavaConverters._
+import scala.collection.{mutable ⇒ m}
+
+// Journal of the instance value changes which took place since the last full snapshot of the dynamic state was stored
+//
+// This allows the state store to persist only the values which changed instead of the entire instances. As long as
+// the changes are only value changes, they can be replayed on top of the last snapshot. Anything else, including
+// insertions, deletions and instance replacements, requires a new snapshot.
+//
+// Changed nodes are identified by a path from the root element, made of the indexes of elements among their element
+// siblings, optionally followed by the name of an attribute, for example `/2/0/5` or `/2/0/5/@{}id`.
+class DynamicStateJournal(val enabled: Boolean, maxChanges: Int) {
+
+  import DynamicStateJournal._
+
+  private var _snapshotSequenceOpt : Option[Long]  = None
+  private var snapshotInstanceIds  : Set[String]   = Set.empty
+  private var structuralChange     : Boolean       = false
+  private val valueChanges = m.LinkedHashMap[(String, String), String]()
+
+  def snapshotSequenceOpt: Option[Long] = _snapshotSequenceOpt
+
+  def markValueChanged(instance: XFormsInstance, nodeInfo: NodeInfo): Unit =
+    if (enabled && ! structuralChange)
+      nodeInfo match {
+        case virtualNode: VirtualNode ⇒
+          pathForNode(virtualNode.getUnderlyingNode.asInstanceOf[dom.Node]) map (instance.getEffectiveId → _) match {
+            case Some(key) if valueChanges.size < maxChanges || valueChanges.contains(key) ⇒
+              valueChanges += key → nodeInfo.getStringValue
+            case _ ⇒
+              // Too many changes or unsupported node: the next time the state is stored, store it in full
+              markStructuralChange()
+          }
+        case _ ⇒
+          markStructuralChange()
+      }
+
+  def markStructuralChange(): Unit =
+    if (enabled) {
+      structuralChange = true
+      valueChanges.clear()
+    }
+
+  // Whether the changes since the last snapshot can be stored as a delta for a document with the given instances
+  def canStoreDelta(instanceIds: Set[String]): Boolean =
+    enabled && _snapshotSequenceOpt.isDefined && ! structuralChange && instanceIds == snapshotInstanceIds
+
+  // Changes for the given instance, in the order in which they were first made
+  def changesForInstance(instanceEffectiveId: String): List[(String, String)] =
+    valueChanges.iterator collect { case ((`instanceEffectiveId`, path), value) ⇒ path → value } toList
+
+  def snapshotStored(sequence: Long, instanceIds: Set[String]): Unit = {
+    _snapshotSequenceOpt = Some(sequence)
+    snapshotInstanceIds  = instanceIds
+    structuralChange     = false
+    valueChanges.clear()
+  }
+}
+
+object DynamicStateJournal {
+
+  // Return `None` if the node is not an element or attribute within the root element
+  def pathForNode(node: dom.Node): Option[String] = {
+
+    @tailrec
+    def elementPath(element: dom.Element, acc: List[Int]): List[Int] =
+      element.getParent match {
+        case null   ⇒ acc
+        case parent ⇒ elementPath(parent, parent.elements.indexOf(element) :: acc)
+      }
+
+    def pathString(element: dom.Element) =
+      elementPath(element, Nil) map ("/" + _) mkString
+
+    node match {
+      case element: dom.Element if element.getDocument ne null ⇒
+        Some(pathString(element))
+      case attribute: dom.Attribute if (attribute.getParent ne null) && (attribute.getParent.getDocument ne null) ⇒
+        Some(pathString(attribute.getParent) + "/@{" + attribute.getNamespaceURI + "}" + attribute.getName)
+      case _ ⇒
+        None
+    }
+  }
+
+  // Apply a change to the node pointed to by the path, which must exist
+  def applyChange(document: dom.Document, path: String, value: String): Unit = {
+
+    // The attribute namespace URI can contain `/`, so split it out first
+    val (elementPath, attributeStepOpt) =
+      path.indexOf("/@") match {
+        case -1    ⇒ (path, None)
+        case index ⇒ (path.substring(0, index), Some(path.substring(index + 1)))
+      }
+
+    val element =
+      (elementPath.split('/').iterator filter (_.nonEmpty) map (_.toInt)).foldLeft(document.getRootElement) {
+        (current, index) ⇒ current.elements.get(index)
+      }
+
+    attributeStepOpt match {
+      case Some(attributeStep) ⇒
+        val closing   = attributeStep.indexOf('}')
+        val uri       = attributeStep.substring("@{".length, closing)
+        val localName = attributeStep.substring(closing + 1)
+
+        element.attributes.asScala find (a ⇒ a.getNamespaceURI == uri && a.getName == localName) match {
+          case Some(attribute) ⇒ attribute.setValue(value)
+          case None            ⇒ throw new IllegalStateException(s"attribute not found for path `$path`")
+        }
+      case None ⇒
+        element.clearContent()
+        if (value.nonEmpty)
+          element.setText(value)
+    }
+  }
+}
@@ -43,18 +43,43 @@ object EhcacheStateStore {
       "replication"               → XFormsProperties.isReplication.toString
     )) {
       val staticStateDigest = document.getStaticState.digest
-      val dynamicStateKey   = createDynamicStateKey(documentUUID, isInitialState)
       val sequence          = document.getSequence
+      val journal           = document.getStateJournal
 
       def addOrReplaceOne(key: String, value: java.io.Serializable): Unit =
         Caches.stateCache.put(new EhElement(key, value, sequence))
 
+      // When possible, store only the instance values which changed since the last full dynamic state
+      val deltaSnapshotSequenceOpt =
+        if (isInitialState)
+          None
+        else
+          journal.snapshotSequenceOpt filter { snapshotSequence ⇒
+            journal.canStoreDelta(DynamicState.instanceIds(document)) &&
+              (Option(Caches.stateCache.getQuiet(createDynamicStateKey(documentUUID, isInitialState = false))) exists (_.getVersion == snapshotSequence))
+          }
+
+      val dynamicStateKey =
+        if (deltaSnapshotSequenceOpt.isDefined) createDeltaDynamicStateKey(documentUUID) else createDynamicStateKey(documentUUID, isInitialState)
+
+      debug("storing dynamic state", List("delta" → deltaSnapshotSequenceOpt.isDefined.toString))
+
       // Mapping (UUID → static state key : dynamic state key
       addOrReplaceOne(documentUUID, staticStateDigest + ":" + dynamicStateKey)
 
       // Static and dynamic states
       addOrReplaceOne(staticStateDigest, document.getStaticState.encodedState) // XXX Q: is there a cost to replacing static state? value will be the same!
-      addOrReplaceOne(dynamicStateKey, DynamicState(document))
+
+      deltaSnapshotSequenceOpt match {
+        case Some(snapshotSequence) ⇒
+          addOrReplaceOne(dynamicStateKey, DynamicStateDelta(snapshotSequence, DynamicState.delta(document, journal)))
+        case None ⇒
+          addOrReplaceOne(dynamicStateKey, DynamicState(document))
+          if (! isInitialState && journal.enabled) {
+            Caches.stateCache.remove(createDeltaDynamicStateKey(documentUUID))
+            journal.snapshotStored(sequence, DynamicState.instanceIds(document))
+          }
+      }
     }
   }
 
@@ -91,10 +116,19 @@ object EhcacheStateStore {
           // If isInitialState == true, force finding the initial state. Otherwise, use current state stored in mapping.
           val dynamicStateKey = if (isInitialState) createDynamicStateKey(documentUUID, isInitialState = true) else parts(1)
 
+          // Replay the changes of a delta on top of the full dynamic state it was created from
+          def fromDelta(delta: DynamicStateDelta) =
+            Option(Caches.stateCache.get(createDynamicStateKey(documentUUID, isInitialState = false))) filter
+              (_.getVersion == delta.snapshotSequence) map (_.getObjectValue) collect {
+                case snapshot: DynamicState ⇒ DynamicState.applyDelta(snapshot, delta.state)
+              }
+
           // Gather values from cache for both keys and return state only if both are non-null
           Stream(parts(0), dynamicStateKey) flatMap findOne filter (_ ne null) match {
             case Stream(staticState: String, dynamicState: DynamicState) ⇒
               Some(XFormsState(Some(parts(0)), Some(staticState), Some(dynamicState)))
+            case Stream(staticState: String, delta: DynamicStateDelta) ⇒
+              fromDelta(delta) map (dynamicState ⇒ XFormsState(Some(parts(0)), Some(staticState), Some(dynamicState)))
             case _ ⇒
               None
           }
@@ -109,6 +143,7 @@ object EhcacheStateStore {
     Caches.stateCache.remove(documentUUID)
     Caches.stateCache.remove(createDynamicStateKey(documentUUID, isInitialState = true))
     Caches.stateCache.remove(createDynamicStateKey(documentUUID, isInitialState = false))
+    Caches.stateCache.remove(createDeltaDynamicStateKey(documentUUID))
   }
 
   def getMaxSize     : Long = Caches.stateCache.getCacheConfiguration.getMaxEntriesLocalHeap
@@ -120,5 +155,8 @@ object EhcacheStateStore {
 
     def createDynamicStateKey(documentUUID: String, isInitialState: Boolean) =
       documentUUID + (if (isInitialState) "-I" else "-C") // key is different for initial vs. subsequent state
+
+    def createDeltaDynamicStateKey(documentUUID: String) =
+      documentUUID + "-D"
   }
 }
\ No newline at end of file
@@ -14,15 +14,13 @@
 package org.orbeon.oxf.xforms.state
 
 import java.io._
-import javax.xml.transform.OutputKeys
-import javax.xml.transform.stream.StreamResult
 
 import org.orbeon.dom.{Document, Namespace, QName}
+import org.orbeon.oxf.common.OXFException
 import org.orbeon.oxf.util.URLRewriterUtils.PathMatcher
 import org.orbeon.oxf.util.WhitelistObjectInputStream
 import org.orbeon.oxf.xforms.model.InstanceCaching
-import org.orbeon.oxf.xml.dom4j.LocationDocumentSource
-import org.orbeon.oxf.xml.{SAXStore, TransformerUtils}
+import org.orbeon.oxf.xml.{BinaryXML, SAXStore, TransformerUtils}
 import sbinary.Operations._
 import sbinary._
 
@@ -61,18 +59,133 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
       WhitelistObjectInputStream(new JavaInputStream(input), allowedClass).readObject.asInstanceOf[T]
   }
 
-  implicit object DynamicStateFormat extends SerializableFormat[DynamicState] { def allowedClass = classOf[DynamicState] }
-  implicit object SAXStoreFormat     extends SerializableFormat[SAXStore]     { def allowedClass = classOf[SAXStore]     }
+  implicit object SAXStoreFormat extends SerializableFormat[SAXStore] { def allowedClass = classOf[SAXStore] }
 
+  // Write the dynamic state field by field instead of using Java serialization
+  //
+  // The first byte identifies the format. States written with Java serialization start with the serialization stream
+  // magic number and are still readable.
+  implicit object DynamicStateFormat extends Format[DynamicState] {
+
+    private val BinaryFormatVersion: Byte = 1
+    private val JavaSerializationMagicFirstByte = (ObjectStreamConstants.STREAM_MAGIC >> 8).toByte
+
+    private def writeBytes(output: Output, bytes: Seq[Byte]) = write[Array[Byte]](output, bytes.toArray)
+    private def readBytes(input: Input): Seq[Byte]          = read[Array[Byte]](input).toSeq
+
+    private def writeNameValues(output: Output, nameValues: List[(String, List[String])]) = {
+      write(output, nameValues.size)
+      for ((name, values) ← nameValues) {
+        write(output, name)
+        write(output, values)
+      }
+    }
+
+    private def readNameValues(input: Input): List[(String, List[String])] =
+      List.fill(read[Int](input))((read[String](input), read[List[String]](input)))
+
+    def writes(output: Output, state: DynamicState): Unit = {
+      write(output, BinaryFormatVersion)
+      write(output, state.uuid)
+      write(output, state.sequence)
+      write(output, state.deploymentType)
+      write(output, state.requestContextPath)
+      write(output, state.requestPath)
+      writeNameValues(output, state.requestHeaders)
+      writeNameValues(output, state.requestParameters)
+      write(output, state.containerType)
+      write(output, state.containerNamespace)
+      writeBytes(output, state.pathMatchers)
+      write(output, state.focusedControl)
+      writeBytes(output, state.pendingUploads)
+      writeBytes(output, state.lastAjaxResponse)
+      writeBytes(output, state.instances)
+      writeBytes(output, state.controls)
+      write(output, state.initialClientScript)
+    }
+
+    def reads(input: Input): DynamicState =
+      read[Byte](input) match {
+        case BinaryFormatVersion ⇒
+          DynamicState(
+            uuid                = read[String](input),
+            sequence            = read[Long](input),
+            deploymentType      = read[Option[String]](input),
+            requestContextPath  = read[Option[String]](input),
+            requestPath         = read[Option[String]](input),
+            requestHeaders      = readNameValues(input),
+            requestParameters   = readNameValues(input),
+            containerType       = read[Option[String]](input),
+            containerNamespace  = read[Option[String]](input),
+            pathMatchers        = readBytes(input),
+            focusedControl      = read[Option[String]](input),
+            pendingUploads      = readBytes(input),
+            lastAjaxResponse    = readBytes(input),
+            instances           = readBytes(input),
+            controls            = readBytes(input),
+            initialClientScript = read[Option[String]](input)
+          )
+        case JavaSerializationMagicFirstByte ⇒
+          // Put back the first byte for `ObjectInputStream`
+          val inputWithFirstByte =
+            new SequenceInputStream(new ByteArrayInputStream(Array(JavaSerializationMagicFirstByte)), new JavaInputStream(input))
+          WhitelistObjectInputStream(inputWithFirstByte, classOf[DynamicState]).readObject.asInstanceOf[DynamicState]
+        case other ⇒
+          throw new OXFException(s"unknown dynamic state format: `$other`")
+      }
+  }
+
+  // Documents are written in the compact binary XML format instead of as XML text
+  //
+  // The binary format is introduced by a 0 byte. Documents written before as UTF-8 XML text never start with that byte,
+  // and are still readable.
   implicit object Dom4jFormat extends Format[Document] {
+
+    private val BinaryXMLFormat: Byte = 0
+
     def writes(output: Output, document: Document) = {
-      val identity = TransformerUtils.getXMLIdentityTransformer
-      identity.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes")
-      identity.transform(new LocationDocumentSource(document), new StreamResult(new JavaOutputStream(output)))
+      write[Byte](output, BinaryXMLFormat)
+      write[Array[Byte]](output, BinaryXML.encode(TransformerUtils.writeDom4j(document, _)))
     }
 
     def reads(input: Input) =
-      TransformerUtils.readDom4j(new JavaInputStream(input), null, false, false)
+      read[Byte](input) match {
+        case BinaryXMLFormat ⇒
+          BinaryXML.decodeToDom4j(read[Array[Byte]](input))
+        case firstByte ⇒
+          // Put back the first byte for the XML parser
+          val inputWithFirstByte =
+            new SequenceInputStream(new ByteArrayInputStream(Array(firstByte)), new JavaInputStream(input))
+          TransformerUtils.readDom4j(inputWithFirstByte, null, false, false)
+      }
+  }
+
+  implicit object InstanceContentFormat extends Format[InstanceContent] {
+
+    def writes(output: Output, content: InstanceContent): Unit =
+      content match {
+        case XMLInstanceContent(xml)         ⇒ write[Byte](output, 0); write(output, xml)
+        case BinaryInstanceContent(bytes)    ⇒ write[Byte](output, 1); write[Array[Byte]](output, bytes)
+        case JournalInstanceContent(changes) ⇒ write[Byte](output, 2); writeChanges(output, changes)
+      }
+
+    private def writeChanges(output: Output, changes: List[(String, String)]) = {
+      write(output, changes.size)
+      for ((path, value) ← changes) {
+        write(output, path)
+        write(output, value)
+      }
+    }
+
+    private def readChanges(input: Input): List[(String, String)] =
+      List.fill(read[Int](input))((read[String](input), read[String](input)))
+
+    def reads(in: Input) =
+      read[Byte](in) match {
+        case 0 ⇒ XMLInstanceContent(read[String](in))
+        case 1 ⇒ BinaryInstanceContent(read[Array[Byte]](in))
+        case 2 ⇒ JournalInstanceContent(readChanges(in))
+      }
   }
 
   implicit object ControlFormat extends Format[ControlState] {
@@ -112,7 +225,7 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
       write(output, instance.modelEffectiveId)
       instance.cachingOrContent match {
         case Left(caching)  ⇒ write[Byte](output, 0); write(output, caching)
-        case Right(content) ⇒ write[Byte](output, 1); write(output, content)
+        case Right(content) ⇒ write[Byte](output, 2); write(output, content)
       }
       write(output, instance.readonly)
       write(output, instance.modified)
@@ -121,9 +234,11 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
 
     def reads(in: Input) = {
 
+      // 1 is the format where the content was always written as XML text
       def readCachingOrContent = read[Byte](in) match {
         case 0 ⇒ Left(read[InstanceCaching](in))
-        case 1 ⇒ Right(read[String](in))
+        case 1 ⇒ Right(XMLInstanceContent(read[String](in)))
+        case 2 ⇒ Right(read[InstanceContent](in))
       }
 
       InstanceState(
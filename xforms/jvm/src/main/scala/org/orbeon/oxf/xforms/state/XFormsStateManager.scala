@@ -25,6 +25,7 @@ import org.orbeon.oxf.util.CoreUtils._
 import org.orbeon.oxf.util.NetUtils
 import org.orbeon.oxf.util.StringUtils._
 import org.orbeon.oxf.xforms.action.XFormsAPI
+import org.orbeon.oxf.xforms.analytics.XFormsMetrics
 import org.orbeon.oxf.xforms.event.events.XXFormsStateRestoredEvent
 import org.orbeon.oxf.xforms.event.{Dispatch, XFormsEvent}
 import org.orbeon.oxf.xforms.{Loggers, XFormsConstants, XFormsContainingDocument, XFormsProperties}
@@ -410,11 +411,13 @@ object XFormsStateManager extends XFormsStateLifecycle {
 
     def storeDocumentState(containingDocument: XFormsContainingDocument, isInitialState: Boolean): Unit = {
       require(containingDocument.getStaticState.isServerStateHandling)
-      EhcacheStateStore.storeDocumentState(
-        containingDocument,
-        NetUtils.getExternalContext.getRequest.getSession(ForceSessionCreation),
-        isInitialState
-      )
+      XFormsMetrics.withStateStore {
+        EhcacheStateStore.storeDocumentState(
+          containingDocument,
+          NetUtils.getExternalContext.getRequest.getSession(ForceSessionCreation),
+          isInitialState
+        )
+      }
     }
   }
 }
\ No newline at end of file
@@ -15,22 +15,35 @@ package org.orbeon.oxf.xforms.submission
 
 import java.io.{Externalizable, ObjectInput, ObjectOutput}
 import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicInteger
+import java.{util ⇒ ju}
+
 import javax.enterprise.concurrent.ManagedExecutorService
 import javax.naming.{InitialContext, NamingException}
-
+import org.orbeon.oxf.common.OXFException
 import org.orbeon.oxf.externalcontext.{AsyncRequest, LocalExternalContext}
 import org.orbeon.oxf.pipeline.InitUtils._
 import org.orbeon.oxf.pipeline.api.PipelineContext
+import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.util.Logging._
 import org.orbeon.oxf.util.{IndentedLogger, NetUtils}
 import org.orbeon.oxf.xforms.XFormsContainingDocument
 import org.orbeon.oxf.xforms.event.XFormsEvents
 
+import scala.collection.JavaConverters._
+import scala.util.Try
+
 /**
   * Handle asynchronous submissions.
   *
   * The `CompletionService` is stored in the session, indexed by document UUID.
   *
+  * Submissions run on the executor provided by the app server if any, or else on our own threads. In both cases, at
+  * most `oxf.xforms.asynchronous-submission.max-threads` submissions run at a time, and at most
+  * `oxf.xforms.asynchronous-submission.max-per-document` for a given document, with other submissions waiting in a
+  * queue. When `oxf.xforms.asynchronous-submission.max-waiting` submissions are waiting, new submissions run in the
+  * thread making them, which slows down callers instead of growing the queue.
+  *
   * See https://doc.orbeon.com/xforms/submission-asynchronous.html
   * See http://java.sun.com/j2se/1.5.0/docs/api/java/util/concurrent/ExecutorCompletionService.html
   */
@@ -59,7 +72,7 @@ class AsynchronousSubmissionManager(val containingDocument: XFormsContainingDocu
         allowDuplicates   = false  // no need for duplicates
       )
 
-  def addAsynchronousSubmission(callable: Callable[SubmissionResult]): Unit = {
+  def addAsynchronousSubmission(submissionEffectiveId: String, callable: Callable[SubmissionResult]): Unit = {
     val asynchronousSubmissionsOpt =
       findAsynchronousSubmissions(
         create = true,
@@ -71,6 +84,7 @@ class AsynchronousSubmissionManager(val containingDocument: XFormsContainingDocu
     // - OR provide an explicit hint on xf:submission
     asynchronousSubmissionsOpt foreach {
       _.submit(
+        submissionEffectiveId,
         {
           // Make sure this is created at the time `submit` is called
           // Should we use `AsyncExternalContext` here?
@@ -110,7 +124,8 @@ class AsynchronousSubmissionManager(val containingDocument: XFormsContainingDocu
     * asynchronous submissions to be started, also wait for the completion of those.
     *
     * Submissions are processed in the order in which they are made available upon termination by the completion
-    * service.
+    * service. Submissions still running after `oxf.xforms.asynchronous-submission.timeout` are cancelled, and
+    * processed as failed.
     */
   def processAllAsynchronousSubmissions(): Unit = {
 
@@ -125,18 +140,25 @@ class AsynchronousSubmissionManager(val containingDocument: XFormsContainingDocu
       withDebug("processing all background asynchronous submissions") {
         var processedCount = 0
         try {
+          val timeout = submissionTimeout
+
           while (asynchronousSubmission.pendingCount > 0) {
 
             // Handle next completed task
-            val result = asynchronousSubmission.take().get()
-
-            // Process response by dispatching an event to the submission
-            val submission =
-              containingDocument.getObjectByEffectiveId(result.submissionEffectiveId).asInstanceOf[XFormsModelSubmission]
-
-            submission.doSubmitReplace(result)
-
-            processedCount += 1
+            val completedOpt =
+              if (timeout > 0)
+                asynchronousSubmission.poll(timeout)
+              else
+                Some(asynchronousSubmission.take())
+
+            completedOpt match {
+              case Some(completed) ⇒
+                processCompleted(completed)
+                processedCount += 1
+              case None ⇒
+                // Nothing completed during the timeout, so all pending submissions have timed out
+                asynchronousSubmission.cancelExpired(timeout)
+            }
           }
         } finally
           debugResults(List("processed" → processedCount.toString))
@@ -149,7 +171,8 @@ class AsynchronousSubmissionManager(val containingDocument: XFormsContainingDocu
     * available.
     *
     * Submissions are processed in the order in which they are made available upon termination by the completion
-    * service.
+    * service. Submissions still running after `oxf.xforms.asynchronous-submission.timeout` are cancelled, and
+    * processed as failed.
     */
   def processCompletedAsynchronousSubmissions(): Unit = {
 
@@ -162,50 +185,126 @@ class AsynchronousSubmissionManager(val containingDocument: XFormsContainingDocu
     asynchronousSubmissionsOpt filter (_.pendingCount > 0) foreach { asynchronousSubmissions ⇒
       withDebug("processing completed background asynchronous submissions") {
         var processedCount = 0
+        var totalLatency   = 0L
         try {
-          var future = asynchronousSubmissions.poll()
-          while (future.isDefined) {
-
-            val result = future.get.get()
+          val timeout = submissionTimeout
+          if (timeout > 0)
+            asynchronousSubmissions.cancelExpired(timeout)
 
-            val submission =
-              containingDocument.getObjectByEffectiveId(result.submissionEffectiveId).asInstanceOf[XFormsModelSubmission]
+          var completedOpt = asynchronousSubmissions.poll()
+          while (completedOpt.isDefined) {
 
-            submission.doSubmitReplace(result)
+            processCompleted(completedOpt.get)
 
             processedCount += 1
+            totalLatency   += completedOpt.get.latency
 
-            future = asynchronousSubmissions.poll()
+            completedOpt = asynchronousSubmissions.poll()
           }
-        } finally
+        } finally {
+
+          val stats = containingDocument.getRequestStats
+          stats.addCounter("asynchronous submissions completed", processedCount)
+          stats.addCounter("asynchronous submissions latency", totalLatency)
+
           debugResults(
             List(
-              "processed" → processedCount.toString,
-              "pending"  → asynchronousSubmissions.pendingCount.toString
+              "processed"      → processedCount.toString,
+              "pending"        → asynchronousSubmissions.pendingCount.toString,
+              "waiting"        → asynchronousSubmissions.waitingCount.toString,
+              "waiting global" → globalExecutor.waitingCount.toString,
+              "mean latency"   → (if (processedCount > 0) (totalLatency / processedCount).toString else "")
             )
           )
+        }
       }
     }
   }
+
+  // Process the response by dispatching an event to the submission
+  private def processCompleted(completed: Completed): Unit = {
+
+    val result =
+      try
+        completed.future.get()
+      catch {
+        case _: CancellationException ⇒
+          SubmissionResult(
+            completed.submissionEffectiveId,
+            Right(new OXFException(s"Asynchronous submission timed out after ${completed.latency} ms")),
+            null
+          )
+      }
+
+    val submission =
+      containingDocument.getObjectByEffectiveId(result.submissionEffectiveId).asInstanceOf[XFormsModelSubmission]
+
+    submission.doSubmitReplace(result)
+  }
 }
 
 private object AsynchronousSubmissionManager {
 
   val AsyncSubmissionsSessionKeyPrefix = "oxf.xforms.state.async-submissions."
 
-  // Global thread pool if none provided by the app server
-  private lazy val threadPool = Executors.newCachedThreadPool
+  private val MaxThreadsProperty     = "oxf.xforms.asynchronous-submission.max-threads"
+  private val MaxWaitingProperty     = "oxf.xforms.asynchronous-submission.max-waiting"
+  private val MaxPerDocumentProperty = "oxf.xforms.asynchronous-submission.max-per-document"
+  private val TimeoutProperty        = "oxf.xforms.asynchronous-submission.timeout"
+  private val VirtualThreadsProperty = "oxf.xforms.asynchronous-submission.virtual-threads"
 
-  private def getExecutorService: ExecutorService =
+  private def propertySet = Properties.instance.getPropertySet
+
+  private def submissionTimeout: Long = propertySet.getInteger(TimeoutProperty, 0).longValue
+
+  // If the app server gives us an `ExecutorService` (e.g. with WildFly), use it
+  // (See §EE.5.21, page 146 of the Java EE 7 spec)
+  // If no `ExecutorService` is provided by the app server (e.g. with Tomcat), use our own threads
+  private lazy val underlyingExecutor: Executor =
     try {
-      // If the app server gives us an `ExecutorService` (e.g. with WildFly), use it
-      // (See §EE.5.21, page 146 of the Java EE 7 spec)
       InitialContext.doLookup[ManagedExecutorService]("java:comp/DefaultManagedExecutorService")
     } catch {
       case _: NamingException ⇒
-        // If no `ExecutorService` is provided by the app server (e.g. with Tomcat), use our global thread pool
-        threadPool
+        if (propertySet.getBoolean(VirtualThreadsProperty, default = false))
+          virtualThreadFactory match {
+            case Some(threadFactory) ⇒
+              new Executor {
+                def execute(runnable: Runnable): Unit = threadFactory.newThread(runnable).start()
+              }
+            case None ⇒
+              Executors.newCachedThreadPool(platformThreadFactory)
+          }
+        else
+          Executors.newCachedThreadPool(platformThreadFactory)
+    }
+
+  lazy val globalExecutor =
+    new BoundedExecutor(
+      underlyingExecutor,
+      propertySet.getInteger(MaxThreadsProperty, 64).intValue max 1,
+      propertySet.getInteger(MaxWaitingProperty, 1000).intValue max 0
+    )
+
+  private val platformThreadFactory = new ThreadFactory {
+
+    private val threadNumber = new AtomicInteger(0)
+
+    def newThread(runnable: Runnable): Thread = {
+      val thread = new Thread(runnable, "orbeon-async-submission-" + threadNumber.incrementAndGet())
+      thread.setDaemon(true)
+      thread
     }
+  }
+
+  // Virtual threads are only available with Java 21 and newer, while we compile for Java 8
+  private def virtualThreadFactory: Option[ThreadFactory] =
+    Try {
+      val builderClass = Class.forName("java.lang.Thread$Builder")
+      val builder      = classOf[Thread].getMethod("ofVirtual").invoke(null)
+      val namedBuilder =
+        builderClass.getMethod("name", classOf[String], java.lang.Long.TYPE).invoke(builder, "orbeon-async-submission-", Long.box(0L))
+      builderClass.getMethod("factory").invoke(namedBuilder).asInstanceOf[ThreadFactory]
+    }.toOption
 
   def sessionKey(doc: XFormsContainingDocument): String = AsyncSubmissionsSessionKeyPrefix + doc.getUUID
 
@@ -223,14 +322,104 @@ private object AsynchronousSubmissionManager {
     }
   }
 
-  class AsynchronousSubmissions extends Externalizable {
+  // Runs at most `maxRunning` tasks at a time on `underlying`, and queues at most `maxWaiting` other tasks. When the
+  // queue is full, tasks run in the thread submitting them, which is the thread making the submission.
+  //
+  // When `underlying` is itself a `BoundedExecutor`, tasks started from a worker thread when another task completes
+  // are queued by `underlying` even if its queue is full, as running them in the worker thread would exceed its
+  // `maxRunning` and nest tasks. This only happens for tasks which were already accepted and waiting.
+  class BoundedExecutor(underlying: Executor, maxRunning: Int, maxWaiting: Int) extends Executor {
+
+    private var running = 0
+    private val waiting = new ju.ArrayDeque[Runnable]
+
+    def execute(task: Runnable): Unit =
+      submit(task, callerRuns = true)
+
+    def enqueue(task: Runnable): Unit =
+      submit(task, callerRuns = false)
+
+    def runningCount: Int = synchronized(running)
+    def waitingCount: Int = synchronized(waiting.size)
+
+    private def submit(task: Runnable, callerRuns: Boolean): Unit = {
+
+      val (start, runInCaller) =
+        synchronized {
+          if (running < maxRunning) {
+            running += 1
+            (true, false)
+          } else if (waiting.size < maxWaiting || ! callerRuns) {
+            waiting.addLast(task)
+            (false, false)
+          } else
+            (false, true)
+        }
+
+      if (start)
+        startTask(task, fromSubmitter = callerRuns)
+      else if (runInCaller)
+        task.run()
+    }
+
+    private def startTask(task: Runnable, fromSubmitter: Boolean): Unit = {
+
+      val wrappedTask =
+        new Runnable {
+          def run(): Unit =
+            try
+              task.run()
+            finally
+              taskCompleted()
+        }
+
+      try
+        underlying match {
+          case bounded: BoundedExecutor if ! fromSubmitter ⇒ bounded.enqueue(wrappedTask)
+          case _                                            ⇒ underlying.execute(wrappedTask)
+        }
+      catch {
+        case e: RejectedExecutionException ⇒
+          taskCompleted()
+          throw e
+      }
+    }
+
+    private def taskCompleted(): Unit = {
+      val nextOpt =
+        synchronized {
+          val next = waiting.pollFirst()
+          if (next eq null)
+            running -= 1
+          Option(next)
+        }
+      nextOpt foreach (startTask(_, fromSubmitter = false))
+    }
+  }
+
+  case class Completed(future: Future[SubmissionResult], submissionEffectiveId: String, latency: Long)
+
+  class AsynchronousSubmissions(executor: BoundedExecutor) extends Externalizable {
+
+    def this() =
+      this(new BoundedExecutor(globalExecutor, propertySet.getInteger(MaxPerDocumentProperty, 4).intValue max 1, Int.MaxValue))
+
+    private val completionService = new ExecutorCompletionService[SubmissionResult](executor)
 
-    private val completionService = new ExecutorCompletionService[SubmissionResult](getExecutorService)
+    // Submission effective id and time of submission of the submissions not yet processed
+    private val pending = new ConcurrentHashMap[Future[SubmissionResult], (String, Long)]
 
-    private var _pendingCount = 0
-    def pendingCount = _pendingCount
+    // Submissions cancelled after they timed out, and not yet processed
+    private val expired = new ju.ArrayDeque[Completed]
 
-    def submit(task: () ⇒ SubmissionResult): Future[SubmissionResult] = {
+    def pendingCount: Int = pending.size + expired.size
+
+    // Submissions waiting for a thread because of the limit per document
+    def waitingCount: Int = executor.waitingCount
+
+    def submit(submissionEffectiveId: String, task: () ⇒ SubmissionResult): Future[SubmissionResult] = {
+
+      val submitted = System.currentTimeMillis
 
       val future = completionService.submit(
         new Callable[SubmissionResult]() {
@@ -238,22 +427,51 @@ private object AsynchronousSubmissionManager {
         }
       )
 
-      _pendingCount += 1
+      pending.put(future, (submissionEffectiveId, submitted))
       future
     }
 
-    def poll(): Option[Future[SubmissionResult]] =
-      Option(completionService.poll()) map { f ⇒
-        _pendingCount -= 1
-        f
+    def poll(): Option[Completed] =
+      nextCompleted(() ⇒ completionService.poll())
+
+    def poll(timeout: Long): Option[Completed] =
+      nextCompleted(() ⇒ completionService.poll(timeout, TimeUnit.MILLISECONDS))
+
+    def take(): Completed =
+      nextCompleted(() ⇒ completionService.take()).get
+
+    // Cancel submissions still running after the timeout, which are then returned first as completed
+    def cancelExpired(timeout: Long): Unit = {
+      val now = System.currentTimeMillis
+      for {
+        (future, (submissionEffectiveId, submitted)) ← pending.asScala.toList
+        if now - submitted >= timeout && ! future.isDone
+      } {
+        future.cancel(true)
+        pending.remove(future)
+        expired.addLast(Completed(future, submissionEffectiveId, now - submitted))
       }
-
-    def take(): Future[SubmissionResult] = {
-      val f = completionService.take()
-      _pendingCount -= 1
-      f
     }
 
+    // The completion service also returns the futures of expired submissions once they stop running, and these are
+    // skipped as they have already been returned
+    private def nextCompleted(nextFuture: () ⇒ Future[SubmissionResult]): Option[Completed] =
+      Option(expired.pollFirst()) orElse {
+        var result: Option[Completed] = None
+        var done = false
+        while (! done)
+          Option(nextFuture()) match {
+            case None ⇒
+              done = true
+            case Some(future) ⇒
+              Option(pending.remove(future)) foreach { case (submissionEffectiveId, submitted) ⇒
+                result = Some(Completed(future, submissionEffectiveId, System.currentTimeMillis - submitted))
+                done   = true
+              }
+          }
+        result
+      }
+
     // So that this can be stored in session that require `Serializable`
     def writeExternal(out: ObjectOutput) = ()
     def readExternal(in: ObjectInput)    = ()
@@ -77,7 +77,7 @@ abstract class BaseSubmission(val submission: XFormsModelSubmission) extends Sub
   ): SubmissionResult =
     if (p2.isAsynchronous) {
       // Tell XFCD that we have one more async submission
-      containingDocument.getAsynchronousSubmissionManager(true).addAsynchronousSubmission(callable)
+      containingDocument.getAsynchronousSubmissionManager(true).addAsynchronousSubmission(submission.getEffectiveId, callable)
       // Tell caller he doesn't need to do anything
       null
     }  else if (p.isDeferredSubmissionSecondPass) {
@@ -258,7 +258,7 @@ class XBLBindings(
         )
       )
 
-      (templateOutput, extractorDocument.getDocument)
+      (templateOutput.freeze(), extractorDocument.getDocument)
     }
 
     if (logShadowTrees)
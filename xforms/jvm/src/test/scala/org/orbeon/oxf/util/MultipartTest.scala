@@ -74,7 +74,7 @@ class MultipartTest extends ResourceManagerSupport with FunSpecLike {
     def getContentLength     = -1 // this won't be used anyway
   }
 
-  def newRead(session: Session, maxSize: Long): (List[(String, AnyRef)], Option[String]) = {
+  def newRead(session: Session, maxSize: Long, sink: UploadSink = UploadSink.Temporary): (List[(String, AnyRef)], Option[String]) = {
 
     val uploadContext = newTrustedUploadContext(body)
 
@@ -89,7 +89,8 @@ class MultipartTest extends ResourceManagerSupport with FunSpecLike {
         ),
         MaximumSize.unapply(maxSize.toString) getOrElse LimitedSize(0L),
         ExternalContext.StandardHeaderCharacterEncoding,
-        0
+        0,
+        sink
       )
 
     (pairs map { case (a, b) ⇒ a → convertFileItemContent(b) }, throwableOpt map (_.getClass.getName))
@@ -139,6 +140,33 @@ class MultipartTest extends ResourceManagerSupport with FunSpecLike {
     }
   }
 
+  describe("Streaming a multipart request to a sink") {
+
+    def read(needsDigestParam: Boolean): List[(Option[String], Long)] = {
+
+      val completed = m.ListBuffer[(Option[String], Long)]()
+
+      val sink = new UploadSink {
+        val needsDigest = needsDigestParam
+        def createItem(fieldName: String, contentType: String, fileName: String, maxMemorySize: Int) =
+          UploadSink.Temporary.createItem(fieldName, contentType, fileName, maxMemorySize)
+        def complete(fileItem: DiskFileItem, digestOpt: Option[String], size: Long) =
+          completed += digestOpt → size
+      }
+
+      newRead(new SimpleSession(SecureUtils.randomHexId), -1L, sink)
+      completed.toList
+    }
+
+    it("must pass the digest and size of the content upon completion") {
+      assert(List(Some(SecureUtils.digestBytes(miserables, "SHA-256", "hex")) → 8000L) === read(needsDigestParam = true))
+    }
+
+    it("must not hash the content if the sink doesn't need the digest") {
+      assert(List(None → 8000L) === read(needsDigestParam = false))
+    }
+  }
+
   describe("Parsing a multipart request which exceeds the maximum size specified") {
 
     val MustFailWithLimits = List(0, 4097, 8000)// NOTE: any value under 4096 is the same as 4096 (buffer size)
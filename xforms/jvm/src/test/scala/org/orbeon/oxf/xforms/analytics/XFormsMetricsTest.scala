@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analytics
+
+import java.lang.management.ManagementFactory
+
+import javax.management.ObjectName
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.mutable
+
+class XFormsMetricsTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+  @Test def publishRequestMetrics(): Unit = {
+
+    val received = mutable.ListBuffer[RequestMetrics]()
+
+    val registry = new MetricsRegistry {
+      def requestCompleted(metrics: RequestMetrics): Unit = received += metrics
+      def stateStored(time: Long): Unit = ()
+    }
+
+    XFormsMetrics.addRegistry(registry)
+    try {
+      val requestCountBefore = XFormsMetrics.aggregate.getRequestCount
+
+      val stats = new RequestStatsImpl(logStats = false, publishMetrics = true)
+
+      stats.addXPathStat("foo", 10)
+      stats.addXPathStat("foo", 20)
+      stats.withPhase(Phase.Recalculate)(Thread.sleep(2))
+      stats.addControlsDiffed(3)
+      stats.addResponseBytes(1000)
+      stats.addCounter("LHHA evaluations", 5)
+      stats.afterUpdateResponse()
+
+      assert(received.size === 1)
+
+      val metrics = received.head
+      assert(metrics.xpathStats === List(XPathStat("foo", 2, 30)))
+      assert(metrics.phaseTimes(Phase.Recalculate) >= 2000)
+      assert(! metrics.phaseTimes.contains(Phase.Rebuild))
+      assert(metrics.controlsDiffed === 3)
+      assert(metrics.responseBytes === 1000)
+      assert(metrics.counters === Map("LHHA evaluations" → 5L))
+
+      assert(XFormsMetrics.aggregate.getRequestCount === requestCountBefore + 1)
+      assert(XFormsMetrics.aggregate.getTopXPathByTotalTime exists (_ contains "expr: foo"))
+
+      // Aggregate metrics are available through JMX
+      val requestCount =
+        ManagementFactory.getPlatformMBeanServer.getAttribute(new ObjectName(XFormsMetrics.MBeanName), "RequestCount")
+
+      assert(requestCount === XFormsMetrics.aggregate.getRequestCount)
+    } finally
+      XFormsMetrics.removeRegistry(registry)
+  }
+
+  @Test def unregisterMBean(): Unit = {
+
+    val mbeanServer = ManagementFactory.getPlatformMBeanServer
+    val objectName  = new ObjectName(XFormsMetrics.MBeanName)
+
+    XFormsMetrics.stateStored(10)
+    assert(mbeanServer.isRegistered(objectName))
+
+    // As when the web app is destroyed
+    XFormsMetrics.unregisterMBean()
+    assert(! mbeanServer.isRegistered(objectName))
+
+    // Registered again on next use, as when the web app is started again in the same class loader
+    XFormsMetrics.stateStored(10)
+    assert(mbeanServer.isRegistered(objectName))
+  }
+}
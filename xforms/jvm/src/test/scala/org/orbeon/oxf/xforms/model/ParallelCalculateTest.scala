@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.model
+
+import org.junit.{Assume, Test}
+import org.orbeon.dom
+import org.orbeon.oxf.common.Version
+import org.orbeon.oxf.test.{DocumentTestBase, XFormsSupport}
+import org.orbeon.oxf.xforms.analysis.model.DependencyAnalyzer.EvaluationStratum
+import org.orbeon.oxf.xforms.analysis.model.Model
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.language.postfixOps
+
+class ParallelCalculateTest extends DocumentTestBase with XFormsSupport with AssertionsForJUnit {
+
+  private def formDocument(parallel: Boolean): dom.Document =
+    <xh:html
+      xmlns:xh="http://www.w3.org/1999/xhtml"
+      xmlns:xf="http://www.w3.org/2002/xforms"
+      xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+      <xh:head>
+        <xf:model
+          id="model"
+          xxf:xpath-analysis="true"
+          xxf:analysis.calculate="true"
+          xxf:calculate.parallel={parallel.toString}
+          xxf:calculate.parallel.min-nodes="1">
+          <xf:instance id="instance">
+            <data>
+              {
+                for (i ← 1 to 200)
+                  yield
+                    <item>
+                      <name>{s"item-$i"}</name>
+                      <price>{i % 17}</price>
+                      <quantity>{i % 5}</quantity>
+                      <total/>
+                      <label/>
+                      <request/>
+                    </item>
+              }
+              <grand-total/>
+            </data>
+          </xf:instance>
+          <xf:instance id="rates">
+            <rates>
+              <rate>1.5</rate>
+            </rates>
+          </xf:instance>
+          <!-- The first two calculations are in the same stratum, and the last two in the next one -->
+          <xf:bind ref="item">
+            <xf:bind ref="total" name="total" calculate="../price * ../quantity * instance('rates')/rate"/>
+            <xf:bind ref="label" name="label" calculate="concat(upper-case(../name), '-', string-length(../name))"/>
+            <xf:bind ref="request" calculate="concat($label, xxf:get-request-parameter('foo'))"/>
+          </xf:bind>
+          <xf:bind ref="grand-total" calculate="sum($total)"/>
+        </xf:model>
+      </xh:head>
+      <xh:body>
+        <xf:input id="price" ref="item[1]/price"/>
+        <xf:input id="rate" ref="instance('rates')/rate"/>
+      </xh:body>
+    </xh:html>
+
+  private def instanceAfterChanges(parallel: Boolean): List[String] =
+    withXFormsDocument(formDocument(parallel)) { _ ⇒
+      val initial = instanceToString(instance("instance").get)
+      setControlValue("price", "42")
+      val afterPrice = instanceToString(instance("instance").get)
+      setControlValue("rate", "2")
+      val afterRate = instanceToString(instance("instance").get)
+      List(initial, afterPrice, afterRate)
+    }
+
+  @Test def sameResultsAsSequential(): Unit = {
+    Assume.assumeTrue(Version.isPE) // calculate dependencies are a PE feature
+
+    val sequential = instanceAfterChanges(parallel = false)
+    val parallel   = instanceAfterChanges(parallel = true)
+
+    assert(sequential === parallel)
+    assert(sequential.last.contains("<grand-total>"))
+  }
+
+  @Test def onlyContextFreeExpressionsInParallel(): Unit = {
+    Assume.assumeTrue(Version.isPE) // calculate dependencies are a PE feature
+
+    withXFormsDocument(formDocument(parallel = true)) { doc ⇒
+
+      val strata = doc.getDefaultModel.staticModel.recalculateStrata.get
+
+      def calculateMIPs(stratum: EvaluationStratum) =
+        stratum.binds flatMap (_.firstXPathMIP(Model.Calculate))
+
+      def stratumOf(expressionPart: String) =
+        strata find (calculateMIPs(_) exists (_.compiledExpression.string contains expressionPart)) get
+
+      val itemStratum    = stratumOf("../price")
+      val requestStratum = stratumOf("xxf:get-request-parameter")
+
+      assert(itemStratum ne requestStratum)
+      assert(calculateMIPs(itemStratum)    forall (_.callsContextFreeFunctionsOnly))
+      assert(calculateMIPs(requestStratum) exists (! _.callsContextFreeFunctionsOnly))
+
+      // The stratum which reads the request can't be evaluated on other threads
+      assert(itemStratum.independent)
+      assert(! requestStratum.independent)
+    }
+  }
+}
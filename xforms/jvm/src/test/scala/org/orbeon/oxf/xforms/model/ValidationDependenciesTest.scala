@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2019 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.model
+
+import org.junit.Test
+import org.orbeon.oxf.test.{DocumentTestBase, XFormsSupport}
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.scalatest.junit.AssertionsForJUnit
+
+class ValidationDependenciesTest extends DocumentTestBase with XFormsSupport with AssertionsForJUnit {
+
+  @Test def revalidateChangedNodesOnly(): Unit = {
+
+    this setupDocument
+      <xh:html
+        xmlns:xh="http://www.w3.org/1999/xhtml"
+        xmlns:xf="http://www.w3.org/2002/xforms"
+        xmlns:xs="http://www.w3.org/2001/XMLSchema">
+        <xh:head>
+          <xf:model id="model">
+            <xf:instance id="instance">
+              <data>
+                <value>1</value>
+                <value>2</value>
+                <value>3</value>
+                <total/>
+              </data>
+            </xf:instance>
+            <xf:bind ref="value" constraint=". castable as xs:integer"/>
+            <xf:bind ref="total" constraint="sum(../value[. castable as xs:integer]) lt 10"/>
+          </xf:model>
+        </xh:head>
+        <xh:body>
+          <xf:input id="value-1" ref="value[1]"/>
+          <xf:input id="value-2" ref="value[2]"/>
+          <xf:input id="total" ref="total"/>
+        </xh:body>
+      </xh:html>
+
+    val dependencies = document.getDefaultModel.getBinds.validationDependencies
+
+    assert(isValid("value-1"))
+    assert(isValid("value-2"))
+    assert(isValid("total"))
+
+    val skippedBefore = dependencies.skippedCount
+
+    setControlValue("value-1", "foo")
+
+    assert(! isValid("value-1"))
+    assert(isValid("value-2"))
+
+    // The constraints on the other values only read their own node and were not evaluated again
+    assert(dependencies.skippedCount - skippedBefore === 2)
+
+    // The constraint on the total reads other nodes and is always evaluated again
+    setControlValue("value-1", "8")
+
+    assert(isValid("value-1"))
+    assert(! isValid("total"))
+  }
+}
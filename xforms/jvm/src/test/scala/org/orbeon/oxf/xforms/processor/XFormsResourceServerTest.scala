@@ -41,4 +41,47 @@ class XFormsResourceServerTest
     }
 
   }
+
+  describe("The `acceptsGzip` function") {
+
+    val expected = List(
+      None                         → false,
+      Some("")                     → false,
+      Some("identity")             → false,
+      Some("gzip")                 → true,
+      Some("deflate, GZIP")        → true,
+      Some("gzip;q=0.5, br")       → true,
+      Some("*")                    → true,
+      Some("gzip; q=0, deflate")   → false,
+      Some("gzip;q=0.000")         → false
+    )
+
+    for ((acceptEncodingOpt, result) ← expected)
+      it(s"must return `$result` for `$acceptEncodingOpt`") {
+        assert(result === XFormsResourceServer.acceptsGzip(acceptEncodingOpt))
+      }
+  }
+
+  describe("The `ifNoneMatchMatches` function") {
+
+    val Etag     = "\"abc\""
+    val GzipEtag = "\"abc-gzip\""
+
+    val expected = List(
+      ("\"abc\"",          Etag    ) → true,
+      ("W/\"abc\"",        Etag    ) → true,
+      ("\"xyz\", \"abc\"", Etag    ) → true,
+      ("*",                Etag    ) → true,
+      ("\"abc\"",          GzipEtag) → false,
+      ("\"abc-gzip\"",     Etag    ) → false,
+      ("W/\"abc-gzip\"",   GzipEtag) → true,
+      ("\"xyz\"",          Etag    ) → false,
+      ("abc",              Etag    ) → false
+    )
+
+    for (((ifNoneMatch, etag), result) ← expected)
+      it(s"must return `$result` for `$ifNoneMatch` and `$etag`") {
+        assert(result === XFormsResourceServer.ifNoneMatchMatches(ifNoneMatch, etag))
+      }
+  }
 }
\ No newline at end of file
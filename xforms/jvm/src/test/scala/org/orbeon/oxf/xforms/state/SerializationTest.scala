@@ -13,10 +13,13 @@
  */
 package org.orbeon.oxf.xforms.state
 
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, ObjectInputStream, ObjectOutputStream}
+
 import org.junit.{Assume, Test}
 import org.orbeon.dom.Document
-import org.orbeon.oxf.common.Version
+import org.orbeon.oxf.common.{OXFException, Version}
 import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.util.IOUtils._
 import org.orbeon.oxf.xforms.XFormsStaticStateImpl
 import org.orbeon.oxf.xforms.state.XFormsOperations._
 import org.orbeon.oxf.xforms.state.XFormsProtocols._
@@ -106,6 +109,70 @@ class SerializationTest extends DocumentTestBase with AssertionsForJUnit {
       assertXMLDocumentsIgnoreNamespacesInScope(expected, actual)
   }
 
+  @Test def saxStoreLegacyFormat(): Unit = {
+
+    // Write `<value>42</value>` in the format which wrote each value separately
+    val os = new ByteArrayOutputStream
+    useAndClose(new ObjectOutputStream(os)) { out ⇒
+      import SAXStore._
+
+      val events  = Array(START_DOCUMENT, START_ELEMENT, CHARACTERS, END_ELEMENT, END_DOCUMENT)
+      val strings = List("", "value", "value", "", "value", "value")
+
+      out.writeInt(events.length)
+      out.write(events)
+      out.writeInt(2)
+      "42" foreach (out.writeChar(_))
+      out.writeInt(1) // ints
+      out.writeInt(2)
+      out.writeInt(0) // lines
+      out.writeInt(0) // system ids
+      out.writeInt(1) // attribute counts
+      out.writeInt(0)
+      out.writeInt(strings.size)
+      strings foreach out.writeObject
+      out.writeBoolean(false)
+      out.writeObject("")
+      out.writeInt(0) // marks
+    }
+
+    val saxStore = new SAXStore
+    useAndClose(new ObjectInputStream(new ByteArrayInputStream(os.toByteArray)))(saxStore.readExternal)
+
+    assert(saxStore.isFrozen)
+    assertXMLDocumentsIgnoreNamespacesInScope(<value>42</value>, TransformerUtils.saxStoreToDom4jDocument(saxStore))
+  }
+
+  @Test def frozenSAXStore(): Unit = {
+
+    val saxStore = TransformerUtils.dom4jToSAXStore(simpleDoc, false).freeze()
+
+    // Deserialized stores are frozen too
+    val deserializedSAXStore = SAXStore.fromByteArray(saxStore.toByteArray)
+    assert(deserializedSAXStore.isFrozen)
+    assertXMLDocumentsIgnoreNamespacesInScope(simpleDoc, TransformerUtils.saxStoreToDom4jDocument(deserializedSAXStore))
+
+    // Replay concurrently
+    val threads =
+      for (_ ← 1 to 4)
+        yield new Thread {
+          var result: Option[Document] = None
+          override def run(): Unit =
+            for (_ ← 1 to 10)
+              result = Some(TransformerUtils.saxStoreToDom4jDocument(saxStore))
+        }
+
+    threads foreach (_.start())
+    threads foreach (_.join())
+
+    for (thread ← threads)
+      assertXMLDocumentsIgnoreNamespacesInScope(simpleDoc, thread.result.get)
+
+    // No more events or marks
+    intercept[OXFException](saxStore.startDocument())
+    intercept[OXFException](saxStore.getMark("id"))
+  }
+
   @Test def dynamicState(): Unit = {
     val originalDoc = this setupDocument simpleDoc
 
@@ -116,6 +183,67 @@ class SerializationTest extends DocumentTestBase with AssertionsForJUnit {
     assert(serialized === deserialized)
   }
 
+  @Test def dynamicStateJavaSerialization(): Unit = {
+    val originalDoc = this setupDocument simpleDoc
+
+    // State written by older versions with Java serialization must still be readable
+    val serialized = DynamicState(originalDoc)
+    val os = new ByteArrayOutputStream
+    useAndClose(new ObjectOutputStream(os))(_.writeObject(serialized))
+
+    val deserialized = fromByteSeq[DynamicState](os.toByteArray.toSeq)
+    assert(serialized === deserialized)
+  }
+
+  @Test def documentFormats(): Unit = {
+
+    val doc: Document = <root><child attribute="value">text</child></root>
+
+    assertXMLDocumentsIgnoreNamespacesInScope(doc, fromByteSeq[Document](toByteSeq(doc)))
+
+    // Documents written as XML text before the binary format are still readable
+    val xmlText = TransformerUtils.dom4jToString(doc, false).getBytes("UTF-8")
+    assertXMLDocumentsIgnoreNamespacesInScope(doc, fromByteSeq[Document](xmlText.toSeq))
+  }
+
+  @Test def instanceContent(): Unit = {
+    val originalDoc = this setupDocument simpleDoc
+
+    val instanceStates =
+      DynamicState(originalDoc).decodeInstances map (_.cachingOrContent) collect {
+        case Right(content: BinaryInstanceContent) ⇒ content
+      }
+
+    assert(instanceStates.size === 2)
+    assert(instanceStates.head.toXMLString === "<value>0</value>")
+  }
+
+  @Test def instanceDelta(): Unit = {
+    val originalDoc = this setupDocument simpleDoc
+
+    val snapshot = DynamicState(originalDoc)
+    val journal  = new DynamicStateJournal(true, 100)
+    journal.snapshotStored(originalDoc.getSequence, DynamicState.instanceIds(originalDoc))
+
+    val instance = originalDoc.getDefaultModel.getInstance("instance")
+    instance.underlyingDocumentOpt.get.getRootElement.setText("42")
+    journal.markValueChanged(instance, instance.rootElement)
+
+    assert(journal.canStoreDelta(DynamicState.instanceIds(originalDoc)))
+
+    val delta    = fromByteSeq[DynamicState](toByteSeq(DynamicState.delta(originalDoc, journal)))
+    val restored = DynamicState.applyDelta(snapshot, delta)
+
+    def contents(state: DynamicState) =
+      state.decodeInstances map (_.cachingOrContent) collect { case Right(content) ⇒ content.toXMLString }
+
+    assert(contents(restored) === List("<value>42</value>", "<value>en</value>"))
+    assert(contents(restored) === contents(DynamicState(originalDoc)))
+
+    journal.markStructuralChange()
+    assert(! journal.canStoreDelta(DynamicState.instanceIds(originalDoc)))
+  }
+
   @Test def template(): Unit = {
 
     Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
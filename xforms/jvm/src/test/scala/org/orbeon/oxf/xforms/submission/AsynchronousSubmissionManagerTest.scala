@@ -0,0 +1,212 @@
+/**
+  * Copyright (C) 2019 Orbeon, Inc.
+  *
+  * This program is free software; you can redistribute it and/or modify it under the terms of the
+  * GNU Lesser General Public License as published by the Free Software Foundation; either version
+  * 2.1 of the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+  * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+  * See the GNU Lesser General Public License for more details.
+  *
+  * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+  */
+package org.orbeon.oxf.xforms.submission
+
+import java.util.concurrent._
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+
+import org.junit.Test
+import org.orbeon.oxf.xforms.submission.AsynchronousSubmissionManager._
+import org.scalatest.junit.AssertionsForJUnit
+
+import scala.collection.JavaConverters._
+
+class AsynchronousSubmissionManagerTest extends AssertionsForJUnit {
+
+  // Tasks which block until released, and record how many of them run at a time
+  class BlockingTasks {
+
+    val release     = new CountDownLatch(1)
+    val completed   = new AtomicInteger(0)
+    val concurrent  = new AtomicInteger(0)
+    val maxParallel = new AtomicInteger(0)
+
+    def newTask(): Runnable =
+      new Runnable {
+        def run(): Unit = {
+          maxParallel.accumulateAndGet(concurrent.incrementAndGet(), (a, b) ⇒ a max b)
+          try
+            release.await(10, TimeUnit.SECONDS)
+          finally {
+            concurrent.decrementAndGet()
+            completed.incrementAndGet()
+          }
+        }
+      }
+  }
+
+  // Identifies each runnable run by the thread pool, so that tests can tell whether tasks run nested in another one
+  class IdentifyingExecutor(pool: ExecutorService) extends Executor {
+
+    private val nextId = new AtomicLong(0)
+    val currentId = new ThreadLocal[Long]
+
+    def execute(runnable: Runnable): Unit =
+      pool.execute(
+        new Runnable {
+          def run(): Unit = {
+            currentId.set(nextId.incrementAndGet())
+            runnable.run()
+          }
+        }
+      )
+  }
+
+  private def withPool(body: ExecutorService ⇒ Unit): Unit = {
+    val pool = Executors.newCachedThreadPool()
+    try
+      body(pool)
+    finally
+      pool.shutdownNow()
+  }
+
+  private def waitFor(condition: ⇒ Boolean): Unit = {
+    val end = System.currentTimeMillis + 10000
+    while (! condition && System.currentTimeMillis < end)
+      Thread.sleep(5)
+    assert(condition)
+  }
+
+  @Test def testGlobalLimit(): Unit =
+    withPool { pool ⇒
+      val executor = new BoundedExecutor(pool, 2, 10)
+      val tasks    = new BlockingTasks
+
+      for (_ ← 1 to 5)
+        executor.execute(tasks.newTask())
+
+      waitFor(tasks.concurrent.get == 2)
+      assert(executor.runningCount === 2)
+      assert(executor.waitingCount === 3)
+
+      tasks.release.countDown()
+      waitFor(tasks.completed.get == 5)
+      waitFor(executor.runningCount == 0)
+
+      assert(tasks.maxParallel.get === 2)
+      assert(executor.waitingCount === 0)
+    }
+
+  @Test def testPerDocumentLimit(): Unit =
+    withPool { pool ⇒
+      val global    = new BoundedExecutor(pool, 4, 10)
+      val document1 = new BoundedExecutor(global, 1, Int.MaxValue)
+      val document2 = new BoundedExecutor(global, 1, Int.MaxValue)
+      val tasks1    = new BlockingTasks
+      val tasks2    = new BlockingTasks
+
+      for (_ ← 1 to 3) {
+        document1.execute(tasks1.newTask())
+        document2.execute(tasks2.newTask())
+      }
+
+      waitFor(tasks1.concurrent.get == 1 && tasks2.concurrent.get == 1)
+      assert(document1.waitingCount === 2)
+      assert(document2.waitingCount === 2)
+      assert(global.runningCount === 2)
+      assert(global.waitingCount === 0)
+
+      tasks1.release.countDown()
+      tasks2.release.countDown()
+      waitFor(tasks1.completed.get == 3 && tasks2.completed.get == 3)
+      waitFor(global.runningCount == 0)
+
+      assert(tasks1.maxParallel.get === 1)
+      assert(tasks2.maxParallel.get === 1)
+    }
+
+  @Test def testQueueOverflowRunsInSubmittingThread(): Unit =
+    withPool { pool ⇒
+      val executor = new BoundedExecutor(pool, 1, 1)
+      val tasks    = new BlockingTasks
+
+      executor.execute(tasks.newTask())
+      executor.execute(tasks.newTask())
+      waitFor(tasks.concurrent.get == 1)
+      assert(executor.waitingCount === 1)
+
+      val submittingThread = Thread.currentThread
+      var runningThread: Thread = null
+      executor.execute(
+        new Runnable {
+          def run(): Unit = runningThread = Thread.currentThread
+        }
+      )
+      assert(runningThread eq submittingThread)
+
+      tasks.release.countDown()
+      waitFor(tasks.completed.get == 2)
+    }
+
+  @Test def testWaitingDocumentTaskDoesNotRunInWorkerThread(): Unit =
+    withPool { pool ⇒
+      val identifying = new IdentifyingExecutor(pool)
+      val global      = new BoundedExecutor(identifying, 1, 0)
+      val document    = new BoundedExecutor(global, 1, Int.MaxValue)
+      val tasks       = new BlockingTasks
+      val taskIds     = new ConcurrentLinkedQueue[Long]
+
+      def newTask(): Runnable = {
+        val task = tasks.newTask()
+        new Runnable {
+          def run(): Unit = {
+            taskIds.add(identifying.currentId.get)
+            task.run()
+          }
+        }
+      }
+
+      // The second task waits for the first one to complete, and then for the global slot the first one still holds,
+      // even though the global queue is full
+      document.execute(newTask())
+      document.execute(newTask())
+      waitFor(tasks.concurrent.get == 1)
+      assert(document.waitingCount === 1)
+
+      tasks.release.countDown()
+      waitFor(tasks.completed.get == 2)
+      waitFor(global.runningCount == 0)
+
+      val List(firstId, secondId) = taskIds.asScala.toList
+      assert(firstId !== secondId)
+      assert(tasks.maxParallel.get === 1)
+      assert(global.waitingCount === 0)
+    }
+
+  @Test def testCancelExpired(): Unit =
+    withPool { pool ⇒
+      val submissions = new AsynchronousSubmissions(new BoundedExecutor(pool, 2, Int.MaxValue))
+      val release     = new CountDownLatch(1)
+
+      submissions.submit("slow", () ⇒ { release.await(10, TimeUnit.SECONDS); null })
+      val fast = submissions.submit("fast", () ⇒ null)
+
+      waitFor(fast.isDone)
+      Thread.sleep(50)
+      submissions.cancelExpired(20)
+
+      // The cancelled submission is returned first, and only once
+      val expired = submissions.poll()
+      assert(expired.map(_.submissionEffectiveId) === Some("slow"))
+      assert(expired.get.future.isCancelled)
+      assert(expired.get.latency >= 20)
+
+      val completed = submissions.poll(10000)
+      assert(completed.map(_.submissionEffectiveId) === Some("fast"))
+      assert(! completed.get.future.isCancelled)
+
+      assert(submissions.pendingCount === 0)
+      assert(submissions.poll(100).isEmpty)
+    }
+}